@@ -0,0 +1,163 @@
+package tp1.impl.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+
+/**
+ *
+ * Measures sheets of running aggregates (SUM, AVERAGE, MIN, MAX and COUNT of A1:An in row n) computed by the
+ * native engine with and without the column aggregates, and by GemBox. Also measures the recomputation after
+ * updating the first number, which changes every aggregate, and checks that all computations agree.
+ *
+ * Usage: java tp1.impl.engine.AggregateBenchmark [rows] [iterations]
+ *
+ */
+public class AggregateBenchmark {
+
+	private static final int WARMUP = 3;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		String[][] raw = aggregatesSheet(rows);
+		AbstractSpreadsheet sheet = sheet(raw);
+
+		System.out.printf("sheet: %d x %d\n", sheet.rows(), sheet.columns());
+
+		ColumnAggregates.enabled = false;
+		String[][] expected = new SheetGraph(sheet.rows(), sheet.columns(), ForkJoinPool.commonPool()).compute(sheet);
+		double scan = measure(sheet, iterations);
+		double scanUpdate = measureUpdate(raw, sheet, iterations);
+
+		ColumnAggregates.enabled = true;
+		String[][] values = new SheetGraph(sheet.rows(), sheet.columns(), ForkJoinPool.commonPool()).compute(sheet);
+		double indexed = measure(sheet, iterations);
+		double indexedUpdate = measureUpdate(raw, sheet, iterations);
+
+		System.out.printf("native, scanning: %9.2f ms; after an update: %9.2f ms\n", scan, scanUpdate);
+		System.out.printf("native, indexed:  %9.2f ms; after an update: %9.2f ms; speedup: %.1f / %.1f  %s\n", indexed,
+				indexedUpdate, scan / indexed, scanUpdate / indexedUpdate,
+				Arrays.deepEquals(expected, values) ? "ok" : "MISMATCH");
+
+		SpreadsheetEngine gembox = SpreadsheetEngines.getEngine("gembox");
+		try {
+			String[][] gemboxValues = gembox.computeSpreadsheetValues(sheet);
+			double time = measure(gembox, sheet, iterations);
+			System.out.printf("gembox:           %9.2f ms  %s\n", time,
+					Arrays.deepEquals(expected, gemboxValues) ? "ok" : "differs");
+		} catch (RuntimeException | LinkageError e) {
+			System.out.println("gembox unavailable: " + e);
+		}
+	}
+
+	/**
+	 * Returns the median time, in milliseconds, of a full computation of the sheet by the native engine.
+	 */
+	private static double measure(AbstractSpreadsheet sheet, int iterations) throws Exception {
+		double[] times = new double[iterations];
+
+		for (int i = -WARMUP; i < iterations; i++) {
+			SheetGraph graph = new SheetGraph(sheet.rows(), sheet.columns(), ForkJoinPool.commonPool());
+
+			long start = System.nanoTime();
+			graph.compute(sheet);
+			long elapsed = System.nanoTime() - start;
+
+			if (i >= 0)
+				times[i] = elapsed / 1e6;
+		}
+
+		Arrays.sort(times);
+		return times[iterations / 2];
+	}
+
+	private static double measure(SpreadsheetEngine engine, AbstractSpreadsheet sheet, int iterations) {
+		double[] times = new double[iterations];
+
+		for (int i = -WARMUP; i < iterations; i++) {
+			long start = System.nanoTime();
+			engine.computeSpreadsheetValues(sheet);
+			long elapsed = System.nanoTime() - start;
+
+			if (i >= 0)
+				times[i] = elapsed / 1e6;
+		}
+
+		Arrays.sort(times);
+		return times[iterations / 2];
+	}
+
+	/**
+	 * Returns the median time, in milliseconds, of the recomputation of the sheet after updating A1.
+	 */
+	private static double measureUpdate(String[][] raw, AbstractSpreadsheet sheet, int iterations) throws Exception {
+		double[] times = new double[iterations];
+		SheetGraph graph = new SheetGraph(sheet.rows(), sheet.columns(), ForkJoinPool.commonPool());
+		graph.compute(sheet);
+
+		for (int i = -WARMUP; i < iterations; i++) {
+			raw[0][0] = Integer.toString(1000 + i);
+			graph.invalidate(0, 0);
+
+			long start = System.nanoTime();
+			graph.compute(sheet);
+			long elapsed = System.nanoTime() - start;
+
+			if (i >= 0)
+				times[i] = elapsed / 1e6;
+		}
+		raw[0][0] = "0";
+
+		Arrays.sort(times);
+		return times[iterations / 2];
+	}
+
+	private static String[][] aggregatesSheet(int rows) {
+		String[][] raw = new String[rows][6];
+
+		for (int row = 0; row < rows; row++) {
+			int r = row + 1;
+			raw[row][0] = Integer.toString((row * 7919) % 1000);
+			raw[row][1] = String.format("=SUM(A1:A%d)", r);
+			raw[row][2] = String.format("=AVERAGE(A1:A%d)", r);
+			raw[row][3] = String.format("=MIN(A1:A%d)", r);
+			raw[row][4] = String.format("=MAX(A1:A%d)", r);
+			raw[row][5] = String.format("=COUNT(A1:A%d)", r);
+		}
+		return raw;
+	}
+
+	private static AbstractSpreadsheet sheet(String[][] raw) {
+		return new AbstractSpreadsheet() {
+
+			@Override
+			public String sheetId() {
+				return "benchmark-aggregates";
+			}
+
+			@Override
+			public int rows() {
+				return raw.length;
+			}
+
+			@Override
+			public int columns() {
+				return raw.length == 0 ? 0 : raw[0].length;
+			}
+
+			@Override
+			public String cellRawValue(int row, int col) {
+				return raw[row][col];
+			}
+
+			@Override
+			public String[][] getRangeValues(String sheetURL, String range) {
+				return null;
+			}
+		};
+	}
+}
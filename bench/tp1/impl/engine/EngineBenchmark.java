@@ -0,0 +1,193 @@
+package tp1.impl.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.api.engine.SpreadsheetEngineProvider;
+
+/**
+ *
+ * Runs every available engine on the same corpus of sheets. Checks that each engine computes the same values as
+ * the reference engine (the first one, "native" by default), and measures the median time of a full computation.
+ *
+ * Usage: java tp1.impl.engine.EngineBenchmark [rows] [iterations] [reference engine]
+ *
+ */
+public class EngineBenchmark {
+
+	private static final int WARMUP = 3;
+	private static final int MAX_REPORTED_MISMATCHES = 5;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		String reference = args.length > 2 ? args[2] : SpreadsheetEngines.DEFAULT_ENGINE;
+
+		List<SpreadsheetEngineProvider> providers = SpreadsheetEngines.providers();
+		List<AbstractSpreadsheet> corpus = corpus(rows);
+
+		SpreadsheetEngine referenceEngine = SpreadsheetEngines.getEngine(reference);
+		int failures = 0;
+
+		for (AbstractSpreadsheet sheet : corpus) {
+			System.out.printf("sheet %s: %d x %d\n", sheet.sheetId(), sheet.rows(), sheet.columns());
+
+			String[][] expected = compute(referenceEngine, sheet);
+
+			for (SpreadsheetEngineProvider provider : providers) {
+				SpreadsheetEngine engine = provider.engine();
+				String[][] values;
+				try {
+					values = compute(engine, sheet);
+				} catch (RuntimeException | LinkageError e) {
+					System.out.printf("  %-10s unavailable: %s\n", provider.name(), e);
+					continue;
+				}
+
+				int mismatches = compare(provider.name(), expected, values);
+				if (mismatches > 0)
+					failures++;
+
+				double time = measure(engine, sheet, iterations);
+				System.out.printf("  %-10s %9.2f ms  %s\n", provider.name(), time,
+						mismatches == 0 ? "ok" : mismatches + " mismatches");
+			}
+		}
+
+		System.out.println(failures == 0 ? "all engines conform" : failures + " engine/sheet pairs do not conform");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Computes the sheet from scratch, discarding any state the engine kept from previous computations.
+	 */
+	private static String[][] compute(SpreadsheetEngine engine, AbstractSpreadsheet sheet) {
+		engine.sheetDeleted(sheet.sheetId());
+		return engine.computeSpreadsheetValues(sheet);
+	}
+
+	/**
+	 * Returns the median time, in milliseconds, of a full computation of the sheet.
+	 */
+	private static double measure(SpreadsheetEngine engine, AbstractSpreadsheet sheet, int iterations) {
+		double[] times = new double[iterations];
+
+		for (int i = -WARMUP; i < iterations; i++) {
+			engine.sheetDeleted(sheet.sheetId());
+
+			long start = System.nanoTime();
+			engine.computeSpreadsheetValues(sheet);
+			long elapsed = System.nanoTime() - start;
+
+			if (i >= 0)
+				times[i] = elapsed / 1e6;
+		}
+
+		Arrays.sort(times);
+		return times[iterations / 2];
+	}
+
+	private static int compare(String name, String[][] expected, String[][] values) {
+		int mismatches = 0;
+		for (int row = 0; row < expected.length; row++)
+			for (int col = 0; col < expected[row].length; col++) {
+				String value = values == null || row >= values.length || col >= values[row].length ? null
+						: values[row][col];
+				if (!expected[row][col].equals(value)) {
+					if (mismatches++ < MAX_REPORTED_MISMATCHES)
+						System.out.printf("  %-10s %s%d: expected %s, got %s\n", name, columnName(col), row + 1,
+								expected[row][col], value);
+				}
+			}
+		return mismatches;
+	}
+
+	/**
+	 * The sheets every engine is run on: constants only, arithmetic chains, aggregates over ranges, and a mix of
+	 * text, booleans, conditions and errors.
+	 */
+	private static List<AbstractSpreadsheet> corpus(int rows) {
+		List<AbstractSpreadsheet> corpus = new ArrayList<AbstractSpreadsheet>();
+
+		String[][] constants = new String[rows][10];
+		for (int row = 0; row < rows; row++)
+			for (int col = 0; col < 10; col++)
+				constants[row][col] = (row * 31 + col) % 5 == 0 ? "" : Integer.toString(row * 10 + col);
+		corpus.add(sheet("constants", constants));
+
+		String[][] chains = new String[rows][8];
+		for (int row = 0; row < rows; row++) {
+			chains[row][0] = Integer.toString(row % 97);
+			for (int col = 1; col < 8; col++) {
+				String left = columnName(col - 1) + (row + 1);
+				chains[row][col] = String.format("=ROUND(SQRT(ABS(%s))*1.5+MOD(%s,7),2)", left, left);
+			}
+		}
+		corpus.add(sheet("chains", chains));
+
+		String[][] aggregates = new String[rows][5];
+		for (int row = 0; row < rows; row++) {
+			aggregates[row][0] = Integer.toString((row * 7919) % 1000);
+			aggregates[row][1] = String.format("=SUM(A1:A%d)", row + 1);
+			aggregates[row][2] = String.format("=AVERAGE(A1:A%d)", row + 1);
+			aggregates[row][3] = String.format("=MAX(A%d:A%d)", Math.max(1, row - 9), row + 1);
+			aggregates[row][4] = String.format("=COUNT(A1:B%d)", row + 1);
+		}
+		corpus.add(sheet("aggregates", aggregates));
+
+		String[][] mixed = new String[rows][6];
+		for (int row = 0; row < rows; row++) {
+			int r = row + 1;
+			mixed[row][0] = row % 3 == 0 ? "text " + row : Double.toString(row / 4.0);
+			mixed[row][1] = row % 2 == 0 ? "true" : "false";
+			mixed[row][2] = String.format("=IF(B%d, A%d, 0)", r, r);
+			mixed[row][3] = String.format("=A%d*2", r);
+			mixed[row][4] = String.format("=E%d", r);
+			mixed[row][5] = String.format("=AND(B%d, C%d>1)", r, r);
+		}
+		corpus.add(sheet("mixed", mixed));
+
+		return corpus;
+	}
+
+	private static AbstractSpreadsheet sheet(String sheetId, String[][] raw) {
+		return new AbstractSpreadsheet() {
+
+			@Override
+			public String sheetId() {
+				return "benchmark-" + sheetId;
+			}
+
+			@Override
+			public int rows() {
+				return raw.length;
+			}
+
+			@Override
+			public int columns() {
+				return raw.length == 0 ? 0 : raw[0].length;
+			}
+
+			@Override
+			public String cellRawValue(int row, int col) {
+				return raw[row][col];
+			}
+
+			@Override
+			public String[][] getRangeValues(String sheetURL, String range) {
+				return null;
+			}
+		};
+	}
+
+	private static String columnName(int col) {
+		String name = "";
+		for (col++; col > 0; col = (col - 1) / 26)
+			name = (char) ('A' + (col - 1) % 26) + name;
+		return name;
+	}
+}
@@ -0,0 +1,114 @@
+package tp1.impl.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import tp1.api.engine.AbstractSpreadsheet;
+
+/**
+ *
+ * Measures the time of a full computation of a large, formula heavy sheet by the native engine, evaluating
+ * serially and with pools of increasing parallelism.
+ *
+ * Usage: java tp1.impl.engine.ParallelEvaluationBenchmark [rows] [columns] [iterations]
+ *
+ */
+public class ParallelEvaluationBenchmark {
+
+	private static final int WARMUP = 3;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int cols = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		AbstractSpreadsheet sheet = formulaSheet(rows, cols);
+
+		System.out.printf("sheet: %d x %d; cores: %d\n", rows, cols, Runtime.getRuntime().availableProcessors());
+
+		double serial = measure(sheet, null, iterations);
+		System.out.printf("serial: %.1f ms\n", serial);
+
+		for (int parallelism = 1; parallelism <= Runtime.getRuntime().availableProcessors(); parallelism *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			double time = measure(sheet, pool, iterations);
+			pool.shutdown();
+
+			System.out.printf("parallelism %d: %.1f ms; speedup: %.2f\n", parallelism, time, serial / time);
+		}
+	}
+
+	/**
+	 * Returns the median time, in milliseconds, of a full computation of the sheet.
+	 */
+	private static double measure(AbstractSpreadsheet sheet, ForkJoinPool pool, int iterations) throws Exception {
+		double[] times = new double[iterations];
+
+		for (int i = -WARMUP; i < iterations; i++) {
+			SheetGraph graph = new SheetGraph(sheet.rows(), sheet.columns(), pool);
+
+			long start = System.nanoTime();
+			graph.compute(sheet);
+			long elapsed = System.nanoTime() - start;
+
+			if (i >= 0)
+				times[i] = elapsed / 1e6;
+		}
+
+		Arrays.sort(times);
+		return times[iterations / 2];
+	}
+
+	/**
+	 * Builds a sheet with numbers in the first column, a running sum in the second and chains of arithmetic
+	 * formulas in the others, each depending on the column to its left.
+	 */
+	private static AbstractSpreadsheet formulaSheet(int rows, int cols) {
+		String[][] raw = new String[rows][cols];
+
+		for (int row = 0; row < rows; row++) {
+			raw[row][0] = Integer.toString(row % 97);
+			if (cols > 1)
+				raw[row][1] = String.format("=SUM(A1:A%d)", row + 1);
+			for (int col = 2; col < cols; col++) {
+				String left = columnName(col - 1) + (row + 1);
+				raw[row][col] = String.format("=ROUND(SQRT(ABS(%s))*1.5+MOD(%s,7),2)", left, left);
+			}
+		}
+
+		return new AbstractSpreadsheet() {
+
+			@Override
+			public String sheetId() {
+				return "benchmark";
+			}
+
+			@Override
+			public int rows() {
+				return rows;
+			}
+
+			@Override
+			public int columns() {
+				return cols;
+			}
+
+			@Override
+			public String cellRawValue(int row, int col) {
+				return raw[row][col];
+			}
+
+			@Override
+			public String[][] getRangeValues(String sheetURL, String range) {
+				return null;
+			}
+		};
+	}
+
+	private static String columnName(int col) {
+		String name = "";
+		for (col++; col > 0; col = (col - 1) / 26)
+			name = (char) ('A' + (col - 1) % 26) + name;
+		return name;
+	}
+}
@@ -0,0 +1,117 @@
+package tp1.impl.storage;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import tp1.util.CellRange;
+import tp1.util.CellStorage;
+
+/**
+ *
+ * Compares keeping the cells of many sheets in the heap and in memory-mapped files: the heap they take, the time
+ * of a full collection with them alive, and the time to read ranges and update cells of random sheets. Also checks
+ * that both storages hold the same raw values.
+ *
+ * Usage: java tp1.impl.storage.MappedStoreBenchmark [sheets] [rows] [operations]
+ *
+ */
+public class MappedStoreBenchmark {
+
+	private static final int COLS = 50;
+
+	public static void main(String[] args) throws Exception {
+		int sheets = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int rows = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+		System.out.printf("%d sheets of %d x %d\n", sheets, rows, COLS);
+
+		CellStorage[] heap = new CellStorage[sheets];
+		measure("heap", heap, CellFiles.HEAP, rows, operations);
+		String[][] expected = heap[0].toRawValues();
+		heap = null;
+
+		CellStorage[] mapped = new CellStorage[sheets];
+		CellFiles files = new CellFiles(Files.createTempDirectory("mapped-cells"), 0);
+		measure("mapped", mapped, files, rows, operations);
+		System.out.println(Arrays.deepEquals(expected, mapped[0].toRawValues()) ? "same raw values" : "MISMATCH");
+
+		for (CellStorage cells : mapped)
+			files.release(cells);
+	}
+
+	private static void measure(String name, CellStorage[] sheets, CellFiles files, int rows, int operations) {
+		long heapBefore = usedHeap();
+
+		long start = System.nanoTime();
+		for (int s = 0; s < sheets.length; s++) {
+			sheets[s] = files.newStorage("sheet-" + s, rows, COLS);
+			fill(sheets[s], s);
+		}
+		double fillMillis = (System.nanoTime() - start) / 1e6;
+
+		long heapUsed = usedHeap() - heapBefore;
+		double gcMillis = fullGcMillis();
+
+		Random random = new Random(1);
+		start = System.nanoTime();
+		long rowsRead = 0;
+		for (int i = 0; i < operations; i++) {
+			int row = random.nextInt(rows - 10) + 1, col = random.nextInt(COLS - 5);
+			CellRange range = new CellRange(cellName(row, col) + ":" + cellName(row + 9, col + 4));
+			rowsRead += range.extractRangeValuesFrom(sheets[random.nextInt(sheets.length)]).length;
+		}
+		double readMicros = (System.nanoTime() - start) / 1e3 / operations;
+
+		start = System.nanoTime();
+		for (int i = 0; i < operations; i++) {
+			CellStorage cells = sheets[random.nextInt(sheets.length)];
+			int row = random.nextInt(rows), col = random.nextInt(COLS);
+			cells.set(row, col, i % 3 == 0 ? "text " + i : Integer.toString(i));
+		}
+		double updateMicros = (System.nanoTime() - start) / 1e3 / operations;
+
+		// REPOR AS CELULAS ALTERADAS, PARA COMPARAR OS DOIS ARMAZENAMENTOS
+		fill(sheets[0], 0);
+
+		System.out.printf("%-6s: fill %7.1f ms; heap %7.1f MB; full gc %6.1f ms\n", name, fillMillis, heapUsed / 1e6,
+				gcMillis);
+		System.out.printf("%-6s: 10 x 5 range %6.2f us; update %5.2f us (%d rows read)\n", name, readMicros,
+				updateMicros, rowsRead);
+	}
+
+	private static void fill(CellStorage cells, int sheet) {
+		for (int row = 0; row < cells.rows(); row++)
+			for (int col = 0; col < cells.columns(); col++) {
+				String raw;
+				if (col % 10 == 9)
+					raw = "=SUM(A" + (row + 1) + ":H" + (row + 1) + ")";
+				else if (col % 10 == 8)
+					raw = "item " + sheet + "-" + row;
+				else
+					raw = Integer.toString(row * cells.columns() + col);
+				cells.set(row, col, raw);
+			}
+	}
+
+	/**
+	 * The name of a cell of one of the first 26 x 27 columns, e.g. AB12, with rows starting at 1.
+	 */
+	private static String cellName(int row, int col) {
+		String letter = String.valueOf((char) ('A' + col % 26));
+		return (col < 26 ? letter : (char) ('A' + col / 26 - 1) + letter) + row;
+	}
+
+	private static long usedHeap() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static double fullGcMillis() {
+		long start = System.nanoTime();
+		System.gc();
+		return (System.nanoTime() - start) / 1e6;
+	}
+}
@@ -0,0 +1,143 @@
+package tp1.impl.storage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import tp1.api.Spreadsheet;
+import tp1.util.SheetLocks;
+
+/**
+ *
+ * Measures the SheetStore: the latency of logged cell updates with concurrent writers, how many of them each
+ * fsync covers, and the time to recover a store holding about a million cells, from the log alone and from a
+ * snapshot.
+ *
+ * Usage: java tp1.impl.storage.StoreBenchmark [directory] [writers] [updates per writer]
+ *
+ */
+public class StoreBenchmark {
+
+	private static final int SHEETS = 10, ROWS = 1000, COLS = 100;
+
+	public static void main(String[] args) throws Exception {
+		Path base = args.length > 0 ? Path.of(args[0]) : Files.createTempDirectory("sheet-store");
+		int writers = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int updates = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+		System.out.printf("store: %s; %d sheets of %d x %d\n", base, SHEETS, ROWS, COLS);
+
+		Path logOnly = base.resolve("log");
+		populate(logOnly, Long.MAX_VALUE);
+		measureRecovery("log only", logOnly);
+
+		Path withSnapshot = base.resolve("snapshot");
+		populate(withSnapshot, SHEETS);
+		measureRecovery("snapshot", withSnapshot);
+
+		measureWrites(base.resolve("writes"), writers, updates);
+	}
+
+	/**
+	 * Creates the sheets, each in one record, and waits for the background snapshot, if any.
+	 */
+	private static void populate(Path dir, long snapshotRecords) throws Exception {
+		Map<String, Spreadsheet> sheets = new ConcurrentHashMap<String, Spreadsheet>();
+		SheetLocks locks = new SheetLocks();
+		SheetStore store = new SheetStore(dir, snapshotRecords, true, sheets::values, locks);
+		store.recover();
+
+		for (int s = 0; s < SHEETS; s++) {
+			String[][] raw = new String[ROWS][COLS];
+			for (int row = 0; row < ROWS; row++)
+				for (int col = 0; col < COLS; col++)
+					raw[row][col] = col % 10 == 9 ? "=A" + (row + 1) + "*2" : Integer.toString(row * COLS + col);
+
+			Spreadsheet sheet = new Spreadsheet("sheet-" + s, "owner", "https://localhost/rest/sheets/sheet-" + s,
+					ROWS, COLS, new HashSet<String>(), raw);
+			Lock lock = locks.write(sheet.getSheetId());
+			long logged;
+			try {
+				sheets.put(sheet.getSheetId(), sheet);
+				logged = store.logCreate(sheet);
+			} finally {
+				lock.unlock();
+			}
+			store.sync(logged);
+		}
+
+		// DAR TEMPO AO SNAPSHOT EM SEGUNDO PLANO
+		if (snapshotRecords <= SHEETS)
+			Thread.sleep(2000);
+	}
+
+	private static void measureRecovery(String name, Path dir) {
+		long start = System.nanoTime();
+		Map<String, Spreadsheet> recovered = new SheetStore(dir, Long.MAX_VALUE, true, null, null).recover();
+		long elapsed = System.nanoTime() - start;
+
+		long cells = 0;
+		for (Spreadsheet sheet : recovered.values())
+			cells += sheet.cells().populated();
+		System.out.printf("recovery, %-8s: %d sheets, %d cells in %.1f ms\n", name, recovered.size(), cells,
+				elapsed / 1e6);
+	}
+
+	/**
+	 * Runs concurrent writers, each updating cells one at a time and waiting for its update to be durable.
+	 */
+	private static void measureWrites(Path dir, int writers, int updates) throws Exception {
+		Map<String, Spreadsheet> sheets = new ConcurrentHashMap<String, Spreadsheet>();
+		SheetLocks locks = new SheetLocks();
+		SheetStore store = new SheetStore(dir, Long.MAX_VALUE, true, sheets::values, locks);
+		store.recover();
+
+		Spreadsheet sheet = new Spreadsheet("writes", "owner", "https://localhost/rest/sheets/writes", ROWS, COLS,
+				new HashSet<String>(), new String[ROWS][COLS]);
+		sheets.put(sheet.getSheetId(), sheet);
+		store.sync(store.logCreate(sheet));
+
+		long[] latencies = new long[writers * updates];
+		AtomicInteger next = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(writers);
+		long syncsBefore = store.syncs();
+
+		long start = System.nanoTime();
+		for (int w = 0; w < writers; w++) {
+			int writer = w;
+			new Thread(() -> {
+				for (int i = 0; i < updates; i++) {
+					String cell = "A" + ((writer * updates + i) % ROWS + 1);
+					long t = System.nanoTime();
+					long logged;
+					Lock lock = locks.write(sheet.getSheetId());
+					try {
+						sheet.setCellRawValue(cell, Integer.toString(i));
+						logged = store.logUpdate(sheet.getSheetId(), Map.of(cell, Integer.toString(i)));
+					} finally {
+						lock.unlock();
+					}
+					store.sync(logged);
+					latencies[next.getAndIncrement()] = System.nanoTime() - t;
+				}
+				done.countDown();
+			}).start();
+		}
+		done.await();
+		long elapsed = System.nanoTime() - start;
+
+		Arrays.sort(latencies);
+		long syncs = store.syncs() - syncsBefore;
+		System.out.printf("writes: %d writers x %d updates in %.1f ms; %.0f updates/s; %d fsyncs (%.1f updates each)\n",
+				writers, updates, elapsed / 1e6, latencies.length / (elapsed / 1e9), syncs,
+				(double) latencies.length / Math.max(1, syncs));
+		System.out.printf("latency: p50 %.2f ms; p99 %.2f ms; max %.2f ms\n", latencies[latencies.length / 2] / 1e6,
+				latencies[latencies.length * 99 / 100] / 1e6, latencies[latencies.length - 1] / 1e6);
+	}
+}
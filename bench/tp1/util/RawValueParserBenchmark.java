@@ -0,0 +1,162 @@
+package tp1.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * Measures the time to classify and parse columns of text, numbers, formulas and a mix of the three, with
+ * RawValueParser and with the previous classification of SpreadsheetEngineImpl (lowercasing every value and
+ * detecting numbers by catching the exception of Double.parseDouble).
+ *
+ * Usage: java tp1.util.RawValueParserBenchmark [cells] [iterations]
+ *
+ */
+public class RawValueParserBenchmark {
+
+	private static final int WARMUP = 5;
+
+	// EVITA QUE O JIT ELIMINE O TRABALHO MEDIDO
+	private static double sink;
+
+	public static void main(String[] args) {
+		int cells = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		Random random = new Random(42);
+		String[][] columns = { textColumn(cells, random), numberColumn(cells, random), formulaColumn(cells, random),
+				null };
+		columns[3] = mixedColumn(columns, random);
+		String[] names = { "text", "number", "formula", "mixed" };
+
+		System.out.printf("cells per column: %d\n", cells);
+
+		for (int c = 0; c < columns.length; c++) {
+			String[] column = columns[c];
+			checkSameResults(column);
+
+			double previous = measure(() -> previous(column), iterations);
+			double parser = measure(() -> parser(column), iterations);
+
+			System.out.printf("%s: previous %.2f ms; parser %.2f ms; speedup: %.2f\n", names[c], previous, parser,
+					previous / parser);
+		}
+	}
+
+	/**
+	 * Returns the median time, in milliseconds, of a run.
+	 */
+	private static double measure(Runnable run, int iterations) {
+		double[] times = new double[iterations];
+
+		for (int i = -WARMUP; i < iterations; i++) {
+			long start = System.nanoTime();
+			run.run();
+			long elapsed = System.nanoTime() - start;
+
+			if (i >= 0)
+				times[i] = elapsed / 1e6;
+		}
+
+		Arrays.sort(times);
+		return times[iterations / 2];
+	}
+
+	private static void parser(String[] column) {
+		RawValueParser parser = new RawValueParser();
+		double sum = 0;
+		for (String rawValue : column)
+			if (parser.parse(rawValue) == CellStorage.Kind.NUMBER)
+				sum += parser.number();
+		sink += sum;
+	}
+
+	private static void previous(String[] column) {
+		double sum = 0;
+		for (String rawValue : column)
+			if (previousClassify(rawValue) == CellStorage.Kind.NUMBER)
+				sum += Double.parseDouble(rawValue);
+		sink += sum;
+	}
+
+	private static CellStorage.Kind previousClassify(String rawVal) {
+		if (rawVal.length() == 0)
+			return CellStorage.Kind.EMPTY;
+
+		rawVal = rawVal.toLowerCase();
+
+		if (rawVal.charAt(0) == '=')
+			return rawVal.startsWith("=importrange") ? CellStorage.Kind.IMPORTRANGE : CellStorage.Kind.FORMULA;
+
+		if (rawVal.equals("true") || rawVal.equals("false"))
+			return CellStorage.Kind.BOOLEAN;
+
+		try {
+			Double.parseDouble(rawVal);
+			return CellStorage.Kind.NUMBER;
+		} catch (Exception x) {
+		}
+		return CellStorage.Kind.TEXT;
+	}
+
+	/**
+	 * Fails if the parser does not agree with the previous classification and with Double.parseDouble.
+	 */
+	private static void checkSameResults(String[] column) {
+		RawValueParser parser = new RawValueParser();
+		for (String rawValue : column) {
+			CellStorage.Kind kind = parser.parse(rawValue);
+			if (kind != previousClassify(rawValue))
+				throw new IllegalStateException("Different kind for " + rawValue);
+			if (kind == CellStorage.Kind.NUMBER
+					&& Double.doubleToLongBits(parser.number()) != Double.doubleToLongBits(Double.parseDouble(rawValue)))
+				throw new IllegalStateException("Different number for " + rawValue);
+		}
+	}
+
+	private static String[] textColumn(int cells, Random random) {
+		String[] words = { "total", "Lisboa", "n/a", "TRUE", "false", "", "1st quarter", "NaN", "e10", "12abc" };
+		String[] column = new String[cells];
+		for (int i = 0; i < cells; i++)
+			column[i] = words[random.nextInt(words.length)];
+		return column;
+	}
+
+	private static String[] numberColumn(int cells, Random random) {
+		String[] column = new String[cells];
+		for (int i = 0; i < cells; i++)
+			switch (i % 5) {
+			case 0:
+				column[i] = Integer.toString(random.nextInt(100000) - 50000);
+				break;
+			case 1:
+				column[i] = Double.toString(random.nextDouble() * 1000);
+				break;
+			case 2:
+				column[i] = String.format("%.2f", random.nextDouble() * 100).replace(',', '.');
+				break;
+			case 3:
+				column[i] = (random.nextInt(900) + 100) + "E" + (random.nextInt(40) - 20);
+				break;
+			default:
+				column[i] = Long.toString(random.nextLong());
+				break;
+			}
+		return column;
+	}
+
+	private static String[] formulaColumn(int cells, Random random) {
+		String[] column = new String[cells];
+		for (int i = 0; i < cells; i++)
+			column[i] = random.nextInt(10) == 0 ? "=importrange(\"http://host:8080/rest/spreadsheets/s\",\"A1:B2\")"
+					: "=SUM(A1:A" + (random.nextInt(1000) + 1) + ")";
+		return column;
+	}
+
+	private static String[] mixedColumn(String[][] columns, Random random) {
+		String[] column = new String[columns[0].length];
+		for (int i = 0; i < column.length; i++)
+			column[i] = columns[random.nextInt(3)][i];
+		return column;
+	}
+}
@@ -0,0 +1,169 @@
+package tp1.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import tp1.api.Spreadsheet;
+
+/**
+ *
+ * Measures the throughput of a mix of cell updates and range reads of independent sheets, with increasing numbers
+ * of threads, when the updates take one lock of the whole server (the previous synchronized(this)) and when they
+ * take the lock of their sheet from SheetLocks. Each update increments a counter cell of its sheet, so that lost
+ * updates show up as a difference between the counters and the number of updates.
+ *
+ * Usage: java tp1.util.SheetLocksBenchmark [sheets] [max threads] [millis per run]
+ *
+ */
+public class SheetLocksBenchmark {
+
+	private static final int ROWS = 50, COLS = 20;
+	private static final int UPDATE_PERCENT = 20;
+	private static final CellRange RANGE = new CellRange("B2:F11");
+
+	public static void main(String[] args) throws Exception {
+		int sheets = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+		int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+		System.out.printf("%d sheets of %d x %d; %d%% updates; %d ms per run\n", sheets, ROWS, COLS, UPDATE_PERCENT,
+				millis);
+
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			double global = run(new Server(sheets, false), threads, millis);
+			double striped = run(new Server(sheets, true), threads, millis);
+			System.out.printf("%3d threads: global lock %10.0f ops/s; sheet locks %10.0f ops/s (x%.2f)\n", threads,
+					global, striped, striped / global);
+			if (threads < maxThreads && threads * 2 > maxThreads)
+				threads = maxThreads / 2;
+		}
+	}
+
+	private static double run(Server server, int threads, long millis) throws Exception {
+		// AQUECIMENTO
+		runFor(server, threads, millis / 4);
+		server.reset();
+
+		long ops = runFor(server, threads, millis);
+		server.checkCounters();
+		return ops * 1000.0 / millis;
+	}
+
+	private static long runFor(Server server, int threads, long millis) throws Exception {
+		AtomicLong ops = new AtomicLong();
+		CountDownLatch start = new CountDownLatch(1), done = new CountDownLatch(threads);
+		long[] deadline = new long[1];
+
+		for (int t = 0; t < threads; t++) {
+			Random random = new Random(t);
+			new Thread(() -> {
+				try {
+					start.await();
+					long count = 0;
+					while (System.nanoTime() < deadline[0]) {
+						String sheetId = "sheet-" + random.nextInt(server.sheets.size());
+						if (random.nextInt(100) < UPDATE_PERCENT)
+							server.update(sheetId, random.nextInt(ROWS - 1) + 1, random.nextInt(COLS));
+						else
+							server.read(sheetId);
+						count++;
+					}
+					ops.addAndGet(count);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					done.countDown();
+				}
+			}).start();
+		}
+
+		deadline[0] = System.nanoTime() + millis * 1_000_000;
+		start.countDown();
+		done.await();
+		return ops.get();
+	}
+
+	/**
+	 * The part of SpreadsheetsResource that the locks protect: the sheets, their change log and their versions.
+	 */
+	private static class Server {
+		final Map<String, Spreadsheet> sheets = new ConcurrentHashMap<String, Spreadsheet>();
+		final Map<String, Long> versions = new ConcurrentHashMap<String, Long>();
+		final ChangeLog changeLog = new ChangeLog();
+		final SheetLocks locks;
+		final AtomicLong updates = new AtomicLong();
+
+		Server(int count, boolean striped) {
+			this.locks = striped ? new SheetLocks() : null;
+			for (int s = 0; s < count; s++) {
+				String[][] raw = new String[ROWS][COLS];
+				for (int row = 0; row < ROWS; row++)
+					for (int col = 0; col < COLS; col++)
+						raw[row][col] = row == 0 && col == 0 ? "0" : Integer.toString(row * COLS + col);
+				String sheetId = "sheet-" + s;
+				sheets.put(sheetId, new Spreadsheet(sheetId, "owner", sheetId, ROWS, COLS, null, raw));
+			}
+		}
+
+		void update(String sheetId, int row, int col) {
+			if (locks == null) {
+				synchronized (this) {
+					apply(sheets.get(sheetId), row, col);
+				}
+				return;
+			}
+			Lock lock = locks.write(sheetId);
+			try {
+				apply(sheets.get(sheetId), row, col);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void apply(Spreadsheet sheet, int row, int col) {
+			// LER-MODIFICAR-ESCREVER: SEM EXCLUSAO MUTUA, PERDEM-SE INCREMENTOS
+			long counter = Long.parseLong(sheet.getCellRawValue(0, 0));
+			sheet.setCellRawValues(List.of(new int[] { 0, 0 }, new int[] { row, col }),
+					List.of(Long.toString(counter + 1), Long.toString(counter)));
+			versions.put(sheet.getSheetId(), changeLog.record(sheet.getSheetId(), row, col));
+			updates.incrementAndGet();
+		}
+
+		String[][] read(String sheetId) {
+			Spreadsheet sheet;
+			if (locks == null) {
+				// COMO ANTES: SO A PROCURA DA FOLHA E FEITA SOB O LOCK DO SERVIDOR
+				synchronized (this) {
+					sheet = sheets.get(sheetId);
+				}
+				return sheet.plainRangeValues(RANGE);
+			}
+			sheet = sheets.get(sheetId);
+			Lock lock = locks.read(sheetId);
+			try {
+				return sheet.plainRangeValues(RANGE);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void reset() {
+			for (Spreadsheet sheet : sheets.values())
+				sheet.setCellRawValue("A1", "0");
+			updates.set(0);
+		}
+
+		void checkCounters() {
+			long total = 0;
+			for (Spreadsheet sheet : sheets.values())
+				total += Long.parseLong(sheet.getCellRawValue(0, 0));
+			if (total != updates.get())
+				throw new IllegalStateException("lost updates: " + (updates.get() - total) + " of " + updates.get());
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package tp1.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import tp1.api.Spreadsheet;
+
+/**
+ *
+ * Measures how long updates of a large sheet wait while other threads read all its values, when the readers take
+ * the read lock of the sheet (as the plain reads of SpreadsheetsResource did) and when they read the snapshot
+ * published by the last update, without locks. Each update sets a whole row to the same value with one
+ * setCellRawValues, so a reader that sees a row with different values saw half of an update.
+ *
+ * Usage: java tp1.util.SnapshotBenchmark [rows] [readers] [updates]
+ *
+ */
+public class SnapshotBenchmark {
+
+	private static final int COLS = 50;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int readers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int updates = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+
+		System.out.printf("sheet of %d x %d; %d readers; %d updates of a row\n", rows, COLS, readers, updates);
+
+		// AQUECIMENTO
+		run("warmup", rows, readers, updates / 4, false);
+		run("warmup", rows, readers, updates / 4, true);
+
+		run("read lock", rows, readers, updates, false);
+		run("snapshots", rows, readers, updates, true);
+	}
+
+	private static void run(String name, int rows, int readers, int updates, boolean snapshots) throws Exception {
+		String[][] raw = new String[rows][COLS];
+		for (String[] row : raw)
+			Arrays.fill(row, "0");
+		Spreadsheet sheet = new Spreadsheet("sheet", "owner", "sheet", rows, COLS, null, raw);
+		SheetLocks locks = new SheetLocks();
+
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicLong reads = new AtomicLong(), torn = new AtomicLong();
+		CountDownLatch finished = new CountDownLatch(readers);
+
+		for (int r = 0; r < readers; r++) {
+			Thread reader = new Thread(() -> {
+				while (!done.get()) {
+					String[][] values = snapshots ? sheet.snapshot().plainValues() : readLocked(sheet, locks);
+					for (String[] row : values)
+						for (String value : row)
+							if (!value.equals(row[0])) {
+								torn.incrementAndGet();
+								break;
+							}
+					reads.incrementAndGet();
+				}
+				finished.countDown();
+			});
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		List<int[]> indexes = new ArrayList<int[]>(COLS);
+		List<Long> latencies = new ArrayList<Long>(updates);
+		long start = System.nanoTime();
+
+		for (int i = 1; i <= updates; i++) {
+			int row = i % rows;
+			indexes.clear();
+			for (int col = 0; col < COLS; col++)
+				indexes.add(new int[] { row, col });
+
+			long before = System.nanoTime();
+			Lock lock = locks.write(sheet.getSheetId());
+			try {
+				sheet.setCellRawValues(indexes, Collections.nCopies(COLS, Integer.toString(i)));
+			} finally {
+				lock.unlock();
+			}
+			latencies.add(System.nanoTime() - before);
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		done.set(true);
+		finished.await();
+
+		if (name.equals("warmup"))
+			return;
+
+		Collections.sort(latencies);
+		System.out.printf("%-9s: update p50 %8.1f us; p99 %8.1f us; max %8.1f us; %6.0f updates/s; %5.0f reads/s; %d torn reads\n",
+				name, latencies.get(updates / 2) / 1e3, latencies.get(updates * 99 / 100) / 1e3,
+				latencies.get(updates - 1) / 1e3, updates / seconds, reads.get() / seconds, torn.get());
+	}
+
+	private static String[][] readLocked(Spreadsheet sheet, SheetLocks locks) {
+		Lock lock = locks.read(sheet.getSheetId());
+		try {
+			return sheet.plainValues();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -1,7 +1,17 @@
 package tp1.api;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.annotations.SerializedName;
+
+import tp1.util.Cell;
 import tp1.util.CellRange;
+import tp1.util.CellStorage;
+import tp1.util.InvalidCellIdException;
 
 
 /**
@@ -20,8 +30,14 @@ public class Spreadsheet {
 	
 	private Set<String> sharedWith;
 	
-	// raw contents of the sheet
-	private String[][] rawValues;
+	// raw contents of the sheet, stored by type; exchanged as a String[][] rawValues
+	@SerializedName("rawValues")
+	@JsonAdapter(CellStorage.GsonAdapter.class)
+	private CellStorage cells;
+
+	// VERSAO IMUTAVEL MAIS RECENTE DA FOLHA, PUBLICADA POR CADA ESCRITA; LIDA SEM LOCKS
+	private transient volatile Spreadsheet published;
+	private transient long version;
 	
 	public Spreadsheet() {	
 	}
@@ -34,7 +50,7 @@ public class Spreadsheet {
 		this.rows = lines;
 		this.columns = columns;
 		this.sharedWith = sharedWith;
-		this.rawValues = rawValues;
+		setRawValues(rawValues);
 	}
 
 	public String getSheetId() {
@@ -44,6 +60,7 @@ public class Spreadsheet {
 
 	public void setSheetId(String sheetId) {
 		this.sheetId = sheetId;
+		publish();
 	}
 
 
@@ -54,6 +71,7 @@ public class Spreadsheet {
 
 	public void setOwner(String owner) {
 		this.owner = owner;
+		publish();
 	}
 
 
@@ -64,6 +82,7 @@ public class Spreadsheet {
 
 	public void setSheetURL(String sheetURL) {
 		this.sheetURL = sheetURL;
+		publish();
 	}
 
 
@@ -74,6 +93,7 @@ public class Spreadsheet {
 
 	public void setRows(int rows) {
 		this.rows = rows;
+		publish();
 	}
 
 
@@ -84,6 +104,7 @@ public class Spreadsheet {
 
 	public void setColumns(int columns) {
 		this.columns = columns;
+		publish();
 	}
 
 	public Set<String> getSharedWith() {
@@ -93,15 +114,125 @@ public class Spreadsheet {
 
 	public void setSharedWith(Set<String> sharedWith) {
 		this.sharedWith = sharedWith;
+		publish();
 	}
 
 
 	public String[][] getRawValues() {
-		return rawValues;
+		return cells == null ? null : cells.toRawValues();
 	}
 
 	public void setRawValues(String[][] rawValues) {
-		this.rawValues = rawValues;
+		this.cells = rawValues == null ? null : CellStorage.of(rawValues);
+		publish();
+	}
+
+	/**
+	 * Gets the typed storage of the raw values, so they can be read without building a String[][].
+	 * @return the storage, or null if the sheet has no raw values.
+	 */
+	public CellStorage cells() {
+		return cells;
+	}
+
+	/**
+	 * Replaces the typed storage of the raw values, e.g. with one loaded from disk.
+	 */
+	public void setCells(CellStorage cells) {
+		this.cells = cells;
+		publish();
+	}
+
+	/**
+	 * Gets the latest version of the sheet, published by the last update: a copy that shares the unchanged cells
+	 * and never changes, so its values can be computed without locks while the sheet is updated.
+	 * @return the version, or this sheet if its cells do not keep versions (e.g. they are memory-mapped) or were
+	 * never set through its methods.
+	 */
+	public Spreadsheet snapshot() {
+		Spreadsheet snapshot = published;
+		return snapshot == null ? this : snapshot;
+	}
+
+	/**
+	 * Copies the sheet, with its cells in memory, to a version that never changes. Used for the sheets whose cells
+	 * keep no versions, while the caller holds the lock of the sheet, so that the copy sees no update half done.
+	 * @return the copy.
+	 */
+	public Spreadsheet copy() {
+		return versionWith(cells == null ? null : CellStorage.copyOf(cells).snapshot());
+	}
+
+	/**
+	 * Gets the number of the version of the sheet, incremented by every update.
+	 */
+	public long version() {
+		return version;
+	}
+
+	/**
+	 * Visits the cells that may differ between this version of the sheet and another one.
+	 * @param since - the other version of the sheet.
+	 * @param visitor - receives the row and column indices of each cell.
+	 * @return false, without visiting any cell, if either sheet is not a snapshot.
+	 */
+	public boolean forEachChangedCell(Spreadsheet since, CellStorage.CellVisitor visitor) {
+		if (cells == null || since.cells == null)
+			return false;
+		return cells.forEachChanged(since.cells, visitor);
+	}
+
+	/**
+	 * Publishes the current state as a new version of the sheet. Called by every update, while the caller holds
+	 * the lock that orders the updates of the sheet.
+	 */
+	private void publish() {
+		version++;
+		CellStorage snapshot = cells == null ? null : cells.snapshot();
+		published = snapshot == cells ? null : versionWith(snapshot);
+	}
+
+	private Spreadsheet versionWith(CellStorage snapshot) {
+		Spreadsheet copy = new Spreadsheet();
+		copy.sheetId = sheetId;
+		copy.owner = owner;
+		copy.sheetURL = sheetURL;
+		copy.rows = rows;
+		copy.columns = columns;
+		copy.sharedWith = sharedWith;
+		copy.cells = snapshot;
+		copy.version = version;
+		copy.published = copy;
+		return copy;
+	}
+
+	/**
+	 * Checks if any cell has a formula, including importrange formulas. Sheets without them need no engine.
+	 * @return true if the values of the sheet need to be computed.
+	 */
+	public boolean hasFormulas() {
+		return cells != null && cells.formulas() > 0;
+	}
+
+	/**
+	 * Gets the values of a sheet without formulas, which are its raw values in the form computed by the engines.
+	 * @return the full "matrix" of cell values.
+	 */
+	public String[][] plainValues() {
+		return storage().toValues();
+	}
+
+	/**
+	 * Gets the values of a range of a sheet without formulas.
+	 * @param range - the range of cells.
+	 * @return the "matrix" of the values of the range.
+	 */
+	public String[][] plainRangeValues(CellRange range) {
+		return range.extractValuesFrom(storage());
+	}
+
+	private CellStorage storage() {
+		return cells != null ? cells : new CellStorage(rows, columns);
 	}
 
 	/**
@@ -111,9 +242,40 @@ public class Spreadsheet {
 	 */
 	public void setCellRawValue(String cell, String value) {
 		var r = new CellRange( cell + ":A1");
-		rawValues[r.topRow][ r.topCol] = value;
+		cells.set(r.topRow, r.topCol, value);
+		publish();
 	}
 	
+	/**
+	 * Gets the row and column indices of several cells, given their names (e.g. A1).
+	 * @param cells - the names of the cells.
+	 * @return the {row, col} indices of each cell, in the same order.
+	 * @throws InvalidCellIdException - if a name is invalid or a cell is outside the spreadsheet.
+	 */
+	public List<int[]> cellIndexes(Collection<String> cells) throws InvalidCellIdException {
+		List<int[]> indexes = new ArrayList<int[]>(cells.size());
+		for (String cell : cells) {
+			var rowCol = Cell.CellId2Indexes(cell);
+			int row = rowCol.getLeft(), col = rowCol.getRight();
+			if (row < 0 || row >= rows || col < 0 || col >= columns)
+				throw new InvalidCellIdException(cell + " is outside the spreadsheet.");
+			indexes.add(new int[] { row, col });
+		}
+		return indexes;
+	}
+
+	/**
+	 * Updates the raw values of several cells, given their row and col indices.
+	 * @param cells - the {row, col} indices of the cells being updated, as returned by cellIndexes.
+	 * @param values - the new raw values, in the same order.
+	 */
+	public void setCellRawValues(List<int[]> cells, Collection<String> values) {
+		var it = values.iterator();
+		for (int[] cell : cells)
+			this.cells.set(cell[0], cell[1], it.next());
+		publish();
+	}
+
 	/**
 	 * Updates the raw value of cell, given the row and col indices.
 	 * @param row  - the row index of the cell being updated.
@@ -122,7 +284,8 @@ public class Spreadsheet {
 	 */
 	@Deprecated
 	public void setCellRawValue(int row, int col, String value) {
-		rawValues[row][ col] = value;
+		cells.set(row, col, value);
+		publish();
 	}
 	
 	/**
@@ -132,6 +295,45 @@ public class Spreadsheet {
 	 * @return the raw value of the cell.
 	 */
 	public String getCellRawValue(int row, int col) {
-		return rawValues[row][col];
-	}	
+		return cells.raw(row, col);
+	}
+
+	/**
+	 * Gets the kind of the raw value of a cell, without parsing it.
+	 * @param row - the row index.
+	 * @param col - the column index.
+	 * @return the kind of the raw value of the cell.
+	 */
+	public CellStorage.Kind cellKind(int row, int col) {
+		return cells.kind(row, col);
+	}
+
+	/**
+	 * Gets the value of a cell holding a number, without parsing its raw value.
+	 * @param row - the row index.
+	 * @param col - the column index.
+	 * @return the number, or NaN if the cell does not hold a number.
+	 */
+	public double cellNumberValue(int row, int col) {
+		return cells.number(row, col);
+	}
+
+	/**
+	 * Gets the value of a cell holding a boolean, without parsing its raw value.
+	 * @param row - the row index.
+	 * @param col - the column index.
+	 * @return the boolean, or false if the cell does not hold a boolean.
+	 */
+	public boolean cellBooleanValue(int row, int col) {
+		return cells.bool(row, col);
+	}
+
+	/**
+	 * Visits the cells that are not empty, column by column.
+	 * @param visitor - receives the row and column indices of each populated cell.
+	 */
+	public void forEachPopulatedCell(CellStorage.CellVisitor visitor) {
+		if (cells != null)
+			cells.forEachPopulated(visitor);
+	}
 }
@@ -0,0 +1,89 @@
+package tp1.api;
+
+import java.util.List;
+
+/**
+ * Represents the calculated values of a spreadsheet changed since a version known by the client.
+ * Either all values are sent (values), or only the changed cells (rows, columns and cellValues).
+ */
+public class SpreadsheetDelta {
+	// version of the values, to send in the next request
+	private long version;
+	// all the values, when the changes since the version of the client are not known
+	private String[][] values;
+	// the changed cells and their new values
+	private int[] rows, columns;
+	private String[] cellValues;
+
+	public SpreadsheetDelta() {
+	}
+
+	/**
+	 * Builds the delta of the given cells, or with all the values if the cells are not known or are too many for
+	 * the delta to be smaller than the values.
+	 * @param version - the current version of the values.
+	 * @param values - all the current values.
+	 * @param cells - the changed cells, as {row, col}, or null if they are not known.
+	 */
+	public static SpreadsheetDelta of(long version, String[][] values, List<int[]> cells) {
+		SpreadsheetDelta delta = new SpreadsheetDelta();
+		delta.version = version;
+
+		int size = values.length == 0 ? 0 : values.length * values[0].length;
+		if (cells == null || cells.size() * 3 > size) {
+			delta.values = values;
+			return delta;
+		}
+
+		delta.rows = new int[cells.size()];
+		delta.columns = new int[cells.size()];
+		delta.cellValues = new String[cells.size()];
+		for (int i = 0; i < cells.size(); i++) {
+			int row = cells.get(i)[0], col = cells.get(i)[1];
+			delta.rows[i] = row;
+			delta.columns[i] = col;
+			delta.cellValues[i] = values[row][col];
+		}
+		return delta;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public String[][] getValues() {
+		return values;
+	}
+
+	public void setValues(String[][] values) {
+		this.values = values;
+	}
+
+	public int[] getRows() {
+		return rows;
+	}
+
+	public void setRows(int[] rows) {
+		this.rows = rows;
+	}
+
+	public int[] getColumns() {
+		return columns;
+	}
+
+	public void setColumns(int[] columns) {
+		this.columns = columns;
+	}
+
+	public String[] getCellValues() {
+		return cellValues;
+	}
+
+	public void setCellValues(String[] cellValues) {
+		this.cellValues = cellValues;
+	}
+}
@@ -0,0 +1,93 @@
+package tp1.api;
+
+import java.util.List;
+
+/**
+ * Represents a page of the spreadsheets a user can access, owned by it or shared with it, sorted by sheetId.
+ * Each sheet is described by its metadata only, without the raw values of its cells.
+ */
+public class SpreadsheetPage {
+	// the metadata of the sheets of the page, one entry per sheet
+	private String[] sheetIds, owners, sheetURLs;
+	private int[] rows, columns;
+	// the sheetId to send in the next request, or null if this is the last page
+	private String next;
+
+	public SpreadsheetPage() {
+	}
+
+	/**
+	 * Builds the page of the given sheets.
+	 * @param sheets - the sheets of the page, sorted by sheetId.
+	 * @param more - if there are more sheets after these.
+	 */
+	public static SpreadsheetPage of(List<Spreadsheet> sheets, boolean more) {
+		SpreadsheetPage page = new SpreadsheetPage();
+
+		page.sheetIds = new String[sheets.size()];
+		page.owners = new String[sheets.size()];
+		page.sheetURLs = new String[sheets.size()];
+		page.rows = new int[sheets.size()];
+		page.columns = new int[sheets.size()];
+		for (int i = 0; i < sheets.size(); i++) {
+			Spreadsheet sheet = sheets.get(i);
+			page.sheetIds[i] = sheet.getSheetId();
+			page.owners[i] = sheet.getOwner();
+			page.sheetURLs[i] = sheet.getSheetURL();
+			page.rows[i] = sheet.getRows();
+			page.columns[i] = sheet.getColumns();
+		}
+
+		if (more && !sheets.isEmpty())
+			page.next = page.sheetIds[sheets.size() - 1];
+		return page;
+	}
+
+	public String[] getSheetIds() {
+		return sheetIds;
+	}
+
+	public void setSheetIds(String[] sheetIds) {
+		this.sheetIds = sheetIds;
+	}
+
+	public String[] getOwners() {
+		return owners;
+	}
+
+	public void setOwners(String[] owners) {
+		this.owners = owners;
+	}
+
+	public String[] getSheetURLs() {
+		return sheetURLs;
+	}
+
+	public void setSheetURLs(String[] sheetURLs) {
+		this.sheetURLs = sheetURLs;
+	}
+
+	public int[] getRows() {
+		return rows;
+	}
+
+	public void setRows(int[] rows) {
+		this.rows = rows;
+	}
+
+	public int[] getColumns() {
+		return columns;
+	}
+
+	public void setColumns(int[] columns) {
+		this.columns = columns;
+	}
+
+	public String getNext() {
+		return next;
+	}
+
+	public void setNext(String next) {
+		this.next = next;
+	}
+}
@@ -0,0 +1,60 @@
+package tp1.api;
+
+import tp1.util.CellStorage;
+
+/**
+ * Represents the calculated values of a spreadsheet, as returned by getSpreadsheetValues: either a matrix of
+ * values computed by an engine, or the cells of a version of a sheet without formulas, whose values are read
+ * from its typed storage one row at a time, as they are written. Exchanged as a String[][].
+ */
+public class SpreadsheetValues {
+	// the computed values, or null
+	private final String[][] values;
+	// the cells of a version of a sheet without formulas, or null
+	private final CellStorage cells;
+
+	private SpreadsheetValues(String[][] values, CellStorage cells) {
+		this.values = values;
+		this.cells = cells;
+	}
+
+	/**
+	 * Wraps the values computed by an engine.
+	 */
+	public static SpreadsheetValues of(String[][] values) {
+		return new SpreadsheetValues(values, null);
+	}
+
+	/**
+	 * Wraps the cells of a sheet without formulas.
+	 * @param sheet - a version of the sheet that never changes, or a sheet no other thread updates.
+	 */
+	public static SpreadsheetValues plain(Spreadsheet sheet) {
+		CellStorage cells = sheet.cells();
+		return new SpreadsheetValues(null, cells != null ? cells : new CellStorage(sheet.getRows(), sheet.getColumns()));
+	}
+
+	/**
+	 * Gets the number of rows, or -1 if there are no values.
+	 */
+	public int rows() {
+		if (cells != null)
+			return cells.rows();
+		return values == null ? -1 : values.length;
+	}
+
+	/**
+	 * Gets the values of a row, building them from the cells of a sheet without formulas.
+	 * @param row - the row index.
+	 * @return the values, in the form computed by the engines.
+	 */
+	public String[] row(int row) {
+		if (cells == null)
+			return values[row];
+
+		String[] rowValues = new String[cells.columns()];
+		for (int col = 0; col < rowValues.length; col++)
+			rowValues[col] = cells.value(row, col);
+		return rowValues;
+	}
+}
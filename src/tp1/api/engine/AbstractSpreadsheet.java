@@ -1,5 +1,8 @@
 package tp1.api.engine;
 
+import tp1.util.CellStorage;
+import tp1.util.RawValueParser;
+
 /**
  * 
  * Interface used to feed a spreadsheet to the SpreadsheetEngine and compute its values.
@@ -31,6 +34,57 @@ public interface AbstractSpreadsheet {
 	 */
 	String cellRawValue(int row, int col);
 	
+	/**
+	 * Called by the engine to obtain the kind of the raw value of a cell. Implementations backed by typed
+	 * storage override it to avoid parsing the raw value.
+	 */
+	default CellStorage.Kind cellKind(int row, int col) {
+		String rawVal = cellRawValue(row, col);
+		return rawVal == null ? CellStorage.Kind.EMPTY : RawValueParser.classify(rawVal);
+	}
+	
+	/**
+	 * Called by the engine to obtain the value of a cell whose kind is NUMBER.
+	 */
+	default double cellNumberValue(int row, int col) {
+		return RawValueParser.parseNumber(cellRawValue(row, col));
+	}
+	
+	/**
+	 * Called by the engine to obtain the value of a cell whose kind is BOOLEAN.
+	 */
+	default boolean cellBooleanValue(int row, int col) {
+		return Boolean.parseBoolean(cellRawValue(row, col));
+	}
+	
+	/**
+	 * Called by the engine to visit the cells that are not empty. Implementations backed by sparse storage
+	 * override it to skip the empty cells without looking at them.
+	 */
+	default void forEachPopulatedCell(CellStorage.CellVisitor visitor) {
+		for (int row = 0; row < rows(); row++)
+			for (int col = 0; col < columns(); col++)
+				if (cellKind(row, col) != CellStorage.Kind.EMPTY)
+					visitor.visit(row, col);
+	}
+	
+	/**
+	 * Called by engines that keep state between computations to find the cells that may differ from those of a
+	 * previous computation of the same spreadsheet, when both are immutable versions of it.
+	 * @param since - the spreadsheet given to the previous computation
+	 * @return false, without visiting any cell, if the differences are not known.
+	 */
+	default boolean forEachChangedCell(AbstractSpreadsheet since, CellStorage.CellVisitor visitor) {
+		return false;
+	}
+	
+	/**
+	 * Called by the engine to obtain the limits of the computation of the spreadsheet.
+	 */
+	default EvaluationBudget budget() {
+		return EvaluationBudget.UNLIMITED;
+	}
+	
 	/**
 	 * Called by the engine to resolve importrange formulas
 	 * @param sheetURL - the url of the sheet referenced by the importrange formula
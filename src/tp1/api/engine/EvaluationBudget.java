@@ -0,0 +1,114 @@
+package tp1.api.engine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Limits the work of one computation of a sheet: the cells read by its formulas, the ranges fetched by its
+ * importrange formulas and the time it takes. The engine stops evaluating once any of them runs out, and the cells
+ * it did not evaluate, or could not import, get an error value.
+ *
+ * The limits of each request are set with -Dsheets.engine.budget.cells, -Dsheets.engine.budget.fetches and
+ * -Dsheets.engine.budget.millis.
+ *
+ */
+public class EvaluationBudget {
+
+	public static final String CELLS_PROPERTY = "sheets.engine.budget.cells";
+	public static final String FETCHES_PROPERTY = "sheets.engine.budget.fetches";
+	public static final String MILLIS_PROPERTY = "sheets.engine.budget.millis";
+
+	private static final long DEFAULT_CELLS = 50_000_000;
+	private static final long DEFAULT_FETCHES = 64;
+	private static final long DEFAULT_MILLIS = 15_000;
+
+	public static final EvaluationBudget UNLIMITED = new EvaluationBudget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+	private final long maxCells, maxFetches, maxNanos;
+	private final long start;
+
+	private final AtomicLong cells, fetches;
+	private volatile boolean exceeded;
+
+	public EvaluationBudget(long maxCells, long maxFetches, long maxMillis) {
+		this.maxCells = maxCells;
+		this.maxFetches = maxFetches;
+		this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+		this.start = System.nanoTime();
+		this.cells = new AtomicLong();
+		this.fetches = new AtomicLong();
+	}
+
+	/**
+	 * Returns a new budget with the limits set for each request, starting now.
+	 */
+	public static EvaluationBudget forRequest() {
+		return new EvaluationBudget(Long.getLong(CELLS_PROPERTY, DEFAULT_CELLS),
+				Long.getLong(FETCHES_PROPERTY, DEFAULT_FETCHES), Long.getLong(MILLIS_PROPERTY, DEFAULT_MILLIS));
+	}
+
+	/**
+	 * Charges the evaluation of a formula that reads some cells.
+	 * @return false if the budget is exceeded, and the formula must not be evaluated.
+	 */
+	public boolean chargeCells(long n) {
+		if (exceeded)
+			return false;
+		if (cells.addAndGet(n) > maxCells || timedOut())
+			exceeded = true;
+		return !exceeded;
+	}
+
+	/**
+	 * Charges the fetch of an imported range.
+	 * @return false if the budget is exceeded, and the range must not be fetched.
+	 */
+	public boolean chargeFetch() {
+		if (exceeded)
+			return false;
+		if (fetches.incrementAndGet() > maxFetches || timedOut())
+			exceeded = true;
+		return !exceeded;
+	}
+
+	/**
+	 * Records that the computation ran out of time while waiting for something else (e.g. an imported range).
+	 */
+	public void expire() {
+		exceeded = true;
+	}
+
+	/**
+	 * Checks if any of the limits was exceeded, i.e. if some values of the computation are missing.
+	 */
+	public boolean exceeded() {
+		return exceeded;
+	}
+
+	/**
+	 * Checks if the time of the budget is limited.
+	 */
+	public boolean isTimed() {
+		return maxNanos != Long.MAX_VALUE;
+	}
+
+	/**
+	 * The time left, in milliseconds.
+	 */
+	public long remainingMillis() {
+		if (!isTimed())
+			return Long.MAX_VALUE;
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(maxNanos - (System.nanoTime() - start)));
+	}
+
+	private boolean timedOut() {
+		return isTimed() && System.nanoTime() - start > maxNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("cells: %d/%d; fetches: %d/%d; elapsed: %d ms%s", cells.get(), maxCells, fetches.get(),
+				maxFetches, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), exceeded ? "; EXCEEDED" : "");
+	}
+}
@@ -1,5 +1,9 @@
 package tp1.api.engine;
 
+import java.util.List;
+
+import tp1.util.CellRange;
+
 /**
  * 
  * The SpreadsheeEngine class is used to compute the values of a spreadsheet from its raw values.
@@ -17,4 +21,46 @@ public interface SpreadsheetEngine {
 	 */
 	public String[][] computeSpreadsheetValues( AbstractSpreadsheet sheet );
 
+	/**
+	 * Computes the values of a range of cells. Engines that can, evaluate only the cells of the range and the
+	 * cells they depend on.
+	 * 
+	 * @param sheet - The spreadsheet whose cells will be used to compute the values
+	 * @param range - The range of cells to compute
+	 * @return the "matrix" of the values of the range.
+	 */
+	default String[][] computeRangeValues( AbstractSpreadsheet sheet, CellRange range ) {
+		return range.extractRangeValuesFrom( computeSpreadsheetValues( sheet ) );
+	}
+
+	/**
+	 * Notifies the engine that the raw value of a cell changed. Engines that keep state between computations
+	 * use it to recompute only the affected cells.
+	 * 
+	 * @param sheetId - the id of the spreadsheet
+	 * @param cell - the cell that changed, e.g. "A3"
+	 */
+	default void cellUpdated( String sheetId, String cell ) {
+	}
+
+	/**
+	 * Notifies the engine that a spreadsheet was deleted, so any state kept for it can be discarded.
+	 * 
+	 * @param sheetId - the id of the spreadsheet
+	 */
+	default void sheetDeleted( String sheetId ) {
+	}
+
+	/**
+	 * Returns the cells whose values may have changed after some cells of a spreadsheet were updated, as found by
+	 * the last computation of the spreadsheet.
+	 * 
+	 * @param sheetId - the id of the spreadsheet
+	 * @param cells - the updated cells, as {row, col}
+	 * @return the cells, as {row, col}, or null if the engine does not know them
+	 */
+	default List<int[]> affectedCells( String sheetId, List<int[]> cells ) {
+		return null;
+	}
+
 }
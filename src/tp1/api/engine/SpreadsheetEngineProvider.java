@@ -0,0 +1,23 @@
+package tp1.api.engine;
+
+/**
+ * 
+ * Provides a SpreadsheetEngine implementation, identified by a name. Servers choose the engine by its name,
+ * given in the system property "sheets.engine".
+ * 
+ * Providers besides the built in ones are found with java.util.ServiceLoader, listed in
+ * META-INF/services/tp1.api.engine.SpreadsheetEngineProvider.
+ * 
+ */
+public interface SpreadsheetEngineProvider {
+
+	/**
+	 * The name used to select the engine, e.g. "native"
+	 */
+	String name();
+
+	/**
+	 * The engine. Called once per server, so the same engine is shared by all requests.
+	 */
+	SpreadsheetEngine engine();
+}
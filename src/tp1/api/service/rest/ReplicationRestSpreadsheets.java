@@ -1,5 +1,7 @@
 package tp1.api.service.rest;
 
+import java.util.Map;
+
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
 import jakarta.ws.rs.GET;
@@ -65,6 +67,20 @@ public interface ReplicationRestSpreadsheets extends RestSpreadsheets{
 	@Consumes(MediaType.APPLICATION_JSON)
 	void updateCellOperation( @PathParam("sheetId") String sheetId, @PathParam("cell") String cell, String rawValue, @QueryParam("repSecret") String repSecret, @HeaderParam(HEADER_VERSION) Long version);
 	
+	/**
+	 * Updates the raw values of several cells of a spreadsheet at once, as ordered by the primary.
+	 * 
+	 * @param sheetId - the spreadsheet being updated.
+	 * @param cells - the new raw values, by cell name
+	 * @param repSecret - secret sent by the primary to the secondaries that serves as authentication
+	 * @param version - version of the client that started the execution of the operation
+	 * 
+	 */
+	@POST
+	@Path("/{sheetId}/cells" + OPERATION)
+	@Consumes(MediaType.APPLICATION_JSON)
+	void updateCellsOperation( @PathParam("sheetId") String sheetId, Map<String, String> cells, @QueryParam("repSecret") String repSecret, @HeaderParam(HEADER_VERSION) Long version);
+	
 	/**
 	 * Adds a new user to the list of shares of a spreadsheet. Only the owner can call this method.
 	 * 
@@ -1,6 +1,7 @@
 package tp1.api.service.rest;
 
 import java.sql.Timestamp;
+import java.util.Map;
 
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.DELETE;
@@ -14,6 +15,9 @@ import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetDelta;
+import tp1.api.SpreadsheetPage;
+import tp1.api.SpreadsheetValues;
 
 
 @Path(RestSpreadsheets.PATH)
@@ -22,6 +26,8 @@ public interface RestSpreadsheets {
 	public static final String PATH="/spreadsheets";
 	public static final String DELETESHEETS = "/deleteSheets";
 	public static final String HEADER_VERSION = "sheetsserver-version";
+	// COMPACT BINARY ENCODING (tp1.util.BinaryValues), NEGOTIATED AS AN ALTERNATIVE TO JSON
+	public static final String BINARY_VALUES = "application/x-sheet-values";
 	
 	/**
 	 * Creates a new spreadsheet. The sheetId and sheetURL are generated by the server.
@@ -68,11 +74,32 @@ public interface RestSpreadsheets {
 	 */
 	@GET
 	@Path("/{sheetId}")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, BINARY_VALUES})
 	Spreadsheet getSpreadsheet(@PathParam("sheetId") String sheetId , @QueryParam("userId") String userId, 
 			@QueryParam("password") String password, @HeaderParam(HEADER_VERSION) Long version);
-		
-	
+
+	/**
+	 * Lists the spreadsheets a user can access, owned by the user or shared with it, sorted by sheetId, a page
+	 * at a time.
+	 *
+	 * @param userId - The user performing the operation.
+	 * @param password - The password of the user performing the operation.
+	 * @param after - the next sheetId returned with the previous page, or null to retrieve the first page.
+	 * @param limit - the maximum number of sheets in the page, or null for the default (50).
+	 * @param version - version of the client that started the execution of the operation
+	 *
+	 * @return 200 and the page of spreadsheets
+	 *		   404 if the userId does not exist.
+	 *         403 if the password is incorrect.
+	 * 		   400 otherwise, e.g. if the limit is not positive
+	 * 		   501 if the server keeps the sheets in Dropbox, where they are not indexed by user
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	SpreadsheetPage listSpreadsheets(@QueryParam("userId") String userId, @QueryParam("password") String password,
+			@QueryParam("after") String after, @QueryParam("limit") Integer limit, @HeaderParam(HEADER_VERSION) Long version);
+
+
 	/**
 	 * Retrieves the calculated values of a spreadsheet.
 	 * @param userId - The user requesting the values
@@ -80,17 +107,37 @@ public interface RestSpreadsheets {
 	 * @param password - The password of the user performing the operation
 	 * @param version - version of the client that started the execution of the operation
 	 * 
-	 * @return 200, if the operation is successful
+	 * @return 200, the values as a String[][], if the operation is successful
 	 * 		   403, if the spreadsheet is not shared with user, or the user is not the owner, or the password is incorrect.
 	 * 		   404, if the spreadsheet or the user do not exist
 	 *		   400, otherwise
 	 */
 	@GET
 	@Path("/{sheetId}/values")
-	@Produces(MediaType.APPLICATION_JSON)
-	String[][] getSpreadsheetValues(@PathParam("sheetId") String sheetId, 
+	@Produces({MediaType.APPLICATION_JSON, BINARY_VALUES})
+	SpreadsheetValues getSpreadsheetValues(@PathParam("sheetId") String sheetId, 
 			@QueryParam("userId") String userId, @QueryParam("password") String password, @HeaderParam(HEADER_VERSION) Long version);
 
+	/**
+	 * Retrieves the calculated values of a spreadsheet that changed since a version the client already has.
+	 * @param userId - The user requesting the values
+	 * @param sheetId - the spreadsheet whose values are being retrieved.
+	 * @param password - The password of the user performing the operation
+	 * @param since - the version returned by a previous call, or null to retrieve all values.
+	 * @param version - version of the client that started the execution of the operation
+	 * 
+	 * @return 200, the current version and the changed cells, or all values if the changes since the given version
+	 * 				are not known, if the operation is successful
+	 * 		   403, if the spreadsheet is not shared with user, or the user is not the owner, or the password is incorrect.
+	 * 		   404, if the spreadsheet or the user do not exist
+	 *		   400, otherwise
+	 */
+	@GET
+	@Path("/{sheetId}/values/delta")
+	@Produces(MediaType.APPLICATION_JSON)
+	SpreadsheetDelta getSpreadsheetValuesDelta(@PathParam("sheetId") String sheetId, @QueryParam("userId") String userId,
+			@QueryParam("password") String password, @QueryParam("since") Long since, @HeaderParam(HEADER_VERSION) Long version);
+
 
 	/**
 	 * Updates the raw values of some cells of a spreadsheet. 
@@ -112,6 +159,25 @@ public interface RestSpreadsheets {
 	void updateCell( @PathParam("sheetId") String sheetId, @PathParam("cell") String cell, String rawValue, 
 			@QueryParam("userId") String userId, @QueryParam("password") String password);
 
+	/**
+	 * Updates the raw values of several cells of a spreadsheet at once. Either all cells are updated or none.
+	 * 
+	 * @param userId - The user performing the update.
+	 * @param sheetId - the spreadsheet being updated.
+	 * @param cells - the new raw values, by cell name (e.g. {"A1": "3", "B2": "=A1*2"})
+	 * @param password - the password of the owner of the spreadsheet
+	 * 
+	 * @return 204, if the operation was successful
+	 * 		  404, if no spreadsheet exists with the given sheetid
+	 *        403, if the password is incorrect.
+	 *        400 otherwise, e.g. if a cell name is invalid or outside the spreadsheet
+	 **/
+	@POST
+	@Path("/{sheetId}/cells")
+	@Consumes(MediaType.APPLICATION_JSON)
+	void updateCells( @PathParam("sheetId") String sheetId, Map<String, String> cells, 
+			@QueryParam("userId") String userId, @QueryParam("password") String password);
+
 	
 	/**
 	 * Adds a new user to the list of shares of a spreadsheet. Only the owner can call this method.
@@ -179,6 +245,7 @@ public interface RestSpreadsheets {
 	 */
 	@GET
 	@Path("/{sheetId}/{userId}/{range}")
+	@Produces({MediaType.APPLICATION_JSON, BINARY_VALUES})
 	String[][] importRange(@PathParam("sheetId") String sheetId, @PathParam("userId") String userId,
 			@PathParam("range") String range,  @QueryParam("twclient") Timestamp twClient, @QueryParam("secret") String secret, @HeaderParam(HEADER_VERSION) Long version);
 	
@@ -19,6 +19,7 @@ import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import tp1.api.service.rest.RestSpreadsheets;
 import tp1.google.replies.GoogleSheetsReturn;
+import tp1.impl.BinaryValuesProvider;
 import tp1.util.InsecureHostnameVerifier;
 
 public class SheetsMiddleman {
@@ -77,10 +78,16 @@ public class SheetsMiddleman {
 		boolean success = false;
 		String[][] rangeValues = null;
 
-		while (!success && retries < MAX_RETRIES) {
+		//UMA IMPORTACAO CANCELADA POR FALTA DE TEMPO NAO VOLTA A TENTAR
+		while (!success && retries < MAX_RETRIES && !Thread.currentThread().isInterrupted()) {
 			try {
 
-				Response r = localTarget.request().accept(MediaType.APPLICATION_JSON).get(); // MAKING THE REQUEST
+				Response r;
+				if (sheetURL.contains(GOOGLE_APIS))
+					r = localTarget.request().accept(MediaType.APPLICATION_JSON).get(); // MAKING THE REQUEST
+				else
+					//PREFERE O FORMATO BINARIO, MAIS COMPACTO E RAPIDO DE LER
+					r = localTarget.request().accept(RestSpreadsheets.BINARY_VALUES, MediaType.APPLICATION_JSON + ";q=0.5").get();
 
 				if (r.getStatus() == Status.OK.getStatusCode() && r.hasEntity()) {
 					System.out.println(SUCCESS);
@@ -177,6 +184,7 @@ public class SheetsMiddleman {
 		ClientConfig config = new ClientConfig();
 		config.property(ClientProperties.CONNECT_TIMEOUT, CONNECTION_TIMEOUT);
 		config.property(ClientProperties.READ_TIMEOUT, REPLY_TIMEOUT);
+		config.register(BinaryValuesProvider.class);
 		return ClientBuilder.newClient(config);
 	}
 
@@ -186,7 +194,8 @@ public class SheetsMiddleman {
 		try {
 			Thread.sleep(RETRY_PERIOD);
 		} catch (InterruptedException ie) {
-			ie.printStackTrace();
+			Thread.currentThread().interrupt();
+			return;
 		}
 		System.out.println(RETRY_CONNECTION);
 	}
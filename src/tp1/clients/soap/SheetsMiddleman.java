@@ -63,7 +63,8 @@ public class SheetsMiddleman {
 		if(numberOfTries > 0)
 			maxTries = numberOfTries;
 
-		while (!success && retries < maxTries) {
+		//UMA IMPORTACAO CANCELADA POR FALTA DE TEMPO NAO VOLTA A TENTAR
+		while (!success && retries < maxTries && !Thread.currentThread().isInterrupted()) {
 
 			try {
 				System.out.println(REQUEST + url);
@@ -145,7 +146,8 @@ public class SheetsMiddleman {
 		try {
 			Thread.sleep(RETRY_PERIOD);
 		} catch (InterruptedException ie) {
-			ie.printStackTrace();
+			Thread.currentThread().interrupt();
+			return;
 		}
 		System.out.println(RETRY_CONNECTION);
 	}
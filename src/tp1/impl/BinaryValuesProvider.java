@@ -0,0 +1,65 @@
+package tp1.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.MessageBodyReader;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetValues;
+import tp1.api.service.rest.RestSpreadsheets;
+import tp1.util.BinaryValues;
+
+/**
+ *
+ * Reads and writes spreadsheets and matrices of values in the binary media type of BinaryValues. Registered by
+ * the servers, and by the clients that import ranges from other servers.
+ *
+ */
+@Provider
+@Produces(RestSpreadsheets.BINARY_VALUES)
+@Consumes(RestSpreadsheets.BINARY_VALUES)
+public class BinaryValuesProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+	@Override
+	public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return (type == Spreadsheet.class || type == String[][].class) && isBinary(mediaType);
+	}
+
+	@Override
+	public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+		if (Spreadsheet.class.equals(type))
+			return BinaryValues.readSpreadsheet(entityStream);
+		return BinaryValues.readValues(entityStream);
+	}
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return (type == Spreadsheet.class || type == SpreadsheetValues.class || type == String[][].class)
+				&& isBinary(mediaType);
+	}
+
+	@Override
+	public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+		if (entity instanceof Spreadsheet)
+			BinaryValues.writeSpreadsheet((Spreadsheet) entity, entityStream);
+		else if (entity instanceof SpreadsheetValues)
+			BinaryValues.writeValues((SpreadsheetValues) entity, entityStream);
+		else
+			BinaryValues.writeValues((String[][]) entity, entityStream);
+	}
+
+	private static boolean isBinary(MediaType mediaType) {
+		return mediaType != null && mediaType.isCompatible(MediaType.valueOf(RestSpreadsheets.BINARY_VALUES));
+	}
+}
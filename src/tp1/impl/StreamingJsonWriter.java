@@ -0,0 +1,112 @@
+package tp1.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetValues;
+import tp1.util.CellStorage;
+
+/**
+ *
+ * Writes spreadsheets and matrices of values as JSON row by row, as they are read, in the same format as the
+ * default Jackson provider. The raw values of a spreadsheet, and the values of a sheet without formulas, are read
+ * from its typed storage, without building a String[][], and only the buffer of the generator and one row are
+ * kept in memory.
+ *
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+public class StreamingJsonWriter implements MessageBodyWriter<Object> {
+
+	private static final JsonFactory factory = new JsonFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+	@Override
+	public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+		return type == Spreadsheet.class || type == SpreadsheetValues.class || type == String[][].class;
+	}
+
+	@Override
+	public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+		JsonGenerator json = factory.createGenerator(entityStream, JsonEncoding.UTF8);
+
+		if (entity instanceof Spreadsheet)
+			writeSpreadsheet(json, (Spreadsheet) entity);
+		else if (entity instanceof SpreadsheetValues)
+			writeValues(json, (SpreadsheetValues) entity);
+		else
+			writeValues(json, SpreadsheetValues.of((String[][]) entity));
+
+		json.close();
+	}
+
+	private static void writeSpreadsheet(JsonGenerator json, Spreadsheet sheet) throws IOException {
+		json.writeStartObject();
+		json.writeStringField("sheetId", sheet.getSheetId());
+		json.writeStringField("owner", sheet.getOwner());
+		json.writeStringField("sheetURL", sheet.getSheetURL());
+		json.writeNumberField("rows", sheet.getRows());
+		json.writeNumberField("columns", sheet.getColumns());
+
+		json.writeFieldName("sharedWith");
+		if (sheet.getSharedWith() == null)
+			json.writeNull();
+		else {
+			json.writeStartArray();
+			for (String user : sheet.getSharedWith())
+				json.writeString(user);
+			json.writeEndArray();
+		}
+
+		json.writeFieldName("rawValues");
+		CellStorage cells = sheet.cells();
+		if (cells == null)
+			json.writeNull();
+		else {
+			json.writeStartArray();
+			for (int row = 0; row < cells.rows(); row++) {
+				json.writeStartArray();
+				for (int col = 0; col < cells.columns(); col++)
+					json.writeString(cells.raw(row, col));
+				json.writeEndArray();
+			}
+			json.writeEndArray();
+		}
+
+		json.writeEndObject();
+	}
+
+	private static void writeValues(JsonGenerator json, SpreadsheetValues values) throws IOException {
+		int rows = values.rows();
+		if (rows < 0) {
+			json.writeNull();
+			return;
+		}
+
+		json.writeStartArray();
+		for (int r = 0; r < rows; r++) {
+			String[] row = values.row(r);
+			if (row == null)
+				json.writeNull();
+			else {
+				json.writeStartArray();
+				for (String value : row)
+					json.writeString(value);
+				json.writeEndArray();
+			}
+		}
+		json.writeEndArray();
+	}
+}
@@ -0,0 +1,215 @@
+package tp1.impl.engine;
+
+import java.util.Arrays;
+
+import tp1.impl.engine.formula.EvaluationContext;
+import tp1.impl.engine.formula.FormulaError;
+import tp1.impl.engine.formula.RangeAggregate;
+
+/**
+ *
+ * Per column indexes of the values of a SheetGraph, so that SUM, COUNT, AVERAGE, MIN and MAX of a range answer in
+ * O(log rows) per column instead of reading every cell.
+ *
+ * A column is indexed the first time a range over it is aggregated, and is kept up to date through update(). Each
+ * index has Fenwick trees with the sums of the integer numbers, the number of numbers, of other numbers and of
+ * errors, and segment trees with the minimum and maximum. Sums are kept as longs, and only answered when every
+ * number of the range is an integer small enough for the sum to be exact: then it is the same, bit for bit, as
+ * adding the numbers one by one as doubles.
+ *
+ * Indexing can be disabled with -Dsheets.engine.aggregates=false.
+ *
+ */
+class ColumnAggregates {
+
+	static boolean enabled = Boolean.parseBoolean(System.getProperty("sheets.engine.aggregates", "true"));
+
+	// INTERVALOS MAIS PEQUENOS SAO LIDOS CELULA A CELULA
+	static final int MIN_ROWS = 16;
+
+	// COM NUMEROS ATE 2^32 E ATE 2^20 CELULAS, TODAS AS SOMAS PARCIAIS SAO EXATAS EM DOUBLE (2^53)
+	private static final double MAX_EXACT = 1L << 32;
+	private static final long MAX_EXACT_CELLS = 1L << 20;
+
+	private static final byte NONE = 0, EXACT = 1, INEXACT = 2, ERROR = 3;
+
+	private final int rows, cols;
+	private final EvaluationContext values;
+	private final Column[] columns;
+
+	/**
+	 * @param values - the values of the sheet, read when a column is indexed.
+	 */
+	ColumnAggregates(int rows, int cols, EvaluationContext values) {
+		this.rows = rows;
+		this.cols = cols;
+		this.values = values;
+		this.columns = new Column[cols];
+	}
+
+	/**
+	 * Aggregates the numbers of a range of cells.
+	 * @return the aggregate, or null if the range is too small or indexing is disabled.
+	 */
+	RangeAggregate aggregate(int topRow, int topCol, int botRow, int botCol) {
+		botRow = Math.min(botRow, rows - 1);
+		botCol = Math.min(botCol, cols - 1);
+		if (!enabled || topRow < 0 || topCol < 0 || topCol > botCol || botRow - topRow + 1 < MIN_ROWS)
+			return null;
+
+		long sum = 0;
+		int count = 0, inexact = 0, errors = 0;
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+		for (int col = topCol; col <= botCol; col++) {
+			Column column = column(col);
+			errors += column.errors.sum(topRow, botRow);
+			sum += column.sums.sum(topRow, botRow);
+			count += column.counts.sum(topRow, botRow);
+			inexact += column.inexact.sum(topRow, botRow);
+			min = Math.min(min, column.min(topRow, botRow));
+			max = Math.max(max, column.max(topRow, botRow));
+		}
+
+		boolean exact = inexact == 0 && (long) (botRow - topRow + 1) * (botCol - topCol + 1) <= MAX_EXACT_CELLS;
+		return new RangeAggregate(exact ? (double) sum : Double.NaN, exact, count, min, max, errors);
+	}
+
+	/**
+	 * Records the new value of a cell. Must not run at the same time as aggregate().
+	 */
+	void update(int row, int col, Object value) {
+		Column column = columns[col];
+		if (column != null)
+			column.set(row, value);
+	}
+
+	/**
+	 * Returns the index of a column, building it if needed. Formulas evaluated in parallel may build the same
+	 * column at the same time, so building is synchronized; the arrays of the index are final and filled in the
+	 * constructor, so they are safely visible to the other threads.
+	 */
+	private Column column(int col) {
+		Column column = columns[col];
+		if (column == null)
+			synchronized (this) {
+				column = columns[col];
+				if (column == null)
+					columns[col] = column = new Column(col);
+			}
+		return column;
+	}
+
+	private final class Column {
+		final byte[] kinds;
+		final long[] numbers;
+		final Fenwick sums, counts, inexact, errors;
+		// ARVORES DE SEGMENTOS: FOLHAS EM [rows, 2 * rows)
+		final double[] mins, maxs;
+
+		Column(int col) {
+			kinds = new byte[rows];
+			numbers = new long[rows];
+			sums = new Fenwick(rows);
+			counts = new Fenwick(rows);
+			inexact = new Fenwick(rows);
+			errors = new Fenwick(rows);
+			mins = new double[2 * rows];
+			maxs = new double[2 * rows];
+			Arrays.fill(mins, Double.POSITIVE_INFINITY);
+			Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+
+			for (int row = 0; row < rows; row++)
+				set(row, values.valueAt(row, col));
+		}
+
+		void set(int row, Object value) {
+			byte kind = NONE;
+			long number = 0;
+			double d = Double.NaN;
+
+			if (value instanceof Double) {
+				d = (Double) value;
+				if (d == Math.rint(d) && Math.abs(d) <= MAX_EXACT) {
+					kind = EXACT;
+					number = (long) d;
+				} else
+					kind = INEXACT;
+			} else if (value instanceof FormulaError)
+				kind = ERROR;
+
+			byte oldKind = kinds[row];
+			sums.add(row, number - numbers[row]);
+			counts.add(row, isNumber(kind) - isNumber(oldKind));
+			inexact.add(row, (kind == INEXACT ? 1 : 0) - (oldKind == INEXACT ? 1 : 0));
+			errors.add(row, (kind == ERROR ? 1 : 0) - (oldKind == ERROR ? 1 : 0));
+
+			kinds[row] = kind;
+			numbers[row] = number;
+
+			boolean isNumber = kind == EXACT || kind == INEXACT;
+			int i = row + rows;
+			mins[i] = isNumber ? d : Double.POSITIVE_INFINITY;
+			maxs[i] = isNumber ? d : Double.NEGATIVE_INFINITY;
+			for (i >>= 1; i >= 1; i >>= 1) {
+				mins[i] = Math.min(mins[2 * i], mins[2 * i + 1]);
+				maxs[i] = Math.max(maxs[2 * i], maxs[2 * i + 1]);
+			}
+		}
+
+		double min(int from, int to) {
+			double min = Double.POSITIVE_INFINITY;
+			for (int l = from + rows, r = to + rows + 1; l < r; l >>= 1, r >>= 1) {
+				if ((l & 1) == 1)
+					min = Math.min(min, mins[l++]);
+				if ((r & 1) == 1)
+					min = Math.min(min, mins[--r]);
+			}
+			return min;
+		}
+
+		double max(int from, int to) {
+			double max = Double.NEGATIVE_INFINITY;
+			for (int l = from + rows, r = to + rows + 1; l < r; l >>= 1, r >>= 1) {
+				if ((l & 1) == 1)
+					max = Math.max(max, maxs[l++]);
+				if ((r & 1) == 1)
+					max = Math.max(max, maxs[--r]);
+			}
+			return max;
+		}
+
+		private int isNumber(byte kind) {
+			return kind == EXACT || kind == INEXACT ? 1 : 0;
+		}
+	}
+
+	/**
+	 * Fenwick tree of longs: adds to one position and sums a range of positions in O(log n).
+	 */
+	private static final class Fenwick {
+		final long[] tree;
+
+		Fenwick(int size) {
+			tree = new long[size + 1];
+		}
+
+		void add(int i, long delta) {
+			if (delta == 0)
+				return;
+			for (i++; i < tree.length; i += i & -i)
+				tree[i] += delta;
+		}
+
+		long sum(int from, int to) {
+			return prefix(to + 1) - prefix(from);
+		}
+
+		private long prefix(int n) {
+			long sum = 0;
+			for (; n > 0; n -= n & -n)
+				sum += tree[n];
+			return sum;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package tp1.impl.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.EvaluationBudget;
+import tp1.util.CellStorage;
+
+/**
+ *
+ * Fetches the ranges imported by the importrange formulas of a sheet before they are needed, all at the same time
+ * and each distinct (sheet, range) pair only once. The time to resolve the imports of a sheet becomes the time of
+ * the slowest one instead of the sum of all.
+ *
+ * Each fetch is charged to the budget of the sheet, and fetches still running when its time runs out are
+ * cancelled. The ranges that are not fetched are imported as null.
+ *
+ */
+class ImportPrefetcher {
+
+	private static Logger Log = Logger.getLogger(ImportPrefetcher.class.getName());
+
+	private static final ExecutorService exec = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "import-prefetch");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final AbstractSpreadsheet sheet;
+	private final Map<String, String[]> targets;
+
+	ImportPrefetcher(AbstractSpreadsheet sheet) {
+		this.sheet = sheet;
+		this.targets = new HashMap<String, String[]>();
+	}
+
+	/**
+	 * Fetches the ranges of every importrange formula of a sheet.
+	 * @return the sheet, answering getRangeValues() for those ranges without calling the original sheet.
+	 */
+	static AbstractSpreadsheet prefetchAll(AbstractSpreadsheet sheet) {
+		ImportPrefetcher prefetcher = new ImportPrefetcher(sheet);
+		sheet.forEachPopulatedCell((row, col) -> {
+			if (sheet.cellKind(row, col) != CellStorage.Kind.IMPORTRANGE)
+				return;
+			var matcher = SpreadsheetEngineImpl.IMPORTRANGE_PATTERN.matcher(sheet.cellRawValue(row, col));
+			if (matcher.matches())
+				prefetcher.add(matcher.group(1), matcher.group(2));
+		});
+		return prefetcher.fetch();
+	}
+
+	/**
+	 * Adds a range to fetch.
+	 */
+	void add(String sheetURL, String range) {
+		targets.putIfAbsent(key(sheetURL, range), new String[] { sheetURL, range });
+	}
+
+	/**
+	 * Fetches every added range concurrently and waits for all of them.
+	 * @return the sheet, answering getRangeValues() for the fetched ranges without calling the original sheet.
+	 */
+	AbstractSpreadsheet fetch() {
+		Map<String, String[][]> fetched = new HashMap<String, String[][]>();
+		EvaluationBudget budget = sheet.budget();
+
+		List<String> keys = new ArrayList<String>();
+		for (String key : targets.keySet()) {
+			if (budget.chargeFetch())
+				keys.add(key);
+			else
+				fetched.put(key, null);
+		}
+
+		// SEM LIMITE DE TEMPO, UM UNICO INTERVALO E OBTIDO NESTA THREAD
+		if (keys.size() == 1 && !budget.isTimed()) {
+			String[] target = targets.get(keys.get(0));
+			fetched.put(keys.get(0), sheet.getRangeValues(target[0], target[1]));
+		} else if (!keys.isEmpty()) {
+			List<Future<String[][]>> futures = new ArrayList<Future<String[][]>>();
+
+			for (String key : keys) {
+				String[] target = targets.get(key);
+				futures.add(exec.submit(() -> sheet.getRangeValues(target[0], target[1])));
+			}
+
+			for (int i = 0; i < keys.size(); i++) {
+				try {
+					fetched.put(keys.get(i), futures.get(i).get(budget.remainingMillis(), TimeUnit.MILLISECONDS));
+				} catch (TimeoutException e) {
+					Log.info("Out of time importing range " + keys.get(i) + ": " + budget);
+					budget.expire();
+					futures.get(i).cancel(true);
+					fetched.put(keys.get(i), null);
+				} catch (ExecutionException | RuntimeException e) {
+					Log.info("Failed to import range " + keys.get(i) + ": " + e.getMessage());
+					fetched.put(keys.get(i), null);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					futures.get(i).cancel(true);
+					fetched.put(keys.get(i), null);
+				}
+			}
+		}
+
+		return new AbstractSpreadsheet() {
+
+			@Override
+			public int rows() {
+				return sheet.rows();
+			}
+
+			@Override
+			public int columns() {
+				return sheet.columns();
+			}
+
+			@Override
+			public String sheetId() {
+				return sheet.sheetId();
+			}
+
+			@Override
+			public EvaluationBudget budget() {
+				return sheet.budget();
+			}
+
+			@Override
+			public String cellRawValue(int row, int col) {
+				return sheet.cellRawValue(row, col);
+			}
+
+			@Override
+			public CellStorage.Kind cellKind(int row, int col) {
+				return sheet.cellKind(row, col);
+			}
+
+			@Override
+			public double cellNumberValue(int row, int col) {
+				return sheet.cellNumberValue(row, col);
+			}
+
+			@Override
+			public boolean cellBooleanValue(int row, int col) {
+				return sheet.cellBooleanValue(row, col);
+			}
+
+			@Override
+			public void forEachPopulatedCell(CellStorage.CellVisitor visitor) {
+				sheet.forEachPopulatedCell(visitor);
+			}
+
+			@Override
+			public String[][] getRangeValues(String sheetURL, String range) {
+				String key = key(sheetURL, range);
+				if (fetched.containsKey(key))
+					return fetched.get(key);
+				return sheet.getRangeValues(sheetURL, range);
+			}
+		};
+	}
+
+	private static String key(String sheetURL, String range) {
+		return sheetURL + "\n" + range;
+	}
+}
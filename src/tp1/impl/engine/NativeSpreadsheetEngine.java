@@ -0,0 +1,171 @@
+package tp1.impl.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.impl.engine.formula.FormulaException;
+import tp1.util.CellRange;
+
+/**
+ *
+ * Spreadsheet engine that evaluates formulas natively and keeps, for each sheet, the computed values and the graph
+ * of dependencies between cells. After the first computation of a sheet, only the cells changed through
+ * cellUpdated(), and the cells that depend on them, are evaluated again.
+ *
+ * Ranges of sheets that were not computed yet are evaluated by a RangeEvaluator, which only loads the cells
+ * the range depends on.
+ *
+ * Large computations are evaluated in parallel on the common ForkJoinPool.
+ *
+ * Sheets with formulas the native engine cannot compile are computed by SpreadsheetEngineImpl.
+ *
+ */
+public class NativeSpreadsheetEngine implements SpreadsheetEngine {
+
+	private static Logger Log = Logger.getLogger(NativeSpreadsheetEngine.class.getName());
+
+	private static final int MAX_GRAPHS = 512;
+
+	private static final NativeSpreadsheetEngine instance = new NativeSpreadsheetEngine();
+
+	// GRAFOS DAS FOLHAS MAIS RECENTEMENTE CALCULADAS
+	private final Map<String, SheetGraph> graphs;
+	// FOLHAS CALCULADAS PELO GEMBOX ATE A PROXIMA ALTERACAO
+	private final Map<String, Boolean> fallbacks;
+
+	private NativeSpreadsheetEngine() {
+		graphs = lru();
+		fallbacks = lru();
+	}
+
+	static public SpreadsheetEngine getInstance() {
+		return instance;
+	}
+
+	@Override
+	public String[][] computeSpreadsheetValues(AbstractSpreadsheet sheet) {
+		SheetGraph graph = null;
+		synchronized (graphs) {
+			if (!fallbacks.containsKey(sheet.sheetId())) {
+				graph = graphs.get(sheet.sheetId());
+				if (graph == null || !graph.fits(sheet)) {
+					graph = new SheetGraph(sheet.rows(), sheet.columns(), ForkJoinPool.commonPool());
+					graphs.put(sheet.sheetId(), graph);
+				}
+			}
+		}
+		if (graph == null)
+			return computeWithGemBox(sheet);
+
+		try {
+			return graph.compute(sheet);
+		} catch (FormulaException e) {
+			Log.info("Falling back to GemBox for sheet " + sheet.sheetId() + ": " + e.getMessage());
+			synchronized (graphs) {
+				graphs.remove(sheet.sheetId(), graph);
+				fallbacks.put(sheet.sheetId(), true);
+			}
+			return computeWithGemBox(sheet);
+		}
+	}
+
+	@Override
+	public String[][] computeRangeValues(AbstractSpreadsheet sheet, CellRange range) {
+		if (range.topRow < 0)
+			return SpreadsheetEngine.super.computeRangeValues(sheet, range);
+
+		SheetGraph graph;
+		boolean fallback;
+		synchronized (graphs) {
+			graph = graphs.get(sheet.sheetId());
+			fallback = fallbacks.containsKey(sheet.sheetId());
+		}
+
+		try {
+			// SE A FOLHA AINDA NAO FOI CALCULADA, AVALIAR APENAS AS CELULAS NECESSARIAS
+			if (!fallback && graph != null && graph.fits(sheet) && graph.isBuilt())
+				return graph.computeRange(sheet, range);
+			if (!fallback)
+				return new RangeEvaluator(sheet).compute(range);
+		} catch (FormulaException e) {
+			Log.info("Falling back to GemBox for range of sheet " + sheet.sheetId() + ": " + e.getMessage());
+		}
+		return range.extractRangeValuesFrom(computeWithGemBox(sheet));
+	}
+
+	@Override
+	public void cellUpdated(String sheetId, String cell) {
+		SheetGraph graph;
+		synchronized (graphs) {
+			fallbacks.remove(sheetId);
+			graph = graphs.get(sheetId);
+		}
+		if (graph == null)
+			return;
+
+		CellRange range = new CellRange(cell + ":" + cell);
+		if (range.topRow < 0)
+			sheetDeleted(sheetId);
+		else
+			graph.invalidate(range.topRow, range.topCol);
+	}
+
+	/**
+	 * Returns the cells of a sheet whose values may have changed after some of its cells were updated, using the
+	 * dependencies found by the last computation of the sheet.
+	 * @param cells - the updated cells, as {row, col}.
+	 * @return the cells, as {row, col}, or null if they are not known (e.g. the sheet was not computed by the
+	 * native engine since the updates, or imports ranges).
+	 */
+	@Override
+	public List<int[]> affectedCells(String sheetId, List<int[]> cells) {
+		SheetGraph graph;
+		synchronized (graphs) {
+			graph = fallbacks.containsKey(sheetId) ? null : graphs.get(sheetId);
+		}
+		if (graph == null)
+			return null;
+
+		Set<Integer> affected = graph.affectedBy(cells);
+		if (affected == null)
+			return null;
+
+		List<int[]> result = new ArrayList<int[]>(affected.size());
+		for (int i : affected)
+			result.add(graph.cell(i));
+		return result;
+	}
+
+	@Override
+	public void sheetDeleted(String sheetId) {
+		synchronized (graphs) {
+			graphs.remove(sheetId);
+			fallbacks.remove(sheetId);
+		}
+	}
+
+	private static <V> Map<String, V> lru() {
+		return new LinkedHashMap<String, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > MAX_GRAPHS;
+			}
+		};
+	}
+
+	/**
+	 * Computes a sheet with SpreadsheetEngineImpl, fetching the ranges of all its importrange formulas beforehand.
+	 */
+	private String[][] computeWithGemBox(AbstractSpreadsheet sheet) {
+		return SpreadsheetEngineImpl.getInstance().computeSpreadsheetValues(ImportPrefetcher.prefetchAll(sheet));
+	}
+}
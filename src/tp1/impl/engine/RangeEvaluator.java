@@ -0,0 +1,204 @@
+package tp1.impl.engine;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.impl.engine.formula.EvaluationContext;
+import tp1.impl.engine.formula.Formula;
+import tp1.impl.engine.formula.FormulaCache;
+import tp1.impl.engine.formula.FormulaError;
+import tp1.impl.engine.formula.FormulaException;
+import tp1.impl.engine.formula.Values;
+import tp1.util.CellRange;
+
+/**
+ *
+ * Evaluates the cells of a range of a sheet, loading only those cells and the cells they transitively depend on.
+ * Used for the sheets whose SheetGraph was not built yet, so that importing a few cells of a large sheet does not
+ * require loading the whole sheet. Formulas left unevaluated when the budget of the sheet runs out get the BUDGET
+ * error.
+ *
+ */
+class RangeEvaluator implements EvaluationContext {
+
+	private final AbstractSpreadsheet sheet;
+	private final int rows, cols;
+
+	private final Map<Integer, Object> values;
+	private final Map<Integer, Formula> formulas;
+	private final Map<Integer, String[]> imports;
+
+	RangeEvaluator(AbstractSpreadsheet sheet) {
+		this.sheet = sheet;
+		this.rows = sheet.rows();
+		this.cols = sheet.columns();
+		this.values = new HashMap<Integer, Object>();
+		this.formulas = new LinkedHashMap<Integer, Formula>();
+		this.imports = new HashMap<Integer, String[]>();
+	}
+
+	/**
+	 * Computes the values of a range of cells. Cells of the range outside the sheet are empty.
+	 * @throws FormulaException - if a needed cell has a formula the native engine does not support.
+	 */
+	String[][] compute(CellRange range) throws FormulaException {
+		Deque<Integer> toLoad = new ArrayDeque<Integer>();
+		Set<Integer> loaded = new HashSet<Integer>();
+
+		for (int row = range.topRow; row <= Math.min(range.botRow, rows - 1); row++)
+			for (int col = range.topCol; col <= Math.min(range.botCol, cols - 1); col++)
+				toLoad.add(index(row, col));
+
+		// CARREGAR AS CELULAS DO INTERVALO E AS CELULAS DE QUE DEPENDEM
+		while (!toLoad.isEmpty()) {
+			int i = toLoad.poll();
+			if (!loaded.add(i))
+				continue;
+
+			Formula formula = load(i);
+			if (formula != null)
+				visitReferences(formula, dep -> {
+					if (!loaded.contains(dep))
+						toLoad.add(dep);
+				});
+		}
+
+		resolveImports();
+		evaluate();
+
+		var rangeValues = new String[range.rows()][range.cols()];
+		for (int r = 0; r < range.rows(); r++)
+			for (int c = 0; c < range.cols(); c++) {
+				int row = range.topRow + r, col = range.topCol + c;
+				Object value = row < rows && col < cols ? values.get(index(row, col)) : null;
+				rangeValues[r][c] = Values.render(value, SpreadsheetEngineImpl.ERROR);
+			}
+		return rangeValues;
+	}
+
+	@Override
+	public Object valueAt(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= cols)
+			return null;
+		return values.get(index(row, col));
+	}
+
+	/**
+	 * Loads the value of a cell.
+	 * @return the formula of the cell, or null if it has none.
+	 */
+	private Formula load(int i) throws FormulaException {
+		int row = i / cols, col = i % cols;
+
+		switch (sheet.cellKind(row, col)) {
+		case FORMULA:
+			Formula formula = FormulaCache.compile(sheet.cellRawValue(row, col));
+			formulas.put(i, formula);
+			return formula;
+		case IMPORTRANGE:
+			var matcher = SpreadsheetEngineImpl.IMPORTRANGE_PATTERN.matcher(sheet.cellRawValue(row, col));
+			if (matcher.matches())
+				imports.put(i, new String[] { matcher.group(1), matcher.group(2) });
+			else
+				values.put(i, FormulaError.NA);
+			return null;
+		case NUMBER:
+			values.put(i, sheet.cellNumberValue(row, col));
+			return null;
+		case BOOLEAN:
+			values.put(i, sheet.cellBooleanValue(row, col));
+			return null;
+		case TEXT:
+			values.put(i, sheet.cellRawValue(row, col));
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Imports the values of the loaded importrange formulas, fetching all of their ranges at the same time.
+	 */
+	private void resolveImports() {
+		if (imports.isEmpty())
+			return;
+
+		ImportPrefetcher prefetcher = new ImportPrefetcher(sheet);
+		for (String[] target : imports.values())
+			prefetcher.add(target[0], target[1]);
+
+		AbstractSpreadsheet prefetched = prefetcher.fetch();
+		for (var entry : imports.entrySet())
+			values.put(entry.getKey(),
+					SheetGraph.importedValue(prefetched.getRangeValues(entry.getValue()[0], entry.getValue()[1])));
+	}
+
+	/**
+	 * Evaluates the loaded formulas, each one after the formulas it depends on. Formulas that take part in a
+	 * cycle evaluate to an error.
+	 */
+	private void evaluate() {
+		Set<Integer> pending = new HashSet<Integer>(formulas.keySet());
+		Set<Integer> inProgress = new HashSet<Integer>();
+		Set<Integer> cyclic = new HashSet<Integer>();
+		Deque<Integer> stack = new ArrayDeque<Integer>();
+
+		for (int start : formulas.keySet()) {
+			if (!pending.contains(start))
+				continue;
+
+			stack.push(start);
+			while (!stack.isEmpty()) {
+				int i = stack.peek();
+
+				if (pending.remove(i)) {
+					inProgress.add(i);
+					visitReferences(formulas.get(i), dep -> {
+						if (pending.contains(dep))
+							stack.push(dep);
+						else if (inProgress.contains(dep))
+							cyclic.add(i);
+					});
+				} else {
+					stack.pop();
+					if (inProgress.remove(i))
+						values.put(i, cyclic.contains(i) ? FormulaError.CYCLE : evaluate(formulas.get(i)));
+				}
+			}
+		}
+	}
+
+	private Object evaluate(Formula formula) {
+		if (!sheet.budget().chargeCells(SheetGraph.cost(formula, rows, cols)))
+			return FormulaError.BUDGET;
+		return formula.evaluate(this);
+	}
+
+	private void visitReferences(Formula formula, IntConsumer visitor) {
+		formula.references(new Formula.ReferenceVisitor() {
+			@Override
+			public void cell(int row, int col) {
+				if (row < rows && col < cols)
+					visitor.accept(index(row, col));
+			}
+
+			@Override
+			public void range(int topRow, int topCol, int botRow, int botCol) {
+				for (int row = topRow; row <= Math.min(botRow, rows - 1); row++)
+					for (int col = topCol; col <= Math.min(botCol, cols - 1); col++)
+						visitor.accept(index(row, col));
+			}
+		});
+	}
+
+	private int index(int row, int col) {
+		return row * cols + col;
+	}
+}
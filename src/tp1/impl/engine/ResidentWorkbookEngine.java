@@ -0,0 +1,249 @@
+package tp1.impl.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.gembox.spreadsheet.ExcelFile;
+import com.gembox.spreadsheet.ExcelWorksheet;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.util.CellRange;
+import tp1.util.CellStorage;
+import tp1.util.RawValueParser;
+
+/**
+ *
+ * GemBox engine that keeps a worksheet per recently computed sheet, instead of creating a new workbook per
+ * computation as SpreadsheetEngineImpl does. The first computation of a sheet copies all its cells into a new
+ * worksheet; the following ones copy only the cells notified through cellUpdated() or that differ from the
+ * snapshot of the sheet of the previous computation, and the importrange cells, whose imported values may have
+ * changed, before calculating the worksheet again. Sheets that are not snapshots, whose differences are not known,
+ * have all their cells copied again.
+ *
+ * The worksheets are kept in an LRU pool bounded by their total number of cells, set with
+ * -Dsheets.engine.resident.maxCells. An importrange cell takes only the first imported value; the following ones
+ * would be overwritten by the cells of the sheet, as in a full computation.
+ *
+ */
+public class ResidentWorkbookEngine implements SpreadsheetEngine {
+
+	private static Logger Log = Logger.getLogger(ResidentWorkbookEngine.class.getName());
+
+	public static final String MAX_CELLS_PROPERTY = "sheets.engine.resident.maxCells";
+	private static final long DEFAULT_MAX_CELLS = 4_000_000;
+
+	private static ResidentWorkbookEngine instance;
+
+	private final long maxCells;
+	// FOLHAS RESIDENTES, DA MENOS PARA A MAIS RECENTEMENTE USADA
+	private final Map<String, Resident> residents;
+	private long residentCells;
+	private long hits, misses, evictions;
+
+	public ResidentWorkbookEngine(long maxCells) {
+		this.maxCells = maxCells;
+		this.residents = new LinkedHashMap<String, Resident>(16, 0.75f, true);
+	}
+
+	synchronized static public SpreadsheetEngine getInstance() {
+		if (instance == null)
+			instance = new ResidentWorkbookEngine(Long.getLong(MAX_CELLS_PROPERTY, DEFAULT_MAX_CELLS));
+		return instance;
+	}
+
+	@Override
+	public String[][] computeSpreadsheetValues(AbstractSpreadsheet sheet) {
+		Resident resident = acquire(sheet);
+
+		synchronized (resident) {
+			RawValueParser parser = new RawValueParser();
+
+			if (!resident.loaded)
+				resident.load(sheet, parser);
+			else
+				resident.applyUpdates(sheet, parser);
+
+			resident.refreshImports(sheet, parser);
+			resident.worksheet.calculate();
+
+			return SpreadsheetEngineImpl.readValues(resident.worksheet, resident.rows, resident.cols);
+		}
+	}
+
+	@Override
+	public void cellUpdated(String sheetId, String cell) {
+		Resident resident;
+		synchronized (this) {
+			resident = residents.get(sheetId);
+		}
+		if (resident == null)
+			return;
+
+		var cellR = new CellRange(cell + ":" + cell);
+		synchronized (resident) {
+			resident.updated.add(cellR.topRow * resident.cols + cellR.topCol);
+		}
+	}
+
+	@Override
+	synchronized public void sheetDeleted(String sheetId) {
+		Resident resident = residents.remove(sheetId);
+		if (resident != null)
+			residentCells -= resident.cells();
+	}
+
+	synchronized public long hits() {
+		return hits;
+	}
+
+	synchronized public long misses() {
+		return misses;
+	}
+
+	synchronized public long evictions() {
+		return evictions;
+	}
+
+	synchronized public int residentSheets() {
+		return residents.size();
+	}
+
+	synchronized public long residentCells() {
+		return residentCells;
+	}
+
+	synchronized public double hitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	@Override
+	synchronized public String toString() {
+		return String.format("resident: %d sheets, %d/%d cells; hits: %d, misses: %d (%.1f%%); evictions: %d",
+				residents.size(), residentCells, maxCells, hits, misses, 100 * hitRate(), evictions);
+	}
+
+	/**
+	 * Returns the resident worksheet of the sheet, adding a new one, not loaded yet, if there is none or the size
+	 * of the sheet changed.
+	 */
+	synchronized private Resident acquire(AbstractSpreadsheet sheet) {
+		Resident resident = residents.get(sheet.sheetId());
+		if (resident != null && resident.rows == sheet.rows() && resident.cols == sheet.columns()) {
+			hits++;
+			return resident;
+		}
+
+		misses++;
+		if (resident != null)
+			residentCells -= resident.cells();
+
+		resident = new Resident(sheet.sheetId(), sheet.rows(), sheet.columns());
+		residents.put(sheet.sheetId(), resident);
+		residentCells += resident.cells();
+
+		// A FOLHA ACABADA DE ADICIONAR E A ULTIMA, E FICA MESMO QUE SOZINHA EXCEDA O LIMITE
+		Iterator<Resident> it = residents.values().iterator();
+		while (residentCells > maxCells && residents.size() > 1) {
+			Resident eldest = it.next();
+			it.remove();
+			residentCells -= eldest.cells();
+			evictions++;
+		}
+
+		Log.info("ResidentWorkbookEngine : " + this);
+		return resident;
+	}
+
+	private static class Resident {
+		final int rows, cols;
+		final ExcelWorksheet worksheet;
+		// INDICES (row * cols + col) DAS CELULAS ALTERADAS DESDE O ULTIMO CALCULO
+		final Set<Integer> updated = new LinkedHashSet<Integer>();
+		// INDICES DAS CELULAS COM IMPORTRANGE
+		final Set<Integer> imports = new LinkedHashSet<Integer>();
+		boolean loaded;
+		// A FOLHA DO ULTIMO CALCULO, PARA ENCONTRAR AS CELULAS QUE MUDARAM DESDE ELE
+		AbstractSpreadsheet previous;
+
+		Resident(String sheetId, int rows, int cols) {
+			this.rows = rows;
+			this.cols = cols;
+			this.worksheet = new ExcelFile().addWorksheet(sheetId);
+		}
+
+		long cells() {
+			return (long) rows * cols;
+		}
+
+		void load(AbstractSpreadsheet sheet, RawValueParser parser) {
+			for (int row = 0; row < rows; row++)
+				for (int col = 0; col < cols; col++)
+					loadCell(sheet, row, col, parser);
+
+			updated.clear();
+			loaded = true;
+			previous = sheet;
+		}
+
+		void applyUpdates(AbstractSpreadsheet sheet, RawValueParser parser) {
+			// UMA VERSAO PODE TER SIDO ALTERADA ANTES DE A SUA NOTIFICACAO CHEGAR, OU SER MAIS ANTIGA QUE A ANTERIOR.
+			// SEM AS DIFERENCAS, AS NOTIFICACOES NAO CHEGAM: A FOLHA PODE SER ANTERIOR A ELAS, E TUDO E RECARREGADO
+			if (!sheet.forEachChangedCell(previous, (row, col) -> updated.add(row * cols + col))) {
+				load(sheet, parser);
+				return;
+			}
+
+			for (int i : updated)
+				loadCell(sheet, i / cols, i % cols, parser);
+			updated.clear();
+			previous = sheet;
+		}
+
+		private void loadCell(AbstractSpreadsheet sheet, int row, int col, RawValueParser parser) {
+			int i = row * cols + col;
+			if (sheet.cellKind(row, col) == CellStorage.Kind.IMPORTRANGE) {
+				imports.add(i);
+				return;
+			}
+
+			imports.remove(i);
+			SpreadsheetEngineImpl.loadCell(sheet, worksheet, row, col, parser);
+		}
+
+		/**
+		 * Sets the importrange cells to the current values of their ranges, fetched concurrently.
+		 */
+		void refreshImports(AbstractSpreadsheet sheet, RawValueParser parser) {
+			if (imports.isEmpty())
+				return;
+
+			ImportPrefetcher prefetcher = new ImportPrefetcher(sheet);
+			for (int i : imports) {
+				var matcher = SpreadsheetEngineImpl.IMPORTRANGE_PATTERN.matcher(sheet.cellRawValue(i / cols, i % cols));
+				if (matcher.matches())
+					prefetcher.add(matcher.group(1), matcher.group(2));
+			}
+			AbstractSpreadsheet prefetched = prefetcher.fetch();
+
+			for (int i : imports) {
+				var cell = worksheet.getCell(i / cols, i % cols);
+				var matcher = SpreadsheetEngineImpl.IMPORTRANGE_PATTERN.matcher(sheet.cellRawValue(i / cols, i % cols));
+				if (!matcher.matches()) {
+					cell.setValue(SpreadsheetEngineImpl.ERROR);
+					continue;
+				}
+
+				String[][] values = prefetched.getRangeValues(matcher.group(1), matcher.group(2));
+				if (values == null || values.length == 0 || values[0].length == 0)
+					cell.setValue(SpreadsheetEngineImpl.ERROR);
+				else
+					SpreadsheetEngineImpl.setCell(null, worksheet, cell, values[0][0], parser);
+			}
+		}
+	}
+}
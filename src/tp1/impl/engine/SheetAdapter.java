@@ -0,0 +1,78 @@
+package tp1.impl.engine;
+
+import tp1.api.Spreadsheet;
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.EvaluationBudget;
+import tp1.util.CellStorage;
+
+/**
+ *
+ * Feeds a Spreadsheet to the SpreadsheetEngine, reading its typed storage directly so numbers and booleans are
+ * not parsed again. Subclasses only need to resolve importrange formulas.
+ *
+ * Each adapter is used for one computation, limited by a new EvaluationBudget. Adapters of snapshots of a sheet
+ * tell the engines which cells changed between them.
+ *
+ */
+public abstract class SheetAdapter implements AbstractSpreadsheet {
+
+	protected final Spreadsheet sheet;
+	private final EvaluationBudget budget;
+
+	public SheetAdapter(Spreadsheet sheet) {
+		this.sheet = sheet;
+		this.budget = EvaluationBudget.forRequest();
+	}
+
+	@Override
+	public EvaluationBudget budget() {
+		return budget;
+	}
+
+	@Override
+	public String sheetId() {
+		return sheet.getSheetId();
+	}
+
+	@Override
+	public int rows() {
+		return sheet.getRows();
+	}
+
+	@Override
+	public int columns() {
+		return sheet.getColumns();
+	}
+
+	@Override
+	public String cellRawValue(int row, int col) {
+		return sheet.getCellRawValue(row, col);
+	}
+
+	@Override
+	public CellStorage.Kind cellKind(int row, int col) {
+		return sheet.cellKind(row, col);
+	}
+
+	@Override
+	public double cellNumberValue(int row, int col) {
+		return sheet.cellNumberValue(row, col);
+	}
+
+	@Override
+	public boolean cellBooleanValue(int row, int col) {
+		return sheet.cellBooleanValue(row, col);
+	}
+
+	@Override
+	public void forEachPopulatedCell(CellStorage.CellVisitor visitor) {
+		sheet.forEachPopulatedCell(visitor);
+	}
+
+	@Override
+	public boolean forEachChangedCell(AbstractSpreadsheet since, CellStorage.CellVisitor visitor) {
+		if (!(since instanceof SheetAdapter))
+			return false;
+		return sheet.forEachChangedCell(((SheetAdapter) since).sheet, visitor);
+	}
+}
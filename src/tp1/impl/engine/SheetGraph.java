@@ -0,0 +1,690 @@
+package tp1.impl.engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.logging.Logger;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.EvaluationBudget;
+import tp1.impl.engine.formula.EvaluationContext;
+import tp1.impl.engine.formula.Formula;
+import tp1.impl.engine.formula.FormulaError;
+import tp1.impl.engine.formula.FormulaException;
+import tp1.impl.engine.formula.FormulaCache;
+import tp1.impl.engine.formula.RangeAggregate;
+import tp1.impl.engine.formula.Values;
+import tp1.util.CellRange;
+import tp1.util.CellStorage;
+import tp1.util.RawValueParser;
+
+/**
+ *
+ * The computed state of one spreadsheet kept by the NativeSpreadsheetEngine: the value of every cell, the compiled
+ * formulas and the graph of dependencies between cells.
+ *
+ * The first computation loads and evaluates every cell. Afterwards, only the cells reported through invalidate()
+ * or that differ from the snapshot of the sheet given to the previous computation, the importrange cells whose
+ * imported value changed, and the formulas that transitively depend on them are evaluated again. Sheets that are
+ * not snapshots, whose differences are not known, have every cell loaded again.
+ *
+ * Each computation is limited by the EvaluationBudget of the sheet. The formulas left unevaluated when it runs out
+ * get the BUDGET error, and are evaluated again by the next computation.
+ *
+ */
+class SheetGraph implements EvaluationContext {
+
+	private static Logger Log = Logger.getLogger(SheetGraph.class.getName());
+
+	// NUMERO MINIMO DE FORMULAS A AVALIAR PARA USAR A AVALIACAO PARALELA
+	static final int PARALLEL_THRESHOLD = 1024;
+	private static final int PARALLEL_LEVEL_THRESHOLD = 64;
+	private static final int TASK_SIZE = 32;
+
+	private final int rows, cols;
+	private final ForkJoinPool pool;
+
+	// VALORES, FORMULAS E VALORES FORMATADOS DAS CELULAS, EM BLOCOS ALOCADOS APENAS QUANDO NECESSARIOS
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	private final Object[][] values;
+	private final Formula[][] formulas;
+	private final String[][] rendered;
+
+	// CELULAS QUE DEPENDEM DIRETAMENTE DE UMA CELULA
+	private final Map<Integer, Set<Integer>> dependents;
+	// INTERVALOS REFERIDOS POR FORMULAS, INDEXADOS PELAS COLUNAS QUE COBREM
+	private final List<RangeDependency>[] rangeDependents;
+	private final Map<Integer, Import> imports;
+	private final Set<Integer> dirty;
+	// SOMAS, CONTAGENS, MINIMOS E MAXIMOS DAS COLUNAS AGREGADAS POR FORMULAS
+	private final ColumnAggregates aggregates;
+
+	private boolean built;
+	// A FOLHA DA ULTIMA COMPUTACAO, PARA ENCONTRAR AS CELULAS QUE MUDARAM DESDE ELA
+	private AbstractSpreadsheet loaded;
+	// LIMITES DA COMPUTACAO EM CURSO
+	private EvaluationBudget budget = EvaluationBudget.UNLIMITED;
+
+	/**
+	 * @param pool - the pool used to evaluate formulas in parallel, or null to always evaluate them serially.
+	 */
+	@SuppressWarnings("unchecked")
+	SheetGraph(int rows, int cols, ForkJoinPool pool) {
+		this.rows = rows;
+		this.cols = cols;
+		this.pool = pool;
+
+		int chunks = (rows * cols + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+		values = new Object[chunks][];
+		formulas = new Formula[chunks][];
+		rendered = new String[chunks][];
+
+		dependents = new HashMap<Integer, Set<Integer>>();
+		rangeDependents = new List[cols];
+		imports = new HashMap<Integer, Import>();
+		dirty = new LinkedHashSet<Integer>();
+		aggregates = new ColumnAggregates(rows, cols, this);
+
+		built = false;
+	}
+
+	/**
+	 * Checks if this graph was built for a sheet with the same dimensions.
+	 */
+	boolean fits(AbstractSpreadsheet sheet) {
+		return sheet.rows() == rows && sheet.columns() == cols;
+	}
+
+	/**
+	 * Records that the raw value of a cell changed. The cell is reloaded on the next computation.
+	 */
+	synchronized void invalidate(int row, int col) {
+		if (built && row >= 0 && row < rows && col >= 0 && col < cols)
+			dirty.add(index(row, col));
+	}
+
+	/**
+	 * Checks if the graph already holds the values of every cell of the sheet.
+	 */
+	synchronized boolean isBuilt() {
+		return built;
+	}
+
+	/**
+	 * Returns the cells whose values may change when some cells change: those cells and every formula that
+	 * transitively depends on them, according to the formulas of the last computation.
+	 * @return the indices of the cells, or null if they are not known: the graph is not up to date or the sheet
+	 * imports ranges, whose values change without any cell of the sheet changing.
+	 */
+	synchronized Set<Integer> affectedBy(List<int[]> cells) {
+		if (!built || !dirty.isEmpty() || !imports.isEmpty())
+			return null;
+
+		Set<Integer> changed = new LinkedHashSet<Integer>();
+		for (int[] cell : cells)
+			if (cell[0] >= 0 && cell[0] < rows && cell[1] >= 0 && cell[1] < cols)
+				changed.add(index(cell[0], cell[1]));
+
+		Set<Integer> affected = new LinkedHashSet<Integer>(changed);
+		collectAffected(changed, affected);
+		return affected;
+	}
+
+	/**
+	 * Brings the values of the sheet up to date and returns them.
+	 * @throws FormulaException - if the sheet has a formula the native engine does not support.
+	 */
+	synchronized String[][] compute(AbstractSpreadsheet sheet) throws FormulaException {
+		update(sheet);
+		return render();
+	}
+
+	/**
+	 * Brings the values of the sheet up to date and returns the values of a range of cells. Cells of the range
+	 * outside the sheet are empty.
+	 * @throws FormulaException - if the sheet has a formula the native engine does not support.
+	 */
+	synchronized String[][] computeRange(AbstractSpreadsheet sheet, CellRange range) throws FormulaException {
+		update(sheet);
+
+		var rangeValues = new String[range.rows()][range.cols()];
+		for (int r = 0; r < range.rows(); r++)
+			for (int c = 0; c < range.cols(); c++) {
+				int row = range.topRow + r, col = range.topCol + c;
+				String value = row < rows && col < cols ? rendered(index(row, col)) : null;
+				rangeValues[r][c] = value == null ? "" : value;
+			}
+		return rangeValues;
+	}
+
+	private void update(AbstractSpreadsheet sheet) throws FormulaException {
+		Set<Integer> changed = new LinkedHashSet<Integer>();
+		Set<Integer> affected = new LinkedHashSet<Integer>();
+
+		if (!built) {
+			List<Integer> populated = new ArrayList<Integer>();
+			sheet.forEachPopulatedCell((row, col) -> populated.add(index(row, col)));
+
+			for (int i : populated) {
+				load(sheet, i);
+				if (formula(i) != null)
+					affected.add(i);
+			}
+			built = true;
+		} else {
+			// UMA VERSAO PODE TER SIDO ALTERADA ANTES DE A SUA NOTIFICACAO CHEGAR, OU SER MAIS ANTIGA QUE A ANTERIOR.
+			// SEM AS DIFERENCAS, AS NOTIFICACOES NAO CHEGAM: A FOLHA PODE SER ANTERIOR A ELAS, E TUDO E RECARREGADO
+			if (loaded == null || !sheet.forEachChangedCell(loaded, (row, col) -> dirty.add(index(row, col)))) {
+				sheet.forEachPopulatedCell((row, col) -> dirty.add(index(row, col)));
+				forEachLoadedCell(dirty::add);
+			}
+
+			for (int i : dirty) {
+				load(sheet, i);
+				changed.add(i);
+			}
+			dirty.clear();
+		}
+		loaded = sheet;
+
+		budget = sheet.budget();
+		resolveImports(sheet, changed);
+
+		collectAffected(changed, affected);
+		evaluate(affected);
+
+		// AS FORMULAS QUE FICARAM POR AVALIAR SAO AVALIADAS NA PROXIMA COMPUTACAO
+		if (budget.exceeded()) {
+			for (int i : affected)
+				if (value(i) == FormulaError.BUDGET)
+					dirty.add(i);
+			Log.info("Evaluation budget exceeded for sheet " + sheet.sheetId() + ": " + budget);
+		}
+		budget = EvaluationBudget.UNLIMITED;
+	}
+
+	@Override
+	public Object valueAt(int row, int col) {
+		if (row < 0 || row >= rows || col < 0 || col >= cols)
+			return null;
+		return value(index(row, col));
+	}
+
+	@Override
+	public RangeAggregate aggregate(int topRow, int topCol, int botRow, int botCol) {
+		return aggregates.aggregate(topRow, topCol, botRow, botCol);
+	}
+
+	// CARREGAMENTO DAS CELULAS
+
+	private void load(AbstractSpreadsheet sheet, int i) throws FormulaException {
+		unregister(i);
+
+		int row = i / cols, col = i % cols;
+
+		switch (sheet.cellKind(row, col)) {
+		case FORMULA:
+			Formula formula = FormulaCache.compile(sheet.cellRawValue(row, col));
+			setFormula(i, formula);
+			register(i, formula);
+			break;
+		case IMPORTRANGE:
+			var matcher = SpreadsheetEngineImpl.IMPORTRANGE_PATTERN.matcher(sheet.cellRawValue(row, col));
+			if (matcher.matches())
+				imports.put(i, new Import(matcher.group(1), matcher.group(2)));
+			else
+				setValue(i, FormulaError.NA);
+			break;
+		case NUMBER:
+			setValue(i, sheet.cellNumberValue(row, col));
+			break;
+		case BOOLEAN:
+			setValue(i, sheet.cellBooleanValue(row, col));
+			break;
+		case TEXT:
+			setValue(i, sheet.cellRawValue(row, col));
+			break;
+		default:
+			setValue(i, null);
+			break;
+		}
+	}
+
+	private void register(int i, Formula formula) {
+		formula.references(new Formula.ReferenceVisitor() {
+			@Override
+			public void cell(int row, int col) {
+				if (row < rows && col < cols)
+					dependents.computeIfAbsent(index(row, col), k -> new HashSet<Integer>()).add(i);
+			}
+
+			@Override
+			public void range(int topRow, int topCol, int botRow, int botCol) {
+				var dependency = new RangeDependency(i, topRow, topCol, botRow, botCol);
+				for (int col = topCol; col <= Math.min(botCol, cols - 1); col++) {
+					if (rangeDependents[col] == null)
+						rangeDependents[col] = new ArrayList<RangeDependency>();
+					rangeDependents[col].add(dependency);
+				}
+			}
+		});
+	}
+
+	private void unregister(int i) {
+		imports.remove(i);
+
+		Formula formula = formula(i);
+		if (formula == null)
+			return;
+
+		setFormula(i, null);
+		formula.references(new Formula.ReferenceVisitor() {
+			@Override
+			public void cell(int row, int col) {
+				if (row < rows && col < cols) {
+					Set<Integer> deps = dependents.get(index(row, col));
+					if (deps != null && deps.remove(i) && deps.isEmpty())
+						dependents.remove(index(row, col));
+				}
+			}
+
+			@Override
+			public void range(int topRow, int topCol, int botRow, int botCol) {
+				for (int col = topCol; col <= Math.min(botCol, cols - 1); col++)
+					if (rangeDependents[col] != null)
+						rangeDependents[col].removeIf(d -> d.cell == i);
+			}
+		});
+	}
+
+	/**
+	 * Fetches the values of every importrange cell, all ranges at the same time. The cells whose value changed are
+	 * added to changed.
+	 */
+	private void resolveImports(AbstractSpreadsheet sheet, Set<Integer> changed) {
+		if (imports.isEmpty())
+			return;
+
+		ImportPrefetcher prefetcher = new ImportPrefetcher(sheet);
+		for (Import imp : imports.values())
+			prefetcher.add(imp.sheetURL, imp.range);
+		AbstractSpreadsheet prefetched = prefetcher.fetch();
+
+		for (var entry : imports.entrySet()) {
+			Import imp = entry.getValue();
+			Object value = importedValue(prefetched.getRangeValues(imp.sheetURL, imp.range));
+
+			int i = entry.getKey();
+			if (!Objects.equals(value, value(i))) {
+				setValue(i, value);
+				changed.add(i);
+			}
+		}
+	}
+
+	// AVALIACAO
+
+	/**
+	 * Adds to affected every formula that transitively depends on the changed cells.
+	 */
+	private void collectAffected(Set<Integer> changed, Set<Integer> affected) {
+		Deque<Integer> queue = new ArrayDeque<Integer>(changed);
+		for (int i : changed)
+			if (formula(i) != null)
+				affected.add(i);
+
+		while (!queue.isEmpty()) {
+			int i = queue.poll();
+
+			Set<Integer> deps = dependents.get(i);
+			if (deps != null)
+				for (int dep : deps)
+					if (affected.add(dep))
+						queue.add(dep);
+
+			int row = i / cols;
+			List<RangeDependency> ranges = rangeDependents[i % cols];
+			if (ranges != null)
+				for (RangeDependency range : ranges)
+					if (range.topRow <= row && row <= range.botRow && affected.add(range.cell))
+						queue.add(range.cell);
+		}
+	}
+
+	/**
+	 * Evaluates the affected formulas, each one after the formulas it depends on. Formulas that take part in a
+	 * cycle evaluate to an error.
+	 *
+	 * When there are enough formulas to evaluate and a pool is available, the formulas are grouped by level (the
+	 * length of the longest chain of affected formulas they depend on) and the formulas of each level are
+	 * evaluated in parallel.
+	 */
+	private void evaluate(Set<Integer> affected) {
+		boolean parallel = pool != null && pool.getParallelism() > 1 && affected.size() >= PARALLEL_THRESHOLD;
+
+		List<Integer> order = new ArrayList<Integer>(affected.size());
+		Map<Integer, Integer> levels = parallel ? new HashMap<Integer, Integer>() : null;
+		List<List<Integer>> byLevel = new ArrayList<List<Integer>>();
+
+		Set<Integer> pending = new HashSet<Integer>(affected);
+		Set<Integer> inProgress = new HashSet<Integer>();
+		Set<Integer> cyclic = new HashSet<Integer>();
+		Deque<Integer> stack = new ArrayDeque<Integer>();
+
+		for (int start : affected) {
+			if (!pending.contains(start))
+				continue;
+
+			stack.push(start);
+			while (!stack.isEmpty()) {
+				int i = stack.peek();
+
+				if (pending.remove(i)) {
+					// VISITAR PRIMEIRO AS FORMULAS DE QUE ESTA DEPENDE
+					inProgress.add(i);
+					visitReferences(i, dep -> {
+						if (pending.contains(dep))
+							stack.push(dep);
+						else if (inProgress.contains(dep))
+							cyclic.add(i);
+					});
+				} else {
+					stack.pop();
+					if (!inProgress.remove(i))
+						continue;
+
+					if (cyclic.contains(i))
+						setValue(i, FormulaError.CYCLE);
+					else if (!parallel)
+						order.add(i);
+					else {
+						int[] level = { 0 };
+						visitReferences(i, dep -> {
+							Integer depLevel = levels.get(dep);
+							if (depLevel != null && depLevel >= level[0])
+								level[0] = depLevel + 1;
+						});
+						levels.put(i, level[0]);
+
+						while (byLevel.size() <= level[0])
+							byLevel.add(new ArrayList<Integer>());
+						byLevel.get(level[0]).add(i);
+					}
+				}
+			}
+		}
+
+		// AS FORMULAS DE CADA NIVEL SO DEPENDEM DE FORMULAS DE NIVEIS ANTERIORES
+		for (int i : order)
+			setValue(i, evaluate(i));
+
+		for (List<Integer> level : byLevel) {
+			if (level.size() < PARALLEL_LEVEL_THRESHOLD)
+				for (int i : level)
+					setValue(i, evaluate(i));
+			else {
+				pool.invoke(new EvaluationTask(level, 0, level.size()));
+
+				// OS AGREGADOS SO SAO ATUALIZADOS DEPOIS DE AVALIADO O NIVEL, PARA NAO MUDAREM DURANTE AS LEITURAS
+				for (int i : level)
+					aggregates.update(i / cols, i % cols, value(i));
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the formula of cell i, if the budget of the computation allows it.
+	 */
+	private Object evaluate(int i) {
+		Formula formula = formula(i);
+		return budget.chargeCells(cost(formula, rows, cols)) ? formula.evaluate(this) : FormulaError.BUDGET;
+	}
+
+	/**
+	 * The cost of evaluating a formula, charged to the budget: one plus the number of cells of the sheet it reads.
+	 */
+	static long cost(Formula formula, int rows, int cols) {
+		long[] cost = { 1 };
+		formula.references(new Formula.ReferenceVisitor() {
+			@Override
+			public void cell(int row, int col) {
+				cost[0]++;
+			}
+
+			@Override
+			public void range(int topRow, int topCol, int botRow, int botCol) {
+				long r = Math.min(botRow, rows - 1) - topRow + 1, c = Math.min(botCol, cols - 1) - topCol + 1;
+				if (r > 0 && c > 0)
+					cost[0] += r * c;
+			}
+		});
+		return cost[0];
+	}
+
+	/**
+	 * Calls visitor for every cell of the sheet referenced by the formula of cell i.
+	 */
+	private void visitReferences(int i, IntConsumer visitor) {
+		formula(i).references(new Formula.ReferenceVisitor() {
+			@Override
+			public void cell(int row, int col) {
+				if (row < rows && col < cols)
+					visitor.accept(index(row, col));
+			}
+
+			@Override
+			public void range(int topRow, int topCol, int botRow, int botCol) {
+				for (int row = topRow; row <= Math.min(botRow, rows - 1); row++)
+					for (int col = topCol; col <= Math.min(botCol, cols - 1); col++)
+						visitor.accept(index(row, col));
+			}
+		});
+	}
+
+	/**
+	 * Evaluates a slice of the formulas of one level, splitting it among the threads of the pool.
+	 */
+	private class EvaluationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Integer> cells;
+		private final int from, to;
+
+		EvaluationTask(List<Integer> cells, int from, int to) {
+			this.cells = cells;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= TASK_SIZE) {
+				for (int k = from; k < to; k++) {
+					int i = cells.get(k);
+					store(i, evaluate(i));
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new EvaluationTask(cells, from, middle), new EvaluationTask(cells, middle, to));
+			}
+		}
+	}
+
+	// METODOS PRIVADOS
+
+	/**
+	 * Visits the cells that hold a value, a formula or an importrange.
+	 */
+	private void forEachLoadedCell(IntConsumer visitor) {
+		for (int c = 0; c < values.length; c++)
+			if (values[c] != null)
+				for (int j = 0; j < CHUNK_SIZE; j++)
+					if (values[c][j] != null || (formulas[c] != null && formulas[c][j] != null))
+						visitor.accept((c << CHUNK_SHIFT) + j);
+		imports.keySet().forEach(visitor::accept);
+	}
+
+	private Object value(int i) {
+		Object[] chunk = values[i >> CHUNK_SHIFT];
+		return chunk == null ? null : chunk[i & (CHUNK_SIZE - 1)];
+	}
+
+	private String rendered(int i) {
+		String[] chunk = rendered[i >> CHUNK_SHIFT];
+		return chunk == null ? null : chunk[i & (CHUNK_SIZE - 1)];
+	}
+
+	private Formula formula(int i) {
+		Formula[] chunk = formulas[i >> CHUNK_SHIFT];
+		return chunk == null ? null : chunk[i & (CHUNK_SIZE - 1)];
+	}
+
+	/**
+	 * Sets the value of a cell, and updates the aggregates of its column.
+	 */
+	private void setValue(int i, Object value) {
+		store(i, value);
+		aggregates.update(i / cols, i % cols, value);
+	}
+
+	/**
+	 * Sets the value of a cell, without updating the aggregates. The chunks of empty cells are only allocated when
+	 * they get a value.
+	 */
+	private void store(int i, Object value) {
+		int c = i >> CHUNK_SHIFT;
+		if (values[c] == null) {
+			if (value == null)
+				return;
+			allocate(c);
+		}
+		values[c][i & (CHUNK_SIZE - 1)] = value;
+		rendered[c][i & (CHUNK_SIZE - 1)] = Values.render(value, SpreadsheetEngineImpl.ERROR);
+	}
+
+	/**
+	 * Sets the formula of a cell. Also allocates the chunks for its value, so that formulas can be evaluated
+	 * in parallel without allocating chunks.
+	 */
+	private void setFormula(int i, Formula formula) {
+		int c = i >> CHUNK_SHIFT;
+		if (formulas[c] == null) {
+			if (formula == null)
+				return;
+			formulas[c] = new Formula[CHUNK_SIZE];
+		}
+		if (values[c] == null)
+			allocate(c);
+		formulas[c][i & (CHUNK_SIZE - 1)] = formula;
+	}
+
+	private void allocate(int c) {
+		values[c] = new Object[CHUNK_SIZE];
+		rendered[c] = new String[CHUNK_SIZE];
+	}
+
+	/**
+	 * Builds the matrix of the values of the sheet. Rows without values share the same array.
+	 */
+	private String[][] render() {
+		var cells = new String[rows][];
+		String[] emptyRow = null;
+
+		for (int row = 0; row < rows; row++) {
+			int from = index(row, 0), to = from + cols - 1;
+
+			boolean empty = true;
+			for (int c = from >> CHUNK_SHIFT; c <= to >> CHUNK_SHIFT && empty; c++)
+				empty = rendered[c] == null;
+
+			if (empty) {
+				if (emptyRow == null) {
+					emptyRow = new String[cols];
+					Arrays.fill(emptyRow, "");
+				}
+				cells[row] = emptyRow;
+				continue;
+			}
+
+			cells[row] = new String[cols];
+			for (int col = 0; col < cols; col++) {
+				String[] chunk = rendered[(from + col) >> CHUNK_SHIFT];
+				String value = chunk == null ? null : chunk[(from + col) & (CHUNK_SIZE - 1)];
+				cells[row][col] = value == null ? "" : value;
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * Converts a raw value that is not a formula into the value of the cell.
+	 */
+	static Object literal(String rawVal) {
+		if (rawVal == null)
+			return null;
+
+		switch (CellStorage.classify(rawVal)) {
+		case EMPTY:
+			return null;
+		case BOOLEAN:
+			return Boolean.parseBoolean(rawVal);
+		case NUMBER:
+			return RawValueParser.parseNumber(rawVal);
+		default:
+			return rawVal;
+		}
+	}
+
+	/**
+	 * Converts the values returned for an importrange formula into the value of its cell.
+	 */
+	static Object importedValue(String[][] rangeValues) {
+		// OS VALORES IMPORTADOS ALEM DA PRIMEIRA CELULA SAO SOBREPOSTOS PELAS CELULAS SEGUINTES
+		if (rangeValues == null || rangeValues.length == 0 || rangeValues[0].length == 0)
+			return FormulaError.NA;
+		return literal(rangeValues[0][0]);
+	}
+
+	private int index(int row, int col) {
+		return row * cols + col;
+	}
+
+	/**
+	 * Returns the {row, col} of a cell index.
+	 */
+	int[] cell(int i) {
+		return new int[] { i / cols, i % cols };
+	}
+
+	private static class RangeDependency {
+		final int cell, topRow, botRow;
+
+		RangeDependency(int cell, int topRow, int topCol, int botRow, int botCol) {
+			this.cell = cell;
+			this.topRow = topRow;
+			this.botRow = botRow;
+		}
+	}
+
+	private static class Import {
+		final String sheetURL, range;
+
+		Import(String sheetURL, String range) {
+			this.sheetURL = sheetURL;
+			this.range = range;
+		}
+	}
+}
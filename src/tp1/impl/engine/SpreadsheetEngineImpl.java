@@ -11,6 +11,8 @@ import com.gembox.spreadsheet.SpreadsheetInfo;
 import tp1.api.engine.AbstractSpreadsheet;
 import tp1.api.engine.SpreadsheetEngine;
 import tp1.util.CellRange;
+import tp1.util.CellStorage;
+import tp1.util.RawValueParser;
 
 
 /**
@@ -44,31 +46,58 @@ String[][] values = SpreadsheetEngineImpl.getInstance().computeSpreadsheetValues
 */
 public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 	
-	private static final String ERROR = "#ERROR?";
+	static final String ERROR = "#ERROR?";
+
+	// NAO GUARDA ESTADO ENTRE CALCULOS, POR ISSO E PARTILHADO
+	private static final SpreadsheetEngineImpl instance = new SpreadsheetEngineImpl();
+
 	private SpreadsheetEngineImpl() {		
 	}
 
 	static public SpreadsheetEngine getInstance() {
-		return new SpreadsheetEngineImpl();
+		return instance;
 	}
 	
 	
 	public String[][] computeSpreadsheetValues(AbstractSpreadsheet sheet) {
 		ExcelFile workbook = new ExcelFile();
 		ExcelWorksheet worksheet = workbook.addWorksheet(sheet.sheetId());
+		RawValueParser parser = new RawValueParser();
 
 		for (int i = 0; i < sheet.rows(); i++)
-			for (int j = 0; j < sheet.columns(); j++) {
-				String rawVal = sheet.cellRawValue(i, j);
-				ExcelCell cell = worksheet.getCell(i, j);
-				setCell(sheet, worksheet, cell, rawVal);
-			}
+			for (int j = 0; j < sheet.columns(); j++)
+				loadCell(sheet, worksheet, i, j, parser);
 
 		worksheet.calculate();
 
-		var cells = new String[sheet.rows()][sheet.columns()];
-		for (int row = 0; row < sheet.rows(); row++) {
-			for (int col = 0; col < sheet.columns(); col++) {
+		return readValues(worksheet, sheet.rows(), sheet.columns());
+	}
+
+	/**
+	 * Copies a cell of the sheet into the worksheet, reading numbers and booleans from their typed values.
+	 */
+	static void loadCell( AbstractSpreadsheet sheet, ExcelWorksheet worksheet, int row, int col, RawValueParser parser ) {
+		ExcelCell cell = worksheet.getCell(row, col);
+		switch (sheet.cellKind(row, col)) {
+		case NUMBER:
+			cell.setValue(sheet.cellNumberValue(row, col));
+			break;
+		case BOOLEAN:
+			cell.setValue(sheet.cellBooleanValue(row, col));
+			break;
+		default:
+			setCell(sheet, worksheet, cell, sheet.cellRawValue(row, col), parser);
+			break;
+		}
+	}
+
+	/**
+	 * Reads the calculated values of the first rows and columns of the worksheet.
+	 */
+	static String[][] readValues( ExcelWorksheet worksheet, int rows, int columns ) {
+		var cells = new String[rows][columns];
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < columns; col++) {
 				ExcelCell cell = worksheet.getCell(row, col);
 				var value = cell.getValue();
 				cells[row][col] = value != null ? value.toString() : ERROR;
@@ -77,17 +106,15 @@ public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 		return cells;
 	}
 	
-	enum CellType { EMPTY, BOOLEAN, NUMBER, IMPORTRANGE, TEXT, FORMULA };
-	
-	static void setCell( AbstractSpreadsheet sheet, ExcelWorksheet worksheet, ExcelCell cell, String rawVal ) {
-		CellType type = parseRawValue( rawVal );
+	static void setCell( AbstractSpreadsheet sheet, ExcelWorksheet worksheet, ExcelCell cell, String rawVal, RawValueParser parser ) {
+		CellStorage.Kind type = parser.parse( rawVal );
 		
 		switch( type ) {
 		case BOOLEAN:
-				cell.setValue( Boolean.parseBoolean( rawVal ));
+				cell.setValue( parser.bool() );
 			break;
 		case NUMBER:
-				cell.setValue( Double.parseDouble(rawVal));
+				cell.setValue( parser.number() );
 			break;
 		case FORMULA:
 				cell.setFormula(rawVal);
@@ -104,7 +131,7 @@ public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 				var values = sheet.getRangeValues(sheetUrl, range);
 				
 				if( values != null )
-					applyRange( worksheet, cell, new CellRange(range), values);
+					applyRange( worksheet, cell, new CellRange(range), values, parser);
 				else
 					cell.setValue(ERROR);
 			}
@@ -113,41 +140,20 @@ public class SpreadsheetEngineImpl implements SpreadsheetEngine {
 	}
 	
 	
-	private static void applyRange(ExcelWorksheet worksheet, ExcelCell cell0, CellRange range, String[][] values) {
+	private static void applyRange(ExcelWorksheet worksheet, ExcelCell cell0, CellRange range, String[][] values, RawValueParser parser) {
 		int row0 = cell0.getRow().getIndex(), col0 = cell0.getColumn().getIndex();
 
 		for (int r = 0; r < range.rows(); r++)
 			for (int c = 0; c < range.cols(); c++) {
 				var cell = worksheet.getCell(row0 + r, col0 + c);
-				setCell(null, worksheet, cell, values[r][c]);
+				setCell(null, worksheet, cell, values[r][c], parser);
 			}
 	}
 
-	static CellType parseRawValue(String rawVal) {
-		if (rawVal.length() == 0)
-			return CellType.EMPTY;
-
-		rawVal = rawVal.toLowerCase();
-
-		if (rawVal.charAt(0) == '=')
-			return rawVal.startsWith(IMPORTRANGE_FORMULA) ? CellType.IMPORTRANGE : CellType.FORMULA;
-
-		if (rawVal.equals("true") || rawVal.equals("false"))
-			return CellType.BOOLEAN;
-
-		try {
-			Double.parseDouble(rawVal);
-			return CellType.NUMBER;
-		} catch (Exception x) {
-		}
-		return CellType.TEXT;
-	}
-	
 	static {
 		SpreadsheetInfo.setLicense("FREE-LIMITED-KEY");
 	}
 	
 	private static final String URL_REGEX = "(.+)";
-	private static final String IMPORTRANGE_FORMULA = "=importrange";
-	private static final Pattern IMPORTRANGE_PATTERN = Pattern.compile(String.format("=importrange\\(\"%s\",\"(%s)\"\\)", URL_REGEX, CellRange.RANGE_REGEX));
+	static final Pattern IMPORTRANGE_PATTERN = Pattern.compile(String.format("=importrange\\(\"%s\",\"(%s)\"\\)", URL_REGEX, CellRange.RANGE_REGEX));
 }
\ No newline at end of file
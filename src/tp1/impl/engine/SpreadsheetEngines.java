@@ -0,0 +1,87 @@
+package tp1.impl.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.api.engine.SpreadsheetEngineProvider;
+
+/**
+ *
+ * Finds the available SpreadsheetEngine implementations and selects the one used by the servers.
+ *
+ * The built in engines are "native" (NativeSpreadsheetEngine, the default), "gembox" (SpreadsheetEngineImpl) and
+ * "gembox-resident" (ResidentWorkbookEngine).
+ * Other engines are found through SpreadsheetEngineProvider. The engine is selected by its name, with
+ * -Dsheets.engine=name, and is created once and shared by every resource of the server.
+ *
+ */
+public class SpreadsheetEngines {
+
+	private static Logger Log = Logger.getLogger(SpreadsheetEngines.class.getName());
+
+	public static final String ENGINE_PROPERTY = "sheets.engine";
+	public static final String DEFAULT_ENGINE = "native";
+
+	private static SpreadsheetEngine engine;
+
+	/**
+	 * Returns the engine selected for this server.
+	 */
+	synchronized public static SpreadsheetEngine getEngine() {
+		if (engine == null)
+			engine = getEngine(System.getProperty(ENGINE_PROPERTY, DEFAULT_ENGINE));
+		return engine;
+	}
+
+	/**
+	 * Returns the engine with the given name, or the default engine if there is none.
+	 */
+	public static SpreadsheetEngine getEngine(String name) {
+		for (SpreadsheetEngineProvider provider : providers())
+			if (provider.name().equalsIgnoreCase(name)) {
+				Log.info("Using spreadsheet engine: " + provider.name());
+				return provider.engine();
+			}
+
+		Log.warning("Unknown spreadsheet engine: " + name + "; using " + DEFAULT_ENGINE);
+		return NativeSpreadsheetEngine.getInstance();
+	}
+
+	/**
+	 * Returns the providers of all the available engines, the built in ones first.
+	 */
+	public static List<SpreadsheetEngineProvider> providers() {
+		List<SpreadsheetEngineProvider> providers = new ArrayList<SpreadsheetEngineProvider>();
+		providers.add(new BuiltinProvider("native", NativeSpreadsheetEngine::getInstance));
+		providers.add(new BuiltinProvider("gembox", SpreadsheetEngineImpl::getInstance));
+		providers.add(new BuiltinProvider("gembox-resident", ResidentWorkbookEngine::getInstance));
+
+		for (SpreadsheetEngineProvider provider : ServiceLoader.load(SpreadsheetEngineProvider.class))
+			providers.add(provider);
+		return providers;
+	}
+
+	private static class BuiltinProvider implements SpreadsheetEngineProvider {
+		private final String name;
+		private final Supplier<SpreadsheetEngine> engine;
+
+		BuiltinProvider(String name, Supplier<SpreadsheetEngine> engine) {
+			this.name = name;
+			this.engine = engine;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public SpreadsheetEngine engine() {
+			return engine.get();
+		}
+	}
+}
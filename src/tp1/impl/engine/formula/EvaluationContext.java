@@ -0,0 +1,23 @@
+package tp1.impl.engine.formula;
+
+/**
+ * Gives a formula access to the current values of the cells it references.
+ */
+public interface EvaluationContext {
+
+	/**
+	 * Returns the current value of a cell: a Double, a Boolean, a String, a FormulaError or null if the cell is empty.
+	 * @param row - the row index of the cell.
+	 * @param col - the column index of the cell.
+	 */
+	Object valueAt(int row, int col);
+
+	/**
+	 * Aggregates the numbers of a range of cells without reading them one by one. Contexts that keep no aggregates,
+	 * or ranges that have errors, return null, and the cells are read with valueAt().
+	 * @return the aggregate, or null.
+	 */
+	default RangeAggregate aggregate(int topRow, int topCol, int botRow, int botCol) {
+		return null;
+	}
+}
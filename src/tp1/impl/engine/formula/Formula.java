@@ -0,0 +1,30 @@
+package tp1.impl.engine.formula;
+
+/**
+ * A compiled formula. Instances are immutable and can be evaluated any number of times, against any sheet.
+ */
+public interface Formula {
+
+	/**
+	 * Evaluates the formula.
+	 * @param ctx - gives access to the values of the referenced cells.
+	 * @return a Double, a Boolean, a String or a FormulaError.
+	 */
+	Object evaluate(EvaluationContext ctx);
+
+	/**
+	 * Reports every cell and range of cells the formula reads.
+	 * @param visitor - receives the references.
+	 */
+	void references(ReferenceVisitor visitor);
+
+	/**
+	 * Receives the references of a formula.
+	 */
+	interface ReferenceVisitor {
+
+		void cell(int row, int col);
+
+		void range(int topRow, int topCol, int botRow, int botCol);
+	}
+}
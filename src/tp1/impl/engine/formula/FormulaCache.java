@@ -0,0 +1,57 @@
+package tp1.impl.engine.formula;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ *
+ * Compiles raw formulas through FormulaParser, keeping the most recently used compiled formulas so that each
+ * distinct formula text is parsed once, whatever the number of cells and sheets using it.
+ *
+ * Formulas that fail to compile are also kept, so they are not parsed again on every computation.
+ *
+ */
+public class FormulaCache {
+
+	private static final int MAX_FORMULAS = 16384;
+
+	private static final Map<String, Object> compiled = new LinkedHashMap<String, Object>(1024, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+			return size() > MAX_FORMULAS;
+		}
+	};
+
+	private FormulaCache() {
+	}
+
+	/**
+	 * Returns the compiled form of a raw formula, parsing it only if it is not cached.
+	 * @param rawFormula - the raw value of the cell, starting with '='.
+	 * @return the compiled formula, shared with every other cell with the same raw formula.
+	 * @throws FormulaException - if the formula is malformed or uses an unsupported construct.
+	 */
+	public static Formula compile(String rawFormula) throws FormulaException {
+		Object entry;
+		synchronized (compiled) {
+			entry = compiled.get(rawFormula);
+		}
+
+		if (entry == null) {
+			try {
+				entry = FormulaParser.parse(rawFormula);
+			} catch (FormulaException e) {
+				entry = e.getMessage();
+			}
+			synchronized (compiled) {
+				compiled.put(rawFormula, entry);
+			}
+		}
+
+		if (entry instanceof Formula)
+			return (Formula) entry;
+		throw new FormulaException((String) entry);
+	}
+}
@@ -0,0 +1,9 @@
+package tp1.impl.engine.formula;
+
+/**
+ * Error values produced while evaluating a formula. They propagate through any expression that uses them. BUDGET
+ * is the value of the formulas left unevaluated when the computation exceeds its EvaluationBudget.
+ */
+public enum FormulaError {
+	VALUE, DIV0, NUM, NA, CYCLE, BUDGET;
+}
@@ -0,0 +1,14 @@
+package tp1.impl.engine.formula;
+
+/**
+ * Thrown when a raw formula cannot be compiled by the native engine, either because it is malformed
+ * or because it uses a construct the engine does not support.
+ */
+public class FormulaException extends Exception {
+
+	public FormulaException(String msg) {
+		super(msg);
+	}
+
+	private static final long serialVersionUID = 4611735094412094651L;
+}
@@ -0,0 +1,298 @@
+package tp1.impl.engine.formula;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tp1.impl.engine.formula.Nodes.Binary;
+import tp1.impl.engine.formula.Nodes.BinaryOp;
+import tp1.impl.engine.formula.Nodes.Call;
+import tp1.impl.engine.formula.Nodes.CellRef;
+import tp1.impl.engine.formula.Nodes.Literal;
+import tp1.impl.engine.formula.Nodes.RangeRef;
+import tp1.impl.engine.formula.Nodes.Unary;
+import tp1.impl.engine.formula.Nodes.UnaryOp;
+import tp1.util.CellRange;
+
+/**
+ * 
+ * Compiles the raw text of a formula (e.g. "=SUM(A1:A5)*2") into a Formula tree.
+ * 
+ * Supports numbers, strings, booleans, cell and range references, the arithmetic, text and comparison operators,
+ * and the functions listed in Functions.
+ *
+ */
+public class FormulaParser {
+
+	private final String text;
+	private int pos;
+
+	private FormulaParser(String text) {
+		this.text = text;
+		this.pos = 0;
+	}
+
+	/**
+	 * Compiles a raw formula.
+	 * @param rawFormula - the raw value of the cell, starting with '='.
+	 * @return the compiled formula.
+	 * @throws FormulaException - if the formula is malformed or uses an unsupported construct.
+	 */
+	public static Formula parse(String rawFormula) throws FormulaException {
+		if (rawFormula == null || rawFormula.isEmpty() || rawFormula.charAt(0) != '=')
+			throw new FormulaException("Not a formula: " + rawFormula);
+
+		FormulaParser parser = new FormulaParser(rawFormula);
+		parser.pos = 1;
+		Formula formula = parser.comparison();
+		parser.skipSpaces();
+		if (parser.pos != rawFormula.length())
+			throw parser.error("Unexpected input");
+		return formula;
+	}
+
+	private Formula comparison() throws FormulaException {
+		Formula left = concatenation();
+		for (;;) {
+			BinaryOp op;
+			if (accept("<="))
+				op = BinaryOp.LE;
+			else if (accept(">="))
+				op = BinaryOp.GE;
+			else if (accept("<>"))
+				op = BinaryOp.NE;
+			else if (accept("<"))
+				op = BinaryOp.LT;
+			else if (accept(">"))
+				op = BinaryOp.GT;
+			else if (accept("="))
+				op = BinaryOp.EQ;
+			else
+				return left;
+			left = new Binary(op, left, concatenation());
+		}
+	}
+
+	private Formula concatenation() throws FormulaException {
+		Formula left = additive();
+		while (accept("&"))
+			left = new Binary(BinaryOp.CONCAT, left, additive());
+		return left;
+	}
+
+	private Formula additive() throws FormulaException {
+		Formula left = multiplicative();
+		for (;;) {
+			if (accept("+"))
+				left = new Binary(BinaryOp.ADD, left, multiplicative());
+			else if (accept("-"))
+				left = new Binary(BinaryOp.SUB, left, multiplicative());
+			else
+				return left;
+		}
+	}
+
+	private Formula multiplicative() throws FormulaException {
+		Formula left = power();
+		for (;;) {
+			if (accept("*"))
+				left = new Binary(BinaryOp.MUL, left, power());
+			else if (accept("/"))
+				left = new Binary(BinaryOp.DIV, left, power());
+			else
+				return left;
+		}
+	}
+
+	private Formula power() throws FormulaException {
+		Formula left = unary();
+		while (accept("^"))
+			left = new Binary(BinaryOp.POW, left, unary());
+		return left;
+	}
+
+	private Formula unary() throws FormulaException {
+		if (accept("-"))
+			return new Unary(UnaryOp.NEGATE, unary());
+		if (accept("+"))
+			return new Unary(UnaryOp.PLUS, unary());
+
+		Formula operand = primary();
+		while (accept("%"))
+			operand = new Unary(UnaryOp.PERCENT, operand);
+		return operand;
+	}
+
+	private Formula primary() throws FormulaException {
+		skipSpaces();
+		if (pos >= text.length())
+			throw error("Unexpected end of formula");
+
+		char c = text.charAt(pos);
+		if (c == '(') {
+			pos++;
+			Formula inner = comparison();
+			expect(')');
+			return inner;
+		}
+		if (c == '"')
+			return new Literal(string());
+		if (Character.isDigit(c) || c == '.')
+			return new Literal(number());
+		if (Character.isLetter(c) || c == '$')
+			return identifier();
+
+		throw error("Unexpected character '" + c + "'");
+	}
+
+	private Formula identifier() throws FormulaException {
+		int start = pos;
+		while (pos < text.length() && isIdentifierChar(text.charAt(pos)))
+			pos++;
+		String name = text.substring(start, pos);
+
+		skipSpaces();
+		if (pos < text.length() && text.charAt(pos) == '(') {
+			pos++;
+			return call(name);
+		}
+
+		int[] cell = cellIndexes(name);
+		if (cell != null) {
+			skipSpaces();
+			if (pos < text.length() && text.charAt(pos) == ':') {
+				pos++;
+				skipSpaces();
+				int end = pos;
+				while (end < text.length() && isIdentifierChar(text.charAt(end)))
+					end++;
+				int[] other = cellIndexes(text.substring(pos, end));
+				if (other == null)
+					throw error("Invalid range");
+				pos = end;
+				return new RangeRef(cell[0], cell[1], other[0], other[1]);
+			}
+			return new CellRef(cell[0], cell[1]);
+		}
+
+		if (name.equalsIgnoreCase("true"))
+			return new Literal(Boolean.TRUE);
+		if (name.equalsIgnoreCase("false"))
+			return new Literal(Boolean.FALSE);
+
+		throw error("Unsupported name " + name);
+	}
+
+	private Formula call(String name) throws FormulaException {
+		Functions function = Functions.lookup(name);
+		if (function == null)
+			throw error("Unsupported function " + name);
+
+		List<Formula> args = new ArrayList<>();
+		skipSpaces();
+		if (!accept(")")) {
+			do {
+				args.add(comparison());
+			} while (accept(",") || accept(";"));
+			expect(')');
+		}
+
+		if (!function.acceptsArgs(args.size()))
+			throw error("Wrong number of arguments for " + name);
+
+		return new Call(function, args.toArray(new Formula[args.size()]));
+	}
+
+	private String string() throws FormulaException {
+		StringBuilder sb = new StringBuilder();
+		pos++;
+		for (;;) {
+			if (pos >= text.length())
+				throw error("Unterminated string");
+			char c = text.charAt(pos++);
+			if (c == '"') {
+				if (pos < text.length() && text.charAt(pos) == '"') {
+					sb.append('"');
+					pos++;
+				} else
+					return sb.toString();
+			} else
+				sb.append(c);
+		}
+	}
+
+	private Double number() throws FormulaException {
+		int start = pos;
+		while (pos < text.length() && (Character.isDigit(text.charAt(pos)) || text.charAt(pos) == '.'))
+			pos++;
+		if (pos < text.length() && (text.charAt(pos) == 'e' || text.charAt(pos) == 'E')) {
+			pos++;
+			if (pos < text.length() && (text.charAt(pos) == '+' || text.charAt(pos) == '-'))
+				pos++;
+			while (pos < text.length() && Character.isDigit(text.charAt(pos)))
+				pos++;
+		}
+		try {
+			return Double.parseDouble(text.substring(start, pos));
+		} catch (NumberFormatException x) {
+			throw error("Invalid number");
+		}
+	}
+
+	/**
+	 * Translates a cell name such as "B7" or "$B$7" into its row and column indexes.
+	 * @return the indexes, or null if the name is not a cell name.
+	 */
+	private static int[] cellIndexes(String name) {
+		int i = 0, n = name.length();
+		if (i < n && name.charAt(i) == '$')
+			i++;
+		int colStart = i;
+		while (i < n && isAsciiLetter(name.charAt(i)))
+			i++;
+		int colEnd = i;
+		if (i < n && name.charAt(i) == '$')
+			i++;
+		int rowStart = i;
+		while (i < n && Character.isDigit(name.charAt(i)))
+			i++;
+
+		if (colStart == colEnd || rowStart == i || i != n || colEnd - colStart > 3 || i - rowStart > 7
+				|| name.charAt(rowStart) == '0')
+			return null;
+
+		int col = CellRange.col(name.substring(colStart, colEnd).toUpperCase());
+		int row = CellRange.row(name.substring(rowStart, i));
+		return new int[] { row, col };
+	}
+
+	private static boolean isAsciiLetter(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+	}
+
+	private static boolean isIdentifierChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '$' || c == '_' || c == '.';
+	}
+
+	private boolean accept(String token) {
+		skipSpaces();
+		if (text.startsWith(token, pos)) {
+			pos += token.length();
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char c) throws FormulaException {
+		if (!accept(String.valueOf(c)))
+			throw error("Expected '" + c + "'");
+	}
+
+	private void skipSpaces() {
+		while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+			pos++;
+	}
+
+	private FormulaException error(String msg) {
+		return new FormulaException(msg + " at position " + pos + " of " + text);
+	}
+}
@@ -0,0 +1,337 @@
+package tp1.impl.engine.formula;
+
+import java.util.function.DoubleConsumer;
+
+import tp1.impl.engine.formula.Nodes.CellRef;
+import tp1.impl.engine.formula.Nodes.RangeRef;
+
+/**
+ * The functions understood by the native engine. Formulas calling any other function are not compiled
+ * and their sheets are left to the GemBox engine.
+ */
+enum Functions {
+
+	SUM(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			RangeAggregate agg = aggregate(args, ctx);
+			if (agg != null && agg.errors == 0 && agg.exactSum)
+				return agg.sum;
+
+			double[] sum = { 0.0 };
+			FormulaError err = numbers(args, ctx, d -> sum[0] += d);
+			return err != null ? err : sum[0];
+		}
+	},
+	PRODUCT(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			double[] product = { 1.0 };
+			FormulaError err = numbers(args, ctx, d -> product[0] *= d);
+			return err != null ? err : product[0];
+		}
+	},
+	COUNT(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			// AS CELULAS COM ERROS NAO SAO CONTADAS, MAS NAO INTERROMPEM A CONTAGEM
+			RangeAggregate agg = aggregate(args, ctx);
+			if (agg != null)
+				return agg.count;
+
+			double count = 0.0;
+			for (Formula arg : args) {
+				if (arg instanceof RangeRef) {
+					RangeRef range = (RangeRef) arg;
+					for (int r = range.topRow; r <= range.botRow; r++)
+						for (int c = range.topCol; c <= range.botCol; c++)
+							if (ctx.valueAt(r, c) instanceof Double)
+								count++;
+				} else if (arg instanceof CellRef) {
+					if (arg.evaluate(ctx) instanceof Double)
+						count++;
+				} else if (number(arg, ctx) instanceof Double)
+					count++;
+			}
+			return count;
+		}
+	},
+	COUNTA(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			double count = 0.0;
+			for (Formula arg : args) {
+				if (arg instanceof RangeRef) {
+					RangeRef range = (RangeRef) arg;
+					for (int r = range.topRow; r <= range.botRow; r++)
+						for (int c = range.topCol; c <= range.botCol; c++)
+							if (!isBlank(ctx.valueAt(r, c)))
+								count++;
+				} else if (!isBlank(arg.evaluate(ctx)))
+					count++;
+			}
+			return count;
+		}
+	},
+	AVERAGE(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			RangeAggregate agg = aggregate(args, ctx);
+			if (agg != null && agg.errors == 0 && agg.exactSum)
+				return agg.count == 0.0 ? FormulaError.DIV0 : agg.sum / agg.count;
+
+			double[] acc = { 0.0, 0.0 };
+			FormulaError err = numbers(args, ctx, d -> {
+				acc[0] += d;
+				acc[1]++;
+			});
+			if (err != null)
+				return err;
+			return acc[1] == 0.0 ? FormulaError.DIV0 : acc[0] / acc[1];
+		}
+	},
+	MIN(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			RangeAggregate agg = aggregate(args, ctx);
+			if (agg != null && agg.errors == 0)
+				return agg.min == Double.POSITIVE_INFINITY ? 0.0 : agg.min;
+
+			double[] min = { Double.POSITIVE_INFINITY };
+			FormulaError err = numbers(args, ctx, d -> min[0] = Math.min(min[0], d));
+			if (err != null)
+				return err;
+			return min[0] == Double.POSITIVE_INFINITY ? 0.0 : min[0];
+		}
+	},
+	MAX(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			RangeAggregate agg = aggregate(args, ctx);
+			if (agg != null && agg.errors == 0)
+				return agg.max == Double.NEGATIVE_INFINITY ? 0.0 : agg.max;
+
+			double[] max = { Double.NEGATIVE_INFINITY };
+			FormulaError err = numbers(args, ctx, d -> max[0] = Math.max(max[0], d));
+			if (err != null)
+				return err;
+			return max[0] == Double.NEGATIVE_INFINITY ? 0.0 : max[0];
+		}
+	},
+	IF(2, 3) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object cond = Values.toBoolean(args[0].evaluate(ctx));
+			if (cond instanceof FormulaError)
+				return cond;
+			if ((Boolean) cond)
+				return args[1].evaluate(ctx);
+			return args.length > 2 ? args[2].evaluate(ctx) : Boolean.FALSE;
+		}
+	},
+	AND(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			for (Formula arg : args) {
+				Object b = Values.toBoolean(arg.evaluate(ctx));
+				if (!Boolean.TRUE.equals(b))
+					return b;
+			}
+			return Boolean.TRUE;
+		}
+	},
+	OR(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			for (Formula arg : args) {
+				Object b = Values.toBoolean(arg.evaluate(ctx));
+				if (!Boolean.FALSE.equals(b))
+					return b;
+			}
+			return Boolean.FALSE;
+		}
+	},
+	NOT(1, 1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object b = Values.toBoolean(args[0].evaluate(ctx));
+			return b instanceof FormulaError ? b : !(Boolean) b;
+		}
+	},
+	ABS(1, 1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object d = number(args[0], ctx);
+			return d instanceof FormulaError ? d : Math.abs((Double) d);
+		}
+	},
+	INT(1, 1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object d = number(args[0], ctx);
+			return d instanceof FormulaError ? d : Math.floor((Double) d);
+		}
+	},
+	SQRT(1, 1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object d = number(args[0], ctx);
+			if (d instanceof FormulaError)
+				return d;
+			return (Double) d < 0 ? FormulaError.NUM : Math.sqrt((Double) d);
+		}
+	},
+	ROUND(2, 2) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object d = number(args[0], ctx);
+			if (d instanceof FormulaError)
+				return d;
+			Object digits = number(args[1], ctx);
+			if (digits instanceof FormulaError)
+				return digits;
+			double scale = Math.pow(10, Math.floor((Double) digits));
+			double v = (Double) d;
+			return Math.signum(v) * Math.round(Math.abs(v) * scale) / scale;
+		}
+	},
+	MOD(2, 2) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object a = number(args[0], ctx);
+			if (a instanceof FormulaError)
+				return a;
+			Object b = number(args[1], ctx);
+			if (b instanceof FormulaError)
+				return b;
+			double n = (Double) a, d = (Double) b;
+			return d == 0.0 ? FormulaError.DIV0 : n - d * Math.floor(n / d);
+		}
+	},
+	POWER(2, 2) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object a = number(args[0], ctx);
+			if (a instanceof FormulaError)
+				return a;
+			Object b = number(args[1], ctx);
+			if (b instanceof FormulaError)
+				return b;
+			double p = Math.pow((Double) a, (Double) b);
+			return Double.isNaN(p) || Double.isInfinite(p) ? FormulaError.NUM : p;
+		}
+	},
+	CONCATENATE(1, -1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			StringBuilder sb = new StringBuilder();
+			for (Formula arg : args) {
+				Object t = Values.toText(arg.evaluate(ctx));
+				if (t instanceof FormulaError)
+					return t;
+				sb.append((String) t);
+			}
+			return sb.toString();
+		}
+	},
+	LEN(1, 1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object t = Values.toText(args[0].evaluate(ctx));
+			return t instanceof FormulaError ? t : (double) ((String) t).length();
+		}
+	},
+	UPPER(1, 1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object t = Values.toText(args[0].evaluate(ctx));
+			return t instanceof FormulaError ? t : ((String) t).toUpperCase();
+		}
+	},
+	LOWER(1, 1) {
+		@Override
+		Object apply(Formula[] args, EvaluationContext ctx) {
+			Object t = Values.toText(args[0].evaluate(ctx));
+			return t instanceof FormulaError ? t : ((String) t).toLowerCase();
+		}
+	};
+
+	final int minArgs, maxArgs;
+
+	Functions(int minArgs, int maxArgs) {
+		this.minArgs = minArgs;
+		this.maxArgs = maxArgs;
+	}
+
+	abstract Object apply(Formula[] args, EvaluationContext ctx);
+
+	boolean acceptsArgs(int count) {
+		return count >= minArgs && (maxArgs < 0 || count <= maxArgs);
+	}
+
+	static Functions lookup(String name) {
+		try {
+			return valueOf(name.toUpperCase());
+		} catch (IllegalArgumentException x) {
+			return null;
+		}
+	}
+
+	/**
+	 * Aggregates the argument of a function called with a single range, e.g. SUM(A1:A5000), through the context.
+	 * Other arguments could change the order in which the numbers are combined, so they are read one by one.
+	 * @return the aggregate, or null if the numbers must be read one by one.
+	 */
+	static RangeAggregate aggregate(Formula[] args, EvaluationContext ctx) {
+		if (args.length != 1 || !(args[0] instanceof RangeRef))
+			return null;
+
+		RangeRef range = (RangeRef) args[0];
+		return ctx.aggregate(range.topRow, range.topCol, range.botRow, range.botCol);
+	}
+
+	/**
+	 * Feeds the numbers of a list of arguments to the sink. Text and booleans inside referenced cells are
+	 * skipped, while literal arguments are coerced to numbers.
+	 * @return the first error found, or null.
+	 */
+	static FormulaError numbers(Formula[] args, EvaluationContext ctx, DoubleConsumer sink) {
+		for (Formula arg : args) {
+			if (arg instanceof RangeRef) {
+				RangeRef range = (RangeRef) arg;
+				for (int r = range.topRow; r <= range.botRow; r++)
+					for (int c = range.topCol; c <= range.botCol; c++) {
+						FormulaError err = referencedNumber(ctx.valueAt(r, c), sink);
+						if (err != null)
+							return err;
+					}
+			} else if (arg instanceof CellRef) {
+				FormulaError err = referencedNumber(arg.evaluate(ctx), sink);
+				if (err != null)
+					return err;
+			} else {
+				Object d = number(arg, ctx);
+				if (d instanceof FormulaError)
+					return (FormulaError) d;
+				sink.accept((Double) d);
+			}
+		}
+		return null;
+	}
+
+	private static FormulaError referencedNumber(Object v, DoubleConsumer sink) {
+		if (v instanceof FormulaError)
+			return (FormulaError) v;
+		if (v instanceof Double)
+			sink.accept((Double) v);
+		return null;
+	}
+
+	private static Object number(Formula arg, EvaluationContext ctx) {
+		return Values.toNumber(arg.evaluate(ctx));
+	}
+
+	private static boolean isBlank(Object v) {
+		return v == null || "".equals(v);
+	}
+}
@@ -0,0 +1,199 @@
+package tp1.impl.engine.formula;
+
+/**
+ * The nodes of a compiled formula tree.
+ */
+final class Nodes {
+
+	private Nodes() {
+	}
+
+	static final class Literal implements Formula {
+		final Object value;
+
+		Literal(Object value) {
+			this.value = value;
+		}
+
+		@Override
+		public Object evaluate(EvaluationContext ctx) {
+			return value;
+		}
+
+		@Override
+		public void references(ReferenceVisitor visitor) {
+		}
+	}
+
+	static final class CellRef implements Formula {
+		final int row, col;
+
+		CellRef(int row, int col) {
+			this.row = row;
+			this.col = col;
+		}
+
+		@Override
+		public Object evaluate(EvaluationContext ctx) {
+			return ctx.valueAt(row, col);
+		}
+
+		@Override
+		public void references(ReferenceVisitor visitor) {
+			visitor.cell(row, col);
+		}
+	}
+
+	static final class RangeRef implements Formula {
+		final int topRow, topCol, botRow, botCol;
+
+		RangeRef(int topRow, int topCol, int botRow, int botCol) {
+			this.topRow = Math.min(topRow, botRow);
+			this.topCol = Math.min(topCol, botCol);
+			this.botRow = Math.max(topRow, botRow);
+			this.botCol = Math.max(topCol, botCol);
+		}
+
+		@Override
+		public Object evaluate(EvaluationContext ctx) {
+			// A range can only be used as a function argument.
+			return FormulaError.VALUE;
+		}
+
+		@Override
+		public void references(ReferenceVisitor visitor) {
+			visitor.range(topRow, topCol, botRow, botCol);
+		}
+	}
+
+	enum UnaryOp {
+		NEGATE, PLUS, PERCENT
+	}
+
+	static final class Unary implements Formula {
+		final UnaryOp op;
+		final Formula operand;
+
+		Unary(UnaryOp op, Formula operand) {
+			this.op = op;
+			this.operand = operand;
+		}
+
+		@Override
+		public Object evaluate(EvaluationContext ctx) {
+			Object v = Values.toNumber(operand.evaluate(ctx));
+			if (v instanceof FormulaError)
+				return v;
+
+			double d = (Double) v;
+			switch (op) {
+			case NEGATE:
+				return -d;
+			case PERCENT:
+				return d / 100;
+			default:
+				return d;
+			}
+		}
+
+		@Override
+		public void references(ReferenceVisitor visitor) {
+			operand.references(visitor);
+		}
+	}
+
+	enum BinaryOp {
+		ADD, SUB, MUL, DIV, POW, CONCAT, EQ, NE, LT, GT, LE, GE
+	}
+
+	static final class Binary implements Formula {
+		final BinaryOp op;
+		final Formula left, right;
+
+		Binary(BinaryOp op, Formula left, Formula right) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Object evaluate(EvaluationContext ctx) {
+			Object l = left.evaluate(ctx);
+			if (l instanceof FormulaError)
+				return l;
+			Object r = right.evaluate(ctx);
+			if (r instanceof FormulaError)
+				return r;
+
+			switch (op) {
+			case CONCAT:
+				return (String) Values.toText(l) + Values.toText(r);
+			case EQ:
+				return Values.compare(l, r) == 0;
+			case NE:
+				return Values.compare(l, r) != 0;
+			case LT:
+				return Values.compare(l, r) < 0;
+			case GT:
+				return Values.compare(l, r) > 0;
+			case LE:
+				return Values.compare(l, r) <= 0;
+			case GE:
+				return Values.compare(l, r) >= 0;
+			default:
+				return arithmetic(l, r);
+			}
+		}
+
+		private Object arithmetic(Object l, Object r) {
+			Object ln = Values.toNumber(l);
+			if (ln instanceof FormulaError)
+				return ln;
+			Object rn = Values.toNumber(r);
+			if (rn instanceof FormulaError)
+				return rn;
+
+			double a = (Double) ln, b = (Double) rn;
+			switch (op) {
+			case ADD:
+				return a + b;
+			case SUB:
+				return a - b;
+			case MUL:
+				return a * b;
+			case DIV:
+				return b == 0.0 ? FormulaError.DIV0 : a / b;
+			default:
+				double p = Math.pow(a, b);
+				return Double.isNaN(p) || Double.isInfinite(p) ? FormulaError.NUM : p;
+			}
+		}
+
+		@Override
+		public void references(ReferenceVisitor visitor) {
+			left.references(visitor);
+			right.references(visitor);
+		}
+	}
+
+	static final class Call implements Formula {
+		final Functions function;
+		final Formula[] args;
+
+		Call(Functions function, Formula[] args) {
+			this.function = function;
+			this.args = args;
+		}
+
+		@Override
+		public Object evaluate(EvaluationContext ctx) {
+			return function.apply(args, ctx);
+		}
+
+		@Override
+		public void references(ReferenceVisitor visitor) {
+			for (Formula arg : args)
+				arg.references(visitor);
+		}
+	}
+}
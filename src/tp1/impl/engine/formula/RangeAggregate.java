@@ -0,0 +1,31 @@
+package tp1.impl.engine.formula;
+
+/**
+ * The numbers of a range of cells, aggregated: the same results a function would get by reading the cells one by
+ * one. Only the count of numbers is valid when the range has errors, as the other functions return the error.
+ */
+public final class RangeAggregate {
+
+	// SO E VALIDA SE exactSum: A SOMA SEQUENCIAL DAS CELULAS DARIA EXATAMENTE ESTE VALOR
+	final double sum;
+	final boolean exactSum;
+	final double count, min, max;
+	final int errors;
+
+	/**
+	 * @param sum - the sum of the numbers, if exactSum.
+	 * @param exactSum - if the sum is the same, bit for bit, as adding the numbers one by one.
+	 * @param count - how many cells hold numbers.
+	 * @param min - the smallest number, or +Infinity if there are none.
+	 * @param max - the largest number, or -Infinity if there are none.
+	 * @param errors - how many cells hold errors.
+	 */
+	public RangeAggregate(double sum, boolean exactSum, double count, double min, double max, int errors) {
+		this.sum = sum;
+		this.exactSum = exactSum;
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.errors = errors;
+	}
+}
@@ -0,0 +1,125 @@
+package tp1.impl.engine.formula;
+
+import tp1.util.RawValueParser;
+
+/**
+ * Coercion rules shared by the formula operators and functions. They follow the spreadsheet conventions:
+ * empty cells read as 0 or "", booleans read as 1 or 0, and numeric text can be used as a number.
+ */
+public final class Values {
+
+	private Values() {
+	}
+
+	/**
+	 * Converts a value to a number.
+	 * @return a Double or a FormulaError.
+	 */
+	public static Object toNumber(Object value) {
+		if (value == null)
+			return 0.0;
+		if (value instanceof Double || value instanceof FormulaError)
+			return value;
+		if (value instanceof Boolean)
+			return ((Boolean) value) ? 1.0 : 0.0;
+
+		double number = RawValueParser.parseNumber((String) value);
+		return Double.isNaN(number) ? FormulaError.VALUE : (Object) number;
+	}
+
+	/**
+	 * Converts a value to text.
+	 * @return a String or a FormulaError.
+	 */
+	public static Object toText(Object value) {
+		if (value == null)
+			return "";
+		if (value instanceof Double)
+			return format((Double) value);
+		if (value instanceof Boolean)
+			return ((Boolean) value) ? "TRUE" : "FALSE";
+		return value;
+	}
+
+	/**
+	 * Converts a value to a boolean.
+	 * @return a Boolean or a FormulaError.
+	 */
+	public static Object toBoolean(Object value) {
+		if (value == null)
+			return Boolean.FALSE;
+		if (value instanceof Boolean || value instanceof FormulaError)
+			return value;
+		if (value instanceof Double)
+			return ((Double) value) != 0.0;
+
+		String s = (String) value;
+		if (s.equalsIgnoreCase("true"))
+			return Boolean.TRUE;
+		if (s.equalsIgnoreCase("false"))
+			return Boolean.FALSE;
+		return FormulaError.VALUE;
+	}
+
+	/**
+	 * Compares two values the way spreadsheet comparison operators do: numbers sort before text, text before
+	 * booleans, and text is compared ignoring case.
+	 */
+	public static int compare(Object a, Object b) {
+		if (a == null)
+			a = blankLike(b);
+		if (b == null)
+			b = blankLike(a);
+
+		int ra = rank(a), rb = rank(b);
+		if (ra != rb)
+			return Integer.compare(ra, rb);
+
+		if (a instanceof Double)
+			return Double.compare((Double) a, (Double) b);
+		if (a instanceof Boolean)
+			return Boolean.compare((Boolean) a, (Boolean) b);
+		if (a instanceof String)
+			return ((String) a).compareToIgnoreCase((String) b);
+		return 0;
+	}
+
+	/**
+	 * Formats a number as text, without the trailing ".0" for integral values.
+	 */
+	public static String format(double d) {
+		if (d == Math.rint(d) && Math.abs(d) < 1e15)
+			return Long.toString((long) d);
+		return Double.toString(d);
+	}
+
+	/**
+	 * Renders a computed value the way the GemBox engine renders cell values.
+	 * @param error - the text used for error values.
+	 */
+	public static String render(Object value, String error) {
+		if (value == null)
+			return "";
+		if (value instanceof FormulaError)
+			return error;
+		return value.toString();
+	}
+
+	private static Object blankLike(Object other) {
+		if (other instanceof String)
+			return "";
+		if (other instanceof Boolean)
+			return Boolean.FALSE;
+		return 0.0;
+	}
+
+	private static int rank(Object v) {
+		if (v instanceof Double)
+			return 0;
+		if (v instanceof String)
+			return 1;
+		if (v instanceof Boolean)
+			return 2;
+		return 3;
+	}
+}
@@ -0,0 +1,139 @@
+package tp1.impl.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.Logger;
+
+import tp1.util.CellStorage;
+
+/**
+ *
+ * Chooses where the cells of each spreadsheet are kept: in memory-mapped files, outside the heap, or in a
+ * CellStorage in the heap. Only sheets with at least -Dsheets.store.mapped.minCells cells (rows x columns) are
+ * mapped; smaller ones cost less in the heap than in their own files. Sheets with formulas stay in the heap, where
+ * their cells keep versions that are evaluated without the lock of the sheet; mapped cells keep none.
+ *
+ * Mapping is enabled by setting the directory of the files with -Dsheets.store.mapped.dir. The files of a
+ * previous run are deleted on start: the sheets are recovered from the SheetStore, if any.
+ *
+ */
+public class CellFiles {
+
+	private static Logger Log = Logger.getLogger(CellFiles.class.getName());
+
+	public static final String DIR_PROPERTY = "sheets.store.mapped.dir";
+	public static final String MIN_CELLS_PROPERTY = "sheets.store.mapped.minCells";
+
+	private static final long DEFAULT_MIN_CELLS = 10_000;
+
+	private static final String CELLS_SUFFIX = ".cells", STRINGS_SUFFIX = ".strings";
+
+	/**
+	 * Keeps every sheet in the heap.
+	 */
+	public static final CellFiles HEAP = new CellFiles(null, Long.MAX_VALUE);
+
+	private final Path dir;
+	private final long minCells;
+
+	/**
+	 * @param dir      - the directory of the files, or null to keep every sheet in the heap.
+	 * @param minCells - the number of cells (rows x columns) from which a sheet is mapped.
+	 */
+	public CellFiles(Path dir, long minCells) {
+		this.dir = dir;
+		this.minCells = minCells;
+		if (dir != null)
+			clear();
+	}
+
+	/**
+	 * Returns the files configured by the system properties, which keep every sheet in the heap if no directory is
+	 * set.
+	 */
+	public static CellFiles fromProperties() {
+		String dir = System.getProperty(DIR_PROPERTY);
+		if (dir == null)
+			return HEAP;
+		return new CellFiles(Paths.get(dir), Long.getLong(MIN_CELLS_PROPERTY, DEFAULT_MIN_CELLS));
+	}
+
+	public boolean isEnabled() {
+		return dir != null;
+	}
+
+	/**
+	 * Returns an empty storage for the cells of a sheet, mapped if the sheet is large enough.
+	 */
+	public CellStorage newStorage(String sheetId, int rows, int cols) {
+		if (!isMapped(rows, cols))
+			return new CellStorage(rows, cols);
+		return new MappedCellStorage(dir.resolve(sheetId + CELLS_SUFFIX), dir.resolve(sheetId + STRINGS_SUFFIX), rows,
+				cols);
+	}
+
+	/**
+	 * Moves the cells of a sheet to a mapped storage, if the sheet is large enough and has no formulas.
+	 * @return the new storage, or the same one if the sheet stays in the heap.
+	 */
+	public CellStorage map(String sheetId, CellStorage cells) {
+		if (cells == null || cells instanceof MappedCellStorage || cells.formulas() > 0
+				|| !isMapped(cells.rows(), cells.columns()))
+			return cells;
+
+		CellStorage mapped = newStorage(sheetId, cells.rows(), cells.columns());
+		cells.forEachPopulated((row, col) -> mapped.set(row, col, cells.raw(row, col)));
+		return mapped;
+	}
+
+	/**
+	 * Moves the cells of a sheet back to the heap, and deletes their files, if they are mapped and have formulas.
+	 * Called by the updates, while they hold the lock of the sheet.
+	 * @return the new storage, or the same one if it stays where it is.
+	 */
+	public CellStorage unmapFormulas(CellStorage cells) {
+		if (!(cells instanceof MappedCellStorage) || cells.formulas() == 0)
+			return cells;
+
+		CellStorage heap = CellStorage.copyOf(cells);
+		release(cells);
+		return heap;
+	}
+
+	/**
+	 * Deletes the files of the cells of a sheet, if they are mapped.
+	 */
+	public void release(CellStorage cells) {
+		if (cells instanceof MappedCellStorage)
+			((MappedCellStorage) cells).delete();
+	}
+
+	private boolean isMapped(int rows, int cols) {
+		return dir != null && (long) rows * cols >= minCells && MappedCellStorage.fits(rows, cols);
+	}
+
+	/**
+	 * Deletes the files left by a previous run.
+	 */
+	private void clear() {
+		try {
+			Files.createDirectories(dir);
+			int deleted = 0;
+			String glob = "*{" + CELLS_SUFFIX + "," + STRINGS_SUFFIX + "}";
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, glob)) {
+				for (Path file : files) {
+					Files.delete(file);
+					deleted++;
+				}
+			}
+			if (deleted > 0)
+				Log.info("Deleted " + deleted + " mapped cell files from " + dir);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,405 @@
+package tp1.impl.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+import tp1.util.CellStorage;
+import tp1.util.RawValueParser;
+
+/**
+ *
+ * Storage of the raw values of a spreadsheet in memory-mapped files, outside the heap.
+ *
+ * The cells file starts with a directory of the blocks of each column, followed by fixed-layout blocks of
+ * BLOCK_CELLS rows of a column: the number of populated cells, a bit mask of the booleans, the kind of each cell,
+ * its number and the reference of its text. A block is allocated when one of its cells is set and reused once all
+ * of them become empty, as the chunks of CellStorage. Texts and formulas are kept in the strings file, in slots of
+ * power of two sizes that are reused by texts of the same size class.
+ *
+ * Reading a cell only touches its entry in the directory and its block, so the operating system keeps in memory
+ * the blocks in use and pages out the others. The heap only holds the free lists.
+ *
+ * As CellStorage, it is not thread safe: updates must be ordered by the caller. Unlike CellStorage, it takes no
+ * snapshots, so readers of a mapped sheet see its updates as they happen. The files are not a durable copy of the
+ * sheet, which is the job of SheetStore, and are deleted on release.
+ *
+ */
+public class MappedCellStorage extends CellStorage {
+
+	private static final Kind[] KINDS = Kind.values();
+
+	private static final int BLOCK_SHIFT = 6;
+	private static final int BLOCK_CELLS = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_CELLS - 1;
+
+	// LAYOUT DE UM BLOCO
+	private static final int COUNT = 0;
+	private static final int BOOLEANS = 8;
+	private static final int KINDS_AT = 16;
+	private static final int NUMBERS = KINDS_AT + BLOCK_CELLS;
+	private static final int STRINGS = NUMBERS + BLOCK_CELLS * Double.BYTES;
+	private static final int BLOCK_SIZE = align(STRINGS + BLOCK_CELLS * Integer.BYTES);
+
+	private static final int INITIAL_BLOCKS = 64;
+	private static final int INITIAL_STRINGS = 64 * 1024;
+	private static final int MIN_SLOT_CLASS = 4;
+
+	private final Path cellsFile, stringsFile;
+	private final int chunks, directorySize;
+	private final RawValueParser parser;
+
+	private volatile MappedByteBuffer blocks, strings;
+	private int allocatedBlocks;
+	private int stringsEnd;
+
+	// BLOCOS E SLOTS DE TEXTO LIVRES
+	private int[] freeBlocks;
+	private int freeBlockCount;
+	private final int[][] freeSlots;
+	private final int[] freeSlotCounts;
+
+	private int populated;
+	private int formulas;
+
+	/**
+	 * Creates an empty storage in two new files.
+	 * @param cellsFile   - the file of the directory and the blocks.
+	 * @param stringsFile - the file of the texts.
+	 */
+	public MappedCellStorage(Path cellsFile, Path stringsFile, int rows, int cols) {
+		super(rows, cols);
+		this.cellsFile = cellsFile;
+		this.stringsFile = stringsFile;
+		this.chunks = (rows + BLOCK_MASK) >> BLOCK_SHIFT;
+		this.parser = new RawValueParser();
+		this.freeBlocks = new int[16];
+		this.freeSlots = new int[32][];
+		this.freeSlotCounts = new int[32];
+
+		long directory = align((long) cols * chunks * Integer.BYTES);
+		if (directory + (long) INITIAL_BLOCKS * BLOCK_SIZE > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Sheet too large to map: " + rows + " x " + cols);
+		this.directorySize = (int) directory;
+
+		this.blocks = map(cellsFile, directorySize + INITIAL_BLOCKS * BLOCK_SIZE);
+		this.strings = map(stringsFile, INITIAL_STRINGS);
+		// O OFFSET 0 NA AREA DE TEXTOS SIGNIFICA SEM TEXTO
+		this.stringsEnd = Integer.BYTES;
+	}
+
+	/**
+	 * Checks if a sheet fits in the files, i.e. if its directory and blocks can be mapped.
+	 */
+	public static boolean fits(int rows, int cols) {
+		long chunks = (rows + BLOCK_MASK) >> BLOCK_SHIFT;
+		return align(cols * chunks * Integer.BYTES) + (long) INITIAL_BLOCKS * BLOCK_SIZE <= Integer.MAX_VALUE;
+	}
+
+	/**
+	 * The blocks are updated in place, so the cells in the files keep no versions.
+	 * @return this storage.
+	 */
+	@Override
+	public CellStorage snapshot() {
+		return this;
+	}
+
+	@Override
+	public int populated() {
+		return populated;
+	}
+
+	@Override
+	public int formulas() {
+		return formulas;
+	}
+
+	@Override
+	public void forEachPopulated(int topRow, int topCol, int botRow, int botCol, CellVisitor visitor) {
+		botRow = Math.min(botRow, rows() - 1);
+		botCol = Math.min(botCol, columns() - 1);
+
+		for (int col = Math.max(topCol, 0); col <= botCol; col++) {
+			for (int c = Math.max(topRow, 0) >> BLOCK_SHIFT; c <= botRow >> BLOCK_SHIFT; c++) {
+				int block = blocks.getInt(entry(c, col));
+				if (block == 0)
+					continue;
+
+				MappedByteBuffer buffer = blocks;
+				int base = offset(block);
+				int from = Math.max(c << BLOCK_SHIFT, topRow), to = Math.min((c << BLOCK_SHIFT) + BLOCK_MASK, botRow);
+				for (int row = from; row <= to; row++)
+					if (buffer.get(base + KINDS_AT + (row & BLOCK_MASK)) != 0)
+						visitor.visit(row, col);
+			}
+		}
+	}
+
+	@Override
+	public Kind kind(int row, int col) {
+		int base = block(row, col);
+		return base < 0 ? Kind.EMPTY : KINDS[blocks.get(base + KINDS_AT + (row & BLOCK_MASK))];
+	}
+
+	@Override
+	public double number(int row, int col) {
+		int base = block(row, col), i = row & BLOCK_MASK;
+		MappedByteBuffer buffer = blocks;
+		if (base < 0 || buffer.get(base + KINDS_AT + i) != Kind.NUMBER.ordinal())
+			return Double.NaN;
+		return buffer.getDouble(base + NUMBERS + i * Double.BYTES);
+	}
+
+	@Override
+	public boolean bool(int row, int col) {
+		int base = block(row, col), i = row & BLOCK_MASK;
+		MappedByteBuffer buffer = blocks;
+		if (base < 0 || buffer.get(base + KINDS_AT + i) != Kind.BOOLEAN.ordinal())
+			return false;
+		return (buffer.getLong(base + BOOLEANS) & (1L << i)) != 0;
+	}
+
+	@Override
+	public String raw(int row, int col) {
+		int base = block(row, col);
+		if (base < 0)
+			return "";
+
+		MappedByteBuffer buffer = blocks;
+		int i = row & BLOCK_MASK;
+		byte kind = buffer.get(base + KINDS_AT + i);
+		int text = buffer.getInt(base + STRINGS + i * Integer.BYTES);
+
+		if (kind == Kind.EMPTY.ordinal())
+			return "";
+		if (text != 0)
+			return readString(text);
+		if (kind == Kind.NUMBER.ordinal())
+			return CellStorage.formatNumber(buffer.getDouble(base + NUMBERS + i * Double.BYTES));
+		return Boolean.toString((buffer.getLong(base + BOOLEANS) & (1L << i)) != 0);
+	}
+
+	@Override
+	public void set(int row, int col, String rawValue) {
+		Objects.checkIndex(row, rows());
+		Objects.checkIndex(col, columns());
+		Kind kind = rawValue == null ? Kind.EMPTY : parser.parse(rawValue);
+
+		int entry = entry(row >> BLOCK_SHIFT, col);
+		int block = blocks.getInt(entry);
+		if (block == 0) {
+			if (kind == Kind.EMPTY)
+				return;
+			block = allocateBlock();
+			blocks.putInt(entry, block);
+		}
+
+		MappedByteBuffer buffer = blocks;
+		int base = offset(block), i = row & BLOCK_MASK;
+		clear(buffer, base, i);
+
+		boolean keepText = true;
+		switch (kind) {
+		case EMPTY:
+			if (buffer.getInt(base + COUNT) == 0) {
+				buffer.putInt(entry, 0);
+				freeBlock(block);
+			}
+			return;
+		case NUMBER:
+			double number = parser.number();
+			buffer.putDouble(base + NUMBERS + i * Double.BYTES, number);
+			keepText = !rawValue.equals(CellStorage.formatNumber(number));
+			break;
+		case BOOLEAN:
+			boolean bool = parser.bool();
+			if (bool)
+				buffer.putLong(base + BOOLEANS, buffer.getLong(base + BOOLEANS) | (1L << i));
+			keepText = !rawValue.equals(Boolean.toString(bool));
+			break;
+		default:
+			break;
+		}
+
+		if (keepText)
+			buffer.putInt(base + STRINGS + i * Integer.BYTES, writeString(rawValue));
+		buffer.put(base + KINDS_AT + i, (byte) kind.ordinal());
+		buffer.putInt(base + COUNT, buffer.getInt(base + COUNT) + 1);
+		populated++;
+		if (isFormula(kind.ordinal()))
+			formulas++;
+	}
+
+	/**
+	 * The size of the files, in bytes.
+	 */
+	public long mappedBytes() {
+		return (long) blocks.capacity() + strings.capacity();
+	}
+
+	/**
+	 * Deletes the files. Their mappings stay valid until they are collected, so concurrent readers are not affected.
+	 */
+	public void delete() {
+		try {
+			Files.deleteIfExists(cellsFile);
+			Files.deleteIfExists(stringsFile);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// BLOCOS
+
+	/**
+	 * Returns the offset of the block holding a cell, or -1 if none of its cells is populated.
+	 */
+	private int block(int row, int col) {
+		Objects.checkIndex(row, rows());
+		Objects.checkIndex(col, columns());
+		int block = blocks.getInt(entry(row >> BLOCK_SHIFT, col));
+		return block == 0 ? -1 : offset(block);
+	}
+
+	private int entry(int chunk, int col) {
+		return (col * chunks + chunk) * Integer.BYTES;
+	}
+
+	// OS BLOCOS SAO NUMERADOS A PARTIR DE 1 (0 SIGNIFICA SEM BLOCO)
+	private int offset(int block) {
+		return directorySize + (block - 1) * BLOCK_SIZE;
+	}
+
+	/**
+	 * Returns an empty block, reusing a free one or growing the cells file.
+	 */
+	private int allocateBlock() {
+		if (freeBlockCount > 0)
+			return freeBlocks[--freeBlockCount];
+
+		int block = ++allocatedBlocks;
+		if (offset(block) + BLOCK_SIZE > blocks.capacity())
+			blocks = map(cellsFile, grow(blocks.capacity(), offset(block) + BLOCK_SIZE));
+		return block;
+	}
+
+	private void freeBlock(int block) {
+		if (freeBlockCount == freeBlocks.length)
+			freeBlocks = Arrays.copyOf(freeBlocks, freeBlockCount * 2);
+		freeBlocks[freeBlockCount++] = block;
+	}
+
+	/**
+	 * Empties a cell of a block, releasing its text.
+	 */
+	private void clear(MappedByteBuffer buffer, int base, int i) {
+		byte kind = buffer.get(base + KINDS_AT + i);
+		if (kind == Kind.EMPTY.ordinal())
+			return;
+
+		int text = buffer.getInt(base + STRINGS + i * Integer.BYTES);
+		if (text != 0) {
+			freeString(text);
+			buffer.putInt(base + STRINGS + i * Integer.BYTES, 0);
+		}
+		if (isFormula(kind))
+			formulas--;
+		buffer.putLong(base + BOOLEANS, buffer.getLong(base + BOOLEANS) & ~(1L << i));
+		buffer.put(base + KINDS_AT + i, (byte) Kind.EMPTY.ordinal());
+		buffer.putInt(base + COUNT, buffer.getInt(base + COUNT) - 1);
+		populated--;
+	}
+
+	// TEXTOS: [TAMANHO][UTF-8] NUM SLOT DE 2^CLASSE BYTES
+
+	private String readString(int offset) {
+		MappedByteBuffer buffer = strings;
+		byte[] bytes = new byte[buffer.getInt(offset)];
+		buffer.duplicate().position(offset + Integer.BYTES).get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int writeString(String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		int sizeClass = sizeClass(bytes.length);
+		int offset;
+
+		if (freeSlotCounts[sizeClass] > 0)
+			offset = freeSlots[sizeClass][--freeSlotCounts[sizeClass]];
+		else {
+			int size = 1 << sizeClass;
+			if ((long) stringsEnd + size > Integer.MAX_VALUE)
+				throw new IllegalStateException("Strings of the sheet exceed " + Integer.MAX_VALUE + " bytes");
+			offset = stringsEnd;
+			stringsEnd += size;
+			if (stringsEnd > strings.capacity())
+				strings = map(stringsFile, grow(strings.capacity(), stringsEnd));
+		}
+
+		MappedByteBuffer buffer = strings;
+		buffer.duplicate().position(offset + Integer.BYTES).put(bytes);
+		buffer.putInt(offset, bytes.length);
+		return offset;
+	}
+
+	private void freeString(int offset) {
+		int sizeClass = sizeClass(strings.getInt(offset));
+		int[] slots = freeSlots[sizeClass];
+		if (slots == null)
+			slots = freeSlots[sizeClass] = new int[16];
+		else if (freeSlotCounts[sizeClass] == slots.length)
+			slots = freeSlots[sizeClass] = Arrays.copyOf(slots, slots.length * 2);
+		slots[freeSlotCounts[sizeClass]++] = offset;
+	}
+
+	private static int sizeClass(int length) {
+		return Math.max(MIN_SLOT_CLASS, 32 - Integer.numberOfLeadingZeros(length + Integer.BYTES - 1));
+	}
+
+	// METODOS PRIVADOS
+
+	/**
+	 * Maps a file, growing it to the given size. Mappings of the same file share its pages, so the previous mapping
+	 * keeps seeing the writes made through the new one.
+	 */
+	private static MappedByteBuffer map(Path file, int size) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.order(ByteOrder.nativeOrder());
+			return buffer;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static int grow(int capacity, int needed) {
+		long size = Math.max((long) capacity * 2, needed);
+		if (size > Integer.MAX_VALUE)
+			size = Integer.MAX_VALUE;
+		if (size < needed)
+			throw new IllegalStateException("Mapped sheet exceeds " + Integer.MAX_VALUE + " bytes");
+		return (int) size;
+	}
+
+	private static boolean isFormula(int kind) {
+		return kind == Kind.FORMULA.ordinal() || kind == Kind.IMPORTRANGE.ordinal();
+	}
+
+	private static int align(int size) {
+		return (size + 63) & ~63;
+	}
+
+	private static long align(long size) {
+		return (size + 63) & ~63L;
+	}
+}
@@ -0,0 +1,588 @@
+package tp1.impl.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import tp1.api.Spreadsheet;
+import tp1.util.CellStorage;
+import tp1.util.InvalidCellIdException;
+import tp1.util.SheetLocks;
+
+/**
+ *
+ * Durable storage of the spreadsheets of a server: an append-only write-ahead log of the operations that change
+ * them (create, update, share, unshare and delete), and snapshots with every sheet that let the older logs be
+ * discarded.
+ *
+ * Operations are appended while the caller holds the lock that orders them, and made durable afterwards with
+ * sync(), outside that lock. Concurrent syncs are grouped: while one thread forces the log to disk, the records
+ * appended meanwhile wait and are forced together by the next one.
+ *
+ * Every -Dsheets.store.snapshotRecords records, the log moves to a new segment and a snapshot of the sheets is
+ * written in the background, from the latest version of each sheet (or under its read lock, if it keeps no
+ * versions), after which the older segments and snapshots are deleted. The copy may already include some
+ * operations of the new segment, which are replayed over it on recovery: every record sets state (a cell, a
+ * share, a sheet) rather than changing it, so replaying it again gives the same result.
+ * Recovery maps the latest snapshot into memory and replays the segments written after it; a torn record at the
+ * end of a segment ends its replay.
+ *
+ * The store is enabled by setting its directory with -Dsheets.store.dir. -Dsheets.store.fsync=false appends
+ * without forcing the log to disk.
+ *
+ */
+public class SheetStore {
+
+	private static Logger Log = Logger.getLogger(SheetStore.class.getName());
+
+	public static final String DIR_PROPERTY = "sheets.store.dir";
+	public static final String SNAPSHOT_RECORDS_PROPERTY = "sheets.store.snapshotRecords";
+	public static final String FSYNC_PROPERTY = "sheets.store.fsync";
+
+	private static final long DEFAULT_SNAPSHOT_RECORDS = 100_000;
+
+	private static final int SNAPSHOT_MAGIC = 0x53485354;
+	private static final String WAL_PREFIX = "wal-", WAL_SUFFIX = ".log";
+	private static final String SNAPSHOT_PREFIX = "snapshot-", SNAPSHOT_SUFFIX = ".bin";
+
+	private static final byte CREATE = 1, UPDATE = 2, SHARE = 3, UNSHARE = 4, DELETE = 5;
+
+	private final Path dir;
+	private final long snapshotRecords;
+	private final boolean fsync;
+	private final Supplier<Collection<Spreadsheet>> sheets;
+	private final SheetLocks locks;
+	private final ExecutorService snapshotter;
+	private CellFiles cellFiles = CellFiles.HEAP;
+
+	// SEGMENTO DO LOG EM ESCRITA
+	private FileChannel wal;
+	private long segment;
+	private long appended, recordsInSegment;
+	// GROUP COMMIT
+	private final Object syncLock = new Object();
+	private long durable;
+	private boolean syncing;
+	private long syncs;
+
+	/**
+	 * @param dir    - the directory of the logs and snapshots, or null to keep nothing.
+	 * @param sheets - the current sheets, copied in the background after each new log segment.
+	 * @param locks  - the locks that order the updates of each sheet.
+	 */
+	public SheetStore(Path dir, long snapshotRecords, boolean fsync, Supplier<Collection<Spreadsheet>> sheets,
+			SheetLocks locks) {
+		this.dir = dir;
+		this.snapshotRecords = snapshotRecords;
+		this.fsync = fsync;
+		this.sheets = sheets;
+		this.locks = locks;
+		this.snapshotter = dir == null ? null : Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "sheet-snapshot");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Returns the store configured by the system properties, which keeps nothing if no directory is set.
+	 */
+	public static SheetStore fromProperties(Supplier<Collection<Spreadsheet>> sheets, SheetLocks locks) {
+		String dir = System.getProperty(DIR_PROPERTY);
+		return new SheetStore(dir == null ? null : Paths.get(dir),
+				Long.getLong(SNAPSHOT_RECORDS_PROPERTY, DEFAULT_SNAPSHOT_RECORDS),
+				Boolean.parseBoolean(System.getProperty(FSYNC_PROPERTY, "true")), sheets, locks);
+	}
+
+	public boolean isEnabled() {
+		return dir != null;
+	}
+
+	// RECUPERACAO
+
+	/**
+	 * Loads the sheets from the latest snapshot and the log written after it, and opens a new log segment.
+	 * @return the sheets, by id.
+	 */
+	public Map<String, Spreadsheet> recover() {
+		return recover(CellFiles.HEAP);
+	}
+
+	/**
+	 * Loads the sheets, keeping their cells where the given files choose, so sheets that do not fit in the heap can
+	 * be recovered.
+	 * @return the sheets, by id.
+	 */
+	public synchronized Map<String, Spreadsheet> recover(CellFiles cellFiles) {
+		this.cellFiles = cellFiles;
+		Map<String, Spreadsheet> recovered = new LinkedHashMap<String, Spreadsheet>();
+		if (dir == null)
+			return recovered;
+
+		try {
+			Files.createDirectories(dir);
+
+			long start = System.nanoTime();
+			TreeMap<Long, Path> snapshots = files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+			TreeMap<Long, Path> segments = files(WAL_PREFIX, WAL_SUFFIX);
+
+			long from = 0;
+			if (!snapshots.isEmpty()) {
+				from = snapshots.lastKey();
+				loadSnapshot(snapshots.lastEntry().getValue(), recovered);
+			}
+
+			long records = 0;
+			for (Path path : segments.tailMap(from).values())
+				records += replay(path, recovered);
+
+			segment = Math.max(from, segments.isEmpty() ? 0 : segments.lastKey() + 1);
+			openSegment();
+
+			Log.info(String.format("Recovered %d sheets from %s: snapshot %d, %d log records, %d ms", recovered.size(),
+					dir, from, records, (System.nanoTime() - start) / 1_000_000));
+			return recovered;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void loadSnapshot(Path path, Map<String, Spreadsheet> recovered) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.getInt() != SNAPSHOT_MAGIC)
+				throw new IOException("Not a snapshot: " + path);
+
+			int count = buffer.getInt();
+			for (int i = 0; i < count; i++) {
+				Spreadsheet sheet = readSheet(buffer);
+				recovered.put(sheet.getSheetId(), sheet);
+			}
+		}
+	}
+
+	/**
+	 * Applies the records of a log segment.
+	 * @return the number of records applied.
+	 */
+	private long replay(Path path, Map<String, Spreadsheet> recovered) throws IOException {
+		long records = 0;
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			CRC32 crc = new CRC32();
+
+			while (buffer.remaining() >= 8) {
+				int length = buffer.getInt();
+				int checksum = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining())
+					break;
+
+				ByteBuffer payload = buffer.slice();
+				payload.limit(length);
+				crc.reset();
+				crc.update(payload.duplicate());
+				if ((int) crc.getValue() != checksum)
+					break;
+
+				apply(payload, recovered);
+				buffer.position(buffer.position() + length);
+				records++;
+			}
+
+			if (buffer.hasRemaining())
+				Log.info("Ignoring torn end of " + path + " at " + buffer.position());
+		}
+		return records;
+	}
+
+	private void apply(ByteBuffer record, Map<String, Spreadsheet> recovered) {
+		byte type = record.get();
+
+		if (type == CREATE) {
+			// A FOLHA PODE JA ESTAR NO SNAPSHOT: OS SEUS FICHEIROS SAO LIBERTADOS ANTES DE SEREM CRIADOS DE NOVO
+			Spreadsheet previous = recovered.remove(readString(record.duplicate()));
+			if (previous != null)
+				cellFiles.release(previous.cells());
+
+			Spreadsheet sheet = readSheet(record);
+			recovered.put(sheet.getSheetId(), sheet);
+			return;
+		}
+
+		Spreadsheet sheet = recovered.get(readString(record));
+		if (sheet == null)
+			return;
+
+		switch (type) {
+		case UPDATE:
+			// AS CELULAS DE UM REGISTO SAO ESCRITAS DE UMA VEZ, PUBLICANDO UMA SO VERSAO DA FOLHA
+			int count = record.getInt();
+			List<String> ids = new ArrayList<String>(count), values = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++) {
+				ids.add(readString(record));
+				values.add(readString(record));
+			}
+			try {
+				sheet.setCellRawValues(sheet.cellIndexes(ids), values);
+			} catch (InvalidCellIdException e) {
+				Log.info("Ignoring update of " + sheet.getSheetId() + ": " + e.getMessage());
+			}
+			break;
+		case SHARE:
+			sheet.getSharedWith().add(readString(record));
+			break;
+		case UNSHARE:
+			sheet.getSharedWith().remove(readString(record));
+			break;
+		case DELETE:
+			recovered.remove(sheet.getSheetId());
+			cellFiles.release(sheet.cells());
+			break;
+		}
+	}
+
+	// ESCRITA
+
+	/**
+	 * Appends the creation of a sheet, with all its cells.
+	 * @return the position of the record, to pass to sync().
+	 */
+	public long logCreate(Spreadsheet sheet) {
+		return append(CREATE, out -> writeSheet(out, sheet));
+	}
+
+	/**
+	 * Appends the update of some cells of a sheet.
+	 * @param cells - the new raw values, by cell id (e.g. "A1").
+	 */
+	public long logUpdate(String sheetId, Map<String, String> cells) {
+		return append(UPDATE, out -> {
+			writeString(out, sheetId);
+			out.writeInt(cells.size());
+			for (var cell : cells.entrySet()) {
+				writeString(out, cell.getKey());
+				writeString(out, cell.getValue());
+			}
+		});
+	}
+
+	public long logShare(String sheetId, String userId) {
+		return append(SHARE, out -> {
+			writeString(out, sheetId);
+			writeString(out, userId);
+		});
+	}
+
+	public long logUnshare(String sheetId, String userId) {
+		return append(UNSHARE, out -> {
+			writeString(out, sheetId);
+			writeString(out, userId);
+		});
+	}
+
+	public long logDelete(String sheetId) {
+		return append(DELETE, out -> writeString(out, sheetId));
+	}
+
+	private synchronized long append(byte type, RecordWriter writer) {
+		if (dir == null)
+			return 0;
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeByte(type);
+			writer.write(out);
+			out.flush();
+
+			ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+			int length = record.limit() - 8;
+			CRC32 crc = new CRC32();
+			crc.update(record.array(), 8, length);
+			record.putInt(0, length);
+			record.putInt(4, (int) crc.getValue());
+
+			while (record.hasRemaining())
+				wal.write(record);
+
+			if (++recordsInSegment >= snapshotRecords)
+				rotateSegment();
+
+			return ++appended;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Waits until the records up to the given position are on disk. Records appended by other threads while the
+	 * log is being forced are forced together by the next call.
+	 */
+	public void sync(long position) {
+		if (dir == null)
+			return;
+
+		if (!fsync)
+			return;
+
+		while (true) {
+			synchronized (syncLock) {
+				while (syncing && durable < position) {
+					try {
+						syncLock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new UncheckedIOException(new IOException("Interrupted waiting for the log", e));
+					}
+				}
+				if (durable >= position)
+					return;
+				syncing = true;
+			}
+
+			long target;
+			FileChannel channel;
+			synchronized (this) {
+				target = appended;
+				channel = wal;
+			}
+
+			boolean forced = false;
+			try {
+				channel.force(false);
+				forced = true;
+			} catch (ClosedChannelException e) {
+				// O SEGMENTO FOI FECHADO POR UM SNAPSHOT, QUE O FORCOU ANTES
+				forced = true;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			} finally {
+				synchronized (syncLock) {
+					syncing = false;
+					if (forced) {
+						durable = Math.max(durable, target);
+						syncs++;
+					}
+					syncLock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of times the log was forced to disk, each covering one or more records.
+	 */
+	public long syncs() {
+		synchronized (syncLock) {
+			return syncs;
+		}
+	}
+
+	public synchronized long appended() {
+		return appended;
+	}
+
+	// SNAPSHOTS
+
+	/**
+	 * Moves the log to a new segment, from which the next snapshot will be replayed, and writes that snapshot in
+	 * the background. Runs while the caller holds the lock of a sheet, so the copy of the sheets is left to the
+	 * snapshotter.
+	 */
+	private void rotateSegment() throws IOException {
+		wal.force(false);
+		wal.close();
+		segment++;
+		openSegment();
+
+		long snapshot = segment;
+		snapshotter.execute(() -> writeSnapshot(snapshot));
+	}
+
+	/**
+	 * Copies the sheets to a new snapshot. Every operation of the previous segments was applied before being
+	 * appended, so the copy holds all of them.
+	 */
+	private void writeSnapshot(long snapshot) {
+		try {
+			long start = System.nanoTime();
+			Path tmp = dir.resolve(name(SNAPSHOT_PREFIX, snapshot, SNAPSHOT_SUFFIX + ".tmp"));
+
+			int count = 0;
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+				out.writeInt(SNAPSHOT_MAGIC);
+				out.writeInt(0);
+				for (Spreadsheet sheet : sheets.get()) {
+					Spreadsheet version = sheet.snapshot();
+					if (version != sheet)
+						writeSheet(out, version);
+					else {
+						// FOLHA SEM VERSOES (MAPEADA)
+						Lock lock = locks.read(sheet.getSheetId());
+						try {
+							writeSheet(out, sheet);
+						} finally {
+							lock.unlock();
+						}
+					}
+					count++;
+				}
+				out.flush();
+
+				// O NUMERO DE FOLHAS SO E CONHECIDO NO FIM
+				channel.write(ByteBuffer.allocate(4).putInt(0, count), 4);
+				channel.force(true);
+			}
+			Files.move(tmp, dir.resolve(name(SNAPSHOT_PREFIX, snapshot, SNAPSHOT_SUFFIX)),
+					StandardCopyOption.ATOMIC_MOVE);
+
+			// O SNAPSHOT TORNA DESNECESSARIOS OS SEGMENTOS E SNAPSHOTS ANTERIORES
+			for (Path path : files(WAL_PREFIX, WAL_SUFFIX).headMap(snapshot).values())
+				Files.deleteIfExists(path);
+			for (Path path : files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX).headMap(snapshot).values())
+				Files.deleteIfExists(path);
+
+			Log.info(String.format("Snapshot %d: %d sheets, %d ms", snapshot, count,
+					(System.nanoTime() - start) / 1_000_000));
+		} catch (IOException e) {
+			Log.severe("Failed to write snapshot " + snapshot + ": " + e.getMessage());
+		}
+	}
+
+	// METODOS PRIVADOS
+
+	private void openSegment() throws IOException {
+		wal = FileChannel.open(dir.resolve(name(WAL_PREFIX, segment, WAL_SUFFIX)), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		recordsInSegment = 0;
+	}
+
+	/**
+	 * Returns the complete files of a kind in the directory, by sequence number.
+	 */
+	private TreeMap<Long, Path> files(String prefix, String suffix) throws IOException {
+		TreeMap<Long, Path> files = new TreeMap<Long, Path>();
+		try (var stream = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				try {
+					files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()), 16),
+							path);
+				} catch (NumberFormatException e) {
+					Log.info("Ignoring " + path);
+				}
+			}
+		}
+		return files;
+	}
+
+	private static String name(String prefix, long sequence, String suffix) {
+		return String.format("%s%016x%s", prefix, sequence, suffix);
+	}
+
+	private static void writeSheet(DataOutputStream out, Spreadsheet sheet) throws IOException {
+		writeString(out, sheet.getSheetId());
+		writeString(out, sheet.getOwner());
+		writeString(out, sheet.getSheetURL());
+		out.writeInt(sheet.getRows());
+		out.writeInt(sheet.getColumns());
+
+		Set<String> sharedWith = sheet.getSharedWith();
+		out.writeInt(sharedWith == null ? 0 : sharedWith.size());
+		if (sharedWith != null)
+			for (String user : sharedWith)
+				writeString(out, user);
+
+		out.writeBoolean(sheet.cells() != null);
+		List<int[]> populated = new ArrayList<int[]>();
+		sheet.forEachPopulatedCell((row, col) -> populated.add(new int[] { row, col }));
+		out.writeInt(populated.size());
+		for (int[] cell : populated) {
+			out.writeInt(cell[0]);
+			out.writeInt(cell[1]);
+			writeString(out, sheet.getCellRawValue(cell[0], cell[1]));
+		}
+	}
+
+	private Spreadsheet readSheet(ByteBuffer in) {
+		try {
+			String sheetId = readString(in), owner = readString(in), sheetURL = readString(in);
+			int rows = in.getInt(), cols = in.getInt();
+
+			Set<String> sharedWith = new HashSet<String>();
+			for (int i = in.getInt(); i > 0; i--)
+				sharedWith.add(readString(in));
+
+			CellStorage cells = in.get() != 0 ? cellFiles.newStorage(sheetId, rows, cols) : null;
+			for (int i = in.getInt(); i > 0; i--) {
+				int row = in.getInt(), col = in.getInt();
+				String raw = readString(in);
+				if (cells != null)
+					cells.set(row, col, raw);
+			}
+
+			Spreadsheet sheet = new Spreadsheet(sheetId, owner, sheetURL, rows, cols, sharedWith, null);
+			sheet.setCells(cells);
+			return sheet;
+		} catch (BufferUnderflowException e) {
+			throw new UncheckedIOException(new IOException("Truncated sheet", e));
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private interface RecordWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+}
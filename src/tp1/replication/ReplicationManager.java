@@ -3,6 +3,7 @@ package tp1.replication;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 import java.util.concurrent.atomic.*;
 
@@ -220,6 +221,49 @@ public class ReplicationManager {
 
 	}
 
+	public void updateCells(String sheetId, Map<String, String> cells, Long version) {
+		HttpsURLConnection.setDefaultHostnameVerifier(new InsecureHostnameVerifier());
+		AtomicInteger numberOfAcks = new AtomicInteger(0);
+
+		for (String serverURL : existingServers) {
+
+			if (!serverURL.equals(primaryServerURL)) {
+				String updateCellsURL = serverURL + RestSpreadsheets.PATH;
+				WebTarget target = client.target(updateCellsURL).path(sheetId).path("cells")
+						.path(ReplicationRestSpreadsheets.OPERATION).queryParam("repSecret", ReplicationSpreadsheetsServer.replicationSecret);
+				new Thread(() -> {
+					try {
+						Response r = target.request().header(RestSpreadsheets.HEADER_VERSION, version)
+								.accept(MediaType.APPLICATION_JSON)
+								.post(Entity.entity(cells, MediaType.APPLICATION_JSON));
+
+						if (r != null && isSuccessful(r)) {
+							numberOfAcks.incrementAndGet();
+						} else {
+							if (r == null)
+								System.out.println(THREAD_NULL);
+							else {
+								System.out.println(THREAD_STATUS + r.getStatus());
+							}
+						}
+					} catch (ProcessingException pe) {
+						System.out.println(THREAD_CONNECTION_TIMEOUT);
+					}
+				}).start();
+			}
+		}
+
+		while (numberOfAcks.get() == 0 && existingServers.size() > 1) { // ESPERAR ATE RECEBER UM ACK
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+			}
+			System.out.println(WAITING_FOR_SECONDARY);
+		}
+		System.out.println(ACK_RECEIVED);
+
+	}
+
 	public void shareSpreadsheet(String sheetId, String userId, Long version) {
 
 		HttpsURLConnection.setDefaultHostnameVerifier(new InsecureHostnameVerifier());
@@ -2,5 +2,5 @@ package tp1.replication;
 
 public enum Tasks {
 	CreateSpreadsheetTask, DeleteSpreadsheetTask, DeleteUserSpreadsheetsTask, ShareSpreadsheetTask,
-	UnshareSpreadsheetTask, UpdateCellTask;
+	UnshareSpreadsheetTask, UpdateCellTask, UpdateCellsTask;
 }
@@ -0,0 +1,22 @@
+package tp1.replication.tasks;
+
+import java.util.Map;
+
+public class UpdateCellsTask extends Task{
+
+	private String sheetId;
+	private Map<String, String> cells;
+	
+	public UpdateCellsTask(String sheetId, Map<String, String> cells) {
+		this.sheetId = sheetId;
+		this.cells = cells;
+	}
+	
+	public String getSheetId() {
+		return sheetId;
+	}
+	
+	public Map<String, String> getCells() {
+		return cells;
+	}
+}
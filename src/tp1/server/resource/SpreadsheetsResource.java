@@ -3,14 +3,16 @@ package tp1.server.resource;
 import java.net.URI;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
 
 import java.util.logging.Logger;
 
@@ -19,23 +21,38 @@ import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Response.Status;
 
 import tp1.api.Spreadsheet;
-import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.SpreadsheetDelta;
+import tp1.api.SpreadsheetPage;
+import tp1.api.SpreadsheetValues;
+import tp1.api.engine.SpreadsheetEngine;
 import tp1.api.service.rest.RestSpreadsheets;
 import tp1.clients.rest.SheetsMiddleman;
 import tp1.clients.rest.UsersMiddleman;
-import tp1.impl.engine.SpreadsheetEngineImpl;
+import tp1.impl.engine.SheetAdapter;
+import tp1.impl.engine.SpreadsheetEngines;
+import tp1.impl.storage.CellFiles;
+import tp1.impl.storage.SheetStore;
 import tp1.server.rest.SpreadsheetsServer;
 import tp1.server.rest.UsersServer;
 import tp1.util.CellRange;
+import tp1.util.CellStorage;
+import tp1.util.ChangeLog;
+import tp1.util.ComputedValuesCache;
 import tp1.util.Discovery;
+import tp1.util.InvalidCellIdException;
+import tp1.util.SheetIndex;
+import tp1.util.SheetLocks;
+import tp1.util.SingleFlight;
 
 @Singleton
 public class SpreadsheetsResource implements RestSpreadsheets {
 
 	private static final String SAME_TW = "SAME TW";
+	private static final int DEFAULT_PAGE_SIZE = 50, MAX_PAGE_SIZE = 500;
 	
 	private final Map<String, Spreadsheet> spreadsheets;
-	private final Map<String, List<String>> owners;
+	private final SheetIndex sheetIndex;
+	private final SheetLocks locks;
 
 	private final Map<String, Map<String, String[][]>> cache; //CACHE
 	private final Map<String, Map<String, Timestamp>> ttls;	//CACHE
@@ -43,24 +60,40 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 	private final Map<String, Timestamp> TWclient; //CACHE
 	private final long validTime = 20000; //CACHE
 	private ExecutorService exec; //CACHE
+	private final ComputedValuesCache valuesCache; //CACHE
+	private final SingleFlight<String, String[][]> computations; //CACHE
+	private final ChangeLog changeLog; //DELTA
+	private final String localSheetsURL; //IMPORTS LOCAIS
+	private final SheetStore store; //PERSISTENCIA
+	private final CellFiles cellFiles; //PERSISTENCIA
 
 	private static Logger Log = Logger.getLogger(SpreadsheetsResource.class.getName());
 
 	private Discovery discovery;
+	private SpreadsheetEngine engine;
 	private UsersMiddleman usersM;
 	private SheetsMiddleman sheetsM;
 
 	public SpreadsheetsResource() {
-		spreadsheets = new HashMap<String, Spreadsheet>();
-		owners = new HashMap<String, List<String>>();
-
-		cache = new HashMap<String, Map<String, String[][]>>();	//CACHE
-		ttls = new HashMap<String, Map<String, Timestamp>>(); //CACHE
-		TWserver = new HashMap<String, Timestamp>(); //CACHE
-		TWclient = new HashMap<String, Timestamp>(); //CACHE
+		spreadsheets = new ConcurrentHashMap<String, Spreadsheet>();
+		sheetIndex = new SheetIndex();
+		locks = new SheetLocks();
+
+		cache = new ConcurrentHashMap<String, Map<String, String[][]>>();	//CACHE
+		ttls = new ConcurrentHashMap<String, Map<String, Timestamp>>(); //CACHE
+		TWserver = new ConcurrentHashMap<String, Timestamp>(); //CACHE
+		TWclient = new ConcurrentHashMap<String, Timestamp>(); //CACHE
 		exec = Executors.newCachedThreadPool(); //CACHE
+		valuesCache = new ComputedValuesCache(validTime); //CACHE
+		computations = new SingleFlight<String, String[][]>(); //CACHE
+		changeLog = new ChangeLog(); //DELTA
+		localSheetsURL = SpreadsheetsServer.serverURL + RestSpreadsheets.PATH + "/"; //IMPORTS LOCAIS
+		store = SheetStore.fromProperties(spreadsheets::values, locks); //PERSISTENCIA
+		cellFiles = CellFiles.fromProperties(); //PERSISTENCIA
+		recoverSpreadsheets(); //PERSISTENCIA
 
 		discovery = SpreadsheetsServer.sheetsDiscovery;
+		engine = SpreadsheetEngines.getEngine();
 		usersM = new UsersMiddleman();
 		setUsersMiddlemanURI(SpreadsheetsServer.spreadsheetsDomain);
 		sheetsM = new SheetsMiddleman();
@@ -94,20 +127,27 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 
 			sheet.setSheetId(sheetID);
 			sheet.setSheetURL(sheetURL);
+			sheet.setCells(cellFiles.map(sheetID, sheet.cells()));
+			sheet.setSharedWith(concurrentSet(sheet.getSharedWith()));
+
+			long logged;
+
+			Lock lock = locks.write(sheetID);
+			try {
+				spreadsheets.put(sheetID, sheet);
 
-			spreadsheets.put(sheetID, sheet);
+				sheetIndex.add(sheetID, sheetOwner, sheet.getSharedWith());
 
-			List<String> sheetOwnerSheets = owners.get(sheetOwner);
+				TWserver.put(sheetURL, new Timestamp(System.currentTimeMillis()) );
 
-			if (sheetOwnerSheets == null) {
-				sheetOwnerSheets = new ArrayList<String>();
-				owners.put(sheetOwner, sheetOwnerSheets);
+				logged = store.logCreate(sheet);
+			} finally {
+				lock.unlock();
 			}
 
-			sheetOwnerSheets.add(sheetID);
+			// ESPERAR PELO FSYNC FORA DO LOCK, PARA AGRUPAR AS ESCRITAS CONCORRENTES
+			store.sync(logged);
 
-			TWserver.put(sheetURL, new Timestamp(System.currentTimeMillis()) );
-			
 			return sheetID;
 		} else {
 			Log.info("Password is incorrect.");
@@ -122,19 +162,33 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 		if (sheetId == null || password == null)
 			throw new WebApplicationException(Status.BAD_REQUEST);
 
-		Spreadsheet sheet;
-
-		synchronized (this) {
-			sheet = spreadsheets.get(sheetId);
+		Spreadsheet sheet = spreadsheets.get(sheetId);
 
-			checkIfSheetExists(sheet);
-		}
+		checkIfSheetExists(sheet);
 
 		checkUserPassword(sheet.getOwner(), password);
 		
-		TWserver.remove(sheet.getSheetURL());
-		
-		spreadsheets.remove(sheetId);
+		long logged;
+
+		Lock lock = locks.write(sheetId);
+		try {
+			// PODE TER SIDO APAGADA POR UM PEDIDO CONCORRENTE
+			checkIfSheetExists(spreadsheets.remove(sheetId));
+
+			sheetIndex.remove(sheetId, sheet.getOwner(), sheet.getSharedWith());
+
+			TWserver.remove(sheet.getSheetURL());
+
+			logged = store.logDelete(sheetId);
+		} finally {
+			lock.unlock();
+		}
+		store.sync(logged);
+
+		engine.sheetDeleted(sheetId);
+		valuesCache.invalidate(sheetId);
+		changeLog.remove(sheetId);
+		cellFiles.release(sheet.cells());
 	}
 
 	@Override
@@ -148,61 +202,63 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 
 		checkUserPassword(userId, password);
 
-		Spreadsheet sheet;
-
-		synchronized (this) {
-
-			sheet = spreadsheets.get(sheetId);
+		Spreadsheet sheet = spreadsheets.get(sheetId);
 
-			checkIfSheetExists(sheet);
+		checkIfSheetExists(sheet);
 
-			Set<String> sharedUsers = sheet.getSharedWith();
+		Set<String> sharedUsers = sheet.getSharedWith();
 
-			String searchingUser = userId + "@" + SpreadsheetsServer.spreadsheetsDomain;
+		String searchingUser = userId + "@" + SpreadsheetsServer.spreadsheetsDomain;
 
-			boolean hasAccess = true;
+		boolean hasAccess = true;
 
-			if (!sheet.getOwner().equals(userId)) {
-				if (sharedUsers == null || sharedUsers.isEmpty()) {
+		if (!sheet.getOwner().equals(userId)) {
+			if (sharedUsers == null || sharedUsers.isEmpty()) {
+				hasAccess = false;
+			} else {
+				if (!sharedUsers.contains(searchingUser)) {
 					hasAccess = false;
-				} else {
-					if (!sharedUsers.contains(searchingUser)) {
-						hasAccess = false;
-					}
 				}
 			}
+		}
 
-			if (!hasAccess) {
-				Log.info("User does not have access to the spreadsheet.");
-				throw new WebApplicationException(Status.FORBIDDEN);
-			}
+		if (!hasAccess) {
+			Log.info("User does not have access to the spreadsheet.");
+			throw new WebApplicationException(Status.FORBIDDEN);
 		}
 
-		return sheet;
+		// A ULTIMA VERSAO PUBLICADA E SERIALIZADA SEM LOCKS, SEM VER ESCRITAS CONCORRENTES A MEIO
+		return published(sheet);
 	}
 
 	@Override
-	public String[][] getSpreadsheetValues(String sheetId, String userId, String password, Long version) {
-		Log.info("getSpreadsheetValues : " + sheetId + "; userId = " + userId + "; pwd = " + password);
+	public SpreadsheetPage listSpreadsheets(String userId, String password, String after, Integer limit, Long version) {
+		Log.info("listSpreadsheets : userId = " + userId + "; pwd = " + password + "; after = " + after + "; limit = " + limit);
 
-		if (sheetId == null || userId == null || password == null)
+		if (userId == null || (limit != null && limit <= 0))
 			throw new WebApplicationException(Status.BAD_REQUEST);
 
 		checkValidUserId(userId);
 
-		String[][] sheetValues;
+		checkUserPassword(userId, password);
 
-		Spreadsheet sheet;
-		Set<String> sharedUsers;
+		return listAccessibleSheets(userId, after, limit);
+	}
 
-		synchronized (this) {
+	@Override
+	public SpreadsheetValues getSpreadsheetValues(String sheetId, String userId, String password, Long version) {
+		Log.info("getSpreadsheetValues : " + sheetId + "; userId = " + userId + "; pwd = " + password);
 
-			sheet = spreadsheets.get(sheetId);
+		if (sheetId == null || userId == null || password == null)
+			throw new WebApplicationException(Status.BAD_REQUEST);
 
-			checkIfSheetExists(sheet);
+		checkValidUserId(userId);
 
-			sharedUsers = sheet.getSharedWith();
-		}
+		Spreadsheet sheet = spreadsheets.get(sheetId);
+
+		checkIfSheetExists(sheet);
+
+		Set<String> sharedUsers = sheet.getSharedWith();
 
 		checkUserPassword(userId, password);
 
@@ -215,38 +271,36 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 			throw new WebApplicationException(Status.FORBIDDEN);
 		}
 
-		sheetValues = SpreadsheetEngineImpl.getInstance().computeSpreadsheetValues(new AbstractSpreadsheet() {
+		return sheetValues(sheet);
+	}
 
-			@Override
-			public String sheetId() {
-				return sheet.getSheetId();
-			}
+	@Override
+	public SpreadsheetDelta getSpreadsheetValuesDelta(String sheetId, String userId, String password, Long since, Long version) {
+		Log.info("getSpreadsheetValuesDelta : " + sheetId + "; userId = " + userId + "; pwd = " + password + "; since = " + since);
 
-			@Override
-			public int rows() {
-				return sheet.getRows();
-			}
+		if (sheetId == null || userId == null || password == null)
+			throw new WebApplicationException(Status.BAD_REQUEST);
 
-			@Override
-			public int columns() {
-				return sheet.getColumns();
-			}
+		checkValidUserId(userId);
 
-			@Override
-			public String cellRawValue(int row, int col) {
-				return sheet.getCellRawValue(row, col);
-			}
+		Spreadsheet sheet = spreadsheets.get(sheetId);
 
-			@Override
-			public String[][] getRangeValues(String sheetURL, String range) {
+		checkIfSheetExists(sheet);
 
-				String userIdDomain = sheetOwner + "@" + SpreadsheetsServer.spreadsheetsDomain;
+		Set<String> sharedUsers = sheet.getSharedWith();
 
-				return getSpreadsheetImportRanges(sheetURL, range, userIdDomain);
-			}
-		});
+		checkUserPassword(userId, password);
 
-		return sheetValues;
+		String sheetOwner = sheet.getOwner();
+
+		String userIdDomain = userId + "@" + SpreadsheetsServer.spreadsheetsDomain;
+
+		if (!(sharedUsers.contains(userIdDomain) || sheetOwner.equals(userId))) {
+			Log.info("UserId without access.");
+			throw new WebApplicationException(Status.FORBIDDEN);
+		}
+
+		return computeValuesDelta(sheet, since);
 	}
 
 	@Override
@@ -259,16 +313,62 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 
 		checkUserPassword(userId, password);
 
-		synchronized (this) {
+		long logged;
 
+		Lock lock = locks.write(sheetId);
+		try {
 			Spreadsheet sheet = spreadsheets.get(sheetId);
 
 			checkIfSheetExists(sheet);
 
 			sheet.setCellRawValue(cell, rawValue);
-			
+			unmapFormulas(sheet);
+			engine.cellUpdated(sheetId, cell);
+			recordChange(sheetId, cell);
+
 			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()));
+
+			logged = store.logUpdate(sheetId, Map.of(cell, rawValue));
+		} finally {
+			lock.unlock();
 		}
+		store.sync(logged);
+	}
+
+	@Override
+	public void updateCells(String sheetId, Map<String, String> cells, String userId, String password) {
+		Log.info("updateCells : " + cells + "; sheet = " + sheetId + "; userId = " + userId + "; pwd = " + password);
+
+		if (sheetId == null || cells == null || cells.containsValue(null) || userId == null || password == null)
+			throw new WebApplicationException(Status.BAD_REQUEST);
+
+		checkUserPassword(userId, password);
+
+		long logged;
+
+		Lock lock = locks.write(sheetId);
+		try {
+			Spreadsheet sheet = spreadsheets.get(sheetId);
+
+			checkIfSheetExists(sheet);
+
+			// VALIDAR TODAS AS CELULAS ANTES DE ALTERAR ALGUMA
+			List<int[]> indexes = cellIndexes(sheet, cells);
+
+			sheet.setCellRawValues(indexes, cells.values());
+			unmapFormulas(sheet);
+			for (String cell : cells.keySet())
+				engine.cellUpdated(sheetId, cell);
+			for (int[] index : indexes)
+				changeLog.record(sheetId, index[0], index[1]);
+
+			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()));
+
+			logged = store.logUpdate(sheetId, cells);
+		} finally {
+			lock.unlock();
+		}
+		store.sync(logged);
 	}
 
 	@Override
@@ -289,27 +389,36 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 
 		setUsersMiddlemanURI(SpreadsheetsServer.spreadsheetsDomain); // VOLTAR PARA O DOMINIO DO SERVICO DE FOLHAS
 
-		Spreadsheet sheet;
-		Set<String> sharedUsers;
-
-		synchronized (this) {
-
-			sheet = spreadsheets.get(sheetId);
+		Spreadsheet sheet = spreadsheets.get(sheetId);
 
-			checkIfSheetExists(sheet);
+		checkIfSheetExists(sheet);
 
-			sharedUsers = sheet.getSharedWith();
-		}
+		Set<String> sharedUsers = sheet.getSharedWith();
 		
 		checkUserPassword(sheet.getOwner(), password);
 		
-		if (sharedUsers.contains(userId)) {
-			Log.info("Already shared with the user.");
-			throw new WebApplicationException(Status.CONFLICT);
+		long logged;
+
+		Lock lock = locks.write(sheetId);
+		try {
+			// A FOLHA PODE TER SIDO APAGADA DEPOIS DE LIDA, E NAO PODE FICAR NO INDICE NEM NO REGISTO
+			if (spreadsheets.get(sheetId) != sheet) {
+				Log.info("SheetId invalid.");
+				throw new WebApplicationException(Status.NOT_FOUND);
+			}
+
+			// ADICIONA O UTILIZADOR X OU ENTAO X@DOMAIN SE PERTENCER A OUTRO DOMINIO
+			if (!sharedUsers.add(userId)) {
+				Log.info("Already shared with the user.");
+				throw new WebApplicationException(Status.CONFLICT);
+			}
+			sheetIndex.share(sheetId, userId);
+			logged = store.logShare(sheetId, userId);
+		} finally {
+			lock.unlock();
 		}
+		store.sync(logged);
 
-		
-		sharedUsers.add(userId); // ADICIONA O UTILIZADOR X OU ENTAO X@DOMAIN SE PERTENCER A OUTRO DOMINIO
 		TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()));
 	}
 
@@ -331,16 +440,11 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 		if (sheetId == null || userId == null || password == null)
 			throw new WebApplicationException(Status.BAD_REQUEST);
 
-		Spreadsheet sheet;
-		Set<String> sharedUsers;
-
-		synchronized (this) {
-			sheet = spreadsheets.get(sheetId);
+		Spreadsheet sheet = spreadsheets.get(sheetId);
 
-			checkIfSheetExists(sheet);
+		checkIfSheetExists(sheet);
 
-			sharedUsers = sheet.getSharedWith();
-		}
+		Set<String> sharedUsers = sheet.getSharedWith();
 
 		if (!sharedUsers.contains(userId)) {
 			Log.info("Share not existing.");
@@ -349,7 +453,27 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 
 		checkUserPassword(sheet.getOwner(), password);
 
-		sharedUsers.remove(userId);
+		long logged;
+
+		Lock lock = locks.write(sheetId);
+		try {
+			// A FOLHA PODE TER SIDO APAGADA DEPOIS DE LIDA, E NAO PODE FICAR NO INDICE NEM NO REGISTO
+			if (spreadsheets.get(sheetId) != sheet) {
+				Log.info("SheetId invalid.");
+				throw new WebApplicationException(Status.NOT_FOUND);
+			}
+
+			if (!sharedUsers.remove(userId)) {
+				Log.info("Share not existing.");
+				throw new WebApplicationException(Status.NOT_FOUND);
+			}
+			sheetIndex.unshare(sheetId, userId);
+			logged = store.logUnshare(sheetId, userId);
+		} finally {
+			lock.unlock();
+		}
+		store.sync(logged);
+
 		TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()));
 	}
 
@@ -360,11 +484,31 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 		if (userId == null || !secret.equals(SpreadsheetsServer.serverSecret))
 			throw new WebApplicationException(Status.BAD_REQUEST);
 
-		List<String> userIdSheets = owners.remove(userId);
+		List<Spreadsheet> removedSpreadsheets = new ArrayList<Spreadsheet>();
+		long logged = 0;
+
+		for (String sheetId : sheetIndex.ownedBy(userId)) {
+			Lock lock = locks.write(sheetId);
+			try {
+				Spreadsheet removedSpreadsheet = spreadsheets.remove(sheetId);
+				if (removedSpreadsheet != null) {
+					sheetIndex.remove(sheetId, userId, removedSpreadsheet.getSharedWith());
+					removedSpreadsheets.add(removedSpreadsheet);
+					logged = store.logDelete(sheetId);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		store.sync(logged);
 
-		for (String sheetId : userIdSheets) {
-			Spreadsheet removedSpreadsheet = spreadsheets.remove(sheetId);
+		for (Spreadsheet removedSpreadsheet : removedSpreadsheets) {
+			String sheetId = removedSpreadsheet.getSheetId();
+			engine.sheetDeleted(sheetId);
+			valuesCache.invalidate(sheetId);
+			changeLog.remove(sheetId);
 			TWserver.remove(removedSpreadsheet.getSheetURL());
+			cellFiles.release(removedSpreadsheet.cells());
 		}
 	}
 
@@ -387,38 +531,7 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 		
 		CellRange cellR = new CellRange(range);
 
-		String[][] rangeValues = SpreadsheetEngineImpl.getInstance()
-				.computeSpreadsheetValues(new AbstractSpreadsheet() {
-
-					@Override
-					public String sheetId() {
-						return sheet.getSheetId();
-					}
-
-					@Override
-					public int rows() {
-						return sheet.getRows();
-					}
-
-					@Override
-					public int columns() {
-						return sheet.getColumns();
-					}
-
-					@Override
-					public String cellRawValue(int row, int col) {
-						return sheet.getCellRawValue(row, col);
-					}
-
-					@Override
-					public String[][] getRangeValues(String sheetURL, String range) {
-						String userIdDomain = sheet.getOwner() + "@" + SpreadsheetsServer.spreadsheetsDomain;
-						
-						return getSpreadsheetImportRanges(sheetURL, range, userIdDomain);
-					}
-				});
-		
-		return cellR.extractRangeValuesFrom(rangeValues);
+		return computeRangeValues(sheet, cellR);
 	}
 
 	@Override
@@ -435,6 +548,19 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 	
 	//METODOS PRIVADOS
 	
+	/**
+	 * Loads the spreadsheets kept by the store, when persistence is enabled.
+	 */
+	private void recoverSpreadsheets() {
+		for (Spreadsheet sheet : store.recover(cellFiles).values()) {
+			unmapFormulas(sheet);
+			sheet.setSharedWith(concurrentSet(sheet.getSharedWith()));
+			spreadsheets.put(sheet.getSheetId(), sheet);
+			sheetIndex.add(sheet.getSheetId(), sheet.getOwner(), sheet.getSharedWith());
+			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()));
+		}
+	}
+
 	private void setUsersMiddlemanURI(String domain) {
 
 		String service = domain + ":" + UsersServer.SERVICE;
@@ -474,27 +600,15 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 
 	private void insertNewValuesInCache(String sheetURL, String range, String[][] newRangeValues) {
 		
-		Map<String, String[][]> sheetCachedRanges = cache.get(sheetURL);
-		if(sheetCachedRanges == null) {
-			sheetCachedRanges = new HashMap<String, String[][]>();
-		}
-		
-		sheetCachedRanges.put(range, newRangeValues);
-		
-		cache.put(sheetURL, sheetCachedRanges);
+		//AS IMPORTACOES DE UMA FOLHA SAO FEITAS EM PARALELO
+		cache.computeIfAbsent(sheetURL, k -> new ConcurrentHashMap<String, String[][]>()).put(range, newRangeValues);
 		
 		updateTTLs(sheetURL, range);
 	}
 
 	private void updateTTLs(String sheetURL, String range) {
-		Map<String, Timestamp> sheetRangesTimestamps = ttls.get(sheetURL);
-		if(sheetRangesTimestamps == null) {
-			sheetRangesTimestamps = new HashMap<String, Timestamp>();
-		}	
-		
-		sheetRangesTimestamps.put(range, new Timestamp(System.currentTimeMillis() + validTime));
-		
-		ttls.put(sheetURL, sheetRangesTimestamps);
+		ttls.computeIfAbsent(sheetURL, k -> new ConcurrentHashMap<String, Timestamp>())
+				.put(range, new Timestamp(System.currentTimeMillis() + validTime));
 	}
 
 	private void checkValidUserId(String userId) {
@@ -514,6 +628,231 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 		}
 	}
 
+	/**
+	 * Builds a page of the sheets owned by a user or shared with it, from the indexes. Each sheet is checked again,
+	 * as it may have been deleted or unshared while the page was being built.
+	 */
+	private SpreadsheetPage listAccessibleSheets(String userId, String after, Integer limit) {
+		String userIdDomain = userId + "@" + SpreadsheetsServer.spreadsheetsDomain;
+		int size = limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+
+		List<Spreadsheet> sheets = new ArrayList<Spreadsheet>(size + 1);
+		// UMA FOLHA A MAIS INDICA SE HA PAGINA SEGUINTE
+		sheetIndex.accessibleBy(userId, userIdDomain, after, size + 1, sheetId -> {
+			Spreadsheet sheet = spreadsheets.get(sheetId);
+			if (sheet == null || !(sheet.getOwner().equals(userId) || sheet.getSharedWith().contains(userIdDomain)))
+				return false;
+			sheets.add(sheet);
+			return true;
+		});
+
+		boolean more = sheets.size() > size;
+		return SpreadsheetPage.of(more ? sheets.subList(0, size) : sheets, more);
+	}
+
+	/**
+	 * Copies the users a sheet is shared with to a set that can be read while it is being updated.
+	 */
+	private static Set<String> concurrentSet(Set<String> users) {
+		Set<String> set = ConcurrentHashMap.newKeySet();
+		if (users != null)
+			set.addAll(users);
+		return set;
+	}
+
+	// AS FOLHAS SEM FORMULAS SAO ESCRITAS LINHA A LINHA A PARTIR DA SUA VERSAO, SEM CONSTRUIR A MATRIZ DOS VALORES
+	private SpreadsheetValues sheetValues(Spreadsheet sheet) {
+		Spreadsheet version = sheet.snapshot();
+		if (version != sheet && !version.hasFormulas())
+			return SpreadsheetValues.plain(version);
+		return SpreadsheetValues.of(computeSheetValues(sheet));
+	}
+
+	private String[][] computeSheetValues(Spreadsheet sheet) {
+		Timestamp twServer = TWserver.get(sheet.getSheetURL());
+		// A VERSAO E LIDA DEPOIS DO TW, PARA QUE A CACHE NUNCA GUARDE SOB UM TW VALORES ANTERIORES A ELE
+		Spreadsheet version = sheet.snapshot();
+
+		// FOLHAS SEM FORMULAS NAO PASSAM PELO MOTOR; AS MAPEADAS NUNCA AS TEM
+		if (version == sheet || !version.hasFormulas())
+			return plainValues(sheet, version);
+
+		String[][] sheetValues = valuesCache.get(sheet.getSheetId(), twServer);
+		if (sheetValues != null)
+			return sheetValues;
+
+		// PEDIDOS CONCORRENTES DA MESMA VERSAO DA FOLHA ESPERAM PELA MESMA COMPUTACAO
+		return computations.run(sheet.getSheetId(), twServer, () -> computeSheetValues(version, twServer));
+	}
+
+	private String[][] computeSheetValues(Spreadsheet sheet, Timestamp twServer) {
+		boolean[] usesImports = { false };
+
+		SheetAdapter adapter = sheetAdapter(sheet, usesImports);
+		String[][] sheetValues = engine.computeSpreadsheetValues(adapter);
+
+		// VALORES INCOMPLETOS, POR TER ESGOTADO O ORCAMENTO, NAO FICAM EM CACHE
+		if (adapter.budget().exceeded()) {
+			Log.info("computeSheetValues : " + sheet.getSheetId() + "; budget exceeded: " + adapter.budget());
+			return sheetValues;
+		}
+
+		valuesCache.put(sheet.getSheetId(), twServer, sheetValues, usesImports[0]);
+		Log.info("computeSheetValues : " + sheet.getSheetId() + "; " + valuesCache + "; " + computations);
+
+		return sheetValues;
+	}
+
+	private SpreadsheetDelta computeValuesDelta(Spreadsheet sheet, Long since) {
+		// AS ALTERACOES SAO LIDAS ANTES DE CALCULAR OS VALORES; UMA ALTERACAO CONCORRENTE E REENVIADA NO PEDIDO SEGUINTE
+		ChangeLog.Changes changes = changeLog.changesSince(sheet.getSheetId(), since == null ? -1 : since);
+
+		String[][] sheetValues = computeSheetValues(sheet);
+
+		// SEM FORMULAS, SO MUDAM OS VALORES DAS CELULAS ALTERADAS
+		List<int[]> cells = changes.cells == null || !sheet.hasFormulas() ? changes.cells
+				: engine.affectedCells(sheet.getSheetId(), changes.cells);
+		return SpreadsheetDelta.of(changes.version, sheetValues, cells);
+	}
+
+	private void recordChange(String sheetId, String cell) {
+		var cellR = new CellRange(cell + ":" + cell);
+		changeLog.record(sheetId, cellR.topRow, cellR.topCol);
+	}
+
+	private String[][] computeRangeValues(Spreadsheet sheet, CellRange range) {
+		return computeRangeValues(sheet, range, Set.of(sheet.getSheetId()));
+	}
+
+	private String[][] computeRangeValues(Spreadsheet sheet, CellRange range, Set<String> importChain) {
+		Timestamp twServer = TWserver.get(sheet.getSheetURL());
+		Spreadsheet version = sheet.snapshot();
+
+		if (version == sheet || !version.hasFormulas())
+			return plainRangeValues(sheet, version, range, importChain);
+
+		String[][] sheetValues = valuesCache.get(sheet.getSheetId(), twServer);
+		if (sheetValues != null)
+			return range.extractRangeValuesFrom(sheetValues);
+
+		// AVALIAR APENAS AS CELULAS DO INTERVALO E AS CELULAS DE QUE DEPENDEM
+		if (importChain.size() > 1)
+			return engine.computeRangeValues(sheetAdapter(version, new boolean[1], importChain), range);
+
+		// SO SE JUNTAM OS PEDIDOS DIRETOS, CUJO RESULTADO NAO DEPENDE DA CADEIA DE IMPORTS
+		return computations.run(sheet.getSheetId() + "!" + range, twServer,
+				() -> engine.computeRangeValues(sheetAdapter(version, new boolean[1], importChain), range));
+	}
+
+	// AS FOLHAS MAPEADAS QUE GANHAM FORMULAS VOLTAM PARA MEMORIA, ONDE TEM VERSOES PARA SEREM AVALIADAS SEM O LOCK
+	private void unmapFormulas(Spreadsheet sheet) {
+		CellStorage cells = cellFiles.unmapFormulas(sheet.cells());
+		if (cells != sheet.cells())
+			sheet.setCells(cells);
+	}
+
+	// AS FOLHAS SEM VERSOES (MAPEADAS) SAO COPIADAS SOB O SEU LOCK DE LEITURA, PORQUE SAO SERIALIZADAS JA SEM ELE
+	private Spreadsheet published(Spreadsheet sheet) {
+		Spreadsheet version = sheet.snapshot();
+		if (version != sheet)
+			return version;
+
+		Lock lock = locks.read(sheet.getSheetId());
+		try {
+			return sheet.copy();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// AS FOLHAS SEM VERSOES (MAPEADAS) SAO LIDAS SOB O SEU LOCK DE LEITURA, PARA NAO VEREM UM UPDATECELLS A MEIO;
+	// AS QUE ENTRETANTO GANHARAM FORMULAS VOLTARAM PARA MEMORIA, E SAO AVALIADAS PELA SUA VERSAO
+	private String[][] plainValues(Spreadsheet sheet, Spreadsheet version) {
+		if (version != sheet)
+			return version.plainValues();
+
+		Lock lock = locks.read(sheet.getSheetId());
+		try {
+			if (sheet.snapshot() == sheet)
+				return sheet.plainValues();
+		} finally {
+			lock.unlock();
+		}
+		return computeSheetValues(sheet);
+	}
+
+	private String[][] plainRangeValues(Spreadsheet sheet, Spreadsheet version, CellRange range,
+			Set<String> importChain) {
+		if (version != sheet)
+			return version.plainRangeValues(range);
+
+		Lock lock = locks.read(sheet.getSheetId());
+		try {
+			if (sheet.snapshot() == sheet)
+				return sheet.plainRangeValues(range);
+		} finally {
+			lock.unlock();
+		}
+		return computeRangeValues(sheet, range, importChain);
+	}
+
+	private SheetAdapter sheetAdapter(Spreadsheet sheet, boolean[] usesImports) {
+		return sheetAdapter(sheet, usesImports, Set.of(sheet.getSheetId()));
+	}
+
+	/**
+	 * @param importChain - the ids of the local sheets whose values are being computed, so that cyclic imports
+	 *                      between local sheets are detected.
+	 */
+	private SheetAdapter sheetAdapter(Spreadsheet sheet, boolean[] usesImports, Set<String> importChain) {
+		return new SheetAdapter(sheet) {
+
+			@Override
+			public String[][] getRangeValues(String sheetURL, String range) {
+				usesImports[0] = true;
+
+				String userIdDomain = sheet.getOwner() + "@" + SpreadsheetsServer.spreadsheetsDomain;
+
+				if (sheetURL.startsWith(localSheetsURL))
+					return getLocalImportRanges(sheetURL, range, userIdDomain, importChain);
+
+				return getSpreadsheetImportRanges(sheetURL, range, userIdDomain);
+			}
+		};
+	}
+
+	/**
+	 * Resolves an importrange of a sheet of this server directly, with the same checks as importRange().
+	 * @return the values, or null if the sheet does not exist, is not shared with the user, or imports are cyclic.
+	 */
+	private String[][] getLocalImportRanges(String sheetURL, String range, String userIdDomain, Set<String> importChain) {
+		String sheetId = sheetURL.substring(localSheetsURL.length());
+
+		if (importChain.contains(sheetId)) {
+			Log.info("Cyclic importrange: " + importChain + " -> " + sheetId);
+			return null;
+		}
+
+		Spreadsheet sheet = spreadsheets.get(sheetId);
+
+		if (sheet == null || !sheet.getSharedWith().contains(userIdDomain))
+			return null;
+
+		Set<String> chain = new HashSet<String>(importChain);
+		chain.add(sheetId);
+
+		return computeRangeValues(sheet, new CellRange(range), chain);
+	}
+
+	private List<int[]> cellIndexes(Spreadsheet sheet, Map<String, String> cells) {
+		try {
+			return sheet.cellIndexes(cells.keySet());
+		} catch (InvalidCellIdException e) {
+			Log.info("Cell invalid: " + e.getMessage());
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
+	}
+
 	private void checkIfSheetExists(Spreadsheet sheet) {
 		if (sheet == null) {
 			Log.info("SheetId invalid.");
@@ -561,7 +900,9 @@ public class SpreadsheetsResource implements RestSpreadsheets {
 					//GUARDA NOVOS VALORES EM CACHE
 					exec.execute(()-> {insertNewValuesInCache(sheetURL, range, sheetValues);});
 					//INSERE O NOVO TW-CLIENT
-					TWclient.put(sheetURL, sheetsM.getTWServer(sheetURL, SpreadsheetsServer.serverSecret));
+					Timestamp newTwClient = sheetsM.getTWServer(sheetURL, SpreadsheetsServer.serverSecret);
+					if(newTwClient != null)
+						TWclient.put(sheetURL, newTwClient);
 					//RETORNA OS NOVOS VALORES
 				}
 			}
@@ -2,10 +2,12 @@ package tp1.server.resource.dropbox;
 
 import java.net.URI;
 import java.sql.Timestamp;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.logging.Logger;
@@ -13,16 +15,24 @@ import jakarta.inject.Singleton;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Response.Status;
 import tp1.api.Spreadsheet;
-import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.SpreadsheetDelta;
+import tp1.api.SpreadsheetPage;
+import tp1.api.SpreadsheetValues;
+import tp1.api.engine.SpreadsheetEngine;
 import tp1.api.service.rest.RestSpreadsheets;
 import tp1.clients.dropbox.DropboxMiddleman;
 import tp1.clients.rest.SheetsMiddleman;
 import tp1.clients.rest.UsersMiddleman;
-import tp1.impl.engine.SpreadsheetEngineImpl;
+import tp1.impl.engine.SheetAdapter;
+import tp1.impl.engine.SpreadsheetEngines;
 import tp1.server.rest.UsersServer;
 import tp1.server.rest.dropbox.DropboxSpreadsheetsServer;
 import tp1.util.CellRange;
+import tp1.util.ChangeLog;
+import tp1.util.ComputedValuesCache;
 import tp1.util.Discovery;
+import tp1.util.InvalidCellIdException;
+import tp1.util.SingleFlight;
 
 @Singleton
 public class DropboxSpreadsheetsResource implements RestSpreadsheets {
@@ -37,22 +47,32 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 	private final Map<String, Timestamp> TWclient; //CACHE
 	private final long validTime = 20000; //CACHE
 	private ExecutorService exec; //CACHE
+	private final ComputedValuesCache valuesCache; //CACHE
+	private final SingleFlight<String, String[][]> computations; //CACHE
+	private final ChangeLog changeLog; //DELTA
+	private final String localSheetsURL; //IMPORTS LOCAIS
 
 	private static Logger Log = Logger.getLogger(DropboxSpreadsheetsResource.class.getName());
 
 	private Discovery discovery;
+	private SpreadsheetEngine engine;
 	private UsersMiddleman usersM;
 	private SheetsMiddleman sheetsM;
 	private DropboxMiddleman dropboxM;
 
 	public DropboxSpreadsheetsResource() {
-		cache = new HashMap<String, Map<String, String[][]>>();	//CACHE
-		ttls = new HashMap<String, Map<String, Timestamp>>(); //CACHE
-		TWserver = new HashMap<String, Timestamp>(); //CACHE
-		TWclient = new HashMap<String, Timestamp>(); //CACHE
+		cache = new ConcurrentHashMap<String, Map<String, String[][]>>();	//CACHE
+		ttls = new ConcurrentHashMap<String, Map<String, Timestamp>>(); //CACHE
+		TWserver = new ConcurrentHashMap<String, Timestamp>(); //CACHE
+		TWclient = new ConcurrentHashMap<String, Timestamp>(); //CACHE
 		exec = Executors.newCachedThreadPool(); //CACHE
+		valuesCache = new ComputedValuesCache(validTime); //CACHE
+		computations = new SingleFlight<String, String[][]>(); //CACHE
+		changeLog = new ChangeLog(); //DELTA
+		localSheetsURL = DropboxSpreadsheetsServer.serverURL + RestSpreadsheets.PATH + "/"; //IMPORTS LOCAIS
 
 		discovery = DropboxSpreadsheetsServer.sheetsDiscovery;
+		engine = SpreadsheetEngines.getEngine();
 		usersM = new UsersMiddleman();
 		setUsersMiddlemanURI(DropboxSpreadsheetsServer.spreadsheetsDomain);
 		sheetsM = new SheetsMiddleman();
@@ -133,6 +153,10 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 		}
 		
 		TWserver.remove(sheet.getSheetURL());
+
+		engine.sheetDeleted(sheetId);
+		valuesCache.invalidate(sheetId);
+		changeLog.remove(sheetId);
 	}
 
 	@Override
@@ -178,7 +202,16 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 	}
 
 	@Override
-	public String[][] getSpreadsheetValues(String sheetId, String userId, String password, Long version) {
+	public SpreadsheetPage listSpreadsheets(String userId, String password, String after, Integer limit, Long version) {
+		Log.info("listSpreadsheets : userId = " + userId + "; pwd = " + password + "; after = " + after + "; limit = " + limit);
+
+		// AS FOLHAS SO EXISTEM NA DROPBOX, ONDE NAO HA INDICES DAS FOLHAS PARTILHADAS COM CADA UTILIZADOR
+		Log.info("Listing not supported by the Dropbox server.");
+		throw new WebApplicationException(Status.NOT_IMPLEMENTED);
+	}
+
+	@Override
+	public SpreadsheetValues getSpreadsheetValues(String sheetId, String userId, String password, Long version) {
 		Log.info("getSpreadsheetValues : " + sheetId + "; userId = " + userId + "; pwd = " + password);
 
 		if (sheetId == null || userId == null || password == null)
@@ -186,8 +219,6 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 
 		checkValidUserId(userId);
 
-		String[][] sheetValues;
-
 		Spreadsheet sheet;
 		Set<String> sharedUsers;
 
@@ -207,38 +238,41 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 			throw new WebApplicationException(Status.FORBIDDEN);
 		}
 
-		sheetValues = SpreadsheetEngineImpl.getInstance().computeSpreadsheetValues(new AbstractSpreadsheet() {
+		// A FOLHA FOI LIDA DA DROPBOX PARA ESTE PEDIDO: SEM FORMULAS, E ESCRITA LINHA A LINHA
+		if (!sheet.hasFormulas())
+			return SpreadsheetValues.plain(sheet);
+		return SpreadsheetValues.of(computeSheetValues(sheet));
+	}
 
-			@Override
-			public String sheetId() {
-				return sheet.getSheetId();
-			}
+	@Override
+	public SpreadsheetDelta getSpreadsheetValuesDelta(String sheetId, String userId, String password, Long since, Long version) {
+		Log.info("getSpreadsheetValuesDelta : " + sheetId + "; userId = " + userId + "; pwd = " + password + "; since = " + since);
 
-			@Override
-			public int rows() {
-				return sheet.getRows();
-			}
+		if (sheetId == null || userId == null || password == null)
+			throw new WebApplicationException(Status.BAD_REQUEST);
 
-			@Override
-			public int columns() {
-				return sheet.getColumns();
-			}
+		checkValidUserId(userId);
 
-			@Override
-			public String cellRawValue(int row, int col) {
-				return sheet.getCellRawValue(row, col);
-			}
+		Spreadsheet sheet;
+		Set<String> sharedUsers;
 
-			@Override
-			public String[][] getRangeValues(String sheetURL, String range) {
+		String sheetOwner = sheetId.split(SHEET_ID_DELIMITER)[0];
+		sheet = dropboxM.getSpreadsheet(sheetOwner, sheetId);
 
-				String userIdDomain = sheetOwner + "@" + DropboxSpreadsheetsServer.spreadsheetsDomain;
+		checkIfSheetExists(sheet);
 
-				return getSpreadsheetImportRanges(sheetURL, range, userIdDomain);
-			}
-		});
+		sharedUsers = sheet.getSharedWith();
 
-		return sheetValues;
+		checkUserPassword(userId, password);
+
+		String userIdDomain = userId + "@" + DropboxSpreadsheetsServer.spreadsheetsDomain;
+
+		if (!(sharedUsers.contains(userIdDomain) || sheetOwner.equals(userId))) {
+			Log.info("UserId without access.");
+			throw new WebApplicationException(Status.FORBIDDEN);
+		}
+
+		return computeValuesDelta(sheet, since);
 	}
 
 	@Override
@@ -257,12 +291,45 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 		checkIfSheetExists(sheet);
 
 		sheet.setCellRawValue(cell, rawValue);
+		engine.cellUpdated(sheetId, cell);
 
 		if (!dropboxM.uploadSpreadsheet(sheet)) {
 			Log.info("Failed to upload spreadsheet to Dropbox.");
 			throw new WebApplicationException(Status.BAD_REQUEST);
 		}
-		
+		recordChange(sheetId, cell);
+
+		TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+	}
+
+	@Override
+	public void updateCells(String sheetId, Map<String, String> cells, String userId, String password) {
+		Log.info("updateCells : " + cells + "; sheet = " + sheetId + "; userId = " + userId + "; pwd = " + password);
+
+		if (sheetId == null || cells == null || cells.containsValue(null) || userId == null || password == null)
+			throw new WebApplicationException(Status.BAD_REQUEST);
+
+		checkUserPassword(userId, password);
+
+		// UM UNICO DOWNLOAD E UM UNICO UPLOAD PARA TODAS AS CELULAS
+		String sheetOwner = sheetId.split(SHEET_ID_DELIMITER)[0];
+		Spreadsheet sheet = dropboxM.getSpreadsheet(sheetOwner, sheetId);
+
+		checkIfSheetExists(sheet);
+
+		List<int[]> indexes = cellIndexes(sheet, cells);
+
+		sheet.setCellRawValues(indexes, cells.values());
+		for (String cell : cells.keySet())
+			engine.cellUpdated(sheetId, cell);
+
+		if (!dropboxM.uploadSpreadsheet(sheet)) {
+			Log.info("Failed to upload spreadsheet to Dropbox.");
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
+		for (int[] index : indexes)
+			changeLog.record(sheetId, index[0], index[1]);
+
 		TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
 	}
 
@@ -391,38 +458,7 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 		
 		CellRange cellR = new CellRange(range);
 
-		String[][] rangeValues = SpreadsheetEngineImpl.getInstance()
-				.computeSpreadsheetValues(new AbstractSpreadsheet() {
-
-					@Override
-					public String sheetId() {
-						return sheet.getSheetId();
-					}
-
-					@Override
-					public int rows() {
-						return sheet.getRows();
-					}
-
-					@Override
-					public int columns() {
-						return sheet.getColumns();
-					}
-
-					@Override
-					public String cellRawValue(int row, int col) {
-						return sheet.getCellRawValue(row, col);
-					}
-
-					@Override
-					public String[][] getRangeValues(String sheetURL, String range) {
-						String userIdDomain = sheet.getOwner() + "@" + DropboxSpreadsheetsServer.spreadsheetsDomain;
-
-						return getSpreadsheetImportRanges(sheetURL, range, userIdDomain);
-					}
-				});
-
-		return cellR.extractRangeValuesFrom(rangeValues);
+		return computeRangeValues(sheet, cellR);
 	}
 
 	@Override
@@ -478,27 +514,15 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 
 	private void insertNewValuesInCache(String sheetURL, String range, String[][] newRangeValues) {
 
-		Map<String, String[][]> sheetCachedRanges = cache.get(sheetURL);
-		if(sheetCachedRanges == null) {
-			sheetCachedRanges = new HashMap<String, String[][]>();
-		}
-		
-		sheetCachedRanges.put(range, newRangeValues);
-		
-		cache.put(sheetURL, sheetCachedRanges);
+		//AS IMPORTACOES DE UMA FOLHA SAO FEITAS EM PARALELO
+		cache.computeIfAbsent(sheetURL, k -> new ConcurrentHashMap<String, String[][]>()).put(range, newRangeValues);
 		
 		updateTTLs(sheetURL, range);
 	}
 	
 	private void updateTTLs(String sheetURL, String range) {
-		Map<String, Timestamp> sheetRangesTimestamps = ttls.get(sheetURL);
-		if(sheetRangesTimestamps == null) {
-			sheetRangesTimestamps = new HashMap<String, Timestamp>();
-		}	
-		
-		sheetRangesTimestamps.put(range, new Timestamp(System.currentTimeMillis() + validTime));
-		
-		ttls.put(sheetURL, sheetRangesTimestamps);
+		ttls.computeIfAbsent(sheetURL, k -> new ConcurrentHashMap<String, Timestamp>())
+				.put(range, new Timestamp(System.currentTimeMillis() + validTime));
 	}
 	
 	private void checkValidUserId(String userId) {
@@ -518,6 +542,136 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 		}
 	}
 
+	private String[][] computeSheetValues(Spreadsheet sheet) {
+		// FOLHAS SEM FORMULAS NAO PASSAM PELO MOTOR
+		if (!sheet.hasFormulas())
+			return sheet.plainValues();
+
+		Timestamp twServer = TWserver.get(sheet.getSheetURL());
+
+		String[][] sheetValues = valuesCache.get(sheet.getSheetId(), twServer);
+		if (sheetValues != null)
+			return sheetValues;
+
+		// PEDIDOS CONCORRENTES DA MESMA VERSAO DA FOLHA ESPERAM PELA MESMA COMPUTACAO
+		return computations.run(sheet.getSheetId(), twServer, () -> computeSheetValues(sheet, twServer));
+	}
+
+	private String[][] computeSheetValues(Spreadsheet sheet, Timestamp twServer) {
+		boolean[] usesImports = { false };
+
+		SheetAdapter adapter = sheetAdapter(sheet, usesImports);
+		String[][] sheetValues = engine.computeSpreadsheetValues(adapter);
+
+		// VALORES INCOMPLETOS, POR TER ESGOTADO O ORCAMENTO, NAO FICAM EM CACHE
+		if (adapter.budget().exceeded()) {
+			Log.info("computeSheetValues : " + sheet.getSheetId() + "; budget exceeded: " + adapter.budget());
+			return sheetValues;
+		}
+
+		valuesCache.put(sheet.getSheetId(), twServer, sheetValues, usesImports[0]);
+		Log.info("computeSheetValues : " + sheet.getSheetId() + "; " + valuesCache + "; " + computations);
+
+		return sheetValues;
+	}
+
+	private SpreadsheetDelta computeValuesDelta(Spreadsheet sheet, Long since) {
+		// AS ALTERACOES SAO LIDAS ANTES DE CALCULAR OS VALORES; UMA ALTERACAO CONCORRENTE E REENVIADA NO PEDIDO SEGUINTE
+		ChangeLog.Changes changes = changeLog.changesSince(sheet.getSheetId(), since == null ? -1 : since);
+
+		String[][] sheetValues = computeSheetValues(sheet);
+
+		// SEM FORMULAS, SO MUDAM OS VALORES DAS CELULAS ALTERADAS
+		List<int[]> cells = changes.cells == null || !sheet.hasFormulas() ? changes.cells
+				: engine.affectedCells(sheet.getSheetId(), changes.cells);
+		return SpreadsheetDelta.of(changes.version, sheetValues, cells);
+	}
+
+	private void recordChange(String sheetId, String cell) {
+		var cellR = new CellRange(cell + ":" + cell);
+		changeLog.record(sheetId, cellR.topRow, cellR.topCol);
+	}
+
+	private String[][] computeRangeValues(Spreadsheet sheet, CellRange range) {
+		return computeRangeValues(sheet, range, Set.of(sheet.getSheetId()));
+	}
+
+	private String[][] computeRangeValues(Spreadsheet sheet, CellRange range, Set<String> importChain) {
+		if (!sheet.hasFormulas())
+			return sheet.plainRangeValues(range);
+
+		Timestamp twServer = TWserver.get(sheet.getSheetURL());
+
+		String[][] sheetValues = valuesCache.get(sheet.getSheetId(), twServer);
+		if (sheetValues != null)
+			return range.extractRangeValuesFrom(sheetValues);
+
+		// AVALIAR APENAS AS CELULAS DO INTERVALO E AS CELULAS DE QUE DEPENDEM
+		if (importChain.size() > 1)
+			return engine.computeRangeValues(sheetAdapter(sheet, new boolean[1], importChain), range);
+
+		// SO SE JUNTAM OS PEDIDOS DIRETOS, CUJO RESULTADO NAO DEPENDE DA CADEIA DE IMPORTS
+		return computations.run(sheet.getSheetId() + "!" + range, twServer,
+				() -> engine.computeRangeValues(sheetAdapter(sheet, new boolean[1], importChain), range));
+	}
+
+	private SheetAdapter sheetAdapter(Spreadsheet sheet, boolean[] usesImports) {
+		return sheetAdapter(sheet, usesImports, Set.of(sheet.getSheetId()));
+	}
+
+	/**
+	 * @param importChain - the ids of the local sheets whose values are being computed, so that cyclic imports
+	 *                      between local sheets are detected.
+	 */
+	private SheetAdapter sheetAdapter(Spreadsheet sheet, boolean[] usesImports, Set<String> importChain) {
+		return new SheetAdapter(sheet) {
+
+			@Override
+			public String[][] getRangeValues(String sheetURL, String range) {
+				usesImports[0] = true;
+
+				String userIdDomain = sheet.getOwner() + "@" + DropboxSpreadsheetsServer.spreadsheetsDomain;
+
+				if (sheetURL.startsWith(localSheetsURL))
+					return getLocalImportRanges(sheetURL, range, userIdDomain, importChain);
+
+				return getSpreadsheetImportRanges(sheetURL, range, userIdDomain);
+			}
+		};
+	}
+
+	/**
+	 * Resolves an importrange of a sheet of this server directly, with the same checks as importRange().
+	 * @return the values, or null if the sheet does not exist, is not shared with the user, or imports are cyclic.
+	 */
+	private String[][] getLocalImportRanges(String sheetURL, String range, String userIdDomain, Set<String> importChain) {
+		String sheetId = sheetURL.substring(localSheetsURL.length());
+
+		if (importChain.contains(sheetId)) {
+			Log.info("Cyclic importrange: " + importChain + " -> " + sheetId);
+			return null;
+		}
+
+		Spreadsheet sheet = dropboxM.getSpreadsheet(sheetId.split(SHEET_ID_DELIMITER)[0], sheetId);
+
+		if (sheet == null || !sheet.getSharedWith().contains(userIdDomain))
+			return null;
+
+		Set<String> chain = new HashSet<String>(importChain);
+		chain.add(sheetId);
+
+		return computeRangeValues(sheet, new CellRange(range), chain);
+	}
+
+	private List<int[]> cellIndexes(Spreadsheet sheet, Map<String, String> cells) {
+		try {
+			return sheet.cellIndexes(cells.keySet());
+		} catch (InvalidCellIdException e) {
+			Log.info("Cell invalid: " + e.getMessage());
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
+	}
+
 	private void checkIfSheetExists(Spreadsheet sheet) {
 		if (sheet == null) {
 			Log.info("SheetId invalid.");
@@ -565,7 +719,9 @@ public class DropboxSpreadsheetsResource implements RestSpreadsheets {
 					//GUARDA NOVOS VALORES EM CACHE
 					exec.execute(()-> {insertNewValuesInCache(sheetURL, range, sheetValues);});
 					//INSERE O NOVO TW-CLIENT
-					TWclient.put(sheetURL, sheetsM.getTWServer(sheetURL, DropboxSpreadsheetsServer.serverSecret));
+					Timestamp newTwClient = sheetsM.getTWServer(sheetURL, DropboxSpreadsheetsServer.serverSecret);
+					if(newTwClient != null)
+						TWclient.put(sheetURL, newTwClient);
 					//RETORNA OS NOVOS VALORES
 				}
 			}
@@ -3,14 +3,17 @@ package tp1.server.resource.replication;
 import java.net.URI;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 
 import java.util.logging.Logger;
 
@@ -22,12 +25,16 @@ import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
 import jakarta.ws.rs.core.UriBuilder;
 import tp1.api.Spreadsheet;
-import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.SpreadsheetDelta;
+import tp1.api.SpreadsheetPage;
+import tp1.api.SpreadsheetValues;
+import tp1.api.engine.SpreadsheetEngine;
 import tp1.api.service.rest.ReplicationRestSpreadsheets;
 import tp1.api.service.rest.RestSpreadsheets;
 import tp1.clients.rest.SheetsMiddleman;
 import tp1.clients.rest.UsersMiddleman;
-import tp1.impl.engine.SpreadsheetEngineImpl;
+import tp1.impl.engine.SheetAdapter;
+import tp1.impl.engine.SpreadsheetEngines;
 import tp1.replication.ReplicationManager;
 import tp1.replication.Tasks;
 import tp1.replication.json.ExecutedTasks;
@@ -37,10 +44,17 @@ import tp1.replication.tasks.DeleteUserSpreadsheetsTask;
 import tp1.replication.tasks.ShareSpreadsheetTask;
 import tp1.replication.tasks.UnshareSpreadsheetTask;
 import tp1.replication.tasks.UpdateCellTask;
+import tp1.replication.tasks.UpdateCellsTask;
 import tp1.server.rest.replication.ReplicationSpreadsheetsServer;
 import tp1.server.rest.UsersServer;
 import tp1.util.CellRange;
+import tp1.util.ChangeLog;
+import tp1.util.ComputedValuesCache;
 import tp1.util.Discovery;
+import tp1.util.InvalidCellIdException;
+import tp1.util.SheetIndex;
+import tp1.util.SheetLocks;
+import tp1.util.SingleFlight;
 
 @Singleton
 public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadsheets {
@@ -49,12 +63,14 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 	private static final String REDIRECTING_OUTDATED = "Request made to an outdated secondary server. Redirecting...\n";
 	private static final String UNRECOGNIZED_TASK = "Type of task not recognized";
 	private static final String SAME_TW = "SAME TW";
+	private static final int DEFAULT_PAGE_SIZE = 50, MAX_PAGE_SIZE = 500;
 	
 	private static final int TASK_TYPE_INDEX = 0;
 	private static final int TASK_JSON_INDEX = 1;
 
 	private final Map<String, Spreadsheet> spreadsheets;
-	private final Map<String, List<String>> owners;
+	private final SheetIndex sheetIndex;
+	private final SheetLocks locks;
 
 	private final Map<String, Map<String, String[][]>> cache; //CACHE
 	private final Map<String, Map<String, Timestamp>> ttls;	//CACHE
@@ -62,36 +78,47 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 	private final Map<String, Timestamp> TWclient; //CACHE
 	private final long validTime = 20000; //CACHE
 	private ExecutorService exec; //CACHE
+	private final ComputedValuesCache valuesCache; //CACHE
+	private final SingleFlight<String, String[][]> computations; //CACHE
+	private final ChangeLog changeLog; //DELTA
+	private final String localSheetsURL; //IMPORTS LOCAIS
 
 	private static Logger Log = Logger.getLogger(ReplicationSpreadsheetsResource.class.getName());
 
 	private Discovery discovery;
+	private SpreadsheetEngine engine;
 	private UsersMiddleman usersM;
 	private SheetsMiddleman sheetsM;
 
 	private ReplicationManager replicationM;
-	private Long localVersionNumber;
+	private final AtomicLong localVersionNumber;
 	private Gson json;
 
 	public ReplicationSpreadsheetsResource() {
 
-		spreadsheets = new HashMap<String, Spreadsheet>();
-		owners = new HashMap<String, List<String>>();
+		spreadsheets = new ConcurrentHashMap<String, Spreadsheet>();
+		sheetIndex = new SheetIndex();
+		locks = new SheetLocks();
 
-		cache = new HashMap<String, Map<String, String[][]>>();	//CACHE
-		ttls = new HashMap<String, Map<String, Timestamp>>(); //CACHE
-		TWserver = new HashMap<String, Timestamp>(); //CACHE
-		TWclient = new HashMap<String, Timestamp>(); //CACHE
+		cache = new ConcurrentHashMap<String, Map<String, String[][]>>();	//CACHE
+		ttls = new ConcurrentHashMap<String, Map<String, Timestamp>>(); //CACHE
+		TWserver = new ConcurrentHashMap<String, Timestamp>(); //CACHE
+		TWclient = new ConcurrentHashMap<String, Timestamp>(); //CACHE
 		exec = Executors.newCachedThreadPool(); //CACHE
+		valuesCache = new ComputedValuesCache(validTime); //CACHE
+		computations = new SingleFlight<String, String[][]>(); //CACHE
+		changeLog = new ChangeLog(0); //DELTA
+		localSheetsURL = ReplicationSpreadsheetsServer.serverURL + RestSpreadsheets.PATH + "/"; //IMPORTS LOCAIS
 
 		discovery = ReplicationSpreadsheetsServer.sheetsDiscovery;
+		engine = SpreadsheetEngines.getEngine();
 		usersM = new UsersMiddleman();
 		setUsersMiddlemanURI(ReplicationSpreadsheetsServer.spreadsheetsDomain);
 		sheetsM = new SheetsMiddleman();
 		setSheetsMiddlemanURI(ReplicationSpreadsheetsServer.spreadsheetsDomain);
 
 		replicationM = ReplicationManager.getInstance();
-		localVersionNumber = 0L;
+		localVersionNumber = new AtomicLong();
 
 		json = new Gson();
 	}
@@ -130,16 +157,15 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 				String sheetURL = ReplicationSpreadsheetsServer.serverURL + RestSpreadsheets.PATH + "/" + sheetID;
 				sheet.setSheetURL(sheetURL);
 
-				synchronized (this) {
-					spreadsheets.put(sheetID, sheet);
+				sheet.setSharedWith(concurrentSet(sheet.getSharedWith()));
 
-					List<String> sheetOwnerSheets = owners.get(sheetOwner);
-					if (sheetOwnerSheets == null) {
-						sheetOwnerSheets = new ArrayList<String>();
-						owners.put(sheetOwner, sheetOwnerSheets);
+				Lock lock = locks.write(sheetID);
+				try {
+					spreadsheets.put(sheetID, sheet);
 
-					}
-					sheetOwnerSheets.add(sheetID);
+					sheetIndex.add(sheetID, sheetOwner, sheet.getSharedWith());
+				} finally {
+					lock.unlock();
 				}
 
 				updateLocalVersionNumber();
@@ -167,11 +193,7 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 			if (sheetId == null || password == null)
 				throw new WebApplicationException(Status.BAD_REQUEST);
 
-			Spreadsheet sheet;
-
-			synchronized (this) {
-				sheet = spreadsheets.get(sheetId);
-			}
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 
 			checkIfSheetExists(sheet);
 
@@ -181,7 +203,10 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 			Long taskAssignedVersion = replicationM.newTask(new DeleteSpreadsheetTask(sheetId));
 			replicationM.deleteSpreadsheet(sheetId, taskAssignedVersion);
 
-			spreadsheets.remove(sheetId);
+			removeSpreadsheet(sheetId);
+			engine.sheetDeleted(sheetId);
+			valuesCache.invalidate(sheetId);
+			changeLog.remove(sheetId);
 
 			TWserver.remove(sheet.getSheetURL());
 			
@@ -199,7 +224,7 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 	public Spreadsheet getSpreadsheet(String sheetId, String userId, String password, Long version) { // OPERACAO DE
 																										// LEITURA
 		if (replicationM.isPrimary(ReplicationSpreadsheetsServer.serverURL) || version == null
-				|| (version <= localVersionNumber)) {
+				|| (version <= localVersionNumber.get())) {
 			Log.info("getSpreadsheet : " + sheetId + "; userId = " + userId + "; pwd = " + password);
 
 			if (sheetId == null || userId == null)
@@ -209,41 +234,37 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 			checkUserPassword(userId, password);
 
-			Spreadsheet sheet;
-
-			synchronized (this) {
-
-				sheet = spreadsheets.get(sheetId);
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 
-				checkIfSheetExists(sheet);
+			checkIfSheetExists(sheet);
 
-				Set<String> sharedUsers = sheet.getSharedWith();
+			Set<String> sharedUsers = sheet.getSharedWith();
 
-				String searchingUser = userId + "@" + ReplicationSpreadsheetsServer.spreadsheetsDomain;
+			String searchingUser = userId + "@" + ReplicationSpreadsheetsServer.spreadsheetsDomain;
 
-				boolean hasAccess = true;
+			boolean hasAccess = true;
 
-				if (!sheet.getOwner().equals(userId)) {
-					if (sharedUsers == null || sharedUsers.isEmpty()) {
+			if (!sheet.getOwner().equals(userId)) {
+				if (sharedUsers == null || sharedUsers.isEmpty()) {
+					hasAccess = false;
+				} else {
+					if (!sharedUsers.contains(searchingUser)) {
 						hasAccess = false;
-					} else {
-						if (!sharedUsers.contains(searchingUser)) {
-							hasAccess = false;
-						}
 					}
 				}
+			}
 
-				if (!hasAccess) {
-					Log.info("User does not have access to the spreadsheet.");
-					throw new WebApplicationException(Status.FORBIDDEN);
-				}
+			if (!hasAccess) {
+				Log.info("User does not have access to the spreadsheet.");
+				throw new WebApplicationException(Status.FORBIDDEN);
 			}
 
-			return sheet;
+			// A ULTIMA VERSAO PUBLICADA E SERIALIZADA SEM LOCKS, SEM VER ESCRITAS CONCORRENTES A MEIO
+			return published(sheet);
 		} else {
 			Log.info(REDIRECTING_OUTDATED);
 			exec.execute(() -> {
-				checkForUpdates(localVersionNumber);
+				checkForUpdates(localVersionNumber.get());
 			});
 			UriBuilder uriB = UriBuilder.newInstance();
 			uriB.uri(replicationM.getPrimaryServerURL()).path(RestSpreadsheets.PATH).path(sheetId)
@@ -253,11 +274,42 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 	}
 
 	@Override
-	public String[][] getSpreadsheetValues(String sheetId, String userId, String password, Long version) { // OPERACAO
+	public SpreadsheetPage listSpreadsheets(String userId, String password, String after, Integer limit, Long version) { // OPERACAO DE LEITURA
+		if (replicationM.isPrimary(ReplicationSpreadsheetsServer.serverURL) || version == null
+				|| (version <= localVersionNumber.get())) {
+			Log.info("listSpreadsheets : userId = " + userId + "; pwd = " + password + "; after = " + after + "; limit = " + limit);
+
+			if (userId == null || (limit != null && limit <= 0))
+				throw new WebApplicationException(Status.BAD_REQUEST);
+
+			checkValidUserId(userId);
+
+			checkUserPassword(userId, password);
+
+			return listAccessibleSheets(userId, after, limit);
+		} else {
+			Log.info(REDIRECTING_OUTDATED);
+			exec.execute(() -> {
+				checkForUpdates(localVersionNumber.get());
+			});
+			UriBuilder uriB = UriBuilder.newInstance();
+			uriB.uri(replicationM.getPrimaryServerURL()).path(RestSpreadsheets.PATH)
+					.queryParam("userId", userId).queryParam("password", password);
+			// OS PARAMETROS DA PAGINA SAO OPCIONAIS
+			if (after != null)
+				uriB.queryParam("after", after);
+			if (limit != null)
+				uriB.queryParam("limit", limit);
+			throw new WebApplicationException(Response.temporaryRedirect(uriB.build()).build());
+		}
+	}
+
+	@Override
+	public SpreadsheetValues getSpreadsheetValues(String sheetId, String userId, String password, Long version) { // OPERACAO
 																											// DE
 																											// LEITURA
 		if (replicationM.isPrimary(ReplicationSpreadsheetsServer.serverURL) || version == null
-				|| (version <= localVersionNumber)) {
+				|| (version <= localVersionNumber.get())) {
 
 			Log.info("getSpreadsheetValues : " + sheetId + "; userId = " + userId + "; pwd = " + password);
 
@@ -266,19 +318,11 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 			checkValidUserId(userId);
 
-			String[][] sheetValues;
-
-			Spreadsheet sheet;
-			Set<String> sharedUsers;
-
-			synchronized (this) {
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 
-				sheet = spreadsheets.get(sheetId);
+			checkIfSheetExists(sheet);
 
-				checkIfSheetExists(sheet);
-
-				sharedUsers = sheet.getSharedWith();
-			}
+			Set<String> sharedUsers = sheet.getSharedWith();
 
 			checkUserPassword(userId, password);
 
@@ -291,46 +335,57 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 				throw new WebApplicationException(Status.FORBIDDEN);
 			}
 
-			sheetValues = SpreadsheetEngineImpl.getInstance().computeSpreadsheetValues(new AbstractSpreadsheet() {
+			return sheetValues(sheet);
+		} else {
+			Log.info(REDIRECTING_OUTDATED);
+			exec.execute(() -> {
+				checkForUpdates(localVersionNumber.get());
+			});
+			UriBuilder uriB = UriBuilder.newInstance();
+			uriB.uri(replicationM.getPrimaryServerURL()).path(RestSpreadsheets.PATH).path(sheetId).path("values")
+					.queryParam("userId", userId).queryParam("password", password);
+			throw new WebApplicationException(Response.temporaryRedirect(uriB.build()).build());
+		}
+	}
 
-				@Override
-				public String sheetId() {
-					return sheet.getSheetId();
-				}
+	@Override
+	public SpreadsheetDelta getSpreadsheetValuesDelta(String sheetId, String userId, String password, Long since, Long version) { // OPERACAO DE LEITURA
+		if (replicationM.isPrimary(ReplicationSpreadsheetsServer.serverURL) || version == null
+				|| (version <= localVersionNumber.get())) {
 
-				@Override
-				public int rows() {
-					return sheet.getRows();
-				}
+			Log.info("getSpreadsheetValuesDelta : " + sheetId + "; userId = " + userId + "; pwd = " + password + "; since = " + since);
 
-				@Override
-				public int columns() {
-					return sheet.getColumns();
-				}
+			if (sheetId == null || userId == null || password == null)
+				throw new WebApplicationException(Status.BAD_REQUEST);
 
-				@Override
-				public String cellRawValue(int row, int col) {
-					return sheet.getCellRawValue(row, col);
-				}
+			checkValidUserId(userId);
 
-				@Override
-				public String[][] getRangeValues(String sheetURL, String range) {
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 
-					String userIdDomain = sheetOwner + "@" + ReplicationSpreadsheetsServer.spreadsheetsDomain;
+			checkIfSheetExists(sheet);
 
-					return getSpreadsheetImportRanges(sheetURL, range, userIdDomain);
-				}
-			});
+			Set<String> sharedUsers = sheet.getSharedWith();
 
-			return sheetValues;
+			checkUserPassword(userId, password);
+
+			String sheetOwner = sheet.getOwner();
+
+			String userIdDomain = userId + "@" + ReplicationSpreadsheetsServer.spreadsheetsDomain;
+
+			if (!(sharedUsers.contains(userIdDomain) || sheetOwner.equals(userId))) {
+				Log.info("UserId without access.");
+				throw new WebApplicationException(Status.FORBIDDEN);
+			}
+
+			return computeValuesDelta(sheet, since);
 		} else {
 			Log.info(REDIRECTING_OUTDATED);
 			exec.execute(() -> {
-				checkForUpdates(localVersionNumber);
+				checkForUpdates(localVersionNumber.get());
 			});
 			UriBuilder uriB = UriBuilder.newInstance();
-			uriB.uri(replicationM.getPrimaryServerURL()).path(RestSpreadsheets.PATH).path(sheetId).path("values")
-					.queryParam("userId", userId).queryParam("password", password);
+			uriB.uri(replicationM.getPrimaryServerURL()).path(RestSpreadsheets.PATH).path(sheetId).path("values").path("delta")
+					.queryParam("userId", userId).queryParam("password", password).queryParam("since", since);
 			throw new WebApplicationException(Response.temporaryRedirect(uriB.build()).build());
 		}
 	}
@@ -348,21 +403,30 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 			checkUserPassword(userId, password);
 
-			Spreadsheet sheet;
-
-			synchronized (this) {
-				sheet = spreadsheets.get(sheetId);
-			}
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 
 			checkIfSheetExists(sheet);
 
-			// MANDAR EXECUTAR PRIMEIRO NOS SECUNDARIOS
-			Long taskAssignedVersion = replicationM.newTask(new UpdateCellTask(sheetId, cell, rawValue));
-			replicationM.updateCell(sheetId, cell, rawValue, taskAssignedVersion);
+			// A TAREFA E CRIADA COM O TRINCO DA FOLHA, PARA AS VERSOES DA FOLHA SEGUIREM A ORDEM DAS ALTERACOES
+			Long taskAssignedVersion;
+			Lock lock = locks.write(sheetId);
+			try {
+				taskAssignedVersion = replicationM.newTask(new UpdateCellTask(sheetId, cell, rawValue));
 
-			sheet.setCellRawValue(cell, rawValue);
+				sheet.setCellRawValue(cell, rawValue);
+				engine.cellUpdated(sheetId, cell);
 
-			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+				TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+
+				// A ALTERACAO TEM A VERSAO DA TAREFA, A MESMA EM TODAS AS REPLICAS
+				recordChange(sheetId, cell, taskAssignedVersion);
+			} finally {
+				lock.unlock();
+			}
+
+			// OS SECUNDARIOS SAO AVISADOS SEM O TRINCO, QUE E PARTILHADO COM OUTRAS FOLHAS; APLICAM AS TAREFAS PELA
+			// ORDEM DAS VERSOES
+			replicationM.updateCell(sheetId, cell, rawValue, taskAssignedVersion);
 			
 			updateLocalVersionNumber();
 		} else {
@@ -374,6 +438,56 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 		}
 	}
 
+	@Override
+	public void updateCells(String sheetId, Map<String, String> cells, String userId, String password) { // OPERACAO DE ESCRITA
+		if (replicationM.isPrimary(ReplicationSpreadsheetsServer.serverURL)) {
+			Log.info("updateCells : " + cells + "; sheet = " + sheetId + "; userId = " + userId + "; pwd = " + password);
+
+			if (sheetId == null || cells == null || cells.containsValue(null) || userId == null || password == null)
+				throw new WebApplicationException(Status.BAD_REQUEST);
+
+			checkUserPassword(userId, password);
+
+			Spreadsheet sheet = spreadsheets.get(sheetId);
+
+			checkIfSheetExists(sheet);
+
+			// VALIDAR TODAS AS CELULAS ANTES DE CRIAR A TAREFA
+			List<int[]> indexes = cellIndexes(sheet, cells);
+
+			// A TAREFA E CRIADA COM O TRINCO DA FOLHA, PARA AS VERSOES DA FOLHA SEGUIREM A ORDEM DAS ALTERACOES
+			Long taskAssignedVersion;
+			Lock lock = locks.write(sheetId);
+			try {
+				// UMA UNICA TAREFA PARA TODAS AS CELULAS
+				taskAssignedVersion = replicationM.newTask(new UpdateCellsTask(sheetId, cells));
+
+				sheet.setCellRawValues(indexes, cells.values());
+				for (String cell : cells.keySet())
+					engine.cellUpdated(sheetId, cell);
+
+				TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+
+				// A ALTERACAO TEM A VERSAO DA TAREFA, A MESMA EM TODAS AS REPLICAS
+				recordChanges(sheetId, indexes, taskAssignedVersion);
+			} finally {
+				lock.unlock();
+			}
+
+			// OS SECUNDARIOS SAO AVISADOS SEM O TRINCO, QUE E PARTILHADO COM OUTRAS FOLHAS; APLICAM AS TAREFAS PELA
+			// ORDEM DAS VERSOES
+			replicationM.updateCells(sheetId, cells, taskAssignedVersion);
+
+			updateLocalVersionNumber();
+		} else {
+			Log.info(REDIRECTING);
+			UriBuilder uriB = UriBuilder.newInstance();
+			uriB.uri(replicationM.getPrimaryServerURL()).path(RestSpreadsheets.PATH).path(sheetId).path("cells")
+					.queryParam("userId", userId).queryParam("password", password);
+			throw new WebApplicationException(Response.temporaryRedirect(uriB.build()).build());
+		}
+	}
+
 	@Override
 	public void shareSpreadsheet(String sheetId, String userId, String password) { // OPERACAO DE ESCRITA
 		if (replicationM.isPrimary(ReplicationSpreadsheetsServer.serverURL)) {
@@ -395,31 +509,37 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 			setUsersMiddlemanURI(ReplicationSpreadsheetsServer.spreadsheetsDomain); // VOLTAR PARA O DOMINIO DO SERVICO
 																					// DE FOLHAS
 
-			Spreadsheet sheet;
-			Set<String> sharedUsers;
-
-			synchronized (this) {
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 
-				sheet = spreadsheets.get(sheetId);
+			checkIfSheetExists(sheet);
 
-				checkIfSheetExists(sheet);
+			checkUserPassword(sheet.getOwner(), password);
 
-				sharedUsers = sheet.getSharedWith();
-			}
+			Long taskAssignedVersion;
+			Lock lock = locks.write(sheetId);
+			try {
+				// A FOLHA PODE TER SIDO APAGADA DEPOIS DE LIDA
+				if (spreadsheets.get(sheetId) != sheet) {
+					Log.info("SheetId invalid.");
+					throw new WebApplicationException(Status.NOT_FOUND);
+				}
 
-			checkUserPassword(sheet.getOwner(), password);
+				// ADICIONA O UTILIZADOR X OU ENTAO X@DOMAIN SE PERTENCER A OUTRO DOMINIO
+				if (!sheet.getSharedWith().add(userId)) {
+					Log.info("Already shared with the user.");
+					throw new WebApplicationException(Status.CONFLICT);
+				}
+				sheetIndex.share(sheetId, userId);
 
-			if (sharedUsers.contains(userId)) {
-				Log.info("Already shared with the user.");
-				throw new WebApplicationException(Status.CONFLICT);
+				// A TAREFA E CRIADA COM O TRINCO DA FOLHA, PARA AS VERSOES DA FOLHA SEGUIREM A ORDEM DAS ALTERACOES
+				taskAssignedVersion = replicationM.newTask(new ShareSpreadsheetTask(sheetId, userId));
+			} finally {
+				lock.unlock();
 			}
 
-			// MANDAR EXECUTAR PRIMEIRO NOS SECUNDARIOS
-			Long taskAssignedVersion = replicationM.newTask(new ShareSpreadsheetTask(sheetId, userId));
+			// OS SECUNDARIOS SAO AVISADOS SEM O TRINCO, QUE E PARTILHADO COM OUTRAS FOLHAS
 			replicationM.shareSpreadsheet(sheetId, userId, taskAssignedVersion);
 
-			sharedUsers.add(userId); // ADICIONA O UTILIZADOR X OU ENTAO X@DOMAIN SE PERTENCER A OUTRO DOMINIO
-
 			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
 			
 			updateLocalVersionNumber();
@@ -451,16 +571,11 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 			setUsersMiddlemanURI(ReplicationSpreadsheetsServer.spreadsheetsDomain); // VOLTAR PARA O DOMINIO DO SERVICO
 																					// DE FOLHAS
-			Spreadsheet sheet;
-			Set<String> sharedUsers;
-
-			synchronized (this) {
-				sheet = spreadsheets.get(sheetId);
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 
-				checkIfSheetExists(sheet);
+			checkIfSheetExists(sheet);
 
-				sharedUsers = sheet.getSharedWith();
-			}
+			Set<String> sharedUsers = sheet.getSharedWith();
 
 			if (!sharedUsers.contains(userId)) {
 				Log.info("Share not existing.");
@@ -468,11 +583,30 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 			}
 
 			checkUserPassword(sheet.getOwner(), password);
-			// MANDAR EXECUTAR PRIMEIRO NOS SECUNDARIOS
-			Long taskAssignedVersion = replicationM.newTask(new UnshareSpreadsheetTask(sheetId, userId));
-			replicationM.unshareSpreadsheet(sheetId, userId, taskAssignedVersion);
 
-			sharedUsers.remove(userId);
+			Long taskAssignedVersion;
+			Lock lock = locks.write(sheetId);
+			try {
+				// A FOLHA PODE TER SIDO APAGADA DEPOIS DE LIDA
+				if (spreadsheets.get(sheetId) != sheet) {
+					Log.info("SheetId invalid.");
+					throw new WebApplicationException(Status.NOT_FOUND);
+				}
+
+				if (!sharedUsers.remove(userId)) {
+					Log.info("Share not existing.");
+					throw new WebApplicationException(Status.NOT_FOUND);
+				}
+				sheetIndex.unshare(sheetId, userId);
+
+				// A TAREFA E CRIADA COM O TRINCO DA FOLHA, PARA AS VERSOES DA FOLHA SEGUIREM A ORDEM DAS ALTERACOES
+				taskAssignedVersion = replicationM.newTask(new UnshareSpreadsheetTask(sheetId, userId));
+			} finally {
+				lock.unlock();
+			}
+
+			// OS SECUNDARIOS SAO AVISADOS SEM O TRINCO, QUE E PARTILHADO COM OUTRAS FOLHAS
+			replicationM.unshareSpreadsheet(sheetId, userId, taskAssignedVersion);
 
 			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
 			
@@ -498,13 +632,12 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 			Long taskAssignedVersion = replicationM.newTask(new DeleteUserSpreadsheetsTask(userId));
 			replicationM.deleteUserSpreadsheets(userId, taskAssignedVersion);
 
-			synchronized (this) {
-				List<String> userIdSheets = owners.remove(userId);
-
-				for (String sheetId : userIdSheets) {
-					Spreadsheet removedSpreadsheet = spreadsheets.remove(sheetId);
-					TWserver.remove(removedSpreadsheet.getSheetURL());
-				}
+			for (String sheetId : sheetIndex.ownedBy(userId)) {
+				Spreadsheet removedSpreadsheet = removeSpreadsheet(sheetId);
+				engine.sheetDeleted(sheetId);
+				valuesCache.invalidate(sheetId);
+				changeLog.remove(sheetId);
+				TWserver.remove(removedSpreadsheet.getSheetURL());
 			}
 			updateLocalVersionNumber();
 		} else {
@@ -521,16 +654,13 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 																												// DE
 																												// LEITURA
 		if (replicationM.isPrimary(ReplicationSpreadsheetsServer.serverURL) || version == null
-				|| (version <= localVersionNumber)) {
+				|| (version <= localVersionNumber.get())) {
 			Log.info("importRange : " + sheetId + "; userId = " + userId + "; range = " + range);
 
 			if (!secret.equals(ReplicationSpreadsheetsServer.serverSecret))
 				throw new WebApplicationException(Status.BAD_REQUEST);
 
-			Spreadsheet sheet;
-			synchronized (this) {
-				sheet = spreadsheets.get(sheetId);
-			}
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 
 			checkIfSheetExists(sheet);
 
@@ -542,43 +672,11 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 			
 			CellRange cellR = new CellRange(range);
 
-			String[][] rangeValues = SpreadsheetEngineImpl.getInstance()
-					.computeSpreadsheetValues(new AbstractSpreadsheet() {
-
-						@Override
-						public String sheetId() {
-							return sheet.getSheetId();
-						}
-
-						@Override
-						public int rows() {
-							return sheet.getRows();
-						}
-
-						@Override
-						public int columns() {
-							return sheet.getColumns();
-						}
-
-						@Override
-						public String cellRawValue(int row, int col) {
-							return sheet.getCellRawValue(row, col);
-						}
-
-						@Override
-						public String[][] getRangeValues(String sheetURL, String range) {
-							String userIdDomain = sheet.getOwner() + "@"
-									+ ReplicationSpreadsheetsServer.spreadsheetsDomain;
-
-							return getSpreadsheetImportRanges(sheetURL, range, userIdDomain);
-						}
-					});
-
-			return cellR.extractRangeValuesFrom(rangeValues);
+			return computeRangeValues(sheet, cellR);
 		} else {
 			Log.info(REDIRECTING_OUTDATED);
 			exec.execute(() -> {
-				checkForUpdates(localVersionNumber);
+				checkForUpdates(localVersionNumber.get());
 			});
 			UriBuilder uriB = UriBuilder.newInstance();
 			uriB.uri(replicationM.getPrimaryServerURL()).path(RestSpreadsheets.PATH).path(sheetId).path(userId)
@@ -607,17 +705,15 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 		sheet.setSheetURL(sheetURL);
 
-		synchronized (this) {
-			spreadsheets.put(sheetID, sheet);
-
-			List<String> sheetOwnerSheets = owners.get(sheetOwner);
+		sheet.setSharedWith(concurrentSet(sheet.getSharedWith()));
 
-			if (sheetOwnerSheets == null) {
-				sheetOwnerSheets = new ArrayList<String>();
-				owners.put(sheetOwner, sheetOwnerSheets);
-			}
+		Lock lock = locks.write(sheetID);
+		try {
+			spreadsheets.put(sheetID, sheet);
 
-			sheetOwnerSheets.add(sheetID);
+			sheetIndex.add(sheetID, sheetOwner, sheet.getSharedWith());
+		} finally {
+			lock.unlock();
 		}
 		
 		TWserver.put(sheetURL, new Timestamp(System.currentTimeMillis()) );
@@ -636,7 +732,10 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 		Log.info("deleteSpreadsheetOperation : sheet = " + sheetId);
 
 		replicationM.newTask(new DeleteSpreadsheetTask(sheetId));
-		Spreadsheet removedSpreadsheet = spreadsheets.remove(sheetId);
+		Spreadsheet removedSpreadsheet = removeSpreadsheet(sheetId);
+		engine.sheetDeleted(sheetId);
+		valuesCache.invalidate(sheetId);
+		changeLog.remove(sheetId);
 		TWserver.remove(removedSpreadsheet.getSheetURL());
 
 		// ATUALIZA A VERSAO LOCAL NOS SECUNDARIOS
@@ -653,17 +752,52 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 		Log.info("updateCellOperaion : " + cell + "; value = " + rawValue + "; sheet = " + sheetId);
 
-		synchronized (this) {
+		Lock lock = locks.write(sheetId);
+		try {
 			Spreadsheet sheet = spreadsheets.get(sheetId);
 			checkIfSheetExists(sheet);
 			sheet.setCellRawValue(cell, rawValue);
+			engine.cellUpdated(sheetId, cell);
 			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+			// A VERSAO RECEBIDA E A ATRIBUIDA A TAREFA PELO PRIMARIO
+			recordChange(sheetId, cell, version);
+		} finally {
+			lock.unlock();
 		}
 		
 		// ATUALIZA A VERSAO LOCAL NOS SECUNDARIOS
 		updateLocalVersionNumber();
 	}
 
+	@Override
+	public void updateCellsOperation(String sheetId, Map<String, String> cells, String repSecret, Long version) {
+		checkReplicationSecret(repSecret);
+
+		checkForUpdates(version);
+
+		replicationM.newTask(new UpdateCellsTask(sheetId, cells));
+
+		Log.info("updateCellsOperation : " + cells + "; sheet = " + sheetId);
+
+		Lock lock = locks.write(sheetId);
+		try {
+			Spreadsheet sheet = spreadsheets.get(sheetId);
+			checkIfSheetExists(sheet);
+			List<int[]> indexes = cellIndexes(sheet, cells);
+			sheet.setCellRawValues(indexes, cells.values());
+			for (String cell : cells.keySet())
+				engine.cellUpdated(sheetId, cell);
+			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+			// A VERSAO RECEBIDA E A ATRIBUIDA A TAREFA PELO PRIMARIO
+			recordChanges(sheetId, indexes, version);
+		} finally {
+			lock.unlock();
+		}
+
+		// ATUALIZA A VERSAO LOCAL NOS SECUNDARIOS
+		updateLocalVersionNumber();
+	}
+
 	@Override
 	public void shareSpreadsheetOperation(String sheetId, String userId, String repSecret, Long version) {
 		checkReplicationSecret(repSecret);
@@ -674,23 +808,22 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 		Log.info("shareSpreadsheetOperation : " + sheetId + "; userId = " + userId);
 
-		Spreadsheet sheet;
-		Set<String> sharedUsers;
-
-		synchronized (this) {
-			sheet = spreadsheets.get(sheetId);
+		Lock lock = locks.write(sheetId);
+		try {
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 			checkIfSheetExists(sheet);
-			sharedUsers = sheet.getSharedWith();
-		}
 
-		if (sharedUsers.contains(userId)) {
-			Log.info("Already shared with the user.");
-			throw new WebApplicationException(Status.CONFLICT);
-		}
+			// ADICIONA O UTILIZADOR X OU ENTAO X@DOMAIN SE PERTENCER A OUTRO DOMINIO
+			if (!sheet.getSharedWith().add(userId)) {
+				Log.info("Already shared with the user.");
+				throw new WebApplicationException(Status.CONFLICT);
+			}
+			sheetIndex.share(sheetId, userId);
 
-		sharedUsers.add(userId); // ADICIONA O UTILIZADOR X OU ENTAO X@DOMAIN SE PERTENCER A OUTRO DOMINIO
-		
-		TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+		} finally {
+			lock.unlock();
+		}
 		
 		// ATUALIZA A VERSAO LOCAL NOS SECUNDARIOS
 		updateLocalVersionNumber();
@@ -706,23 +839,21 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 		Log.info("unshareSpreadsheetOperation : " + sheetId + "; userId = " + userId);
 
-		Spreadsheet sheet;
-		Set<String> sharedUsers;
-
-		synchronized (this) {
-			sheet = spreadsheets.get(sheetId);
+		Lock lock = locks.write(sheetId);
+		try {
+			Spreadsheet sheet = spreadsheets.get(sheetId);
 			checkIfSheetExists(sheet);
-			sharedUsers = sheet.getSharedWith();
-		}
 
-		if (!sharedUsers.contains(userId)) {
-			Log.info("Share not existing.");
-			throw new WebApplicationException(Status.NOT_FOUND);
-		}
+			if (!sheet.getSharedWith().remove(userId)) {
+				Log.info("Share not existing.");
+				throw new WebApplicationException(Status.NOT_FOUND);
+			}
+			sheetIndex.unshare(sheetId, userId);
 
-		sharedUsers.remove(userId);
-		
-		TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+			TWserver.put(sheet.getSheetURL(), new Timestamp(System.currentTimeMillis()) );
+		} finally {
+			lock.unlock();
+		}
 		
 		// ATUALIZA A VERSAO LOCAL NOS SECUNDARIOS
 		updateLocalVersionNumber();
@@ -738,13 +869,12 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 		Log.info("deleteUserSpreadsheetsOperation : " + userId);
 
-		synchronized (this) {
-			List<String> userIdSheets = owners.remove(userId);
-
-			for (String sheetId : userIdSheets) {
-				Spreadsheet removedSpreadhsheet = spreadsheets.remove(sheetId);
-				TWserver.remove(removedSpreadhsheet.getSheetURL());
-			}
+		for (String sheetId : sheetIndex.ownedBy(userId)) {
+			Spreadsheet removedSpreadhsheet = removeSpreadsheet(sheetId);
+			engine.sheetDeleted(sheetId);
+			valuesCache.invalidate(sheetId);
+			changeLog.remove(sheetId);
+			TWserver.remove(removedSpreadhsheet.getSheetURL());
 		}
 		// ATUALIZA A VERSAO LOCAL NOS SECUNDARIOS
 		updateLocalVersionNumber();
@@ -820,27 +950,15 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 
 	private void insertNewValuesInCache(String sheetURL, String range, String[][] newRangeValues) {
 
-		Map<String, String[][]> sheetCachedRanges = cache.get(sheetURL);
-		if(sheetCachedRanges == null) {
-			sheetCachedRanges = new HashMap<String, String[][]>();
-		}
-		
-		sheetCachedRanges.put(range, newRangeValues);
-		
-		cache.put(sheetURL, sheetCachedRanges);
+		//AS IMPORTACOES DE UMA FOLHA SAO FEITAS EM PARALELO
+		cache.computeIfAbsent(sheetURL, k -> new ConcurrentHashMap<String, String[][]>()).put(range, newRangeValues);
 		
 		updateTTLs(sheetURL, range);
 	}
 
 	private void updateTTLs(String sheetURL, String range) {
-		Map<String, Timestamp> sheetRangesTimestamps = ttls.get(sheetURL);
-		if(sheetRangesTimestamps == null) {
-			sheetRangesTimestamps = new HashMap<String, Timestamp>();
-		}	
-		
-		sheetRangesTimestamps.put(range, new Timestamp(System.currentTimeMillis() + validTime));
-		
-		ttls.put(sheetURL, sheetRangesTimestamps);
+		ttls.computeIfAbsent(sheetURL, k -> new ConcurrentHashMap<String, Timestamp>())
+				.put(range, new Timestamp(System.currentTimeMillis() + validTime));
 	}
 	
 	private void checkValidUserId(String userId) {
@@ -860,6 +978,235 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 		}
 	}
 
+	private Spreadsheet removeSpreadsheet(String sheetId) {
+		Lock lock = locks.write(sheetId);
+		try {
+			Spreadsheet sheet = spreadsheets.remove(sheetId);
+			if (sheet != null)
+				sheetIndex.remove(sheetId, sheet.getOwner(), sheet.getSharedWith());
+			return sheet;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Builds a page of the sheets owned by a user or shared with it, from the indexes. Each sheet is checked again,
+	 * as it may have been deleted or unshared while the page was being built.
+	 */
+	private SpreadsheetPage listAccessibleSheets(String userId, String after, Integer limit) {
+		String userIdDomain = userId + "@" + ReplicationSpreadsheetsServer.spreadsheetsDomain;
+		int size = limit == null ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+
+		List<Spreadsheet> sheets = new ArrayList<Spreadsheet>(size + 1);
+		// UMA FOLHA A MAIS INDICA SE HA PAGINA SEGUINTE
+		sheetIndex.accessibleBy(userId, userIdDomain, after, size + 1, sheetId -> {
+			Spreadsheet sheet = spreadsheets.get(sheetId);
+			if (sheet == null || !(sheet.getOwner().equals(userId) || sheet.getSharedWith().contains(userIdDomain)))
+				return false;
+			sheets.add(sheet);
+			return true;
+		});
+
+		boolean more = sheets.size() > size;
+		return SpreadsheetPage.of(more ? sheets.subList(0, size) : sheets, more);
+	}
+
+	/**
+	 * Copies the users a sheet is shared with to a set that can be read while it is being updated.
+	 */
+	private static Set<String> concurrentSet(Set<String> users) {
+		Set<String> set = ConcurrentHashMap.newKeySet();
+		if (users != null)
+			set.addAll(users);
+		return set;
+	}
+
+	// AS FOLHAS SEM FORMULAS SAO ESCRITAS LINHA A LINHA A PARTIR DA SUA VERSAO, SEM CONSTRUIR A MATRIZ DOS VALORES
+	private SpreadsheetValues sheetValues(Spreadsheet sheet) {
+		Spreadsheet version = sheet.snapshot();
+		if (version != sheet && !version.hasFormulas())
+			return SpreadsheetValues.plain(version);
+		return SpreadsheetValues.of(computeSheetValues(sheet));
+	}
+
+	private String[][] computeSheetValues(Spreadsheet sheet) {
+		Timestamp twServer = TWserver.get(sheet.getSheetURL());
+		// A VERSAO E LIDA DEPOIS DO TW, PARA QUE A CACHE NUNCA GUARDE SOB UM TW VALORES ANTERIORES A ELE
+		Spreadsheet version = sheet.snapshot();
+
+		// FOLHAS SEM FORMULAS NAO PASSAM PELO MOTOR
+		if (!version.hasFormulas())
+			return plainValues(sheet, version);
+
+		String[][] sheetValues = valuesCache.get(sheet.getSheetId(), twServer);
+		if (sheetValues != null)
+			return sheetValues;
+
+		// PEDIDOS CONCORRENTES DA MESMA VERSAO DA FOLHA ESPERAM PELA MESMA COMPUTACAO
+		return computations.run(sheet.getSheetId(), twServer, () -> computeSheetValues(version, twServer));
+	}
+
+	private String[][] computeSheetValues(Spreadsheet sheet, Timestamp twServer) {
+		boolean[] usesImports = { false };
+
+		SheetAdapter adapter = sheetAdapter(sheet, usesImports);
+		String[][] sheetValues = engine.computeSpreadsheetValues(adapter);
+
+		// VALORES INCOMPLETOS, POR TER ESGOTADO O ORCAMENTO, NAO FICAM EM CACHE
+		if (adapter.budget().exceeded()) {
+			Log.info("computeSheetValues : " + sheet.getSheetId() + "; budget exceeded: " + adapter.budget());
+			return sheetValues;
+		}
+
+		valuesCache.put(sheet.getSheetId(), twServer, sheetValues, usesImports[0]);
+		Log.info("computeSheetValues : " + sheet.getSheetId() + "; " + valuesCache + "; " + computations);
+
+		return sheetValues;
+	}
+
+	private SpreadsheetDelta computeValuesDelta(Spreadsheet sheet, Long since) {
+		// AS ALTERACOES SAO LIDAS ANTES DE CALCULAR OS VALORES; UMA ALTERACAO CONCORRENTE E REENVIADA NO PEDIDO SEGUINTE
+		ChangeLog.Changes changes = changeLog.changesSince(sheet.getSheetId(), since == null ? -1 : since);
+
+		String[][] sheetValues = computeSheetValues(sheet);
+
+		// SEM FORMULAS, SO MUDAM OS VALORES DAS CELULAS ALTERADAS
+		List<int[]> cells = changes.cells == null || !sheet.hasFormulas() ? changes.cells
+				: engine.affectedCells(sheet.getSheetId(), changes.cells);
+		return SpreadsheetDelta.of(changes.version, sheetValues, cells);
+	}
+
+	private void recordChange(String sheetId, String cell, long version) {
+		var cellR = new CellRange(cell + ":" + cell);
+		changeLog.record(sheetId, cellR.topRow, cellR.topCol, version);
+	}
+
+	private void recordChanges(String sheetId, List<int[]> cells, long version) {
+		for (int[] cell : cells)
+			changeLog.record(sheetId, cell[0], cell[1], version);
+	}
+
+	private String[][] computeRangeValues(Spreadsheet sheet, CellRange range) {
+		return computeRangeValues(sheet, range, Set.of(sheet.getSheetId()));
+	}
+
+	private String[][] computeRangeValues(Spreadsheet sheet, CellRange range, Set<String> importChain) {
+		Timestamp twServer = TWserver.get(sheet.getSheetURL());
+		Spreadsheet version = sheet.snapshot();
+
+		if (!version.hasFormulas())
+			return plainRangeValues(sheet, version, range);
+
+		String[][] sheetValues = valuesCache.get(sheet.getSheetId(), twServer);
+		if (sheetValues != null)
+			return range.extractRangeValuesFrom(sheetValues);
+
+		// AVALIAR APENAS AS CELULAS DO INTERVALO E AS CELULAS DE QUE DEPENDEM
+		if (importChain.size() > 1)
+			return engine.computeRangeValues(sheetAdapter(version, new boolean[1], importChain), range);
+
+		// SO SE JUNTAM OS PEDIDOS DIRETOS, CUJO RESULTADO NAO DEPENDE DA CADEIA DE IMPORTS
+		return computations.run(sheet.getSheetId() + "!" + range, twServer,
+				() -> engine.computeRangeValues(sheetAdapter(version, new boolean[1], importChain), range));
+	}
+
+	// AS FOLHAS SEM VERSOES (MAPEADAS) SAO COPIADAS SOB O SEU LOCK DE LEITURA, PORQUE SAO SERIALIZADAS JA SEM ELE
+	private Spreadsheet published(Spreadsheet sheet) {
+		Spreadsheet version = sheet.snapshot();
+		if (version != sheet)
+			return version;
+
+		Lock lock = locks.read(sheet.getSheetId());
+		try {
+			return sheet.copy();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// AS FOLHAS SEM VERSOES (MAPEADAS) SAO LIDAS SOB O SEU LOCK DE LEITURA, PARA NAO VEREM UM UPDATECELLS A MEIO
+	private String[][] plainValues(Spreadsheet sheet, Spreadsheet version) {
+		if (version != sheet)
+			return version.plainValues();
+
+		Lock lock = locks.read(sheet.getSheetId());
+		try {
+			return sheet.plainValues();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private String[][] plainRangeValues(Spreadsheet sheet, Spreadsheet version, CellRange range) {
+		if (version != sheet)
+			return version.plainRangeValues(range);
+
+		Lock lock = locks.read(sheet.getSheetId());
+		try {
+			return sheet.plainRangeValues(range);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private SheetAdapter sheetAdapter(Spreadsheet sheet, boolean[] usesImports) {
+		return sheetAdapter(sheet, usesImports, Set.of(sheet.getSheetId()));
+	}
+
+	/**
+	 * @param importChain - the ids of the local sheets whose values are being computed, so that cyclic imports
+	 *                      between local sheets are detected.
+	 */
+	private SheetAdapter sheetAdapter(Spreadsheet sheet, boolean[] usesImports, Set<String> importChain) {
+		return new SheetAdapter(sheet) {
+
+			@Override
+			public String[][] getRangeValues(String sheetURL, String range) {
+				usesImports[0] = true;
+
+				String userIdDomain = sheet.getOwner() + "@" + ReplicationSpreadsheetsServer.spreadsheetsDomain;
+
+				if (sheetURL.startsWith(localSheetsURL))
+					return getLocalImportRanges(sheetURL, range, userIdDomain, importChain);
+
+				return getSpreadsheetImportRanges(sheetURL, range, userIdDomain);
+			}
+		};
+	}
+
+	/**
+	 * Resolves an importrange of a sheet of this server directly, with the same checks as importRange().
+	 * @return the values, or null if the sheet does not exist, is not shared with the user, or imports are cyclic.
+	 */
+	private String[][] getLocalImportRanges(String sheetURL, String range, String userIdDomain, Set<String> importChain) {
+		String sheetId = sheetURL.substring(localSheetsURL.length());
+
+		if (importChain.contains(sheetId)) {
+			Log.info("Cyclic importrange: " + importChain + " -> " + sheetId);
+			return null;
+		}
+
+		Spreadsheet sheet = spreadsheets.get(sheetId);
+
+		if (sheet == null || !sheet.getSharedWith().contains(userIdDomain))
+			return null;
+
+		Set<String> chain = new HashSet<String>(importChain);
+		chain.add(sheetId);
+
+		return computeRangeValues(sheet, new CellRange(range), chain);
+	}
+
+	private List<int[]> cellIndexes(Spreadsheet sheet, Map<String, String> cells) {
+		try {
+			return sheet.cellIndexes(cells.keySet());
+		} catch (InvalidCellIdException e) {
+			Log.info("Cell invalid: " + e.getMessage());
+			throw new WebApplicationException(Status.BAD_REQUEST);
+		}
+	}
+
 	private void checkIfSheetExists(Spreadsheet sheet) {
 		if (sheet == null) {
 			Log.info("SheetId invalid.");
@@ -912,7 +1259,9 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 					//GUARDA NOVOS VALORES EM CACHE
 					exec.execute(()-> {insertNewValuesInCache(sheetURL, range, sheetValues);});
 					//INSERE O NOVO TW-CLIENT
-					TWclient.put(sheetURL, sheetsM.getTWServer(sheetURL, ReplicationSpreadsheetsServer.serverSecret));
+					Timestamp newTwClient = sheetsM.getTWServer(sheetURL, ReplicationSpreadsheetsServer.serverSecret);
+					if(newTwClient != null)
+						TWclient.put(sheetURL, newTwClient);
 					//RETORNA OS NOVOS VALORES
 				}
 			}
@@ -931,12 +1280,13 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 	
 	// GESTAO DE VERSAO
 
-	synchronized private void updateLocalVersionNumber() {
-		localVersionNumber++;
+	private long updateLocalVersionNumber() {
+		return localVersionNumber.incrementAndGet();
 	}
 
+	// AS TAREFAS EM FALTA SAO EXECUTADAS POR UMA THREAD DE CADA VEZ, PELA ORDEM DO PRIMARIO
 	synchronized private void checkForUpdates(Long receivedVersion) {
-		if (receivedVersion > localVersionNumber) {
+		if (receivedVersion > localVersionNumber.get()) {
 			List<String[]> missingTasks = replicationM.getMissingTasks(localVersionNumber.intValue());
 
 			executeTasks(missingTasks.subList(0, missingTasks.size() - 1));
@@ -952,35 +1302,40 @@ public class ReplicationSpreadsheetsResource implements ReplicationRestSpreadshe
 				CreateSpreadsheetTask cTask = json.fromJson(taskJsonRepresentation[TASK_JSON_INDEX],
 						CreateSpreadsheetTask.class);
 				createSpreadsheetOperation(cTask.getSpreadsheet(), ReplicationSpreadsheetsServer.replicationSecret,
-						localVersionNumber);
+						localVersionNumber.get());
 				break;
 			case DeleteSpreadsheetTask:
 				DeleteSpreadsheetTask dTask = json.fromJson(taskJsonRepresentation[TASK_JSON_INDEX],
 						DeleteSpreadsheetTask.class);
 				deleteSpreadsheetOperation(dTask.getSheetId(), ReplicationSpreadsheetsServer.replicationSecret,
-						localVersionNumber);
+						localVersionNumber.get());
 				break;
 			case DeleteUserSpreadsheetsTask:
 				DeleteUserSpreadsheetsTask dUTask = json.fromJson(taskJsonRepresentation[TASK_JSON_INDEX],
 						DeleteUserSpreadsheetsTask.class);
 				deleteUserSpreadsheetsOperation(dUTask.getUserId(), ReplicationSpreadsheetsServer.replicationSecret,
-						localVersionNumber);
+						localVersionNumber.get());
 				break;
 			case ShareSpreadsheetTask:
 				ShareSpreadsheetTask sTask = json.fromJson(taskJsonRepresentation[TASK_JSON_INDEX],
 						ShareSpreadsheetTask.class);
 				shareSpreadsheetOperation(sTask.getSheetId(), sTask.getUserId(),
-						ReplicationSpreadsheetsServer.replicationSecret, localVersionNumber);
+						ReplicationSpreadsheetsServer.replicationSecret, localVersionNumber.get());
 				break;
 			case UnshareSpreadsheetTask:
 				UnshareSpreadsheetTask uTask = json.fromJson(taskJsonRepresentation[1], UnshareSpreadsheetTask.class);
 				unshareSpreadsheetOperation(uTask.getSheetId(), uTask.getUserId(),
-						ReplicationSpreadsheetsServer.replicationSecret, localVersionNumber);
+						ReplicationSpreadsheetsServer.replicationSecret, localVersionNumber.get());
 				break;
 			case UpdateCellTask:
 				UpdateCellTask upTask = json.fromJson(taskJsonRepresentation[TASK_JSON_INDEX], UpdateCellTask.class);
 				updateCellOperation(upTask.getSheetId(), upTask.getCell(), upTask.getRawValue(),
-						ReplicationSpreadsheetsServer.replicationSecret, localVersionNumber);
+						ReplicationSpreadsheetsServer.replicationSecret, localVersionNumber.get());
+				break;
+			case UpdateCellsTask:
+				UpdateCellsTask upsTask = json.fromJson(taskJsonRepresentation[TASK_JSON_INDEX], UpdateCellsTask.class);
+				updateCellsOperation(upsTask.getSheetId(), upsTask.getCells(),
+						ReplicationSpreadsheetsServer.replicationSecret, localVersionNumber.get());
 				break;
 			default:
 				System.out.println(UNRECOGNIZED_TASK);
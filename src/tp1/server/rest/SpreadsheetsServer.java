@@ -10,7 +10,9 @@ import javax.net.ssl.SSLContext;
 import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
+import tp1.impl.BinaryValuesProvider;
 import tp1.impl.GenericExceptionMapper;
+import tp1.impl.StreamingJsonWriter;
 import tp1.server.resource.SpreadsheetsResource;
 import tp1.util.Discovery;
 import tp1.util.InsecureHostnameVerifier;;
@@ -28,6 +30,7 @@ public class SpreadsheetsServer {
 	public static final String SERVICE = "sheets";
 	public static String spreadsheetsDomain;
 	public static Discovery sheetsDiscovery;
+	public static String serverURL;
 	public static String serverSecret;
 	
 	public static void main(String[] args) {
@@ -45,9 +48,12 @@ public class SpreadsheetsServer {
 		ResourceConfig config = new ResourceConfig();
 		config.register(SpreadsheetsResource.class);
 		config.register(new GenericExceptionMapper());
+		config.register(StreamingJsonWriter.class);
+		config.register(BinaryValuesProvider.class);
 		
 		//HTTPS
 		String serverURI = String.format("https://%s:%s/rest", ip, PORT);
+		serverURL = serverURI;
 		JdkHttpServerFactory.createHttpServer( URI.create(serverURI), config, SSLContext.getDefault());
 	
 		Log.info(String.format("%s Server ready @ %s\n",  SERVICE, serverURI));
@@ -10,7 +10,9 @@ import javax.net.ssl.SSLContext;
 import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
+import tp1.impl.BinaryValuesProvider;
 import tp1.impl.GenericExceptionMapper;
+import tp1.impl.StreamingJsonWriter;
 import tp1.server.resource.dropbox.DropboxSpreadsheetsResource;
 import tp1.util.Discovery;
 import tp1.util.InsecureHostnameVerifier;;
@@ -32,6 +34,7 @@ public class DropboxSpreadsheetsServer {
 	public static String spreadsheetsDomain;
 	public static boolean stateReset;
 	public static Discovery sheetsDiscovery;
+	public static String serverURL;
 	public static String serverSecret;
 	
 	public static String apiKey;
@@ -61,9 +64,12 @@ public class DropboxSpreadsheetsServer {
 		ResourceConfig config = new ResourceConfig();
 		config.register(DropboxSpreadsheetsResource.class);
 		config.register(new GenericExceptionMapper());
+		config.register(StreamingJsonWriter.class);
+		config.register(BinaryValuesProvider.class);
 		
 		//HTTPS
 		String serverURI = String.format("https://%s:%s/rest", ip, PORT);
+		serverURL = serverURI;
 		JdkHttpServerFactory.createHttpServer( URI.create(serverURI), config, SSLContext.getDefault());
 	
 		Log.info(String.format("%s Server ready @ %s\n",  SERVICE, serverURI));
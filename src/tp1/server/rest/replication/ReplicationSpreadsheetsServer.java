@@ -10,7 +10,9 @@ import javax.net.ssl.SSLContext;
 import org.glassfish.jersey.jdkhttp.JdkHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
+import tp1.impl.BinaryValuesProvider;
 import tp1.impl.GenericExceptionMapper;
+import tp1.impl.StreamingJsonWriter;
 import tp1.replication.ReplicationManager;
 import tp1.replication.VersionFilter;
 import tp1.server.resource.replication.ReplicationSpreadsheetsResource;
@@ -62,6 +64,8 @@ public class ReplicationSpreadsheetsServer {
 		ResourceConfig config = new ResourceConfig();
 		config.register(ReplicationSpreadsheetsResource.class);
 		config.register(new GenericExceptionMapper());
+		config.register(StreamingJsonWriter.class);
+		config.register(BinaryValuesProvider.class);
 		config.register(new VersionFilter(replicationM));														//REPLICATION
 		
 		JdkHttpServerFactory.createHttpServer( URI.create(serverURL), config, SSLContext.getDefault());
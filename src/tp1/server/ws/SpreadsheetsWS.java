@@ -15,12 +15,13 @@ import java.util.concurrent.Executors;
 
 import jakarta.jws.WebService;
 import tp1.api.Spreadsheet;
-import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
 import tp1.api.service.soap.SoapSpreadsheets;
 import tp1.api.service.soap.SheetsException;
 import tp1.clients.soap.SheetsMiddleman;
 import tp1.clients.soap.UsersMiddleman;
-import tp1.impl.engine.SpreadsheetEngineImpl;
+import tp1.impl.engine.SheetAdapter;
+import tp1.impl.engine.SpreadsheetEngines;
 import tp1.server.resource.SpreadsheetsResource;
 import tp1.server.soap.SpreadsheetsServer;
 import tp1.server.soap.UsersServer;
@@ -46,6 +47,7 @@ public class SpreadsheetsWS implements SoapSpreadsheets {
 	private static Logger Log = Logger.getLogger(SpreadsheetsResource.class.getName());
 
 	private Discovery discovery;
+	private SpreadsheetEngine engine;
 	private UsersMiddleman usersM;
 	private SheetsMiddleman sheetsM;
 
@@ -54,6 +56,7 @@ public class SpreadsheetsWS implements SoapSpreadsheets {
 		owners = new HashMap<String, List<String>>();
 		cache = new HashMap<String, Map<String, String[][]>>();
 		discovery = SpreadsheetsServer.sheetsDiscovery;
+		engine = SpreadsheetEngines.getEngine();
 		usersM = new UsersMiddleman();
 		sheetsM = new SheetsMiddleman();
 
@@ -125,6 +128,7 @@ public class SpreadsheetsWS implements SoapSpreadsheets {
 			boolean correctPassword = usersM.checkPassword(sheet.getOwner(), password);
 			if (correctPassword) {
 				spreadsheets.remove(sheetId);
+				engine.sheetDeleted(sheetId);
 			} else { // 403
 				Log.info("Password is incorrect.");
 				throw new SheetsException(FORBIDDEN);
@@ -222,27 +226,11 @@ public class SpreadsheetsWS implements SoapSpreadsheets {
 				throw new SheetsException(FORBIDDEN);
 			}
 
-			sheetValues = SpreadsheetEngineImpl.getInstance().computeSpreadsheetValues(new AbstractSpreadsheet() {
+			// FOLHAS SEM FORMULAS NAO PASSAM PELO MOTOR
+			if (!sheet.hasFormulas())
+				return sheet.plainValues();
 
-				@Override
-				public String sheetId() {
-					return sheet.getSheetId();
-				}
-
-				@Override
-				public int rows() {
-					return sheet.getRows();
-				}
-
-				@Override
-				public int columns() {
-					return sheet.getColumns();
-				}
-
-				@Override
-				public String cellRawValue(int row, int col) {
-					return sheet.getCellRawValue(row, col);
-				}
+			sheetValues = engine.computeSpreadsheetValues(new SheetAdapter(sheet) {
 
 				@Override
 				public String[][] getRangeValues(String sheetURL, String range) {
@@ -296,6 +284,7 @@ public class SpreadsheetsWS implements SoapSpreadsheets {
 			checkIfSheetExists(sheet);
 
 			sheet.setCellRawValue(cell, rawValue);
+			engine.cellUpdated(sheetId, cell);
 		}
 
 	}
@@ -396,28 +385,11 @@ public class SpreadsheetsWS implements SoapSpreadsheets {
 
 		CellRange cellR = new CellRange(range);
 
-		String[][] rangeValues = SpreadsheetEngineImpl.getInstance()
-				.computeSpreadsheetValues(new AbstractSpreadsheet() {
+		if (!sheet.hasFormulas())
+			return sheet.plainRangeValues(cellR);
 
-					@Override
-					public String sheetId() {
-						return sheet.getSheetId();
-					}
-
-					@Override
-					public int rows() {
-						return sheet.getRows();
-					}
-
-					@Override
-					public int columns() {
-						return sheet.getColumns();
-					}
-
-					@Override
-					public String cellRawValue(int row, int col) {
-						return sheet.getCellRawValue(row, col);
-					}
+		return engine
+				.computeRangeValues(new SheetAdapter(sheet) {
 
 					@Override
 					public String[][] getRangeValues(String sheetURL, String range) {
@@ -429,9 +401,7 @@ public class SpreadsheetsWS implements SoapSpreadsheets {
 
 						return sheetValues;
 					}
-				});
-
-		return cellR.extractRangeValuesFrom(rangeValues);
+				}, cellR);
 	}
 
 	@Override
@@ -445,6 +415,7 @@ public class SpreadsheetsWS implements SoapSpreadsheets {
 
 		for (String sheetId : userIdSheets) {
 			spreadsheets.remove(sheetId);
+			engine.sheetDeleted(sheetId);
 		}
 	}
 
@@ -0,0 +1,291 @@
+package tp1.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tp1.api.Spreadsheet;
+import tp1.api.SpreadsheetValues;
+
+/**
+ *
+ * Compact binary encoding of matrices of values and of spreadsheets, used between servers instead of JSON.
+ *
+ * A matrix is its number of rows followed by each row: its length followed by its cells. Every length is a
+ * variable length integer, plus one so that 0 stands for null. Each cell starts with a tag: empty, null, true,
+ * false, integer (zigzag variable length), double (8 bytes), or text. The first occurrence of a text carries its
+ * UTF-8 bytes and adds it to a dictionary; the following ones carry only its index in the dictionary. Numbers and
+ * booleans are only encoded as such when decoding them gives back exactly the same text.
+ *
+ */
+public class BinaryValues {
+
+	private static final int VALUES_MAGIC = 0x5356; // "SV"
+	private static final int SPREADSHEET_MAGIC = 0x5353; // "SS"
+	private static final int VERSION = 1;
+
+	private static final int EMPTY = 0, NULL = 1, TRUE = 2, FALSE = 3, INTEGER = 4, DOUBLE = 5, NEW_TEXT = 6,
+			TEXT_REF = 7, TEXT = 8;
+
+	// LIMITA A MEMORIA DO DICIONARIO; OS TEXTOS SEGUINTES SAO ENVIADOS SEMPRE POR EXTENSO
+	private static final int MAX_DICTIONARY = 1 << 16;
+
+	public static void writeValues(String[][] values, OutputStream out) throws IOException {
+		Writer writer = new Writer(out);
+		writer.out.writeShort(VALUES_MAGIC);
+		writer.out.writeByte(VERSION);
+		writer.writeMatrix(values);
+		writer.out.flush();
+	}
+
+	/**
+	 * Writes values in the same format as a matrix, one row at a time, so that the values of a sheet without
+	 * formulas are read from its typed storage.
+	 */
+	public static void writeValues(SpreadsheetValues values, OutputStream out) throws IOException {
+		Writer writer = new Writer(out);
+		writer.out.writeShort(VALUES_MAGIC);
+		writer.out.writeByte(VERSION);
+
+		int rows = values.rows();
+		writer.writeLength(rows);
+		for (int r = 0; r < rows; r++)
+			writer.writeRow(values.row(r));
+		writer.out.flush();
+	}
+
+	public static String[][] readValues(InputStream in) throws IOException {
+		Reader reader = new Reader(in);
+		reader.checkHeader(VALUES_MAGIC);
+		return reader.readMatrix();
+	}
+
+	/**
+	 * Writes a spreadsheet, reading its raw values from its typed storage.
+	 */
+	public static void writeSpreadsheet(Spreadsheet sheet, OutputStream out) throws IOException {
+		Writer writer = new Writer(out);
+		writer.out.writeShort(SPREADSHEET_MAGIC);
+		writer.out.writeByte(VERSION);
+
+		writer.writeCell(sheet.getSheetId());
+		writer.writeCell(sheet.getOwner());
+		writer.writeCell(sheet.getSheetURL());
+		writer.writeLength(sheet.getRows());
+		writer.writeLength(sheet.getColumns());
+
+		Set<String> sharedWith = sheet.getSharedWith();
+		writer.writeLength(sharedWith == null ? -1 : sharedWith.size());
+		if (sharedWith != null)
+			for (String user : sharedWith)
+				writer.writeCell(user);
+
+		CellStorage cells = sheet.cells();
+		writer.writeLength(cells == null ? -1 : cells.rows());
+		if (cells != null)
+			for (int row = 0; row < cells.rows(); row++) {
+				writer.writeLength(cells.columns());
+				for (int col = 0; col < cells.columns(); col++)
+					writer.writeCell(cells.raw(row, col));
+			}
+
+		writer.out.flush();
+	}
+
+	public static Spreadsheet readSpreadsheet(InputStream in) throws IOException {
+		Reader reader = new Reader(in);
+		reader.checkHeader(SPREADSHEET_MAGIC);
+
+		String sheetId = reader.readCell(), owner = reader.readCell(), sheetURL = reader.readCell();
+		int rows = reader.readLength(), columns = reader.readLength();
+
+		int shared = reader.readLength();
+		Set<String> sharedWith = null;
+		if (shared >= 0) {
+			sharedWith = new HashSet<String>();
+			for (int i = 0; i < shared; i++)
+				sharedWith.add(reader.readCell());
+		}
+
+		return new Spreadsheet(sheetId, owner, sheetURL, rows, columns, sharedWith, reader.readMatrix());
+	}
+
+	private static class Writer {
+		final DataOutputStream out;
+		final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+		Writer(OutputStream out) {
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+		}
+
+		void writeMatrix(String[][] values) throws IOException {
+			writeLength(values == null ? -1 : values.length);
+			if (values == null)
+				return;
+
+			for (String[] row : values)
+				writeRow(row);
+		}
+
+		void writeRow(String[] row) throws IOException {
+			writeLength(row == null ? -1 : row.length);
+			if (row != null)
+				for (String value : row)
+					writeCell(value);
+		}
+
+		void writeCell(String value) throws IOException {
+			if (value == null) {
+				out.writeByte(NULL);
+				return;
+			}
+			if (value.isEmpty()) {
+				out.writeByte(EMPTY);
+				return;
+			}
+			if (value.equals("true") || value.equals("false")) {
+				out.writeByte(value.length() == 4 ? TRUE : FALSE);
+				return;
+			}
+
+			double number = RawValueParser.parseNumber(value);
+			if (!Double.isNaN(number)) {
+				if (number == (long) number && Long.toString((long) number).equals(value)) {
+					out.writeByte(INTEGER);
+					long n = (long) number;
+					writeVarLong((n << 1) ^ (n >> 63));
+					return;
+				}
+				if (Double.toString(number).equals(value)) {
+					out.writeByte(DOUBLE);
+					out.writeDouble(number);
+					return;
+				}
+			}
+
+			Integer id = dictionary.get(value);
+			if (id != null) {
+				out.writeByte(TEXT_REF);
+				writeVarLong(id);
+				return;
+			}
+
+			boolean add = dictionary.size() < MAX_DICTIONARY;
+			if (add)
+				dictionary.put(value, dictionary.size());
+
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeByte(add ? NEW_TEXT : TEXT);
+			writeLength(bytes.length);
+			out.write(bytes);
+		}
+
+		void writeLength(int length) throws IOException {
+			writeVarLong(length + 1);
+		}
+
+		void writeVarLong(long value) throws IOException {
+			while ((value & ~0x7FL) != 0) {
+				out.writeByte((int) (value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			out.writeByte((int) value);
+		}
+	}
+
+	private static class Reader {
+		final DataInputStream in;
+		final List<String> dictionary = new ArrayList<String>();
+
+		Reader(InputStream in) {
+			this.in = new DataInputStream(new BufferedInputStream(in));
+		}
+
+		void checkHeader(int magic) throws IOException {
+			if (in.readUnsignedShort() != magic || in.readUnsignedByte() != VERSION)
+				throw new IOException("Invalid binary values header");
+		}
+
+		String[][] readMatrix() throws IOException {
+			int rows = readLength();
+			if (rows < 0)
+				return null;
+
+			String[][] values = new String[rows][];
+			for (int row = 0; row < rows; row++) {
+				int cols = readLength();
+				if (cols < 0)
+					continue;
+
+				values[row] = new String[cols];
+				for (int col = 0; col < cols; col++)
+					values[row][col] = readCell();
+			}
+			return values;
+		}
+
+		String readCell() throws IOException {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+			case EMPTY:
+				return "";
+			case NULL:
+				return null;
+			case TRUE:
+				return "true";
+			case FALSE:
+				return "false";
+			case INTEGER:
+				long n = readVarLong();
+				return Long.toString((n >>> 1) ^ -(n & 1));
+			case DOUBLE:
+				return Double.toString(in.readDouble());
+			case TEXT_REF:
+				long id = readVarLong();
+				if (id >= dictionary.size())
+					throw new IOException("Invalid text reference: " + id);
+				return dictionary.get((int) id);
+			case NEW_TEXT:
+			case TEXT:
+				byte[] bytes = new byte[readLength()];
+				in.readFully(bytes);
+				String text = new String(bytes, StandardCharsets.UTF_8);
+				if (tag == NEW_TEXT)
+					dictionary.add(text);
+				return text;
+			default:
+				throw new IOException("Invalid cell tag: " + tag);
+			}
+		}
+
+		int readLength() throws IOException {
+			long length = readVarLong() - 1;
+			if (length < -1 || length > Integer.MAX_VALUE)
+				throw new IOException("Invalid length: " + length);
+			return (int) length;
+		}
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = in.readUnsignedByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new EOFException("Invalid variable length integer");
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package tp1.util;
 
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 /**
@@ -60,6 +61,40 @@ public class CellRange {
 		return rangeValues;
 	}
 	
+	/**
+	 * Given the raw values of a sheet, extracts the raw values covered by this range of cells. Only the populated
+	 * cells of the range are visited; cells outside the sheet are left empty.
+	 * @param storage - the raw values of the sheet
+	 * @return the raw values corresponding to this range.
+	 */
+	public String[][] extractRangeValuesFrom(CellStorage storage) {
+		var rangeValues = new String[ rows() ][ cols() ];
+		for( String[] row : rangeValues )
+			Arrays.fill( row, "" );
+		
+		storage.forEachPopulated(topRow, topCol, botRow, botCol, (row, col) -> {
+			rangeValues[row - topRow][col - topCol] = storage.raw(row, col);
+		});
+		return rangeValues;
+	}
+	
+	/**
+	 * Given the raw values of a sheet without formulas, extracts the values covered by this range of cells, as
+	 * computed by the engines.
+	 * @param storage - the raw values of the sheet
+	 * @return the cell values corresponding to this range.
+	 */
+	public String[][] extractValuesFrom(CellStorage storage) {
+		var rangeValues = new String[ rows() ][ cols() ];
+		for( String[] row : rangeValues )
+			Arrays.fill( row, "" );
+		
+		storage.forEachPopulated(topRow, topCol, botRow, botCol, (row, col) -> {
+			rangeValues[row - topRow][col - topCol] = storage.value(row, col);
+		});
+		return rangeValues;
+	}
+	
 	public String toString() {
 		return String.format("(%d, %d), (%d, %d)", topRow, topCol, botRow, botCol);
 	}
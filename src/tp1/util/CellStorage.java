@@ -0,0 +1,525 @@
+package tp1.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ *
+ * Typed, column oriented storage of the raw values of a spreadsheet.
+ *
+ * Each column is split in chunks of CHUNK_SIZE rows, allocated only when one of their cells is set and released
+ * when all of them become empty, so large sheets with few populated cells take little memory. A chunk keeps the
+ * kind of each cell, the numbers in a double[], the booleans in a bit mask and its texts and formulas, pooled in
+ * a StringTable shared by the whole sheet. The raw value of a number or boolean is only kept as text when it
+ * cannot be reproduced from the typed value (e.g. "1.50" or "TRUE").
+ *
+ * snapshot() returns a read-only copy of the cells that shares the chunks and the arrays of chunks of the columns.
+ * They are copied on write: the first update of a chunk after a snapshot replaces it, and the array of its column,
+ * with copies, so the snapshot never changes and can be read by any thread while the storage is updated.
+ *
+ * Conversion to and from String[][] is only needed at the API boundary.
+ *
+ */
+public class CellStorage {
+
+	/**
+	 * The kind of the raw value of a cell, as classified by SpreadsheetEngineImpl.
+	 */
+	public enum Kind {
+		EMPTY, BOOLEAN, NUMBER, IMPORTRANGE, TEXT, FORMULA
+	};
+
+	/**
+	 * Receives the coordinates of cells.
+	 */
+	public interface CellVisitor {
+		void visit(int row, int col);
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+
+	private static final int CHUNK_SHIFT = 6;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final int rows, cols;
+	private final Chunk[][] columns;
+	private final StringTable strings;
+	private final RawValueParser parser;
+	private int populated;
+	// CELULAS COM FORMULAS OU IMPORTRANGE
+	private int formulas;
+
+	// COPY ON WRITE: OS CHUNKS E ARRAYS DE COLUNAS DE GERACOES ANTERIORES PODEM ESTAR PARTILHADOS COM SNAPSHOTS
+	private final boolean readOnly;
+	private long generation;
+	private final long[] columnGenerations;
+
+	public CellStorage(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+		this.columns = new Chunk[cols][];
+		this.strings = new StringTable();
+		this.parser = new RawValueParser();
+		this.readOnly = false;
+		this.columnGenerations = new long[cols];
+	}
+
+	/**
+	 * Builds a snapshot of a storage.
+	 */
+	private CellStorage(CellStorage source) {
+		this.rows = source.rows;
+		this.cols = source.cols;
+		this.columns = source.columns.clone();
+		this.strings = null;
+		this.parser = null;
+		this.populated = source.populated;
+		this.formulas = source.formulas;
+		this.readOnly = true;
+		this.columnGenerations = null;
+	}
+
+	/**
+	 * Builds the storage of a matrix of raw values. Rows shorter than the longest one are padded with empty cells.
+	 */
+	public static CellStorage of(String[][] rawValues) {
+		int cols = 0;
+		for (String[] row : rawValues)
+			if (row != null)
+				cols = Math.max(cols, row.length);
+
+		CellStorage storage = new CellStorage(rawValues.length, cols);
+		for (int row = 0; row < rawValues.length; row++)
+			if (rawValues[row] != null)
+				for (int col = 0; col < rawValues[row].length; col++)
+					storage.set(row, col, rawValues[row][col]);
+
+		return storage;
+	}
+
+	/**
+	 * Copies the cells of any storage, e.g. a memory-mapped one, to a new storage in memory.
+	 */
+	public static CellStorage copyOf(CellStorage source) {
+		CellStorage copy = new CellStorage(source.rows(), source.columns());
+		source.forEachPopulated((row, col) -> copy.set(row, col, source.raw(row, col)));
+		return copy;
+	}
+
+	/**
+	 * Returns a read-only copy of the cells as they are now, which later updates do not change. The copy shares the
+	 * chunks with this storage until they are updated, so taking it only copies the array of the columns.
+	 * @return the copy, or this storage if it is itself a snapshot.
+	 */
+	public CellStorage snapshot() {
+		if (readOnly)
+			return this;
+
+		CellStorage snapshot = new CellStorage(this);
+		generation++;
+		return snapshot;
+	}
+
+	/**
+	 * Visits the cells that may differ between this snapshot and another snapshot of the same cells: the populated
+	 * cells of the chunks that are not shared by both. Both can be older or newer than the other.
+	 * @return false, without visiting any cell, if either storage is not a snapshot.
+	 */
+	public boolean forEachChanged(CellStorage since, CellVisitor visitor) {
+		if (!readOnly || !since.readOnly || rows != since.rows || cols != since.cols)
+			return false;
+
+		for (int col = 0; col < cols; col++) {
+			Chunk[] chunks = columns[col], previous = since.columns[col];
+			if (chunks == previous)
+				continue;
+
+			for (int c = 0; c < (rows + CHUNK_MASK) >> CHUNK_SHIFT; c++) {
+				Chunk chunk = chunks == null ? null : chunks[c], old = previous == null ? null : previous[c];
+				if (chunk == old)
+					continue;
+
+				int from = c << CHUNK_SHIFT, to = Math.min(from + CHUNK_MASK, rows - 1);
+				for (int row = from; row <= to; row++) {
+					int i = row & CHUNK_MASK;
+					if ((chunk != null && chunk.kinds[i] != 0) || (old != null && old.kinds[i] != 0))
+						visitor.visit(row, col);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Converts the storage back into a matrix of raw values. Rows without populated cells share the same array.
+	 */
+	public String[][] toRawValues() {
+		String[][] rawValues = new String[rows][];
+
+		forEachPopulated(0, 0, rows - 1, cols - 1, (row, col) -> {
+			if (rawValues[row] == null)
+				rawValues[row] = emptyRow(cols);
+			rawValues[row][col] = raw(row, col);
+		});
+
+		String[] emptyRow = emptyRow(cols);
+		for (int row = 0; row < rows; row++)
+			if (rawValues[row] == null)
+				rawValues[row] = emptyRow;
+
+		return rawValues;
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	public int columns() {
+		return cols;
+	}
+
+	/**
+	 * The number of cells that are not empty.
+	 */
+	public int populated() {
+		return populated;
+	}
+
+	/**
+	 * The number of cells with formulas, including importrange formulas. Sheets without them have no values to
+	 * compute.
+	 */
+	public int formulas() {
+		return formulas;
+	}
+
+	/**
+	 * Converts a storage without formulas into its matrix of values, as computed by the engines: numbers and
+	 * booleans in their normalized form, texts as they are.
+	 */
+	public String[][] toValues() {
+		String[][] values = new String[rows][];
+
+		forEachPopulated(0, 0, rows - 1, cols - 1, (row, col) -> {
+			if (values[row] == null)
+				values[row] = emptyRow(cols);
+			values[row][col] = value(row, col);
+		});
+
+		String[] emptyRow = emptyRow(cols);
+		for (int row = 0; row < rows; row++)
+			if (values[row] == null)
+				values[row] = emptyRow;
+
+		return values;
+	}
+
+	/**
+	 * Visits the cells that are not empty, column by column.
+	 */
+	public void forEachPopulated(CellVisitor visitor) {
+		forEachPopulated(0, 0, rows - 1, cols - 1, visitor);
+	}
+
+	/**
+	 * Visits the cells of a range of cells that are not empty, column by column.
+	 */
+	public void forEachPopulated(int topRow, int topCol, int botRow, int botCol, CellVisitor visitor) {
+		botRow = Math.min(botRow, rows - 1);
+		botCol = Math.min(botCol, cols - 1);
+
+		for (int col = Math.max(topCol, 0); col <= botCol; col++) {
+			Chunk[] chunks = columns[col];
+			if (chunks == null)
+				continue;
+
+			for (int c = Math.max(topRow, 0) >> CHUNK_SHIFT; c <= botRow >> CHUNK_SHIFT; c++) {
+				Chunk chunk = chunks[c];
+				if (chunk == null)
+					continue;
+
+				int from = Math.max(c << CHUNK_SHIFT, topRow), to = Math.min((c << CHUNK_SHIFT) + CHUNK_MASK, botRow);
+				for (int row = from; row <= to; row++)
+					if (chunk.kinds[row & CHUNK_MASK] != 0)
+						visitor.visit(row, col);
+			}
+		}
+	}
+
+	/**
+	 * Returns the kind of the raw value of a cell.
+	 */
+	public Kind kind(int row, int col) {
+		Chunk chunk = chunk(row, col);
+		return chunk == null ? Kind.EMPTY : KINDS[chunk.kinds[row & CHUNK_MASK]];
+	}
+
+	/**
+	 * Returns the value of a cell of kind NUMBER.
+	 */
+	public double number(int row, int col) {
+		Chunk chunk = chunk(row, col);
+		if (chunk == null || chunk.kinds[row & CHUNK_MASK] != Kind.NUMBER.ordinal())
+			return Double.NaN;
+		return chunk.numbers[row & CHUNK_MASK];
+	}
+
+	/**
+	 * Returns the value of a cell of kind BOOLEAN.
+	 */
+	public boolean bool(int row, int col) {
+		Chunk chunk = chunk(row, col);
+		if (chunk == null || chunk.kinds[row & CHUNK_MASK] != Kind.BOOLEAN.ordinal())
+			return false;
+		return (chunk.booleans & (1L << (row & CHUNK_MASK))) != 0;
+	}
+
+	/**
+	 * Returns the raw value of a cell, as it was set.
+	 */
+	public String raw(int row, int col) {
+		Chunk chunk = chunk(row, col);
+		if (chunk == null)
+			return "";
+
+		int i = row & CHUNK_MASK;
+		byte kind = chunk.kinds[i];
+
+		if (kind == Kind.EMPTY.ordinal())
+			return "";
+		if (chunk.strings != null && chunk.strings[i] != null)
+			return chunk.strings[i];
+		if (kind == Kind.NUMBER.ordinal())
+			return formatNumber(chunk.numbers[i]);
+		return Boolean.toString((chunk.booleans & (1L << i)) != 0);
+	}
+
+	/**
+	 * Returns the value of a cell that is not a formula, as computed by the engines: numbers and booleans in their
+	 * normalized form (e.g. "1.50" is "1.5", "TRUE" is "true"), texts as they are.
+	 */
+	public String value(int row, int col) {
+		switch (kind(row, col)) {
+		case EMPTY:
+			return "";
+		case NUMBER:
+			return Double.toString(number(row, col));
+		case BOOLEAN:
+			return Boolean.toString(bool(row, col));
+		default:
+			return raw(row, col);
+		}
+	}
+
+	/**
+	 * Sets the raw value of a cell.
+	 */
+	public void set(int row, int col, String rawValue) {
+		if (readOnly)
+			throw new UnsupportedOperationException("Snapshots of the cells are read-only");
+
+		Kind kind = rawValue == null ? Kind.EMPTY : parser.parse(rawValue);
+
+		Chunk chunk = chunk(row, col);
+		if (chunk == null) {
+			if (kind == Kind.EMPTY)
+				return;
+			chunk = ownColumn(col)[row >> CHUNK_SHIFT] = new Chunk(generation);
+		} else if (chunk.generation != generation)
+			chunk = ownColumn(col)[row >> CHUNK_SHIFT] = chunk.copy(generation);
+
+		int i = row & CHUNK_MASK;
+		clear(chunk, i);
+
+		boolean keepText = true;
+		switch (kind) {
+		case EMPTY:
+			if (chunk.count == 0)
+				columns[col][row >> CHUNK_SHIFT] = null;
+			return;
+		case NUMBER:
+			double number = parser.number();
+			if (chunk.numbers == null)
+				chunk.numbers = new double[CHUNK_SIZE];
+			chunk.numbers[i] = number;
+			keepText = !rawValue.equals(formatNumber(number));
+			break;
+		case BOOLEAN:
+			boolean bool = parser.bool();
+			if (bool)
+				chunk.booleans |= 1L << i;
+			keepText = !rawValue.equals(Boolean.toString(bool));
+			break;
+		default:
+			break;
+		}
+
+		if (keepText) {
+			if (chunk.strings == null)
+				chunk.strings = new String[CHUNK_SIZE];
+			chunk.strings[i] = strings.acquire(rawValue);
+		}
+		chunk.kinds[i] = (byte) kind.ordinal();
+		chunk.count++;
+		populated++;
+		if (isFormula(kind.ordinal()))
+			formulas++;
+	}
+
+	/**
+	 * Classifies a raw value, following the same rules as SpreadsheetEngineImpl.
+	 */
+	public static Kind classify(String rawValue) {
+		return RawValueParser.classify(rawValue);
+	}
+
+	/**
+	 * Formats a number the way it is most commonly written: integers without a decimal part.
+	 */
+	public static String formatNumber(double number) {
+		if (number == Math.rint(number) && Math.abs(number) < 1e15 && !(number == 0 && 1 / number < 0))
+			return Long.toString((long) number);
+		return Double.toString(number);
+	}
+
+	/**
+	 * Returns the chunk holding a cell, or null if none of its cells is populated.
+	 */
+	private Chunk chunk(int row, int col) {
+		Objects.checkIndex(row, rows);
+		Chunk[] chunks = columns[col];
+		return chunks == null ? null : chunks[row >> CHUNK_SHIFT];
+	}
+
+	/**
+	 * Returns the chunks of a column, copying them first if they may be shared with a snapshot.
+	 */
+	private Chunk[] ownColumn(int col) {
+		Chunk[] chunks = columns[col];
+		if (chunks == null)
+			chunks = columns[col] = new Chunk[(rows + CHUNK_MASK) >> CHUNK_SHIFT];
+		else if (columnGenerations[col] != generation)
+			chunks = columns[col] = chunks.clone();
+		columnGenerations[col] = generation;
+		return chunks;
+	}
+
+	/**
+	 * Empties a cell of a chunk.
+	 */
+	private void clear(Chunk chunk, int i) {
+		if (chunk.kinds[i] == Kind.EMPTY.ordinal())
+			return;
+
+		if (chunk.strings != null && chunk.strings[i] != null) {
+			strings.release(chunk.strings[i]);
+			chunk.strings[i] = null;
+		}
+		if (isFormula(chunk.kinds[i]))
+			formulas--;
+		chunk.booleans &= ~(1L << i);
+		chunk.kinds[i] = (byte) Kind.EMPTY.ordinal();
+		chunk.count--;
+		populated--;
+	}
+
+	private static boolean isFormula(int kind) {
+		return kind == Kind.FORMULA.ordinal() || kind == Kind.IMPORTRANGE.ordinal();
+	}
+
+	private static String[] emptyRow(int cols) {
+		String[] row = new String[cols];
+		Arrays.fill(row, "");
+		return row;
+	}
+
+	private static class Chunk {
+		// GERACAO DO CellStorage EM QUE FOI CRIADO; DE GERACOES ANTERIORES, E COPIADO ANTES DE SER ALTERADO
+		final long generation;
+		final byte[] kinds;
+		double[] numbers;
+		long booleans;
+		// TEXTOS DA StringTable (null SIGNIFICA SEM TEXTO)
+		String[] strings;
+		int count;
+
+		Chunk(long generation) {
+			this.generation = generation;
+			this.kinds = new byte[CHUNK_SIZE];
+		}
+
+		private Chunk(long generation, Chunk source) {
+			this.generation = generation;
+			this.kinds = source.kinds.clone();
+			this.numbers = source.numbers == null ? null : source.numbers.clone();
+			this.booleans = source.booleans;
+			this.strings = source.strings == null ? null : source.strings.clone();
+			this.count = source.count;
+		}
+
+		Chunk copy(long generation) {
+			return new Chunk(generation, this);
+		}
+	}
+
+	/**
+	 * Serializes the storage with Gson as a matrix of raw values, the format of Spreadsheet.rawValues.
+	 */
+	public static class GsonAdapter extends TypeAdapter<CellStorage> {
+
+		@Override
+		public void write(JsonWriter out, CellStorage storage) throws IOException {
+			if (storage == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginArray();
+			for (int row = 0; row < storage.rows; row++) {
+				out.beginArray();
+				for (int col = 0; col < storage.cols; col++)
+					out.value(storage.raw(row, col));
+				out.endArray();
+			}
+			out.endArray();
+		}
+
+		@Override
+		public CellStorage read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			List<String[]> rows = new ArrayList<String[]>();
+			List<String> row = new ArrayList<String>();
+
+			in.beginArray();
+			while (in.hasNext()) {
+				row.clear();
+				in.beginArray();
+				while (in.hasNext()) {
+					if (in.peek() == JsonToken.NULL) {
+						in.nextNull();
+						row.add(null);
+					} else
+						row.add(in.nextString());
+				}
+				in.endArray();
+				rows.add(row.toArray(new String[row.size()]));
+			}
+			in.endArray();
+
+			return CellStorage.of(rows.toArray(new String[rows.size()][]));
+		}
+	}
+}
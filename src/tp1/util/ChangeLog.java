@@ -0,0 +1,147 @@
+package tp1.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Keeps the last cells updated in each spreadsheet, tagged with increasing versions, so that readers can ask
+ * for the changes since the version they already have.
+ *
+ * Each sheet keeps at most MAX_CHANGES changes. By default versions are taken from a clock started at the current
+ * time, so versions handed out before the server restarted, or before the log of a sheet was discarded, are
+ * older than any log and are answered as unknown. Replicated servers give the versions of their operations
+ * instead, so that all replicas agree on them.
+ *
+ * The versions come from a single atomic clock, and each sheet has its own log and lock, so changes of different
+ * sheets are recorded without waiting for each other. The versions of a sheet increase in the order in which its
+ * changes are recorded.
+ *
+ */
+public class ChangeLog {
+
+	private static final int MAX_SHEETS = 1024;
+	private static final int MAX_CHANGES = 1024;
+
+	private final ConcurrentLruMap<String, SheetLog> logs;
+	private final AtomicLong clock;
+
+	public ChangeLog() {
+		this(System.currentTimeMillis() * 1000);
+	}
+
+	/**
+	 * @param initialVersion - the version of the sheets before any change is recorded.
+	 */
+	public ChangeLog(long initialVersion) {
+		this.clock = new AtomicLong(initialVersion);
+		this.logs = new ConcurrentLruMap<String, SheetLog>(MAX_SHEETS);
+	}
+
+	/**
+	 * Records the update of a cell.
+	 * @return the new version of the sheet.
+	 */
+	public long record(String sheetId, int row, int col) {
+		SheetLog log = log(sheetId);
+		synchronized (log) {
+			return log.add(clock.incrementAndGet(), row, col);
+		}
+	}
+
+	/**
+	 * Records the update of a cell with a given version, not older than the versions already recorded.
+	 * @return the new version of the sheet.
+	 */
+	public long record(String sheetId, int row, int col, long version) {
+		SheetLog log = log(sheetId);
+		synchronized (log) {
+			clock.accumulateAndGet(version, Math::max);
+			return log.add(version, row, col);
+		}
+	}
+
+	/**
+	 * Returns the current version of a sheet and the cells updated since a previous version.
+	 * @param since - the previous version, or a negative number if the caller has none.
+	 * @return the changes; their cells are null if the updates since that version are not known.
+	 */
+	public Changes changesSince(String sheetId, long since) {
+		SheetLog log = log(sheetId);
+		synchronized (log) {
+			return log.changesSince(since);
+		}
+	}
+
+	/**
+	 * Discards the changes of a deleted sheet.
+	 */
+	public void remove(String sheetId) {
+		logs.remove(sheetId);
+	}
+
+	private SheetLog log(String sheetId) {
+		// AS ALTERACOES ANTERIORES A CRIACAO DO REGISTO SAO DESCONHECIDAS
+		return logs.computeIfAbsent(sheetId, k -> new SheetLog(clock.get()));
+	}
+
+	/**
+	 * The version of a sheet and the cells, as {row, col}, updated since a previous version.
+	 */
+	public static class Changes {
+		public final long version;
+		public final List<int[]> cells;
+
+		Changes(long version, List<int[]> cells) {
+			this.version = version;
+			this.cells = cells;
+		}
+	}
+
+	private static class Change {
+		final long version;
+		final int row, col;
+
+		Change(long version, int row, int col) {
+			this.version = version;
+			this.row = row;
+			this.col = col;
+		}
+	}
+
+	/**
+	 * The changes of a sheet, guarded by its own monitor.
+	 */
+	private static class SheetLog {
+		final ArrayDeque<Change> changes = new ArrayDeque<Change>();
+		// VERSAO DA ULTIMA ALTERACAO DESCARTADA
+		long dropped;
+
+		SheetLog(long created) {
+			this.dropped = created;
+		}
+
+		long add(long version, int row, int col) {
+			if (changes.size() == MAX_CHANGES)
+				dropped = changes.poll().version;
+
+			changes.add(new Change(version, row, col));
+			return version;
+		}
+
+		Changes changesSince(long since) {
+			long version = changes.isEmpty() ? dropped : changes.peekLast().version;
+
+			if (since < dropped || since > version)
+				return new Changes(version, null);
+
+			List<int[]> cells = new ArrayList<int[]>();
+			for (Change change : changes)
+				if (change.version > since)
+					cells.add(new int[] { change.row, change.col });
+			return new Changes(version, cells);
+		}
+	}
+}
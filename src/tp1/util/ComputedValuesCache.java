@@ -0,0 +1,100 @@
+package tp1.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Keeps the last computed values of each spreadsheet, tagged with the version of the sheet they were computed
+ * from (the TWserver timestamp of the sheet). The values are valid until the version of the sheet changes.
+ *
+ * Values of sheets that import ranges from other sheets also depend on remote data, so they expire after the
+ * same time as the cached import ranges.
+ *
+ * The returned arrays are shared and must not be modified by the callers. Requests for different sheets do not
+ * wait for each other.
+ *
+ */
+public class ComputedValuesCache {
+
+	private static final int MAX_SHEETS = 1024;
+
+	private final ConcurrentLruMap<String, Entry> entries;
+	private final long importsValidTime;
+
+	private final LongAdder hits, misses;
+
+	/**
+	 * @param importsValidTime - how long, in milliseconds, the values of sheets with imported ranges remain valid.
+	 */
+	public ComputedValuesCache(long importsValidTime) {
+		this.importsValidTime = importsValidTime;
+		this.entries = new ConcurrentLruMap<String, Entry>(MAX_SHEETS);
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Returns the cached values of a sheet, if they were computed from the given version.
+	 * @param sheetId - the id of the sheet.
+	 * @param version - the current version of the sheet.
+	 * @return the values, or null if they are not cached or are outdated.
+	 */
+	public String[][] get(String sheetId, Object version) {
+		Entry entry = entries.get(sheetId);
+
+		if (version == null || entry == null || entry.version != version
+				|| (entry.expires > 0 && entry.expires < System.currentTimeMillis())) {
+			misses.increment();
+			return null;
+		}
+
+		hits.increment();
+		return entry.values;
+	}
+
+	/**
+	 * Stores the values computed from a version of a sheet.
+	 * @param sheetId - the id of the sheet.
+	 * @param version - the version of the sheet read before computing the values.
+	 * @param values - the computed values.
+	 * @param usesImports - true if computing the values required ranges of other sheets.
+	 */
+	public void put(String sheetId, Object version, String[][] values, boolean usesImports) {
+		if (version == null)
+			return;
+
+		long expires = usesImports ? System.currentTimeMillis() + importsValidTime : 0;
+		entries.put(sheetId, new Entry(version, values, expires));
+	}
+
+	/**
+	 * Discards the values of a sheet.
+	 */
+	public void invalidate(String sheetId) {
+		entries.remove(sheetId);
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	public String toString() {
+		return String.format("hits = %d; misses = %d; sheets = %d", hits.sum(), misses.sum(), entries.size());
+	}
+
+	private static class Entry {
+		final Object version;
+		final String[][] values;
+		final long expires;
+
+		Entry(Object version, String[][] values, long expires) {
+			this.version = version;
+			this.values = values;
+			this.expires = expires;
+		}
+	}
+}
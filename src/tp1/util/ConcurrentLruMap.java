@@ -0,0 +1,108 @@
+package tp1.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ *
+ * Concurrent map with at most a given number of entries, which discards the least recently used ones when it
+ * grows beyond that. Reads and writes of different keys do not wait for each other: each entry records when it
+ * was last used, and a single thread at a time scans the map for the oldest entries once it is full.
+ *
+ * The eviction is approximate: the times of use have a resolution of about a millisecond, and while the scan
+ * runs the map may briefly hold a few entries more than its limit.
+ *
+ */
+public class ConcurrentLruMap<K, V> {
+
+	private final ConcurrentHashMap<K, Node<V>> nodes;
+	private final int maxSize;
+	private final AtomicBoolean evicting;
+
+	public ConcurrentLruMap(int maxSize) {
+		this.nodes = new ConcurrentHashMap<K, Node<V>>();
+		this.maxSize = maxSize;
+		this.evicting = new AtomicBoolean();
+	}
+
+	/**
+	 * Returns the value of a key, or null if there is none, marking it as recently used.
+	 */
+	public V get(K key) {
+		Node<V> node = nodes.get(key);
+		if (node == null)
+			return null;
+		node.touch();
+		return node.value;
+	}
+
+	/**
+	 * Returns the value of a key, creating it if there is none.
+	 */
+	public V computeIfAbsent(K key, Function<K, V> create) {
+		Node<V> node = nodes.get(key);
+		if (node == null) {
+			node = nodes.computeIfAbsent(key, k -> new Node<V>(create.apply(k)));
+			evictIfFull();
+		}
+		node.touch();
+		return node.value;
+	}
+
+	public void put(K key, V value) {
+		nodes.put(key, new Node<V>(value));
+		evictIfFull();
+	}
+
+	public V remove(K key) {
+		Node<V> node = nodes.remove(key);
+		return node == null ? null : node.value;
+	}
+
+	public int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * Discards the least recently used entries once the map is full, down to 15/16 of its limit, so that the scan
+	 * is not repeated on every insertion.
+	 */
+	private void evictIfFull() {
+		if (nodes.size() <= maxSize || !evicting.compareAndSet(false, true))
+			return;
+
+		try {
+			List<Map.Entry<K, Long>> uses = new ArrayList<Map.Entry<K, Long>>(nodes.size());
+			for (Map.Entry<K, Node<V>> entry : nodes.entrySet())
+				uses.add(Map.entry(entry.getKey(), entry.getValue().used));
+			uses.sort(Map.Entry.comparingByValue());
+
+			int excess = uses.size() - (maxSize - maxSize / 16);
+			for (int i = 0; i < excess; i++)
+				nodes.remove(uses.get(i).getKey());
+		} finally {
+			evicting.set(false);
+		}
+	}
+
+	private static class Node<V> {
+		final V value;
+		volatile long used;
+
+		Node(V value) {
+			this.value = value;
+			this.used = System.nanoTime();
+		}
+
+		void touch() {
+			// EVITAR ESCRITAS (E INVALIDACOES DA LINHA DE CACHE) QUANDO A ENTRADA FOI USADA HA POUCO
+			long now = System.nanoTime();
+			if (now - used > 1_000_000)
+				used = now;
+		}
+	}
+}
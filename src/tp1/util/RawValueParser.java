@@ -0,0 +1,208 @@
+package tp1.util;
+
+/**
+ *
+ * Classifies raw values and parses numbers in a single pass over the text, without allocating and without
+ * exceptions for values that are not numbers. Follows the rules of SpreadsheetEngineImpl: a raw value is a number
+ * if Double.parseDouble accepts it once lowercased, so "NaN" and "Infinity" are text.
+ *
+ * Decimal numbers with up to 18 significant digits and small exponents are computed exactly from their digits;
+ * the others, and hexadecimal numbers, are validated here and then parsed by Double.parseDouble.
+ *
+ * An instance keeps the value parsed by its last call to parse(), so it is not thread safe.
+ *
+ */
+public final class RawValueParser {
+
+	private static final String IMPORTRANGE_FORMULA = "=importrange";
+
+	private static final int MAX_DIGITS = 18;
+	private static final long MAX_EXACT = 1L << 53;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private double number;
+	private boolean bool;
+
+	/**
+	 * Classifies a raw value, keeping its number or boolean value.
+	 */
+	public CellStorage.Kind parse(String rawValue) {
+		CellStorage.Kind kind = textKind(rawValue);
+		if (kind == CellStorage.Kind.BOOLEAN)
+			bool = rawValue.length() == 4;
+		if (kind != null)
+			return kind;
+
+		number = parseNumber(rawValue);
+		return Double.isNaN(number) ? CellStorage.Kind.TEXT : CellStorage.Kind.NUMBER;
+	}
+
+	/**
+	 * The value of the last raw value parsed, if it was a NUMBER.
+	 */
+	public double number() {
+		return number;
+	}
+
+	/**
+	 * The value of the last raw value parsed, if it was a BOOLEAN.
+	 */
+	public boolean bool() {
+		return bool;
+	}
+
+	/**
+	 * Classifies a raw value.
+	 */
+	public static CellStorage.Kind classify(String rawValue) {
+		CellStorage.Kind kind = textKind(rawValue);
+		if (kind != null)
+			return kind;
+		return Double.isNaN(parseNumber(rawValue)) ? CellStorage.Kind.TEXT : CellStorage.Kind.NUMBER;
+	}
+
+	/**
+	 * Parses a number, with the same result as Double.parseDouble.
+	 * @return the number, or NaN if the raw value is not a number.
+	 */
+	public static double parseNumber(String s) {
+		int end = s.length();
+		while (end > 0 && s.charAt(end - 1) <= ' ')
+			end--;
+		int i = 0;
+		while (i < end && s.charAt(i) <= ' ')
+			i++;
+		if (i == end)
+			return Double.NaN;
+
+		boolean negative = false;
+		char c = s.charAt(i);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			if (++i == end)
+				return Double.NaN;
+		}
+
+		if (end - i > 2 && s.charAt(i) == '0' && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X'))
+			return isHexNumber(s, i + 2, end) ? Double.parseDouble(s) : Double.NaN;
+
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean anyDigit = false, exact = true;
+
+		// PARTE INTEIRA
+		for (; i < end && (c = s.charAt(i)) >= '0' && c <= '9'; i++) {
+			anyDigit = true;
+			if (digits < MAX_DIGITS) {
+				if (mantissa > 0 || c != '0') {
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+				}
+			} else {
+				exponent++;
+				exact &= c == '0';
+			}
+		}
+
+		// PARTE DECIMAL
+		if (i < end && s.charAt(i) == '.') {
+			for (i++; i < end && (c = s.charAt(i)) >= '0' && c <= '9'; i++) {
+				anyDigit = true;
+				if (digits < MAX_DIGITS) {
+					if (mantissa > 0 || c != '0') {
+						mantissa = mantissa * 10 + (c - '0');
+						digits++;
+					}
+					exponent--;
+				} else
+					exact &= c == '0';
+			}
+		}
+		if (!anyDigit)
+			return Double.NaN;
+
+		// EXPOENTE
+		if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			if (++i == end)
+				return Double.NaN;
+			boolean negativeExponent = false;
+			if ((c = s.charAt(i)) == '-' || c == '+') {
+				negativeExponent = c == '-';
+				if (++i == end)
+					return Double.NaN;
+			}
+
+			int value = 0, start = i;
+			for (; i < end && (c = s.charAt(i)) >= '0' && c <= '9'; i++)
+				value = Math.min(value * 10 + (c - '0'), 100000);
+			if (i == start)
+				return Double.NaN;
+			exponent += negativeExponent ? -value : value;
+		}
+
+		// SUFIXO DE TIPO ACEITE PELO Double.parseDouble
+		if (i < end && "fFdD".indexOf(s.charAt(i)) >= 0)
+			i++;
+		if (i != end)
+			return Double.NaN;
+
+		if (mantissa == 0)
+			return negative ? -0.0 : 0.0;
+		if (!exact || mantissa > MAX_EXACT || exponent < -22 || exponent > 22)
+			return Double.parseDouble(s);
+
+		double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Classifies the raw values that are not numbers or text.
+	 * @return the kind, or null if the raw value is a number or text.
+	 */
+	private static CellStorage.Kind textKind(String rawValue) {
+		if (rawValue.length() == 0)
+			return CellStorage.Kind.EMPTY;
+
+		if (rawValue.charAt(0) == '=')
+			return rawValue.regionMatches(true, 0, IMPORTRANGE_FORMULA, 0, IMPORTRANGE_FORMULA.length())
+					? CellStorage.Kind.IMPORTRANGE
+					: CellStorage.Kind.FORMULA;
+
+		if (rawValue.equalsIgnoreCase("true") || rawValue.equalsIgnoreCase("false"))
+			return CellStorage.Kind.BOOLEAN;
+
+		return null;
+	}
+
+	/**
+	 * Checks the part of a hexadecimal number after "0x": hexadecimal digits with an optional point, a mandatory
+	 * binary exponent and an optional type suffix.
+	 */
+	private static boolean isHexNumber(String s, int i, int end) {
+		boolean anyDigit = false, point = false;
+		for (; i < end; i++) {
+			char c = s.charAt(i);
+			if (Character.digit(c, 16) >= 0)
+				anyDigit = true;
+			else if (c == '.' && !point)
+				point = true;
+			else
+				break;
+		}
+		if (!anyDigit || i == end || (s.charAt(i) != 'p' && s.charAt(i) != 'P'))
+			return false;
+
+		if (++i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+			i++;
+		int start = i;
+		while (i < end && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+			i++;
+		if (i == start)
+			return false;
+
+		if (i < end && "fFdD".indexOf(s.charAt(i)) >= 0)
+			i++;
+		return i == end;
+	}
+}
@@ -0,0 +1,132 @@
+package tp1.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+
+/**
+ *
+ * Secondary indexes of the spreadsheets of a server: the ids of the sheets of each owner, and of the sheets shared
+ * with each user (as userId@domain, like Spreadsheet.getSharedWith()). The ids of each user are kept sorted, so
+ * that the sheets a user can access are listed in pages, each starting after the last id of the previous one,
+ * without scanning every sheet of the server.
+ *
+ * Sheets of different users are indexed concurrently. The updates of the entries of one sheet are expected to be
+ * made under the lock of that sheet; listings may miss or still show a sheet being updated, so callers check the
+ * sheets they list.
+ *
+ */
+public class SheetIndex {
+
+	private final ConcurrentHashMap<String, NavigableSet<String>> byOwner;
+	private final ConcurrentHashMap<String, NavigableSet<String>> byGrantee;
+
+	public SheetIndex() {
+		byOwner = new ConcurrentHashMap<String, NavigableSet<String>>();
+		byGrantee = new ConcurrentHashMap<String, NavigableSet<String>>();
+	}
+
+	/**
+	 * Indexes a new sheet, by its owner and by the users it is shared with.
+	 */
+	public void add(String sheetId, String owner, Collection<String> sharedWith) {
+		add(byOwner, owner, sheetId);
+		if (sharedWith != null)
+			for (String user : sharedWith)
+				add(byGrantee, user, sheetId);
+	}
+
+	/**
+	 * Removes a sheet from the indexes, given its owner and the users it is shared with.
+	 */
+	public void remove(String sheetId, String owner, Collection<String> sharedWith) {
+		remove(byOwner, owner, sheetId);
+		if (sharedWith != null)
+			for (String user : sharedWith)
+				remove(byGrantee, user, sheetId);
+	}
+
+	public void share(String sheetId, String user) {
+		add(byGrantee, user, sheetId);
+	}
+
+	public void unshare(String sheetId, String user) {
+		remove(byGrantee, user, sheetId);
+	}
+
+	/**
+	 * Returns the ids of the sheets of an owner, sorted.
+	 */
+	public List<String> ownedBy(String owner) {
+		NavigableSet<String> ids = byOwner.get(owner);
+		return ids == null ? Collections.emptyList() : new ArrayList<String>(ids);
+	}
+
+	/**
+	 * Lists, in order, the ids of the sheets owned by a user or shared with it.
+	 * @param owner - the user, as the owner of the sheets.
+	 * @param grantee - the same user, as the sheets are shared with it (userId@domain).
+	 * @param after - the last id of the previous page, or null to start with the first one.
+	 * @param limit - the maximum number of ids to return.
+	 * @param accepted - checks each id before adding it to the page, e.g. if the sheet still exists.
+	 */
+	public List<String> accessibleBy(String owner, String grantee, String after, int limit, Predicate<String> accepted) {
+		Iterator<String> owned = tail(byOwner.get(owner), after);
+		Iterator<String> shared = tail(byGrantee.get(grantee), after);
+
+		List<String> page = new ArrayList<String>(Math.min(limit, 64));
+		String nextOwned = next(owned), nextShared = next(shared);
+
+		// JUNTAR AS DUAS LISTAS ORDENADAS, SEM REPETIR AS FOLHAS DO UTILIZADOR PARTILHADAS CONSIGO PROPRIO
+		while (page.size() < limit && (nextOwned != null || nextShared != null)) {
+			String sheetId;
+			int order = nextOwned == null ? 1 : nextShared == null ? -1 : nextOwned.compareTo(nextShared);
+			if (order <= 0) {
+				sheetId = nextOwned;
+				nextOwned = next(owned);
+				if (order == 0)
+					nextShared = next(shared);
+			} else {
+				sheetId = nextShared;
+				nextShared = next(shared);
+			}
+
+			if (accepted.test(sheetId))
+				page.add(sheetId);
+		}
+		return page;
+	}
+
+	private static void add(ConcurrentHashMap<String, NavigableSet<String>> index, String user, String sheetId) {
+		index.compute(user, (k, ids) -> {
+			if (ids == null)
+				ids = new ConcurrentSkipListSet<String>();
+			ids.add(sheetId);
+			return ids;
+		});
+	}
+
+	private static void remove(ConcurrentHashMap<String, NavigableSet<String>> index, String user, String sheetId) {
+		// O CONJUNTO E DESCARTADO QUANDO FICA VAZIO, PARA NAO GUARDAR OS UTILIZADORES SEM FOLHAS
+		index.computeIfPresent(user, (k, ids) -> {
+			ids.remove(sheetId);
+			return ids.isEmpty() ? null : ids;
+		});
+	}
+
+	private static Iterator<String> tail(NavigableSet<String> ids, String after) {
+		if (ids == null)
+			return Collections.emptyIterator();
+		return after == null ? ids.iterator() : ids.tailSet(after, false).iterator();
+	}
+
+	private static String next(Iterator<String> ids) {
+		return ids.hasNext() ? ids.next() : null;
+	}
+}
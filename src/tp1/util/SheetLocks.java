@@ -0,0 +1,68 @@
+package tp1.util;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *
+ * Read/write locks of the spreadsheets of a server, striped by sheet id: each sheet maps to one of a fixed number
+ * of locks, so operations on different sheets rarely wait for each other, and no lock has to be created or
+ * discarded with the sheets.
+ *
+ * Updates of a sheet take its write lock. Reads use the snapshot published by the last update, without locks;
+ * only sheets whose cells keep no versions (memory-mapped) are read under their read lock. No code holds the
+ * locks of two sheets at once, nor while computing values, which may import ranges of other sheets of the same
+ * server.
+ *
+ */
+public class SheetLocks {
+
+	private static final int DEFAULT_STRIPES = 256;
+
+	private final ReadWriteLock[] stripes;
+	private final int mask;
+
+	public SheetLocks() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripes - the number of locks, rounded up to a power of two.
+	 */
+	public SheetLocks(int stripes) {
+		int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+		this.stripes = new ReadWriteLock[size];
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++)
+			this.stripes[i] = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Returns the lock of a sheet.
+	 */
+	public ReadWriteLock of(String sheetId) {
+		int h = sheetId.hashCode();
+		return stripes[(h ^ (h >>> 16)) & mask];
+	}
+
+	/**
+	 * Acquires the read lock of a sheet.
+	 * @return the lock, to be released by the caller.
+	 */
+	public Lock read(String sheetId) {
+		Lock lock = of(sheetId).readLock();
+		lock.lock();
+		return lock;
+	}
+
+	/**
+	 * Acquires the write lock of a sheet.
+	 * @return the lock, to be released by the caller.
+	 */
+	public Lock write(String sheetId) {
+		Lock lock = of(sheetId).writeLock();
+		lock.lock();
+		return lock;
+	}
+}
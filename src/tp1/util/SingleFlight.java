@@ -0,0 +1,114 @@
+package tp1.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ *
+ * Coalesces concurrent computations of the same value: while one thread computes the value of a key for a version,
+ * the other threads asking for the same key and version wait for that computation and get the same result (or
+ * exception), instead of computing it again.
+ *
+ * Versions are compared by identity, as in ComputedValuesCache. Calls without a version are never coalesced.
+ *
+ */
+public class SingleFlight<K, V> {
+
+	private final Map<Key, CompletableFuture<V>> flights;
+
+	private long computed, coalesced;
+
+	public SingleFlight() {
+		this.flights = new HashMap<Key, CompletableFuture<V>>();
+	}
+
+	/**
+	 * Returns the value of a key for a version, computing it or waiting for the computation already in progress.
+	 * @param key - the key of the value, e.g. the id of a sheet.
+	 * @param version - the version the value is computed from, or null if unknown.
+	 * @param computation - computes the value.
+	 */
+	public V run(K key, Object version, Supplier<V> computation) {
+		if (version == null)
+			return computation.get();
+
+		Key flightKey = new Key(key, version);
+		CompletableFuture<V> flight;
+		boolean leader = false;
+
+		synchronized (this) {
+			flight = flights.get(flightKey);
+			if (flight == null) {
+				flight = new CompletableFuture<V>();
+				flights.put(flightKey, flight);
+				leader = true;
+				computed++;
+			} else
+				coalesced++;
+		}
+
+		if (!leader)
+			return await(flight);
+
+		try {
+			V value = computation.get();
+			flight.complete(value);
+			return value;
+		} catch (RuntimeException | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			synchronized (this) {
+				flights.remove(flightKey, flight);
+			}
+		}
+	}
+
+	public synchronized long computed() {
+		return computed;
+	}
+
+	public synchronized long coalesced() {
+		return coalesced;
+	}
+
+	public synchronized String toString() {
+		return String.format("computed = %d; coalesced = %d; in flight = %d", computed, coalesced, flights.size());
+	}
+
+	private V await(CompletableFuture<V> flight) {
+		try {
+			return flight.join();
+		} catch (CompletionException e) {
+			// A EXCECAO DA COMPUTACAO E LANCADA TAMBEM A QUEM ESPERAVA POR ELA
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw e;
+		}
+	}
+
+	private static class Key {
+		final Object key, version;
+
+		Key(Object key, Object version) {
+			this.key = key;
+			this.version = version;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && ((Key) other).key.equals(key) && ((Key) other).version == version;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(key, System.identityHashCode(version));
+		}
+	}
+}
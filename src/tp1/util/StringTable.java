@@ -0,0 +1,62 @@
+package tp1.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *
+ * Pool of the strings of a spreadsheet. Equal strings are stored once: every cell holding one refers to the same
+ * instance, whose references are counted so it can be discarded once all of them are released.
+ *
+ * Cells keep the instances themselves rather than ids into the table, so the snapshots of a CellStorage, which
+ * share its chunks, still read their strings after the table discards or reuses them.
+ *
+ */
+class StringTable {
+
+	private final Map<String, Entry> entries;
+
+	StringTable() {
+		entries = new HashMap<String, Entry>();
+	}
+
+	/**
+	 * Adds a reference to a string.
+	 * @return the instance of the string kept by the table.
+	 */
+	String acquire(String value) {
+		Entry entry = entries.get(value);
+		if (entry == null) {
+			entry = new Entry(value);
+			entries.put(value, entry);
+		}
+
+		entry.refs++;
+		return entry.value;
+	}
+
+	/**
+	 * Removes a reference to a string, discarding it if it was the last one.
+	 */
+	void release(String value) {
+		Entry entry = entries.get(value);
+		if (--entry.refs == 0)
+			entries.remove(value);
+	}
+
+	/**
+	 * The number of distinct strings in the table.
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	private static class Entry {
+		final String value;
+		int refs;
+
+		Entry(String value) {
+			this.value = value;
+		}
+	}
+}
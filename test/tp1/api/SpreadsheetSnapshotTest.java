@@ -0,0 +1,185 @@
+package tp1.api;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.impl.storage.CellFiles;
+import tp1.util.BinaryValues;
+import tp1.util.CellStorage;
+import tp1.util.SheetLocks;
+
+/**
+ *
+ * Checks the versions published by the updates of a sheet: they never change, are read without locks without
+ * seeing an update half done, and tell which cells changed between them. Sheets whose cells keep no versions are
+ * copied instead. The values of a version without formulas are written row by row as their matrix.
+ *
+ */
+public class SpreadsheetSnapshotTest {
+
+	private static final int ROWS = 500, COLS = 20;
+
+	@Test
+	public void snapshotsNeverSeeTornRows() throws InterruptedException {
+		Spreadsheet sheet = sheet();
+		SheetLocks locks = new SheetLocks();
+
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicLong reads = new AtomicLong(), torn = new AtomicLong(), older = new AtomicLong();
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int r = 0; r < 3; r++) {
+			Thread reader = new Thread(() -> {
+				long last = -1;
+				while (!done.get()) {
+					Spreadsheet version = sheet.snapshot();
+					if (version.version() < last)
+						older.incrementAndGet();
+					last = version.version();
+
+					for (String[] row : version.plainValues())
+						for (String value : row)
+							if (!value.equals(row[0])) {
+								torn.incrementAndGet();
+								break;
+							}
+					reads.incrementAndGet();
+				}
+			});
+			readers.add(reader);
+			reader.start();
+		}
+
+		// CADA ATUALIZACAO PASSA UMA LINHA INTEIRA A TER O MESMO VALOR, COMO UM UPDATECELLS
+		List<int[]> indexes = new ArrayList<int[]>(COLS);
+		for (int i = 1; i <= 2000; i++) {
+			int row = i % ROWS;
+			indexes.clear();
+			for (int col = 0; col < COLS; col++)
+				indexes.add(new int[] { row, col });
+
+			Lock lock = locks.write(sheet.getSheetId());
+			try {
+				sheet.setCellRawValues(indexes, Collections.nCopies(COLS, Integer.toString(i)));
+			} finally {
+				lock.unlock();
+			}
+			if (i % 100 == 0)
+				Thread.yield();
+		}
+		done.set(true);
+		for (Thread reader : readers)
+			reader.join();
+
+		assertTrue(reads.get() > 0, "the readers read the sheet");
+		assertEquals(0, torn.get(), "torn reads");
+		assertEquals(0, older.get(), "versions older than the previous one");
+	}
+
+	@Test
+	public void snapshotNeverChanges() {
+		Spreadsheet sheet = sheet();
+		Spreadsheet before = sheet.snapshot();
+		String[][] values = before.plainValues();
+
+		sheet.setCellRawValue("A1", "changed");
+		sheet.setCellRawValue("T500", "=A1");
+
+		assertArrayEquals(values, before.plainValues());
+		assertSame(before, before.snapshot());
+		assertNotSame(before, sheet.snapshot());
+		assertEquals(before.version() + 2, sheet.snapshot().version());
+		assertEquals("changed", sheet.snapshot().getCellRawValue(0, 0));
+	}
+
+	@Test
+	public void changedCellsAreVisited() {
+		Spreadsheet sheet = sheet();
+		Spreadsheet before = sheet.snapshot();
+
+		sheet.setCellRawValue("B3", "1");
+		sheet.setCellRawValue("T500", "");
+		Spreadsheet after = sheet.snapshot();
+
+		Set<String> visited = new HashSet<String>();
+		assertTrue(after.forEachChangedCell(before, (row, col) -> visited.add(row + "," + col)));
+		assertTrue(visited.contains("2,1"), "B3 was visited");
+		assertTrue(visited.contains("499,19"), "T500 was visited");
+
+		visited.clear();
+		assertTrue(after.forEachChangedCell(after, (row, col) -> visited.add(row + "," + col)));
+		assertEquals(Set.of(), visited);
+
+		// A FOLHA EM SI NAO E UMA VERSAO
+		assertFalse(sheet.forEachChangedCell(before, (row, col) -> visited.add(row + "," + col)));
+	}
+
+	@Test
+	public void mappedSheetsAreCopied() throws IOException {
+		CellFiles files = new CellFiles(Files.createTempDirectory("snapshot-test"), 0);
+		CellStorage cells = files.newStorage("mapped", ROWS, COLS);
+		for (int row = 0; row < ROWS; row++) {
+			cells.set(row, 0, Integer.toString(row));
+			cells.set(row, 1, "=A" + (row + 1) + "*2");
+		}
+
+		Spreadsheet sheet = sheet();
+		sheet.setCells(cells);
+		assertSame(sheet, sheet.snapshot());
+
+		Spreadsheet copy = sheet.copy();
+		assertArrayEquals(sheet.getRawValues(), copy.getRawValues());
+		assertTrue(copy.hasFormulas());
+
+		sheet.setCellRawValue("A1", "99");
+		assertEquals("0", copy.getCellRawValue(0, 0));
+
+		// DUAS COPIAS NAO PARTILHAM CELULAS, POR ISSO TODAS AS CELULAS PREENCHIDAS CONTAM COMO ALTERADAS
+		Set<String> visited = new HashSet<String>();
+		assertTrue(sheet.copy().forEachChangedCell(copy, (row, col) -> visited.add(row + "," + col)));
+		assertEquals(2 * ROWS, visited.size());
+
+		files.release(cells);
+	}
+
+	@Test
+	public void plainValuesAreWrittenAsTheirMatrix() throws IOException {
+		Spreadsheet sheet = sheet();
+		List<int[]> indexes = List.of(new int[] { 0, 0 }, new int[] { 1, 1 }, new int[] { 2, 2 }, new int[] { 3, 3 });
+		sheet.setCellRawValues(indexes, List.of("1.50", "TRUE", "text", ""));
+		Spreadsheet version = sheet.snapshot();
+
+		// AS LINHAS LIDAS DAS CELULAS SAO AS MESMAS DA MATRIZ DOS VALORES
+		ByteArrayOutputStream rows = new ByteArrayOutputStream(), matrix = new ByteArrayOutputStream();
+		BinaryValues.writeValues(SpreadsheetValues.plain(version), rows);
+		BinaryValues.writeValues(version.plainValues(), matrix);
+		assertArrayEquals(matrix.toByteArray(), rows.toByteArray());
+		assertArrayEquals(version.plainValues(), BinaryValues.readValues(new ByteArrayInputStream(rows.toByteArray())));
+	}
+
+	private static Spreadsheet sheet() {
+		String[][] raw = new String[ROWS][COLS];
+		for (String[] row : raw)
+			Arrays.fill(row, "0");
+		return new Spreadsheet("sheet", "owner", "sheet", ROWS, COLS, null, raw);
+	}
+}
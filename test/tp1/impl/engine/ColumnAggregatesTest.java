@@ -0,0 +1,133 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.impl.engine.formula.FormulaException;
+
+/**
+ *
+ * Checks that the aggregates computed with the column aggregates (SUM, AVERAGE, MIN, MAX and COUNT of long ranges)
+ * are the same as the ones computed by scanning every cell of the range, for full computations and after updates.
+ *
+ */
+public class ColumnAggregatesTest {
+
+	private static final int ROWS = 300, COLS = 7;
+	private static final String[] FUNCTIONS = { "SUM", "AVERAGE", "MIN", "MAX", "COUNT" };
+
+	@AfterEach
+	public void enableAggregates() {
+		ColumnAggregates.enabled = true;
+	}
+
+	@Test
+	public void aggregatesMatchScanning() throws FormulaException {
+		for (long seed = 1; seed <= 5; seed++) {
+			Sheet sheet = new Sheet(randomSheet(new Random(seed)));
+			assertArrayEquals(compute(new SheetGraph(ROWS, COLS, null), sheet, false),
+					compute(new SheetGraph(ROWS, COLS, null), sheet, true), "seed " + seed);
+		}
+	}
+
+	@Test
+	public void updatedAggregatesMatchScanning() throws FormulaException {
+		Random random = new Random(42);
+		Sheet sheet = new Sheet(randomSheet(random));
+		SheetGraph scanning = new SheetGraph(ROWS, COLS, null), indexed = new SheetGraph(ROWS, COLS, null);
+		compute(scanning, sheet, false);
+		compute(indexed, sheet, true);
+
+		for (int i = 0; i < 200; i++) {
+			int row = random.nextInt(ROWS), col = random.nextInt(2);
+			sheet.raw[row][col] = randomValue(random);
+			scanning.invalidate(row, col);
+			indexed.invalidate(row, col);
+
+			assertArrayEquals(compute(scanning, sheet, false), compute(indexed, sheet, true),
+					"after " + (char) ('A' + col) + (row + 1) + " = " + sheet.raw[row][col]);
+		}
+	}
+
+	private static String[][] compute(SheetGraph graph, Sheet sheet, boolean aggregates) throws FormulaException {
+		ColumnAggregates.enabled = aggregates;
+		return graph.compute(sheet);
+	}
+
+	/**
+	 * Values in the first two columns, the double of the first column in the third, and aggregates of random
+	 * ranges of the first three columns in the others, short and long, over one or more columns.
+	 */
+	private static String[][] randomSheet(Random random) {
+		String[][] raw = new String[ROWS][COLS];
+		for (int row = 0; row < ROWS; row++) {
+			raw[row][0] = randomValue(random);
+			raw[row][1] = randomValue(random);
+			raw[row][2] = "=A" + (row + 1) + "*2";
+			for (int col = 3; col < COLS; col++) {
+				int top = random.nextInt(ROWS), bottom = Math.min(ROWS - 1, top + random.nextInt(ROWS / 2));
+				int left = random.nextInt(3), right = left + random.nextInt(3 - left);
+				raw[row][col] = String.format("=%s(%c%d:%c%d)", FUNCTIONS[random.nextInt(FUNCTIONS.length)],
+						'A' + left, top + 1, 'A' + right, bottom + 1);
+			}
+		}
+		return raw;
+	}
+
+	private static String randomValue(Random random) {
+		switch (random.nextInt(10)) {
+		case 0:
+			return "";
+		case 1:
+			return "text";
+		case 2:
+			return "true";
+		case 3:
+			return random.nextInt(50) == 0 ? "=1/0" : "0.1";
+		case 4:
+			return Double.toString(random.nextDouble() * 100);
+		case 5:
+			return Long.toString(random.nextLong() >> random.nextInt(64));
+		default:
+			return Integer.toString(random.nextInt(2000) - 1000);
+		}
+	}
+
+	private static class Sheet implements AbstractSpreadsheet {
+		final String[][] raw;
+
+		Sheet(String[][] raw) {
+			this.raw = raw;
+		}
+
+		@Override
+		public String sheetId() {
+			return "aggregates";
+		}
+
+		@Override
+		public int rows() {
+			return raw.length;
+		}
+
+		@Override
+		public int columns() {
+			return raw[0].length;
+		}
+
+		@Override
+		public String cellRawValue(int row, int col) {
+			return raw[row][col];
+		}
+
+		@Override
+		public String[][] getRangeValues(String sheetURL, String range) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.impl.engine.formula.FormulaException;
+import tp1.util.CellRange;
+
+/**
+ *
+ * Checks that the native engine computes the same values as GemBox (SpreadsheetEngineImpl), rendered the same way,
+ * for a corpus of sheets covering the supported functions, errors, cycles, importrange and the formatting of
+ * numbers. Sheets are evaluated by SheetGraph and RangeEvaluator directly, so a formula the native engine cannot
+ * compile fails the check instead of silently falling back to GemBox.
+ *
+ * GemBox is used with its free license, which limits sheets to 150 rows.
+ *
+ */
+public class NativeEngineConformanceTest {
+
+	private static final String OTHER_SHEET = "https://other:8080/rest/spreadsheets/other";
+	private static final String MISSING_SHEET = "https://missing:8080/rest/spreadsheets/missing";
+
+	@Test
+	public void sheetValuesMatchGemBox() throws FormulaException {
+		List<String> mismatches = new ArrayList<String>();
+		for (Map.Entry<String, String[][]> c : corpus().entrySet()) {
+			Sheet sheet = new Sheet(c.getKey(), c.getValue());
+			compare(sheet, gembox(sheet), nativeGraph(sheet).compute(sheet), mismatches);
+		}
+		check(mismatches);
+	}
+
+	@Test
+	public void rangeValuesMatchGemBox() throws FormulaException {
+		List<String> mismatches = new ArrayList<String>();
+		for (Map.Entry<String, String[][]> c : corpus().entrySet()) {
+			Sheet sheet = new Sheet(c.getKey(), c.getValue());
+			CellRange range = new CellRange("A1:" + cellName(sheet.rows() / 2, sheet.columns() - 1));
+
+			String[][] expected = range.extractRangeValuesFrom(gembox(sheet));
+			compare(sheet, expected, new RangeEvaluator(sheet).compute(range), mismatches);
+			compare(sheet, expected, nativeGraph(sheet).computeRange(sheet, range), mismatches);
+		}
+		check(mismatches);
+	}
+
+	@Test
+	public void updatedValuesMatchGemBox() throws FormulaException {
+		List<String> mismatches = new ArrayList<String>();
+		for (Map.Entry<String, String[][]> c : corpus().entrySet()) {
+			Sheet sheet = new Sheet(c.getKey(), c.getValue());
+			SheetGraph graph = nativeGraph(sheet);
+			graph.compute(sheet);
+
+			// CADA CELULA NUMERICA PASSA A ERRO, E DEPOIS A OUTRO NUMERO
+			for (String raw : new String[] { "=1/0", "7" })
+				for (int row = 0; row < sheet.rows(); row++)
+					for (int col = 0; col < sheet.columns(); col++)
+						if (isNumber(sheet.raw[row][col])) {
+							sheet.raw[row][col] = raw;
+							graph.invalidate(row, col);
+							compare(sheet, gembox(sheet), graph.compute(sheet), mismatches);
+							break;
+						}
+		}
+		check(mismatches);
+	}
+
+	@Test
+	public void corpusHasNoFallbacks() {
+		for (Map.Entry<String, String[][]> c : corpus().entrySet()) {
+			Sheet sheet = new Sheet(c.getKey(), c.getValue());
+			try {
+				nativeGraph(sheet).compute(sheet);
+			} catch (FormulaException e) {
+				fail(c.getKey() + " is not computed natively: " + e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void countSkipsErrors() throws FormulaException {
+		String[][] raw = column(40, "=COUNT(A1:A40)", "=COUNT(A1:A8)");
+		raw[4][0] = "=1/0";
+		Sheet sheet = new Sheet("count", raw);
+
+		String[][] values = nativeGraph(sheet).compute(sheet);
+		assertTrue("39.0".equals(values[0][1]), "COUNT over the aggregates: " + values[0][1]);
+		assertTrue("7.0".equals(values[1][1]), "COUNT cell by cell: " + values[1][1]);
+	}
+
+	@Test
+	public void sheetsWithoutSnapshotsAreReloaded() throws FormulaException {
+		Sheet old = new Sheet("stale", new String[][] { { "1", "=A1*2" } });
+		SheetGraph graph = nativeGraph(old);
+		graph.compute(old);
+
+		// A LEITURA DESCARREGOU A FOLHA ANTES DA ATUALIZACAO, MAS SO A AVALIA DEPOIS DA NOTIFICACAO
+		Sheet updated = new Sheet("stale", new String[][] { { "5", "=A1*2" } });
+		graph.invalidate(0, 0);
+		graph.compute(new Sheet("stale", new String[][] { { "1", "=A1*2" } }));
+
+		String[][] values = graph.compute(updated);
+		assertTrue("10.0".equals(values[0][1]), "value after the stale read: " + values[0][1]);
+
+		// AS CELULAS QUE FICARAM VAZIAS TAMBEM SAO RECARREGADAS
+		values = graph.compute(new Sheet("stale", new String[][] { { "", "=A1*2" } }));
+		assertTrue("".equals(values[0][0]) && "0.0".equals(values[0][1]), "values after clearing A1: " + values[0][1]);
+	}
+
+	/**
+	 * The sheets of the corpus, by name.
+	 */
+	private static Map<String, String[][]> corpus() {
+		Map<String, String[][]> corpus = new LinkedHashMap<String, String[][]>();
+
+		corpus.put("arithmetic", new String[][] {
+				{ "1", "2", "=A1+B1", "=A1-B1*3", "=(A1-B1)*3" },
+				{ "=A1/B1", "=B1^10", "=-A1+4", "=C1/0", "=2^0.5" },
+				{ "3.5", "-2", "=A3*B3", "=A3/B3", "=A3-A3" },
+				{ "", "=A4+1", "=A4*2", "=E2*E2", "=B2-1024" } });
+
+		corpus.put("functions", new String[][] {
+				{ "4", "-2.5", "9", "text", "TRUE" },
+				{ "=SUM(A1:C1)", "=PRODUCT(A1:C1)", "=COUNT(A1:E1)", "=COUNTA(A1:E1)", "=AVERAGE(A1:C1)" },
+				{ "=MIN(A1:C1)", "=MAX(A1:C1)", "=ABS(B1)", "=INT(B1)", "=SQRT(C1)" },
+				{ "=ROUND(B1,0)", "=ROUND(2.345,2)", "=MOD(C1,A1)", "=MOD(-7,3)", "=POWER(A1,3)" },
+				{ "=CONCATENATE(D1,\"-\",D1)", "=LEN(D1)", "=UPPER(D1)", "=LOWER(\"MiXeD\")", "=IF(A1>C1,\"big\",\"small\")" },
+				{ "=AND(E1,A1>0)", "=OR(FALSE,A1<0)", "=NOT(E1)", "=IF(E1,A1)", "=SUM(A1,B1,10)" },
+				{ "=MIN(D1:E1)", "=MAX(D1:E1)", "=AVERAGE(D1:E1)", "=COUNT(D1:E1)", "=SUM(F1:F9)" } });
+
+		corpus.put("errors", new String[][] {
+				{ "=1/0", "=SQRT(-1)", "=\"a\"+1", "=A1+1", "=SUM(A1:C1)" },
+				{ "=COUNT(A1:D1)", "=COUNTA(A1:D1)", "=IF(A1,1,2)", "=IF(TRUE,1,A1)", "=MOD(1,0)" },
+				{ "=AVERAGE(F1:F2)", "=MIN(A1,1)", "=POWER(-1,0.5)", "=LEN(A1)", "=ROUND(A1,1)" } });
+
+		corpus.put("cycles", new String[][] {
+				{ "=B1+1", "=A1+1", "=C1", "=D2", "=1" },
+				{ "=A1*2", "=SUM(A2:C2)", "=E1+1", "=C2", "=E1" } });
+
+		corpus.put("importrange", new String[][] {
+				{ "=importrange(\"" + OTHER_SHEET + "\",\"A1:B2\")", "", "=A1*10", "=B2", "" },
+				{ "", "", "=importrange(\"" + MISSING_SHEET + "\",\"A1:A1\")", "=C2", "" },
+				{ "=importrange(\"" + OTHER_SHEET + "\",\"C1:C1\")", "=A3&\"!\"", "", "", "" } });
+
+		corpus.put("numbers", new String[][] {
+				{ "=0.1+0.2", "=1/3", "=10^20", "=2^-30", "=-0" },
+				{ "=123456789*1000", "=7/2", "=100000000*100000000", "=1/8", "=0-0.5" },
+				{ "1e3", "0.000001", "=A3*1", "=B3*1", "=-1e-7" },
+				{ "10", "10.0", "=A4=B4", "=A4&B4", "=2/3*3" } });
+
+		corpus.put("text", new String[][] {
+				{ "abc", "ABC", "=A1=B1", "=A1<B1", "=A1&B1" },
+				{ "=TRUE+1", "=\"2\"+3", "=A1>1", "=CONCATENATE(1.5,\"x\",2)", "=LEN(12.5)" },
+				{ "TRUE", "false", "=A3", "=B3", "=AND(A3,B3)" } });
+
+		// MAIS DE 16 LINHAS, PARA PASSAR PELOS AGREGADOS DAS COLUNAS
+		String[][] aggregates = column(40, "=SUM(A1:A40)", "=AVERAGE(A1:A40)", "=MIN(A1:A40)", "=MAX(A1:A40)",
+				"=COUNT(A1:A40)", "=SUM(A1:B40)", "=COUNT(A1:B40)");
+		aggregates[10][0] = "0.5";
+		aggregates[20][0] = "text";
+		corpus.put("aggregates", aggregates);
+
+		String[][] aggregateErrors = column(40, "=SUM(A1:A40)", "=MIN(A1:A40)", "=COUNT(A1:A40)", "=AVERAGE(A1:A40)");
+		aggregateErrors[30][0] = "=1/0";
+		corpus.put("aggregate errors", aggregateErrors);
+
+		return corpus;
+	}
+
+	/**
+	 * A sheet with the numbers 1 to rows in column A and the given formulas in the first rows of column B.
+	 */
+	private static String[][] column(int rows, String... formulas) {
+		String[][] raw = new String[rows][2];
+		for (int row = 0; row < rows; row++) {
+			raw[row][0] = Integer.toString(row + 1);
+			raw[row][1] = row < formulas.length ? formulas[row] : "";
+		}
+		return raw;
+	}
+
+	private static String[][] gembox(Sheet sheet) {
+		return SpreadsheetEngineImpl.getInstance().computeSpreadsheetValues(sheet);
+	}
+
+	private static SheetGraph nativeGraph(Sheet sheet) {
+		return new SheetGraph(sheet.rows(), sheet.columns(), ForkJoinPool.commonPool());
+	}
+
+	private static void compare(Sheet sheet, String[][] expected, String[][] actual, List<String> mismatches) {
+		for (int row = 0; row < expected.length; row++)
+			for (int col = 0; col < expected[row].length; col++)
+				if (!expected[row][col].equals(actual[row][col]))
+					mismatches.add(String.format("%s!%s %s: gembox <%s>, native <%s>", sheet.sheetId(),
+							cellName(row, col), sheet.raw[row][col], expected[row][col], actual[row][col]));
+	}
+
+	private static void check(List<String> mismatches) {
+		if (!mismatches.isEmpty())
+			fail(mismatches.size() + " values differ:\n" + String.join("\n", mismatches));
+	}
+
+	private static String cellName(int row, int col) {
+		return (char) ('A' + col) + Integer.toString(row + 1);
+	}
+
+	private static boolean isNumber(String raw) {
+		return !raw.isEmpty() && Character.isDigit(raw.charAt(0));
+	}
+
+	private static class Sheet implements AbstractSpreadsheet {
+		final String sheetId;
+		final String[][] raw;
+
+		Sheet(String sheetId, String[][] raw) {
+			this.sheetId = sheetId;
+			this.raw = raw;
+		}
+
+		@Override
+		public int rows() {
+			return raw.length;
+		}
+
+		@Override
+		public int columns() {
+			return raw[0].length;
+		}
+
+		@Override
+		public String sheetId() {
+			return sheetId;
+		}
+
+		@Override
+		public String cellRawValue(int row, int col) {
+			return raw[row][col];
+		}
+
+		@Override
+		public String[][] getRangeValues(String sheetURL, String range) {
+			if (!sheetURL.equals(OTHER_SHEET))
+				return null;
+			String[][] other = { { "1", "2.5", "imported" }, { "2.0", "true", "" } };
+			return new CellRange(range).extractRangeValuesFrom(other);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.impl.engine.formula.FormulaException;
+
+/**
+ *
+ * Checks that evaluating the formulas of a sheet in parallel, level by level, computes the same values as
+ * evaluating them serially, for full computations and after updates.
+ *
+ */
+public class ParallelEvaluationTest {
+
+	private static final int ROWS = 400, COLS = 8;
+
+	private ForkJoinPool pool;
+
+	@BeforeEach
+	public void createPool() {
+		pool = new ForkJoinPool(4);
+	}
+
+	@AfterEach
+	public void shutdownPool() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void parallelValuesMatchSerialValues() throws FormulaException {
+		Sheet sheet = new Sheet(formulaSheet());
+		assertTrue(ROWS * (COLS - 1) >= SheetGraph.PARALLEL_THRESHOLD, "the sheet is evaluated in parallel");
+
+		String[][] serial = new SheetGraph(ROWS, COLS, null).compute(sheet);
+		String[][] parallel = new SheetGraph(ROWS, COLS, pool).compute(sheet);
+
+		assertArrayEquals(serial, parallel);
+	}
+
+	@Test
+	public void parallelUpdatesMatchSerialValues() throws FormulaException {
+		Sheet sheet = new Sheet(formulaSheet());
+		SheetGraph serial = new SheetGraph(ROWS, COLS, null), parallel = new SheetGraph(ROWS, COLS, pool);
+		serial.compute(sheet);
+		parallel.compute(sheet);
+
+		// UMA ALTERACAO NO TOPO DA PRIMEIRA COLUNA AFETA QUASE TODAS AS FORMULAS
+		for (String raw : new String[] { "=1/0", "12", "=H400" }) {
+			sheet.raw[0][0] = raw;
+			serial.invalidate(0, 0);
+			parallel.invalidate(0, 0);
+
+			assertArrayEquals(serial.compute(sheet), parallel.compute(sheet), "after A1 = " + raw);
+		}
+	}
+
+	/**
+	 * Numbers in the first column, running sums in the second and chains of formulas in the others, each
+	 * depending on the column to its left, with some errors along the way.
+	 */
+	private static String[][] formulaSheet() {
+		String[][] raw = new String[ROWS][COLS];
+		for (int row = 0; row < ROWS; row++) {
+			raw[row][0] = row % 50 == 49 ? "text" : Integer.toString(row % 97);
+			raw[row][1] = String.format("=SUM(A1:A%d)", row + 1);
+			for (int col = 2; col < COLS; col++) {
+				String left = (char) ('A' + col - 1) + Integer.toString(row + 1);
+				raw[row][col] = String.format("=ROUND(SQRT(ABS(%s))*1.5+MOD(%s,7),2)", left, left);
+			}
+		}
+		return raw;
+	}
+
+	private static class Sheet implements AbstractSpreadsheet {
+		final String[][] raw;
+
+		Sheet(String[][] raw) {
+			this.raw = raw;
+		}
+
+		@Override
+		public String sheetId() {
+			return "parallel";
+		}
+
+		@Override
+		public int rows() {
+			return raw.length;
+		}
+
+		@Override
+		public int columns() {
+			return raw[0].length;
+		}
+
+		@Override
+		public String cellRawValue(int row, int col) {
+			return raw[row][col];
+		}
+
+		@Override
+		public String[][] getRangeValues(String sheetURL, String range) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package tp1.impl.engine;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.api.engine.AbstractSpreadsheet;
+import tp1.api.engine.SpreadsheetEngine;
+import tp1.api.engine.SpreadsheetEngineProvider;
+
+/**
+ *
+ * Checks the selection of the engine by name, and that every built in engine computes the same values as the
+ * default one, through the SpreadsheetEngine interface used by the servers.
+ *
+ */
+public class SpreadsheetEnginesTest {
+
+	// LIMITE DA LICENCA GRATUITA DO GEMBOX
+	private static final int ROWS = 150;
+
+	@Test
+	public void defaultEngineIsNative() {
+		assertSame(NativeSpreadsheetEngine.getInstance(), SpreadsheetEngines.getEngine(SpreadsheetEngines.DEFAULT_ENGINE));
+	}
+
+	@Test
+	public void enginesAreSelectedByName() {
+		assertSame(NativeSpreadsheetEngine.getInstance(), SpreadsheetEngines.getEngine("NATIVE"));
+		assertSame(SpreadsheetEngineImpl.getInstance(), SpreadsheetEngines.getEngine("gembox"));
+		assertSame(ResidentWorkbookEngine.getInstance(), SpreadsheetEngines.getEngine("GemBox-Resident"));
+	}
+
+	@Test
+	public void unknownEngineFallsBackToDefault() {
+		assertSame(NativeSpreadsheetEngine.getInstance(), SpreadsheetEngines.getEngine("no-such-engine"));
+	}
+
+	@Test
+	public void builtinProvidersComeFirst() {
+		List<String> names = new ArrayList<String>();
+		for (SpreadsheetEngineProvider provider : SpreadsheetEngines.providers())
+			names.add(provider.name());
+
+		assertEquals(List.of("native", "gembox", "gembox-resident"), names.subList(0, 3));
+	}
+
+	@Test
+	public void builtinEnginesComputeTheSameValues() {
+		SpreadsheetEngine reference = SpreadsheetEngines.getEngine(SpreadsheetEngines.DEFAULT_ENGINE);
+
+		for (AbstractSpreadsheet sheet : corpus()) {
+			String[][] expected = compute(reference, sheet);
+
+			for (SpreadsheetEngineProvider provider : SpreadsheetEngines.providers().subList(1, 3))
+				assertArrayEquals(expected, compute(provider.engine(), sheet), provider.name() + " " + sheet.sheetId());
+		}
+	}
+
+	/**
+	 * Computes the sheet from scratch, discarding any state the engine kept from previous computations.
+	 */
+	private static String[][] compute(SpreadsheetEngine engine, AbstractSpreadsheet sheet) {
+		engine.sheetDeleted(sheet.sheetId());
+		return engine.computeSpreadsheetValues(sheet);
+	}
+
+	/**
+	 * Constants only, arithmetic chains, aggregates over ranges, and a mix of text, booleans, conditions and errors.
+	 */
+	private static List<AbstractSpreadsheet> corpus() {
+		List<AbstractSpreadsheet> corpus = new ArrayList<AbstractSpreadsheet>();
+
+		String[][] constants = new String[ROWS][6];
+		for (int row = 0; row < ROWS; row++)
+			for (int col = 0; col < 6; col++)
+				constants[row][col] = (row * 31 + col) % 5 == 0 ? "" : Integer.toString(row * 10 + col);
+		corpus.add(sheet("constants", constants));
+
+		String[][] chains = new String[ROWS][6];
+		for (int row = 0; row < ROWS; row++) {
+			chains[row][0] = Integer.toString(row % 97);
+			for (int col = 1; col < 6; col++) {
+				String left = (char) ('A' + col - 1) + Integer.toString(row + 1);
+				chains[row][col] = String.format("=ROUND(SQRT(ABS(%s))*1.5+MOD(%s,7),2)", left, left);
+			}
+		}
+		corpus.add(sheet("chains", chains));
+
+		String[][] aggregates = new String[ROWS][5];
+		for (int row = 0; row < ROWS; row++) {
+			aggregates[row][0] = row % 40 == 39 ? "=1/0" : Integer.toString((row * 7919) % 1000);
+			aggregates[row][1] = String.format("=SUM(A1:A%d)", row + 1);
+			aggregates[row][2] = String.format("=AVERAGE(A1:A%d)", row + 1);
+			aggregates[row][3] = String.format("=MAX(A%d:A%d)", Math.max(1, row - 9), row + 1);
+			aggregates[row][4] = String.format("=COUNT(A1:B%d)", row + 1);
+		}
+		corpus.add(sheet("aggregates", aggregates));
+
+		String[][] mixed = new String[ROWS][6];
+		for (int row = 0; row < ROWS; row++) {
+			int r = row + 1;
+			mixed[row][0] = row % 3 == 0 ? "text " + row : Double.toString(row / 4.0);
+			mixed[row][1] = row % 2 == 0 ? "true" : "false";
+			mixed[row][2] = String.format("=IF(B%d, A%d, 0)", r, r);
+			mixed[row][3] = String.format("=A%d*2", r);
+			mixed[row][4] = String.format("=E%d", r);
+			mixed[row][5] = String.format("=AND(B%d, C%d>1)", r, r);
+		}
+		corpus.add(sheet("mixed", mixed));
+
+		return corpus;
+	}
+
+	private static AbstractSpreadsheet sheet(String sheetId, String[][] raw) {
+		return new AbstractSpreadsheet() {
+
+			@Override
+			public String sheetId() {
+				return "engines-" + sheetId;
+			}
+
+			@Override
+			public int rows() {
+				return raw.length;
+			}
+
+			@Override
+			public int columns() {
+				return raw[0].length;
+			}
+
+			@Override
+			public String cellRawValue(int row, int col) {
+				return raw[row][col];
+			}
+
+			@Override
+			public String[][] getRangeValues(String sheetURL, String range) {
+				return null;
+			}
+		};
+	}
+}
@@ -0,0 +1,170 @@
+package tp1.impl.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import tp1.api.Spreadsheet;
+import tp1.util.CellStorage;
+import tp1.util.SheetLocks;
+
+/**
+ *
+ * Checks that cells kept in memory-mapped files read the same as cells kept in the heap, after random updates,
+ * when moved from the heap, and when recovered from a SheetStore.
+ *
+ */
+public class MappedCellStorageTest {
+
+	private static final String[] VALUES = { "", "1", "1.50", "-0", "1e3", "NaN", "TRUE", "false", "=A1+1",
+			"=importrange(\"http://host/rest/spreadsheets/s\",\"A1:B2\")", "héllo ✓", "x".repeat(5000) };
+
+	private Path dir;
+	private CellFiles files;
+
+	@BeforeEach
+	public void createFiles() throws IOException {
+		dir = Files.createTempDirectory("mapped-cells-test");
+		files = new CellFiles(dir.resolve("cells"), 0);
+	}
+
+	@AfterEach
+	public void deleteFiles() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void mappedCellsMatchHeapCells() {
+		int rows = 700, cols = 37;
+		CellStorage heap = new CellStorage(rows, cols), mapped = files.newStorage("random", rows, cols);
+		assertTrue(mapped instanceof MappedCellStorage, "the cells are mapped");
+
+		Random random = new Random(7);
+		for (int i = 0; i < 100000; i++) {
+			int row = random.nextInt(rows), col = random.nextInt(cols);
+			String raw = random.nextInt(10) == 0 ? "t" + random.nextInt(100000) : VALUES[random.nextInt(VALUES.length)];
+			heap.set(row, col, raw);
+			mapped.set(row, col, raw);
+		}
+		assertSameCells(heap, mapped);
+
+		// AS CELULAS APAGADAS DEIXAM DE CONTAR
+		for (int row = 0; row < rows; row++)
+			for (int col = 0; col < cols; col++)
+				mapped.set(row, col, "");
+		assertEquals(0, mapped.populated());
+		assertEquals(0, mapped.formulas());
+
+		files.release(mapped);
+	}
+
+	@Test
+	public void movedCellsMatchHeapCells() {
+		CellStorage heap = new CellStorage(300, 20);
+		for (int row = 0; row < 300; row++)
+			heap.set(row, row % 20, VALUES[row % VALUES.length]);
+
+		// AS FOLHAS COM FORMULAS FICAM EM MEMORIA
+		assertSame(heap, files.map("moved", heap));
+		for (int row = 0; row < 300; row++)
+			if (VALUES[row % VALUES.length].startsWith("="))
+				heap.set(row, row % 20, "");
+
+		CellStorage mapped = files.map("moved", heap);
+		assertTrue(mapped instanceof MappedCellStorage, "the cells are mapped");
+		assertSame(mapped, files.map("moved", mapped));
+		assertSame(mapped, files.unmapFormulas(mapped));
+		assertSameCells(heap, mapped);
+
+		// E VOLTAM PARA MEMORIA QUANDO AS GANHAM
+		heap.set(0, 0, "=A2+1");
+		mapped.set(0, 0, "=A2+1");
+		CellStorage unmapped = files.unmapFormulas(mapped);
+		assertTrue(!(unmapped instanceof MappedCellStorage), "the cells are back in the heap");
+		assertSameCells(heap, unmapped);
+	}
+
+	@Test
+	public void recoveredCellsMatchHeapCells() throws IOException, InterruptedException {
+		Map<String, Spreadsheet> sheets = new ConcurrentHashMap<String, Spreadsheet>();
+		SheetStore store = new SheetStore(dir.resolve("store"), 3, false, sheets::values, new SheetLocks());
+		store.recover();
+
+		for (int i = 0; i < 5; i++) {
+			String[][] raw = new String[200][60];
+			raw[i][i] = "=B1*" + i;
+			raw[150][59] = "sheet " + i;
+			Spreadsheet sheet = new Spreadsheet("s" + i, "owner", "https://localhost/rest/spreadsheets/s" + i, 200, 60,
+					new HashSet<String>(), raw);
+			sheets.put(sheet.getSheetId(), sheet);
+			store.logCreate(sheet);
+		}
+		sheets.get("s1").setCellRawValue("C3", "x");
+		store.logUpdate("s1", Map.of("C3", "x"));
+		sheets.remove("s2");
+		store.logDelete("s2");
+
+		// OS SNAPSHOTS SAO ESCRITOS EM SEGUNDO PLANO; O DO ULTIMO SEGMENTO APAGA OS SEGMENTOS E SNAPSHOTS ANTERIORES
+		for (int i = 0; i < 100 && !settled(); i++)
+			Thread.sleep(100);
+		assertTrue(settled(), "snapshot of the last segment");
+
+		Map<String, Spreadsheet> recovered = new SheetStore(dir.resolve("store"), Long.MAX_VALUE, false, null, null)
+				.recover(files);
+
+		assertEquals(sheets.keySet(), recovered.keySet());
+		for (Spreadsheet sheet : sheets.values()) {
+			CellStorage cells = recovered.get(sheet.getSheetId()).cells();
+			assertTrue(cells instanceof MappedCellStorage, "the cells are mapped");
+			assertSameCells(sheet.cells(), cells);
+		}
+	}
+
+	// UM SO SNAPSHOT, DO UNICO SEGMENTO QUE RESTA
+	private boolean settled() throws IOException {
+		try (Stream<Path> paths = Files.list(dir.resolve("store"))) {
+			Object[] names = paths.map(path -> path.getFileName().toString()).sorted().toArray();
+			return names.length == 2
+					&& names[1].equals("wal-" + names[0].toString().replaceAll("snapshot-(.*)\\.bin", "$1.log"));
+		}
+	}
+
+	private static void assertSameCells(CellStorage expected, CellStorage cells) {
+		assertArrayEquals(expected.toRawValues(), cells.toRawValues());
+		assertArrayEquals(expected.toValues(), cells.toValues());
+		assertEquals(expected.populated(), cells.populated());
+		assertEquals(expected.formulas(), cells.formulas());
+
+		for (int row = 0; row < expected.rows(); row++)
+			for (int col = 0; col < expected.columns(); col++) {
+				assertEquals(expected.kind(row, col), cells.kind(row, col));
+				assertEquals(Double.doubleToLongBits(expected.number(row, col)),
+						Double.doubleToLongBits(cells.number(row, col)));
+				assertEquals(expected.bool(row, col), cells.bool(row, col));
+			}
+
+		List<String> populated = new ArrayList<String>(), other = new ArrayList<String>();
+		expected.forEachPopulated(3, 2, 500, 30, (row, col) -> populated.add(row + "," + col));
+		cells.forEachPopulated(3, 2, 500, 30, (row, col) -> other.add(row + "," + col));
+		assertEquals(populated, other);
+	}
+}
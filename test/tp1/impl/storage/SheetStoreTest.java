@@ -0,0 +1,240 @@
+package tp1.impl.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import tp1.api.Spreadsheet;
+import tp1.util.SheetLocks;
+
+/**
+ *
+ * Checks that the sheets recovered by a SheetStore are the ones its operations left, from the log alone, from a
+ * snapshot and the log written after it, with concurrent writers, and with a torn record at the end of the log.
+ *
+ */
+public class SheetStoreTest {
+
+	private static final int ROWS = 50, COLS = 8;
+
+	private Path dir;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		dir = Files.createTempDirectory("sheet-store-test");
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public void recoversEveryOperationFromTheLog() {
+		Server server = new Server(Long.MAX_VALUE);
+		runOperations(server, new Random(1), 300);
+
+		assertSameSheets(server.sheets, new Server(Long.MAX_VALUE).sheets);
+	}
+
+	@Test
+	public void recoversFromSnapshotAndLog() throws InterruptedException {
+		Server server = new Server(20);
+		runOperations(server, new Random(2), 300);
+
+		awaitSnapshots();
+		assertEquals(1, files("snapshot-").size(), "snapshots");
+		assertEquals(1, files("wal-").size(), "log segments");
+
+		assertSameSheets(server.sheets, new Server(Long.MAX_VALUE).sheets);
+	}
+
+	@Test
+	public void recoversEveryUpdateOfConcurrentWriters() throws InterruptedException {
+		Server server = new Server(100);
+		server.create("shared");
+
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int w = 0; w < COLS; w++) {
+			char col = (char) ('A' + w);
+			Thread writer = new Thread(() -> {
+				for (int i = 0; i < 100; i++)
+					server.update("shared", Map.of(col + Integer.toString(i % ROWS + 1), col + "-" + i));
+			});
+			writers.add(writer);
+			writer.start();
+		}
+		for (Thread writer : writers)
+			writer.join();
+		awaitSnapshots();
+
+		Spreadsheet recovered = new Server(Long.MAX_VALUE).sheets.get("shared");
+		for (int w = 0; w < COLS; w++)
+			for (int row = 0; row < ROWS; row++)
+				assertEquals((char) ('A' + w) + "-" + (row + ROWS), recovered.getRawValues()[row][w]);
+	}
+
+	@Test
+	public void tornRecordEndsReplay() throws IOException {
+		Server server = new Server(Long.MAX_VALUE);
+		runOperations(server, new Random(3), 100);
+
+		// UM REGISTO ESCRITO A MEIO: O CABECALHO ANUNCIA MAIS BYTES DO QUE OS QUE FICARAM NO FICHEIRO
+		List<Path> segments = files("wal-");
+		try (FileChannel wal = FileChannel.open(segments.get(segments.size() - 1), StandardOpenOption.APPEND)) {
+			wal.write(ByteBuffer.allocate(12).putInt(1000).putInt(0).putInt(42).flip());
+		}
+
+		assertSameSheets(server.sheets, new Server(Long.MAX_VALUE).sheets);
+	}
+
+	/**
+	 * Runs random creates, updates, shares, unshares and deletes, as the resources do.
+	 */
+	private static void runOperations(Server server, Random random, int operations) {
+		for (int i = 0; i < operations; i++) {
+			List<String> ids = new ArrayList<String>(server.sheets.keySet());
+			String sheetId = ids.isEmpty() ? null : ids.get(random.nextInt(ids.size()));
+			int operation = sheetId == null ? 0 : random.nextInt(10);
+
+			if (operation == 0)
+				server.create("sheet-" + i);
+			else if (operation == 1)
+				server.delete(sheetId);
+			else if (operation == 2)
+				server.share(sheetId, "user" + random.nextInt(5) + "@domain");
+			else if (operation == 3)
+				server.unshare(sheetId, "user" + random.nextInt(5) + "@domain");
+			else {
+				String cell = (char) ('A' + random.nextInt(COLS)) + Integer.toString(random.nextInt(ROWS) + 1);
+				String[] values = { "", "12", "-0.5", "true", "text", "=A1*2", "=SUM(A1:B10)" };
+				server.update(sheetId, Map.of(cell, values[random.nextInt(values.length)]));
+			}
+		}
+	}
+
+	private static void assertSameSheets(Map<String, Spreadsheet> expected, Map<String, Spreadsheet> recovered) {
+		assertEquals(expected.keySet(), recovered.keySet());
+		for (Spreadsheet sheet : expected.values()) {
+			Spreadsheet other = recovered.get(sheet.getSheetId());
+			assertEquals(sheet.getOwner(), other.getOwner());
+			assertEquals(sheet.getSheetURL(), other.getSheetURL());
+			assertEquals(sheet.getRows(), other.getRows());
+			assertEquals(sheet.getColumns(), other.getColumns());
+			assertEquals(sheet.getSharedWith(), other.getSharedWith());
+			assertArrayEquals(sheet.getRawValues(), other.getRawValues(), sheet.getSheetId());
+		}
+	}
+
+	/**
+	 * Waits for the snapshot of the last log segment, written in the background, which deletes the older segments
+	 * and snapshots.
+	 */
+	private void awaitSnapshots() throws InterruptedException {
+		for (int i = 0; i < 100 && !snapshotOfLastSegment(); i++)
+			Thread.sleep(100);
+	}
+
+	private boolean snapshotOfLastSegment() {
+		List<Path> snapshots = files("snapshot-"), segments = files("wal-");
+		return snapshots.size() == 1 && segments.size() == 1 && snapshots.get(0).getFileName().toString()
+				.replaceAll("snapshot-(.*)\\.bin", "wal-$1.log").equals(segments.get(0).getFileName().toString());
+	}
+
+	private List<Path> files(String prefix) {
+		try (Stream<Path> paths = Files.list(dir)) {
+			List<Path> files = new ArrayList<Path>();
+			paths.filter(path -> path.getFileName().toString().startsWith(prefix)
+					&& !path.getFileName().toString().endsWith(".tmp")).sorted().forEach(files::add);
+			return files;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * The sheets of a server and its store, recovered from the directory of the test when created. Each operation
+	 * is applied and logged under the lock of its sheet, and made durable after releasing it.
+	 */
+	private class Server {
+		final Map<String, Spreadsheet> sheets = new ConcurrentHashMap<String, Spreadsheet>();
+		final SheetLocks locks = new SheetLocks();
+		final SheetStore store;
+
+		Server(long snapshotRecords) {
+			store = new SheetStore(dir, snapshotRecords, true, sheets::values, locks);
+			sheets.putAll(store.recover());
+		}
+
+		void create(String sheetId) {
+			Spreadsheet sheet = new Spreadsheet(sheetId, "owner", "https://localhost/rest/spreadsheets/" + sheetId,
+					ROWS, COLS, new HashSet<String>(), new String[ROWS][COLS]);
+			write(sheetId, () -> {
+				sheets.put(sheetId, sheet);
+				return store.logCreate(sheet);
+			});
+		}
+
+		void update(String sheetId, Map<String, String> cells) {
+			write(sheetId, () -> {
+				Spreadsheet sheet = sheets.get(sheetId);
+				for (var cell : cells.entrySet())
+					sheet.setCellRawValue(cell.getKey(), cell.getValue());
+				return store.logUpdate(sheetId, cells);
+			});
+		}
+
+		void share(String sheetId, String userId) {
+			write(sheetId, () -> sheets.get(sheetId).getSharedWith().add(userId) ? store.logShare(sheetId, userId) : 0);
+		}
+
+		void unshare(String sheetId, String userId) {
+			write(sheetId,
+					() -> sheets.get(sheetId).getSharedWith().remove(userId) ? store.logUnshare(sheetId, userId) : 0);
+		}
+
+		void delete(String sheetId) {
+			write(sheetId, () -> {
+				sheets.remove(sheetId);
+				return store.logDelete(sheetId);
+			});
+		}
+
+		private void write(String sheetId, Operation operation) {
+			long logged;
+			Lock lock = locks.write(sheetId);
+			try {
+				logged = operation.run();
+			} finally {
+				lock.unlock();
+			}
+			store.sync(logged);
+		}
+	}
+
+	private interface Operation {
+		long run();
+	}
+}
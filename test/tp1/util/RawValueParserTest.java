@@ -0,0 +1,107 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * Checks that RawValueParser classifies and parses raw values as the previous classification of
+ * SpreadsheetEngineImpl did: lowercasing the value and detecting numbers with Double.parseDouble.
+ *
+ */
+public class RawValueParserTest {
+
+	private static final String[] CORNER_CASES = { "", " ", "a", "total", "n/a", "TRUE", "true", "False", "fAlSe",
+			"truex", "=", "=A1", "=importrange(\"u\",\"A1\")", "=IMPORTRANGE(\"u\",\"A1\")", "=importrangex", "0", "-0",
+			"+0", "00012", "1.", ".5", "-.5", "+.5", ".", "-", "+", "1.5.2", "12abc", "e10", "1e", "1e+", "1e-3",
+			"1E10", "1e400", "1e-400", "4.9e-324", "2.2250738585072014E-308", "1.7976931348623157E308",
+			"9007199254740993", "123456789012345678901234567890", "0.1", "0.30000000000000004", "3.14159265358979323846",
+			"NaN", "-NaN", "Infinity", "-Infinity", "+Infinity", "infinity", "1d", "1f", "1.5D", "1L", "0x10", "0x1p3",
+			"0X1.8P1", " 12", "12 ", "\t7\n", "1 2", "1,5", "1_000", "١٢", "１２" };
+
+	@Test
+	public void cornerCasesMatchPreviousClassification() {
+		for (String rawValue : CORNER_CASES)
+			check(rawValue);
+	}
+
+	@Test
+	public void randomNumbersMatchDoubleParseDouble() {
+		Random random = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			switch (i % 6) {
+			case 0:
+				check(Integer.toString(random.nextInt()));
+				break;
+			case 1:
+				check(Long.toString(random.nextLong()));
+				break;
+			case 2:
+				check(Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20)));
+				break;
+			case 3:
+				check(Double.toString(Double.longBitsToDouble(random.nextLong())));
+				break;
+			case 4:
+				check((random.nextInt(2000) - 1000) + "." + random.nextInt(100000) + "e" + (random.nextInt(60) - 30));
+				break;
+			default:
+				check(String.format("%.6f", random.nextDouble() * 1000).replace(',', '.'));
+				break;
+			}
+		}
+	}
+
+	@Test
+	public void parserIsReusable() {
+		RawValueParser parser = new RawValueParser();
+		assertEquals(CellStorage.Kind.NUMBER, parser.parse("2.5"));
+		assertEquals(CellStorage.Kind.BOOLEAN, parser.parse("TRUE"));
+		assertEquals(true, parser.bool());
+		assertEquals(CellStorage.Kind.NUMBER, parser.parse("-7"));
+		assertEquals(-7.0, parser.number());
+		assertEquals(CellStorage.Kind.TEXT, parser.parse("text"));
+	}
+
+	private static void check(String rawValue) {
+		RawValueParser parser = new RawValueParser();
+		CellStorage.Kind kind = parser.parse(rawValue);
+
+		assertEquals(previousClassify(rawValue), kind, () -> "kind of <" + rawValue + ">");
+		assertEquals(kind, RawValueParser.classify(rawValue), () -> "classify <" + rawValue + ">");
+		if (kind == CellStorage.Kind.NUMBER) {
+			assertEquals(Double.doubleToLongBits(Double.parseDouble(rawValue)), Double.doubleToLongBits(parser.number()),
+					() -> "number <" + rawValue + ">");
+			assertEquals(Double.doubleToLongBits(Double.parseDouble(rawValue)),
+					Double.doubleToLongBits(RawValueParser.parseNumber(rawValue)), () -> "parseNumber <" + rawValue + ">");
+		}
+		if (kind == CellStorage.Kind.BOOLEAN)
+			assertEquals(Boolean.parseBoolean(rawValue), parser.bool(), () -> "boolean <" + rawValue + ">");
+	}
+
+	/**
+	 * The classification of SpreadsheetEngineImpl before RawValueParser.
+	 */
+	private static CellStorage.Kind previousClassify(String rawVal) {
+		if (rawVal.length() == 0)
+			return CellStorage.Kind.EMPTY;
+
+		rawVal = rawVal.toLowerCase();
+
+		if (rawVal.charAt(0) == '=')
+			return rawVal.startsWith("=importrange") ? CellStorage.Kind.IMPORTRANGE : CellStorage.Kind.FORMULA;
+
+		if (rawVal.equals("true") || rawVal.equals("false"))
+			return CellStorage.Kind.BOOLEAN;
+
+		try {
+			Double.parseDouble(rawVal);
+			return CellStorage.Kind.NUMBER;
+		} catch (Exception x) {
+		}
+		return CellStorage.Kind.TEXT;
+	}
+}
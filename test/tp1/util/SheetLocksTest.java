@@ -0,0 +1,183 @@
+package tp1.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.jupiter.api.Test;
+
+import tp1.api.Spreadsheet;
+
+/**
+ *
+ * Checks that the updates made under the write locks of SheetLocks are not lost, that reads under the read lock
+ * never see an update half done, that the versions of each sheet are recorded in order, and that sheets on
+ * different locks do not wait for each other.
+ *
+ */
+public class SheetLocksTest {
+
+	private static final int SHEETS = 8, ROWS = 20, COLS = 10;
+	private static final int THREADS = 8, UPDATES = 5000;
+
+	@Test
+	public void noUpdateIsLost() throws InterruptedException {
+		Map<String, Spreadsheet> sheets = sheets();
+		SheetLocks locks = new SheetLocks(4);
+		ChangeLog changeLog = new ChangeLog();
+		Map<String, List<Long>> versions = new ConcurrentHashMap<String, List<Long>>();
+		for (String sheetId : sheets.keySet())
+			versions.put(sheetId, new ArrayList<Long>());
+
+		run(THREADS, random -> {
+			String sheetId = "sheet-" + random.nextInt(SHEETS);
+			Lock lock = locks.write(sheetId);
+			try {
+				// LER-MODIFICAR-ESCREVER: SEM EXCLUSAO MUTUA, PERDEM-SE INCREMENTOS
+				Spreadsheet sheet = sheets.get(sheetId);
+				long counter = Long.parseLong(sheet.getCellRawValue(0, 0));
+				sheet.setCellRawValue("A1", Long.toString(counter + 1));
+				versions.get(sheetId).add(changeLog.record(sheetId, 0, 0));
+			} finally {
+				lock.unlock();
+			}
+		});
+
+		long total = 0;
+		for (Spreadsheet sheet : sheets.values()) {
+			total += Long.parseLong(sheet.getCellRawValue(0, 0));
+
+			List<Long> recorded = versions.get(sheet.getSheetId());
+			for (int i = 1; i < recorded.size(); i++)
+				assertTrue(recorded.get(i - 1) < recorded.get(i), "versions of " + sheet.getSheetId() + " in order");
+		}
+		assertEquals((long) THREADS * UPDATES, total);
+	}
+
+	@Test
+	public void readsNeverSeeTornRows() throws InterruptedException {
+		Map<String, Spreadsheet> sheets = sheets();
+		SheetLocks locks = new SheetLocks(4);
+		CellRange row = new CellRange("A2:J2");
+		List<int[]> cells = new ArrayList<int[]>();
+		for (int col = 0; col < COLS; col++)
+			cells.add(new int[] { 1, col });
+
+		AtomicLong torn = new AtomicLong();
+		run(THREADS, random -> {
+			String sheetId = "sheet-" + random.nextInt(SHEETS);
+			if (random.nextBoolean()) {
+				// UMA ATUALIZACAO DE VARIAS CELULAS, COMO UPDATECELLS: TODA A LINHA PASSA A TER O MESMO VALOR
+				Lock lock = locks.write(sheetId);
+				try {
+					sheets.get(sheetId).setCellRawValues(cells, Collections.nCopies(COLS, Integer.toString(random.nextInt())));
+				} finally {
+					lock.unlock();
+				}
+			} else {
+				String[] values;
+				Lock lock = locks.read(sheetId);
+				try {
+					values = sheets.get(sheetId).plainRangeValues(row)[0];
+				} finally {
+					lock.unlock();
+				}
+				for (String value : values)
+					if (!value.equals(values[0]))
+						torn.incrementAndGet();
+			}
+		});
+
+		assertEquals(0, torn.get());
+	}
+
+	@Test
+	public void sameSheetSameLock() {
+		SheetLocks locks = new SheetLocks(16);
+		for (int s = 0; s < 100; s++)
+			assertSame(locks.of("sheet-" + s), locks.of(new String("sheet-" + s)));
+	}
+
+	@Test
+	public void sheetsOnOtherLocksDoNotWait() throws InterruptedException {
+		SheetLocks locks = new SheetLocks(16);
+		String held = "sheet-0", other = null;
+		for (int s = 1; other == null; s++)
+			if (locks.of("sheet-" + s) != locks.of(held))
+				other = "sheet-" + s;
+		assertNotSame(locks.of(held), locks.of(other));
+
+		String free = other;
+		AtomicBoolean updated = new AtomicBoolean();
+		Lock lock = locks.write(held);
+		try {
+			Thread writer = new Thread(() -> {
+				Lock otherLock = locks.write(free);
+				updated.set(true);
+				otherLock.unlock();
+			});
+			writer.start();
+			writer.join(TimeUnit.SECONDS.toMillis(10));
+			assertTrue(updated.get(), "the other sheet was updated while the first was locked");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static Map<String, Spreadsheet> sheets() {
+		Map<String, Spreadsheet> sheets = new ConcurrentHashMap<String, Spreadsheet>();
+		for (int s = 0; s < SHEETS; s++) {
+			String[][] raw = new String[ROWS][COLS];
+			raw[0][0] = "0";
+			String sheetId = "sheet-" + s;
+			sheets.put(sheetId, new Spreadsheet(sheetId, "owner", sheetId, ROWS, COLS, null, raw));
+		}
+		return sheets;
+	}
+
+	/**
+	 * Runs the operation UPDATES times in each of the threads, all started at once.
+	 */
+	private static void run(int threads, Operation operation) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> started = new ArrayList<Thread>();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		for (int t = 0; t < threads; t++) {
+			Random random = new Random(t);
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+					for (int i = 0; i < UPDATES; i++)
+						operation.run(random);
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			});
+			started.add(thread);
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : started)
+			thread.join();
+
+		assertEquals(List.of(), failures);
+	}
+
+	private interface Operation {
+		void run(Random random);
+	}
+}